@@ -0,0 +1,86 @@
+package com.example.jpegscaler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the decoders of the default codec registry on a 12 MP baseline JPEG,
+ * and the ImageIO encoder on its 1024x768 downscale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"imageio", "commons-imaging"})
+    String codec;
+
+    private File source;
+    private SourceTraits traits;
+    private ImageCodec decoder;
+    private ImageCodec encoder;
+    private BufferedImage scaled;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(4000, 3000, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        CodecRegistry registry = CodecRegistry.createDefault();
+        decoder = registry.get(codec);
+        encoder = registry.selectEncoder(codec);
+        source = File.createTempFile("codec-benchmark", ".jpg");
+        try (OutputStream out = Files.newOutputStream(source.toPath())) {
+            encoder.encode(image, out, ScaleOptions.builder().build());
+        }
+        traits = SourceTraits.of(JpegHeader.read(source, MetadataPolicy.STRIP));
+
+        scaled = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+        new Resampler(image.getWidth(), image.getHeight(), 1024, 768, 3)
+                .resample(Resampler.rgbSource(image), Resampler.rgbSink(scaled));
+    }
+
+    @TearDown
+    public void tearDown() {
+        source.delete();
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return decoder.decode(source, traits);
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(scaled, out, ScaleOptions.builder().build());
+        return out.size();
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.jpegscaler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures single-image resampling latency of a 48 MP source over fork/join pools
+ * of increasing parallelism; 1 is the sequential path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ParallelResampleBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    int parallelism;
+
+    @Param({"1024x768", "4000x3000"})
+    String target;
+
+    private BufferedImage source;
+    private BufferedImage destination;
+    private Resampler resampler;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        source = new BufferedImage(8000, 6000, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                source.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        String[] size = target.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        destination = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        resampler = new Resampler(source.getWidth(), source.getHeight(), width, height, 3);
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public BufferedImage resample() {
+        if (parallelism == 1) {
+            resampler.resample(Resampler.rgbSource(source), Resampler.rgbSink(destination));
+        } else {
+            resampler.resample(() -> Resampler.rgbSource(source), Resampler.rgbSink(destination), pool,
+                    CancellationToken.NONE);
+        }
+        return destination;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.jpegscaler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+/**
+ * Measures the wall-clock time of one CLI process, with and without the
+ * class-data-sharing archive produced by the {@code cds} profile. Run after
+ * {@code package} so that the jar and archive exist in {@code target}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"none", "cds"})
+    String archive;
+
+    @Param({"version", "scale"})
+    String command;
+
+    private Path workDir;
+    private List<String> commandLine;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path jsa = findArchive(Paths.get("target"));
+        String jar = jsa.toString().replaceFirst("\\.jsa$", ".jar");
+
+        commandLine = new ArrayList<>();
+        commandLine.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if ("cds".equals(archive)) {
+            commandLine.add("-XX:SharedArchiveFile=" + jsa);
+        }
+        commandLine.add("-jar");
+        commandLine.add(jar);
+
+        if ("version".equals(command)) {
+            commandLine.add("--version");
+        } else {
+            workDir = Files.createTempDirectory("startup-benchmark");
+            File input = workDir.resolve("input.jpg").toFile();
+            ImageIO.write(new BufferedImage(1600, 1200, BufferedImage.TYPE_INT_RGB), "JPEG", input);
+            commandLine.addAll(Arrays.asList("-i", input.getPath(),
+                    "-o", workDir.resolve("output.jpg").toString(), "-w", "200"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (workDir != null) {
+            workDir.resolve("input.jpg").toFile().delete();
+            workDir.resolve("output.jpg").toFile().delete();
+            workDir.toFile().delete();
+        }
+    }
+
+    @Benchmark
+    public int launch() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(commandLine)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IllegalStateException("CLI exited with " + exitCode + ": " + commandLine);
+        }
+        return exitCode;
+    }
+
+    private static Path findArchive(Path target) throws IOException {
+        try (DirectoryStream<Path> archives = Files.newDirectoryStream(target, "*.jsa")) {
+            for (Path jsa : archives) {
+                return jsa.toAbsolutePath();
+            }
+        }
+        throw new IllegalStateException("No CDS archive in " + target.toAbsolutePath() + "; run mvn package on JDK 13+ first");
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.jpegscaler;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Base class for codecs that records the time of every decode and encode in
+ * the codec's {@link CodecStatistics}.
+ */
+public abstract class AbstractImageCodec implements ImageCodec {
+
+    private final String name;
+    private final CodecStatistics statistics = new CodecStatistics();
+
+    protected AbstractImageCodec(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public final String getName() {
+        return name;
+    }
+
+    @Override
+    public final BufferedImage decode(File file, SourceTraits traits) throws IOException {
+        return decode(file, traits, CancellationToken.NONE);
+    }
+
+    @Override
+    public final BufferedImage decode(File file, SourceTraits traits, CancellationToken cancellation)
+            throws IOException {
+        cancellation.throwIfCancelled();
+        long start = System.nanoTime();
+        BufferedImage image = doDecode(file, cancellation);
+        cancellation.throwIfCancelled();
+        statistics.record(CodecStatistics.Operation.DECODE, traits.getInputClass(), System.nanoTime() - start);
+        return image;
+    }
+
+    @Override
+    public final BufferedImage decode(byte[] data, SourceTraits traits, CancellationToken cancellation)
+            throws IOException {
+        cancellation.throwIfCancelled();
+        long start = System.nanoTime();
+        BufferedImage image = doDecode(data, cancellation);
+        cancellation.throwIfCancelled();
+        statistics.record(CodecStatistics.Operation.DECODE, traits.getInputClass(), System.nanoTime() - start);
+        return image;
+    }
+
+    @Override
+    public final void encode(BufferedImage image, OutputStream output, ScaleOptions options) throws IOException {
+        encode(image, output, options, CancellationToken.NONE);
+    }
+
+    @Override
+    public final void encode(BufferedImage image, OutputStream output, ScaleOptions options,
+                             CancellationToken cancellation) throws IOException {
+        if (!canEncode()) {
+            throw new UnsupportedOperationException("Codec " + name + " cannot encode JPEG");
+        }
+        cancellation.throwIfCancelled();
+        long start = System.nanoTime();
+        doEncode(image, output, options, cancellation);
+        cancellation.throwIfCancelled();
+        statistics.record(CodecStatistics.Operation.ENCODE, "output", System.nanoTime() - start);
+    }
+
+    @Override
+    public final CodecStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Decodes an image file. Implementations that can stop mid-decode should do so
+     * once the token is cancelled; the caller checks it again afterwards.
+     *
+     * @param file         the file to decode
+     * @param cancellation the cancellation token of the job
+     * @return the decoded image, or {@code null} if the file is not a readable image
+     * @throws IOException if an I/O error occurs
+     */
+    protected abstract BufferedImage doDecode(File file, CancellationToken cancellation) throws IOException;
+
+    /**
+     * Decodes an image from the complete contents of a file, like
+     * {@link #doDecode(File, CancellationToken)}.
+     *
+     * @param data         the file contents
+     * @param cancellation the cancellation token of the job
+     * @return the decoded image, or {@code null} if the data is not a readable image
+     * @throws IOException if an I/O error occurs
+     */
+    protected abstract BufferedImage doDecode(byte[] data, CancellationToken cancellation) throws IOException;
+
+    /**
+     * Encodes an image as JPEG. Only called when {@link #canEncode()} is {@code true}.
+     *
+     * Implementations that can stop mid-encode should do so once the token is cancelled.
+     *
+     * @param image        the image to encode
+     * @param output       the stream to write to
+     * @param options      the encoder options
+     * @param cancellation the cancellation token of the job
+     * @throws IOException if an I/O error occurs
+     */
+    protected void doEncode(BufferedImage image, OutputStream output, ScaleOptions options,
+                            CancellationToken cancellation) throws IOException {
+        throw new UnsupportedOperationException("Codec " + name + " cannot encode JPEG");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
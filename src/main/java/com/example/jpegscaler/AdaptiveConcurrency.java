@@ -0,0 +1,274 @@
+package com.example.jpegscaler;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjusts the concurrency of a {@link JobScheduler} while it runs.
+ *
+ * Once per interval the controller samples completed-job throughput, the share of
+ * time spent in garbage collection and the heap occupancy after the last
+ * collection. Under memory pressure, i.e. GC time or occupancy above its limit, the
+ * worker count is cut multiplicatively. Otherwise it climbs the throughput gradient
+ * additively: one more worker is kept while it raises throughput, and taken back
+ * when it does not. Every decision is logged.
+ *
+ * While the queue is empty, throughput is limited by whoever submits jobs rather
+ * than by the workers, so the controller holds still.
+ */
+public final class AdaptiveConcurrency implements AutoCloseable {
+
+    /** By default the controller decides once per second. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    /** Above this share of time spent in GC the worker count is cut. */
+    public static final double DEFAULT_MAX_GC_FRACTION = 0.10;
+
+    /** Above this share of the maximum heap still in use after GC the worker count is cut. */
+    public static final double DEFAULT_MAX_HEAP_OCCUPANCY = 0.85;
+
+    /** Throughput changes smaller than this fraction count as no change. */
+    static final double TOLERANCE = 0.05;
+
+    /** Factor applied to the worker count under memory pressure. */
+    static final double DECREASE_FACTOR = 0.75;
+
+    /**
+     * One observation of the running batch.
+     */
+    static final class Sample {
+        final double throughput;
+        final double gcFraction;
+        final double heapOccupancy;
+        final boolean idle;
+
+        Sample(double throughput, double gcFraction, double heapOccupancy, boolean idle) {
+            this.throughput = throughput;
+            this.gcFraction = gcFraction;
+            this.heapOccupancy = heapOccupancy;
+            this.idle = idle;
+        }
+    }
+
+    private final JobScheduler scheduler;
+    private final PrintStream log;
+    private final double maxGcFraction;
+    private final double maxHeapOccupancy;
+    private final long intervalNanos;
+    private final ScheduledExecutorService timer;
+    private long lastSampleNanos;
+    private long lastCompleted;
+    private long lastGcMillis;
+    private double lastThroughput;
+    private int lastStep;
+
+    private AdaptiveConcurrency(Builder builder) {
+        this.scheduler = builder.scheduler;
+        this.log = builder.log;
+        this.maxGcFraction = builder.maxGcFraction;
+        this.maxHeapOccupancy = builder.maxHeapOccupancy;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(builder.intervalMillis);
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "jpeg-scaler-concurrency");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Builder builder(JobScheduler scheduler) {
+        return new Builder(scheduler);
+    }
+
+    /**
+     * Starts sampling; the first decision is made one interval from now.
+     *
+     * @return this controller
+     */
+    public AdaptiveConcurrency start() {
+        lastSampleNanos = System.nanoTime();
+        lastCompleted = scheduler.getCompletedJobs();
+        lastGcMillis = gcMillis();
+        timer.scheduleAtFixedRate(this::tick, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        return this;
+    }
+
+    /**
+     * Stops sampling. The scheduler keeps its last concurrency.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            long completed = scheduler.getCompletedJobs();
+            long gc = gcMillis();
+            double seconds = (now - lastSampleNanos) / 1e9;
+            Sample sample = new Sample((completed - lastCompleted) / seconds,
+                    Math.min(1.0, (gc - lastGcMillis) / 1000.0 / seconds),
+                    heapOccupancy(), scheduler.getQueuedJobs() == 0);
+            lastSampleNanos = now;
+            lastCompleted = completed;
+            lastGcMillis = gc;
+            int current = scheduler.getConcurrency();
+            int next = decide(current, sample);
+            if (next != current) {
+                next = scheduler.setConcurrency(next);
+            }
+            log.println(describe(current, next, sample));
+        } catch (RuntimeException e) {
+            log.println("Concurrency controller failed: " + e);
+        }
+    }
+
+    /**
+     * Returns the worker count to use after observing a sample at the given count.
+     *
+     * @param current the current worker count
+     * @param sample  the observation made at that count
+     * @return the next worker count, within 1 and the scheduler's maximum
+     */
+    int decide(int current, Sample sample) {
+        int maximum = scheduler.getMaximumConcurrency();
+        int next;
+        if (sample.gcFraction > maxGcFraction || sample.heapOccupancy > maxHeapOccupancy) {
+            next = (int) Math.floor(current * DECREASE_FACTOR);
+            // Hold for one interval before probing upwards again
+            lastStep = -1;
+            lastThroughput = 0;
+        } else if (sample.idle) {
+            next = current;
+            lastStep = 0;
+        } else {
+            double gain = lastThroughput > 0 ? sample.throughput / lastThroughput - 1 : 0;
+            int step;
+            if (lastStep > 0) {
+                step = gain >= TOLERANCE ? 1 : -1;
+            } else if (lastStep < 0) {
+                step = gain <= -TOLERANCE ? 1 : 0;
+            } else {
+                step = 1;
+            }
+            next = current + step;
+            lastThroughput = sample.throughput;
+            lastStep = next < 1 || next > maximum ? 0 : step;
+        }
+        return Math.max(1, Math.min(maximum, next));
+    }
+
+    private static String describe(int current, int next, Sample sample) {
+        String change = next == current ? "Concurrency stays at " + current : "Concurrency " + current + " -> " + next;
+        return String.format(Locale.ROOT, "%s: %.1f jobs/s, GC %.0f%%, heap %.0f%%%s", change, sample.throughput,
+                sample.gcFraction * 100, sample.heapOccupancy * 100, sample.idle ? ", queue empty" : "");
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * Returns the share of the maximum heap that survived the last collection of
+     * each pool, which unlike the current usage does not count garbage. A pool no
+     * collector has collected yet reads zero after GC, so its current usage counts
+     * instead, e.g. during warm-up.
+     */
+    static double heapOccupancy() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        Set<String> collectedPools = new HashSet<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc.getCollectionCount() > 0) {
+                collectedPools.addAll(Arrays.asList(gc.getMemoryPoolNames()));
+            }
+        }
+        long live = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage usage = collectedPools.contains(pool.getName()) ? pool.getCollectionUsage() : null;
+            live += (usage != null ? usage : pool.getUsage()).getUsed();
+        }
+        return (double) live / max;
+    }
+
+    /**
+     * Builder for {@link AdaptiveConcurrency}.
+     */
+    public static final class Builder {
+        private final JobScheduler scheduler;
+        private PrintStream log = System.err;
+        private double maxGcFraction = DEFAULT_MAX_GC_FRACTION;
+        private double maxHeapOccupancy = DEFAULT_MAX_HEAP_OCCUPANCY;
+        private long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+
+        private Builder(JobScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        public Builder log(PrintStream log) {
+            this.log = log;
+            return this;
+        }
+
+        /**
+         * Sets the share of time in GC above which the worker count is cut.
+         *
+         * @param fraction a value between 0 and 1
+         * @return this builder
+         */
+        public Builder maxGcFraction(double fraction) {
+            this.maxGcFraction = fraction;
+            return this;
+        }
+
+        /**
+         * Sets the share of the heap in use after GC above which the worker count is cut.
+         *
+         * @param fraction a value between 0 and 1
+         * @return this builder
+         */
+        public Builder maxHeapOccupancy(double fraction) {
+            this.maxHeapOccupancy = fraction;
+            return this;
+        }
+
+        public Builder interval(long millis) {
+            this.intervalMillis = millis;
+            return this;
+        }
+
+        /**
+         * Validates the settings and builds the controller; call {@link #start()} to run it.
+         *
+         * @return the controller
+         * @throws IllegalArgumentException if a value is out of range
+         */
+        public AdaptiveConcurrency build() {
+            if (maxGcFraction <= 0 || maxGcFraction > 1 || maxHeapOccupancy <= 0 || maxHeapOccupancy > 1) {
+                throw new IllegalArgumentException("GC and heap limits must be between 0 and 1");
+            }
+            if (intervalMillis < 1) {
+                throw new IllegalArgumentException("Interval must be at least 1 ms");
+            }
+            return new AdaptiveConcurrency(this);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.jpegscaler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One {@link JpegScaler#scaleAsync} job, driven by completion callbacks so no
+ * thread blocks on it.
+ *
+ * The input is read with an {@link AsynchronousFileChannel} on the I/O executor,
+ * decoded, scaled and encoded on the CPU executor, then written to a temporary
+ * file with another asynchronous channel, synced and renamed over the output on
+ * the I/O executor. Cancelling the future cancels the job's token, closes the open
+ * channel and discards the output.
+ */
+final class AsyncScaleJob {
+
+    private static final Set<OpenOption> READ = Collections.<OpenOption>singleton(StandardOpenOption.READ);
+    private static final Set<OpenOption> WRITE = Collections.<OpenOption>unmodifiableSet(
+            EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+
+    private final JpegScaler scaler;
+    private final File inputFile;
+    private final File outputFile;
+    private final TargetSize target;
+    private final ScaleOptions options;
+    private final ExecutorService ioExecutor;
+    private final Executor cpuExecutor;
+    private final CancellationToken cancellation = CancellationToken.create();
+    private final CompletableFuture<ScaleResult> future = new CompletableFuture<>();
+    private volatile AsynchronousFileChannel channel;
+    private volatile File tempFile;
+
+    AsyncScaleJob(JpegScaler scaler, File inputFile, File outputFile, TargetSize target, ScaleOptions options,
+                  ExecutorService ioExecutor, Executor cpuExecutor) {
+        this.scaler = scaler;
+        this.inputFile = inputFile;
+        this.outputFile = outputFile;
+        this.target = target;
+        this.options = options;
+        this.ioExecutor = ioExecutor;
+        this.cpuExecutor = cpuExecutor;
+    }
+
+    CompletableFuture<ScaleResult> start() {
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                // Stops work in progress on cancellation; releases what a failed step left open
+                cancellation.cancel();
+                closeChannel();
+                deleteTempFile();
+            }
+        });
+        try {
+            read();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+        return future;
+    }
+
+    private void read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            channel = AsynchronousFileChannel.open(inputFile.toPath(), READ, ioExecutor);
+        } catch (NoSuchFileException e) {
+            throw new IOException("Input file does not exist: " + inputFile.getPath());
+        }
+        if (releaseIfDone()) {
+            return;
+        }
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Input file is too large: " + inputFile.getPath());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        transfer(buffer, true, () -> {
+            closeChannel();
+            // The file may have shrunk since its size was taken
+            byte[] data = buffer.hasRemaining() ? Arrays.copyOf(buffer.array(), buffer.position()) : buffer.array();
+            JpegScaler.Source source = scaler.source(inputFile.getPath(), data, options, System.nanoTime() - start);
+            cpuExecutor.execute(() -> run(() -> transcode(source)));
+        });
+    }
+
+    private void transcode(JpegScaler.Source source) throws IOException {
+        JpegScaler.Encoded encoded = scaler.transcode(source, target, options, cancellation);
+        cancellation.throwIfCancelled();
+        write(encoded);
+    }
+
+    private void write(JpegScaler.Encoded encoded) throws IOException {
+        long start = System.nanoTime();
+        ResourceUsage.Meter meter = ResourceUsage.meter();
+        ScalingEvents.Write event = new ScalingEvents.Write();
+        event.begin();
+        tempFile = JpegScaler.createTempFor(outputFile);
+        channel = AsynchronousFileChannel.open(tempFile.toPath(), WRITE, ioExecutor);
+        if (releaseIfDone()) {
+            return;
+        }
+        ResourceUsage opening = meter.stop();
+        transfer(ByteBuffer.wrap(encoded.jpeg), false, () -> {
+            // Completions run on the I/O pool; the transfers in between cost next to no CPU
+            ResourceUsage.Meter completing = ResourceUsage.meter();
+            channel.force(true);
+            closeChannel();
+            cancellation.throwIfCancelled();
+            JpegScaler.moveIntoPlace(tempFile, outputFile);
+            tempFile = null;
+            event.complete(encoded.job, encoded.width, encoded.height, encoded.jpeg.length);
+            future.complete(encoded.toResult(System.nanoTime() - start, opening.plus(completing.stop())));
+        });
+    }
+
+    /**
+     * Reads or writes the whole buffer through the current channel, issuing the
+     * next transfer from each completion, then runs {@code done} on the completing thread.
+     */
+    private void transfer(ByteBuffer buffer, boolean reading, Step done) {
+        if (buffer.hasRemaining()) {
+            new Transfer(buffer, reading, done).next(0);
+        } else {
+            run(done);
+        }
+    }
+
+    private void run(Step step) {
+        if (future.isDone()) {
+            return;
+        }
+        try {
+            step.run();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable error) {
+        future.completeExceptionally(error instanceof RejectedExecutionException
+                ? new IOException("Executor rejected the job", error)
+                : error);
+    }
+
+    /**
+     * Releases the channel and temporary file if the future completed, as a
+     * cancellation may have run its cleanup before they were assigned.
+     *
+     * @return whether the future is done
+     */
+    private boolean releaseIfDone() {
+        if (!future.isDone()) {
+            return false;
+        }
+        closeChannel();
+        deleteTempFile();
+        return true;
+    }
+
+    private void closeChannel() {
+        AsynchronousFileChannel open = channel;
+        if (open != null) {
+            try {
+                open.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    private void deleteTempFile() {
+        File file = tempFile;
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                // Left behind like the temporary files of a crashed run
+            }
+        }
+    }
+
+    private interface Step {
+        void run() throws IOException;
+    }
+
+    private final class Transfer implements CompletionHandler<Integer, Long> {
+        private final ByteBuffer buffer;
+        private final boolean reading;
+        private final Step done;
+
+        Transfer(ByteBuffer buffer, boolean reading, Step done) {
+            this.buffer = buffer;
+            this.reading = reading;
+            this.done = done;
+        }
+
+        void next(long position) {
+            if (reading) {
+                channel.read(buffer, position, position, this);
+            } else {
+                channel.write(buffer, position, position, this);
+            }
+        }
+
+        @Override
+        public void completed(Integer count, Long position) {
+            if (releaseIfDone()) {
+                return;
+            }
+            if (count < 0 || !buffer.hasRemaining()) {
+                run(done);
+            } else {
+                next(position + count);
+            }
+        }
+
+        @Override
+        public void failed(Throwable error, Long position) {
+            fail(error);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.jpegscaler;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the inputs a batch has finished, used to resume the batch
+ * after a crash.
+ *
+ * The file starts with a header naming the batch (input root, output root and
+ * parameters), followed by one record per finished input: its relative path and a
+ * CRC32 of it. Records are buffered and written with a single {@code fsync} once
+ * {@link #SYNC_RECORDS} have accumulated, or by a timer once the oldest has waited
+ * {@link #SYNC_MILLIS}, so a crash loses at most that much progress even while no
+ * further input finishes. Replay stops at the first torn or corrupt
+ * record and appending continues from there.
+ */
+final class BatchJournal implements Closeable {
+
+    static final int SYNC_RECORDS = 64;
+    static final long SYNC_MILLIS = 1000;
+
+    private static final int MAGIC = 0x4A534A4C;
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Set<String> completed;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream records = new DataOutputStream(pending);
+    private final ScheduledExecutorService timer;
+    private int pendingCount;
+    private long oldestPending;
+    private IOException timerFailure;
+
+    private BatchJournal(Path file, FileChannel channel, Set<String> completed) {
+        this.file = file;
+        this.channel = channel;
+        this.completed = Collections.unmodifiableSet(completed);
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "jpeg-scaler-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = TimeUnit.MILLISECONDS.toNanos(SYNC_MILLIS) / 4;
+        timer.scheduleAtFixedRate(this::syncIfDue, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Opens the journal of a batch. When resuming, the inputs recorded by an earlier
+     * run of the same batch are replayed; otherwise, or if the journal belongs to a
+     * different batch, it is started afresh.
+     *
+     * @param file   the journal file
+     * @param batch  identifies the batch: roots and parameters
+     * @param resume whether to replay an existing journal
+     * @return the journal, positioned for appending
+     * @throws IOException if the journal cannot be read or created
+     */
+    static BatchJournal open(Path file, String batch, boolean resume) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            Set<String> completed = new HashSet<>();
+            long end = resume ? replay(channel, batch, completed) : -1;
+            if (end < 0) {
+                completed.clear();
+                channel.truncate(0);
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(header);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(batch);
+                channel.write(ByteBuffer.wrap(header.toByteArray()), 0);
+                end = header.size();
+            }
+            // Drop a torn tail so new records follow the last intact one
+            channel.truncate(end);
+            channel.position(end);
+            channel.force(true);
+            return new BatchJournal(file, channel, completed);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the header and intact records.
+     *
+     * @return the offset after the last intact record, or -1 if the journal is empty
+     *         or belongs to a different batch
+     */
+    private static long replay(FileChannel channel, String batch, Set<String> completed) throws IOException {
+        channel.position(0);
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        DataInputStream in = new DataInputStream(counter);
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(batch)) {
+                return -1;
+            }
+        } catch (EOFException e) {
+            return -1;
+        }
+        long end = counter.count;
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                String relativePath = in.readUTF();
+                crc.reset();
+                crc.update(relativePath.getBytes(StandardCharsets.UTF_8));
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                completed.add(relativePath);
+                end = counter.count;
+            }
+        } catch (EOFException e) {
+            // End of the intact records
+        } catch (IOException e) {
+            // Malformed UTF in a torn record
+        }
+        return end;
+    }
+
+    /**
+     * Returns the inputs finished by the run being resumed.
+     *
+     * @return the relative paths of the finished inputs
+     */
+    Set<String> getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Records that an input is finished. The record is durable once the next batched
+     * {@code fsync} has run.
+     *
+     * @param relativePath the input path relative to the input root
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void completed(String relativePath) throws IOException {
+        throwTimerFailure();
+        CRC32 crc = new CRC32();
+        crc.update(relativePath.getBytes(StandardCharsets.UTF_8));
+        records.writeUTF(relativePath);
+        records.writeInt((int) crc.getValue());
+        if (pendingCount++ == 0) {
+            oldestPending = System.nanoTime();
+        }
+        if (pendingCount >= SYNC_RECORDS) {
+            sync();
+        }
+    }
+
+    /**
+     * Syncs from the timer once the oldest pending record has waited long enough. A
+     * failure is thrown by the next {@link #completed} or {@link #close}.
+     */
+    private synchronized void syncIfDue() {
+        if (pendingCount == 0 || timerFailure != null || !channel.isOpen()
+                || System.nanoTime() - oldestPending < TimeUnit.MILLISECONDS.toNanos(SYNC_MILLIS)) {
+            return;
+        }
+        try {
+            sync();
+        } catch (IOException e) {
+            timerFailure = e;
+        }
+    }
+
+    private void throwTimerFailure() throws IOException {
+        if (timerFailure != null) {
+            throw new IOException("Could not sync journal " + file + ": " + timerFailure.getMessage(), timerFailure);
+        }
+    }
+
+    /**
+     * Writes and syncs the buffered records.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void sync() throws IOException {
+        if (pendingCount > 0) {
+            ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            pending.reset();
+            pendingCount = 0;
+        }
+    }
+
+    /**
+     * Closes and deletes the journal once the batch has finished without failures.
+     *
+     * @throws IOException if the journal cannot be deleted
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        timer.shutdownNow();
+        if (channel.isOpen()) {
+            try {
+                throwTimerFailure();
+                sync();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Tracks how many bytes the replay has consumed, independent of read-ahead buffering.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
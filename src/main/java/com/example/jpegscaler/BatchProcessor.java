@@ -0,0 +1,843 @@
+package com.example.jpegscaler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scales every JPEG below an input directory into the same relative path below an
+ * output directory.
+ *
+ * In incremental mode a {@link BatchState} file records what each output was made
+ * from. Inputs whose size, modification time (or, if only the time changed, content
+ * hash) and parameters match, and whose output is unchanged, are skipped without
+ * being opened, so a re-run costs one directory walk plus the changed images.
+ *
+ * Independently, every finished input is appended to a {@link BatchJournal}. After a
+ * crash the batch can be {@linkplain Builder#resume(boolean) resumed}, skipping what
+ * the journal recorded. Those inputs are also recorded in the state, which may have
+ * been saved before they finished. The journal is deleted once a batch finishes
+ * without failures.
+ *
+ * Jobs run on a {@link JobScheduler}, cheapest first by the cost estimated from each
+ * input's header, so a few huge scans do not hold up thousands of small photos. With
+ * {@linkplain Builder#adaptiveThreads(int) adaptive threads} an {@link AdaptiveConcurrency}
+ * controller resizes the pool while the batch runs.
+ *
+ * A {@linkplain Builder#pipeline(int, int) pipelined} batch splits each job into
+ * stages with their own pools and bounded queues between them: inputs are read into
+ * memory ahead of time on an I/O pool, decoded, scaled and encoded on the CPU
+ * workers, and written behind on another I/O pool. Slow storage then no longer
+ * leaves CPU workers waiting, and the {@linkplain BatchResult#getStageUtilization()
+ * utilization of each stage} shows which one limits the batch.
+ *
+ * One batch can be spread over several processes or nodes sharing the input and
+ * output directories. A {@linkplain Builder#shard(int, int) static shard} takes the
+ * inputs whose path hashes to its index; with a {@linkplain Builder#coordination(Path)
+ * coordination directory} workers instead claim inputs through lease files as they
+ * walk the tree, only a few more than their workers are scaling, so fast workers
+ * take more. After its walk a worker waits for the other workers' leases and
+ * reclaims the inputs of a dead worker once its leases expire (see
+ * {@link ShardCoordinator}). Both can be
+ * combined. Each shard keeps its own journal, and state file when it is derived
+ * with {@link #defaultStateFile(Path, int, int)}.
+ */
+public final class BatchProcessor {
+
+    /** State is saved after this many completed jobs, bounding the work lost to a crash. */
+    static final int CHECKPOINT_INTERVAL = 1000;
+
+    /** In a pipelined batch, images held in memory between two stages per thread of the later stage. */
+    static final int QUEUED_PER_THREAD = 2;
+
+    /** Default time after which the lease of a worker that stopped renewing it expires. */
+    public static final long DEFAULT_LEASE_MILLIS = 60_000;
+
+    /** Longest pause between checks for other workers' leases once the walk is done. */
+    private static final long RESCAN_MILLIS = 1000;
+
+    private static final String[] STAGES = {"read", "decode", "scale", "encode", "write"};
+    private static final int READ = 0;
+    private static final int DECODE = 1;
+    private static final int SCALE = 2;
+    private static final int ENCODE = 3;
+    private static final int WRITE = 4;
+
+    private final JpegScaler scaler;
+    private final Path inputDir;
+    private final Path outputDir;
+    private final TargetSize target;
+    private final ScaleOptions options;
+    private final int threads;
+    private final Path stateFile;
+    private final Path journalFile;
+    private final boolean resume;
+    private final ScaleReport report;
+    private final long timeoutNanos;
+    private final boolean shortestJobFirst;
+    private final long largeJobPixels;
+    private final int largeJobThreads;
+    private final int maximumThreads;
+    private final int readThreads;
+    private final int writeThreads;
+    private final int shardIndex;
+    private final int shardCount;
+    private final Path coordinationDir;
+    private final String workerId;
+    private final long leaseMillis;
+    private final PrintStream log;
+
+    private BatchProcessor(Builder builder) {
+        this.scaler = builder.scaler;
+        this.inputDir = builder.inputDir;
+        this.outputDir = builder.outputDir;
+        this.target = builder.target;
+        this.options = builder.options;
+        this.threads = builder.threads;
+        this.stateFile = builder.stateFile;
+        this.shardIndex = builder.shardIndex;
+        this.shardCount = builder.shardCount;
+        this.coordinationDir = builder.coordinationDir;
+        this.workerId = builder.workerId != null ? builder.workerId : defaultWorkerId();
+        this.leaseMillis = builder.leaseMillis;
+        this.journalFile = builder.journalFile != null ? builder.journalFile : defaultJournalFile(builder.outputDir,
+                coordinationDir != null ? workerId : shardCount > 1 ? shardName(shardIndex, shardCount) : null);
+        this.resume = builder.resume;
+        this.report = builder.report;
+        this.timeoutNanos = builder.timeoutNanos;
+        this.shortestJobFirst = builder.shortestJobFirst;
+        this.largeJobPixels = builder.largeJobPixels;
+        this.largeJobThreads = builder.largeJobThreads;
+        this.maximumThreads = builder.maximumThreads;
+        this.readThreads = builder.readThreads;
+        this.writeThreads = builder.writeThreads;
+        this.log = builder.log;
+    }
+
+    public static Builder builder(JpegScaler scaler, Path inputDir, Path outputDir, TargetSize target) {
+        return new Builder(scaler, inputDir, outputDir, target);
+    }
+
+    /**
+     * Returns the state file used when incremental mode is enabled without naming one.
+     *
+     * @param outputDir the batch output directory
+     * @return the default state file
+     */
+    public static Path defaultStateFile(Path outputDir) {
+        return outputDir.resolve(".jpeg-scaler-state");
+    }
+
+    /**
+     * Returns the state file of one static shard, so shards do not overwrite each
+     * other's state.
+     *
+     * @param outputDir  the batch output directory
+     * @param shardIndex the shard index, from 1
+     * @param shardCount the number of shards
+     * @return the default state file of the shard
+     */
+    public static Path defaultStateFile(Path outputDir, int shardIndex, int shardCount) {
+        return shardCount > 1
+                ? outputDir.resolve(".jpeg-scaler-state-" + shardName(shardIndex, shardCount))
+                : defaultStateFile(outputDir);
+    }
+
+    /**
+     * Returns the journal file used unless another one is set.
+     *
+     * @param outputDir the batch output directory
+     * @return the default journal file
+     */
+    public static Path defaultJournalFile(Path outputDir) {
+        return outputDir.resolve(".jpeg-scaler-journal");
+    }
+
+    private static Path defaultJournalFile(Path outputDir, String shard) {
+        return shard != null ? outputDir.resolve(".jpeg-scaler-journal-" + shard) : defaultJournalFile(outputDir);
+    }
+
+    private static String shardName(int shardIndex, int shardCount) {
+        return shardIndex + "-of-" + shardCount;
+    }
+
+    /**
+     * Returns whether an input belongs to a static shard. {@link String#hashCode()}
+     * is specified, so every JVM splits a tree the same way.
+     *
+     * @param relative   the input path relative to the input root
+     * @param shardIndex the shard index, from 1
+     * @param shardCount the number of shards
+     * @return {@code true} if the shard scales the input
+     */
+    static boolean inShard(String relative, int shardIndex, int shardCount) {
+        int hash = relative.replace('\\', '/').hashCode();
+        // Spread the bits, so names differing only in their last characters still split evenly
+        hash ^= hash >>> 16;
+        hash *= 0x45D9F3B;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, shardCount) == shardIndex - 1;
+    }
+
+    private static String defaultWorkerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    /**
+     * Runs the batch. Failures of single images are logged and counted; they do not
+     * stop the batch.
+     *
+     * @return the outcome counts
+     * @throws IOException if the input directory cannot be walked or the state cannot be saved
+     */
+    public BatchResult run() throws IOException {
+        long start = System.nanoTime();
+        BatchState state = stateFile != null ? BatchState.load(stateFile, inputDir, outputDir) : null;
+        String parameters = target + ";" + options;
+        BatchJournal journal = BatchJournal.open(journalFile, inputDir.toAbsolutePath().normalize() + "\n"
+                + outputDir.toAbsolutePath().normalize() + "\n" + parameters, resume);
+        Set<String> completed = journal.getCompleted();
+        Set<String> seen = new HashSet<>();
+        ShardCoordinator coordinator = coordinationDir != null
+                ? ShardCoordinator.open(coordinationDir, workerId, leaseMillis, log)
+                : null;
+        Progress progress = new Progress(state, journal, coordinator, log);
+        int[] skipped = new int[1];
+        boolean pipelined = readThreads > 0;
+        int cpuThreads = Math.max(threads, maximumThreads);
+        LongAdder[] stageNanos = new LongAdder[STAGES.length];
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = new LongAdder();
+        }
+
+        // The queue is bounded, so a first run over millions of files does not queue them all
+        JobScheduler.Builder workerPool = JobScheduler.builder(cpuThreads)
+                .name("worker")
+                .initialConcurrency(threads)
+                .largeJobLane(largeJobPixels, largeJobThreads);
+        // Queued CPU jobs hold their whole input, so only a few may wait, and a coordinated
+        // worker only claims what its workers are about to scale, leaving the rest to its peers
+        if (pipelined || coordinator != null) {
+            workerPool.capacity(cpuThreads * QUEUED_PER_THREAD);
+        }
+        JobScheduler workers = workerPool.build();
+        JobScheduler.Builder readerPool = pipelined ? JobScheduler.builder(readThreads).name("reader") : null;
+        if (pipelined && coordinator != null) {
+            readerPool.capacity(readThreads * QUEUED_PER_THREAD);
+        }
+        JobScheduler readers = pipelined ? readerPool.build() : null;
+        JobScheduler writers = pipelined
+                ? JobScheduler.builder(writeThreads).name("writer").capacity(writeThreads * QUEUED_PER_THREAD).build()
+                : null;
+        AdaptiveConcurrency controller = maximumThreads > 0
+                ? AdaptiveConcurrency.builder(workers).log(log).build().start()
+                : null;
+        Path outputRoot = outputDir.toAbsolutePath().normalize();
+        try {
+            FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    boolean isOutput = dir.toAbsolutePath().normalize().equals(outputRoot) && !dir.equals(inputDir);
+                    return isOutput ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile() || !isJpeg(file)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    String relative = inputDir.relativize(file).toString();
+                    if (shardCount > 1 && !inShard(relative, shardIndex, shardCount)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Path output = outputDir.resolve(relative);
+                    seen.add(relative);
+                    if (coordinator != null && !coordinator.claim(relative)) {
+                        // Finished or being scaled by another worker
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (completed.contains(relative)) {
+                        skipped[0]++;
+                        if (state != null) {
+                            recordReplayed(state, relative, file, attrs, output, parameters);
+                        }
+                        if (coordinator != null) {
+                            coordinator.finish(relative, true);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (state != null && isUpToDate(state, relative, file, attrs, output, parameters)) {
+                        skipped[0]++;
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (pipelined) {
+                        submit(readers, 0, () -> read(workers, writers, progress, stageNanos, relative, file, attrs,
+                                output, parameters));
+                        return FileVisitResult.CONTINUE;
+                    }
+                    long cost = shortestJobFirst ? scaler.estimateCost(file.toFile(), target) : 0;
+                    submit(workers, cost, () -> {
+                        try {
+                            process(state, relative, file, attrs, output, parameters);
+                            progress.completed(relative);
+                        } catch (IOException | RuntimeException | Error e) {
+                            progress.failed(relative, e);
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+            };
+            Files.walkFileTree(inputDir, visitor);
+            if (coordinator != null) {
+                reclaimUntilFinished(coordinator, visitor, progress);
+            }
+        } finally {
+            // Each stage only feeds later ones, so closing them in order drains the pipeline
+            if (readers != null) {
+                readers.close();
+            }
+            if (controller != null) {
+                controller.close();
+            }
+            workers.close();
+            if (writers != null) {
+                writers.close();
+            }
+            journal.close();
+            if (coordinator != null) {
+                coordinator.close();
+            }
+        }
+
+        if (state != null) {
+            state.retainAll(seen);
+            state.save();
+        }
+        if (progress.failed.get() == 0) {
+            journal.delete();
+        }
+        long elapsed = System.nanoTime() - start;
+        Map<String, Double> utilization = new LinkedHashMap<>();
+        if (pipelined) {
+            int[] stageThreads = {readThreads, cpuThreads, cpuThreads, cpuThreads, writeThreads};
+            for (int i = 0; i < STAGES.length; i++) {
+                utilization.put(STAGES[i], Math.min(1.0, stageNanos[i].sum() / ((double) elapsed * stageThreads[i])));
+            }
+        }
+        BatchResult result = new BatchResult(progress.processed.get(), skipped[0], progress.failed.get(), elapsed, utilization);
+        if (coordinator != null) {
+            coordinator.publish(result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the result of all workers of a coordinated batch, once this one has
+     * {@linkplain #run() finished} and no other live worker is left. The counts are
+     * summed over the workers of the current run and the elapsed time is the slowest
+     * worker's. Of workers finishing together, only one gets the merged result.
+     *
+     * @return the merged result, or {@code null} without a coordination directory,
+     *         while other workers are still running or once another worker took it
+     * @throws IOException if the coordination directory cannot be read
+     */
+    public BatchResult mergedResult() throws IOException {
+        if (coordinationDir == null) {
+            return null;
+        }
+        return ShardCoordinator.mergedResult(coordinationDir, leaseMillis);
+    }
+
+    /**
+     * Waits after the walk until no other worker holds a lease, claiming and scaling
+     * the inputs whose leases expire on the way. A worker that dies after its peers
+     * walked past its inputs would otherwise leave them unscaled.
+     */
+    private void reclaimUntilFinished(ShardCoordinator coordinator, FileVisitor<Path> visitor, Progress progress)
+            throws IOException {
+        long interval = Math.max(1, Math.min(leaseMillis / 3, RESCAN_MILLIS));
+        while (true) {
+            List<String> pending = coordinator.leasedByOthers();
+            if (pending.isEmpty()) {
+                return;
+            }
+            for (String relative : pending) {
+                Path file = inputDir.resolve(relative);
+                try {
+                    visitor.visitFile(file, Files.readAttributes(file, BasicFileAttributes.class));
+                } catch (NoSuchFileException e) {
+                    // Deleted since it was claimed; still finish it, so no worker waits for it
+                    if (coordinator.claim(relative)) {
+                        progress.failed(relative, e);
+                    }
+                }
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the other workers");
+            }
+        }
+    }
+
+    private void process(BatchState state, String relative, Path input, BasicFileAttributes attrs, Path output,
+                         String parameters) throws IOException {
+        if (state == null) {
+            ScaleResult result = scaler.scale(input.toFile(), output.toFile(), target, options, newCancellationToken());
+            record(null, relative, input, attrs, output, parameters, 0, result);
+            return;
+        }
+        // Hashes the bytes that are scaled instead of reading the input a second time
+        JpegScaler.Source source = scaler.read(input.toFile(), options);
+        long hash = BatchState.hash(source.data);
+        CancellationToken cancellation = newCancellationToken();
+        JpegScaler.Encoded encoded = scaler.transcode(source, target, options, cancellation);
+        cancellation.throwIfCancelled();
+        ScaleResult result = scaler.write(encoded, output.toFile());
+        record(state, relative, input, attrs, output, parameters, hash, result);
+    }
+
+    /**
+     * First stage of a pipelined job: reads the input into memory on a reader thread
+     * and queues it for the CPU workers.
+     */
+    private void read(JobScheduler workers, JobScheduler writers, Progress progress, LongAdder[] stageNanos,
+                      String relative, Path input, BasicFileAttributes attrs, Path output, String parameters) {
+        try {
+            JpegScaler.Source source = scaler.read(input.toFile(), options);
+            stageNanos[READ].add(source.readNanos);
+            long hash = progress.state != null ? BatchState.hash(source.data) : 0;
+            long cost = shortestJobFirst ? scaler.estimateCost(source, target) : 0;
+            submit(workers, cost, () -> {
+                try {
+                    JpegScaler.Encoded encoded = scaler.transcode(source, target, options, newCancellationToken());
+                    stageNanos[DECODE].add(encoded.decodeNanos);
+                    stageNanos[SCALE].add(encoded.scaleNanos);
+                    stageNanos[ENCODE].add(encoded.encodeNanos);
+                    submit(writers, 0, () -> {
+                        try {
+                            ScaleResult result = scaler.write(encoded, output.toFile());
+                            stageNanos[WRITE].add(result.getWriteNanos());
+                            record(progress.state, relative, input, attrs, output, parameters, hash, result);
+                            progress.completed(relative);
+                        } catch (IOException | RuntimeException | Error e) {
+                            progress.failed(relative, e);
+                        }
+                    });
+                } catch (IOException | RuntimeException | Error e) {
+                    progress.failed(relative, e);
+                }
+            });
+        } catch (IOException | RuntimeException | Error e) {
+            progress.failed(relative, e);
+        }
+    }
+
+    private CancellationToken newCancellationToken() {
+        return timeoutNanos > 0
+                ? CancellationToken.withTimeout(timeoutNanos, TimeUnit.NANOSECONDS)
+                : CancellationToken.NONE;
+    }
+
+    private void record(BatchState state, String relative, Path input, BasicFileAttributes attrs, Path output,
+                        String parameters, long hash, ScaleResult result) throws IOException {
+        if (report != null) {
+            report.record(input.toString(), output.toString(), result);
+        }
+        if (state == null) {
+            return;
+        }
+        BasicFileAttributes after = Files.readAttributes(input, BasicFileAttributes.class);
+        if (after.size() != attrs.size() || after.lastModifiedTime().toMillis() != attrs.lastModifiedTime().toMillis()) {
+            // Changed while being scaled; leave it unrecorded so the next run picks it up again
+            return;
+        }
+        BasicFileAttributes written = Files.readAttributes(output, BasicFileAttributes.class);
+        state.put(relative, new BatchState.Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), hash,
+                parameters, written.size(), written.lastModifiedTime().toMillis()));
+    }
+
+    /**
+     * Records an input the journal of an interrupted run lists as finished, as the
+     * state may have been saved before it was. Its output must still exist.
+     */
+    private static void recordReplayed(BatchState state, String relative, Path input, BasicFileAttributes attrs,
+                                       Path output, String parameters) throws IOException {
+        if (isUpToDate(state, relative, input, attrs, output, parameters)) {
+            return;
+        }
+        BasicFileAttributes written;
+        try {
+            written = Files.readAttributes(output, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        state.put(relative, new BatchState.Entry(attrs.size(), attrs.lastModifiedTime().toMillis(),
+                BatchState.hash(input), parameters, written.size(), written.lastModifiedTime().toMillis()));
+    }
+
+    private static boolean isUpToDate(BatchState state, String relative, Path input, BasicFileAttributes attrs,
+                                      Path output, String parameters) throws IOException {
+        BatchState.Entry entry = state.get(relative);
+        if (entry == null || !entry.parameters.equals(parameters) || entry.size != attrs.size()) {
+            return false;
+        }
+        BasicFileAttributes written;
+        try {
+            written = Files.readAttributes(output, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (written.size() != entry.outputSize || written.lastModifiedTime().toMillis() != entry.outputModified) {
+            return false;
+        }
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (modified == entry.modified) {
+            return true;
+        }
+        // Touched but possibly not changed, e.g. after a copy or restore
+        if (BatchState.hash(input) == entry.hash) {
+            state.put(relative, entry.withModified(modified));
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isJpeg(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jpg") || name.endsWith(".jpeg");
+    }
+
+    private static void submit(JobScheduler workers, long cost, Runnable job) throws InterruptedIOException {
+        try {
+            workers.submit(cost, job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing jobs");
+        }
+    }
+
+    /**
+     * Counts finished jobs of one run, journals them and checkpoints the state.
+     */
+    private static final class Progress {
+        final BatchState state;
+        final BatchJournal journal;
+        final ShardCoordinator coordinator;
+        final PrintStream log;
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        Progress(BatchState state, BatchJournal journal, ShardCoordinator coordinator, PrintStream log) {
+            this.state = state;
+            this.journal = journal;
+            this.coordinator = coordinator;
+            this.log = log;
+        }
+
+        void completed(String relative) throws IOException {
+            journal.completed(relative);
+            if (coordinator != null) {
+                coordinator.finish(relative, true);
+            }
+            int done = processed.incrementAndGet();
+            if (state != null && done % CHECKPOINT_INTERVAL == 0) {
+                state.save();
+            }
+        }
+
+        void failed(String relative, Throwable e) {
+            failed.incrementAndGet();
+            log.println("Failed: " + relative + ": " + e.getMessage());
+            if (coordinator != null) {
+                try {
+                    coordinator.finish(relative, false);
+                } catch (IOException markerFailure) {
+                    log.println("Could not mark " + relative + " as failed: " + markerFailure.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link BatchProcessor}.
+     */
+    public static final class Builder {
+        private final JpegScaler scaler;
+        private final Path inputDir;
+        private final Path outputDir;
+        private final TargetSize target;
+        private ScaleOptions options = ScaleOptions.builder().build();
+        private int threads = 1;
+        private Path stateFile;
+        private Path journalFile;
+        private boolean resume;
+        private ScaleReport report;
+        private long timeoutNanos;
+        private boolean shortestJobFirst = true;
+        private long largeJobPixels;
+        private int largeJobThreads;
+        private int maximumThreads;
+        private int readThreads;
+        private int writeThreads;
+        private int shardIndex = 1;
+        private int shardCount = 1;
+        private Path coordinationDir;
+        private String workerId;
+        private long leaseMillis = DEFAULT_LEASE_MILLIS;
+        private PrintStream log = System.err;
+
+        private Builder(JpegScaler scaler, Path inputDir, Path outputDir, TargetSize target) {
+            this.scaler = scaler;
+            this.inputDir = inputDir;
+            this.outputDir = outputDir;
+            this.target = target;
+        }
+
+        public Builder options(ScaleOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Enables incremental mode with the given state file, or disables it if {@code null}.
+         *
+         * @param stateFile the state file or {@code null}
+         * @return this builder
+         */
+        public Builder stateFile(Path stateFile) {
+            this.stateFile = stateFile;
+            return this;
+        }
+
+        /**
+         * Sets the journal file, by default {@link BatchProcessor#defaultJournalFile(Path)}.
+         *
+         * @param journalFile the journal file
+         * @return this builder
+         */
+        public Builder journalFile(Path journalFile) {
+            this.journalFile = journalFile;
+            return this;
+        }
+
+        /**
+         * Skips inputs recorded in the journal of an interrupted run of the same batch.
+         *
+         * @param resume whether to resume
+         * @return this builder
+         */
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        /**
+         * Records every scaled image in the given report.
+         *
+         * @param report the report or {@code null}
+         * @return this builder
+         */
+        public Builder report(ScaleReport report) {
+            this.report = report;
+            return this;
+        }
+
+        /**
+         * Gives up on an image once scaling it takes longer than the timeout; it is
+         * then counted as failed. Zero, the default, means no timeout.
+         *
+         * @param timeout the per-image timeout
+         * @param unit    the unit of the timeout
+         * @return this builder
+         */
+        public Builder timeout(long timeout, TimeUnit unit) {
+            this.timeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Chooses between running the cheapest queued image first (the default) and
+         * walk order. Estimating the cost reads each input's header once more.
+         *
+         * @param shortestJobFirst whether to order jobs by estimated cost
+         * @return this builder
+         */
+        public Builder shortestJobFirst(boolean shortestJobFirst) {
+            this.shortestJobFirst = shortestJobFirst;
+            return this;
+        }
+
+        /**
+         * Scales images whose estimated cost, source plus target pixels, reaches the
+         * threshold on extra dedicated workers. Costs are only estimated with
+         * {@linkplain #shortestJobFirst(boolean) shortest-job-first} ordering.
+         *
+         * @param minimumPixels the cost from which an image counts as large
+         * @param threads       the number of dedicated workers
+         * @return this builder
+         */
+        public Builder largeJobLane(long minimumPixels, int threads) {
+            this.largeJobPixels = minimumPixels;
+            this.largeJobThreads = threads;
+            return this;
+        }
+
+        /**
+         * Lets an {@link AdaptiveConcurrency} controller vary the number of workers
+         * between 1 and the given maximum, starting from {@link #threads(int)}. Each
+         * decision is written to the log. Zero, the default, keeps the count fixed.
+         *
+         * @param maximumThreads the most workers the controller may use
+         * @return this builder
+         */
+        public Builder adaptiveThreads(int maximumThreads) {
+            this.maximumThreads = maximumThreads;
+            return this;
+        }
+
+        /**
+         * Runs the batch as a pipeline: inputs are read ahead on {@code readThreads}
+         * and outputs written behind on {@code writeThreads}, while the
+         * {@linkplain #threads(int) worker threads} only decode, scale and encode.
+         * Zero, the default, runs every job start to finish on one worker.
+         *
+         * @param readThreads  the threads reading inputs into memory
+         * @param writeThreads the threads writing outputs
+         * @return this builder
+         */
+        public Builder pipeline(int readThreads, int writeThreads) {
+            this.readThreads = readThreads;
+            this.writeThreads = writeThreads;
+            return this;
+        }
+
+        /**
+         * Scales only the share of the inputs whose relative path hashes to the given
+         * shard, so that {@code count} processes started with indexes 1 to
+         * {@code count} together cover the batch once.
+         *
+         * @param index the shard of this process, from 1
+         * @param count the number of shards
+         * @return this builder
+         */
+        public Builder shard(int index, int count) {
+            this.shardIndex = index;
+            this.shardCount = count;
+            return this;
+        }
+
+        /**
+         * Claims inputs through lease files in a directory shared with the other
+         * workers of the batch, or scales all of them if {@code null}.
+         *
+         * @param coordinationDir the coordination directory or {@code null}
+         * @return this builder
+         */
+        public Builder coordination(Path coordinationDir) {
+            this.coordinationDir = coordinationDir;
+            return this;
+        }
+
+        /**
+         * Sets the ID this worker's leases and result are recorded under, by default
+         * the host name and process ID.
+         *
+         * @param workerId the worker ID, unique among the workers of the batch
+         * @return this builder
+         */
+        public Builder workerId(String workerId) {
+            this.workerId = workerId;
+            return this;
+        }
+
+        /**
+         * Sets the time after which the leases of a worker that stopped renewing them
+         * expire and its inputs are reclaimed, by default {@value BatchProcessor#DEFAULT_LEASE_MILLIS} ms.
+         *
+         * @param timeout the lease timeout
+         * @param unit    the unit of the timeout
+         * @return this builder
+         */
+        public Builder leaseTimeout(long timeout, TimeUnit unit) {
+            this.leaseMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder log(PrintStream log) {
+            this.log = log;
+            return this;
+        }
+
+        /**
+         * Validates and builds the processor.
+         *
+         * @return the processor
+         * @throws IllegalArgumentException if a value is out of range
+         */
+        public BatchProcessor build() {
+            if (!Files.isDirectory(inputDir)) {
+                throw new IllegalArgumentException("Input directory does not exist: " + inputDir);
+            }
+            if (Files.isRegularFile(outputDir)) {
+                throw new IllegalArgumentException("Output must be a directory when the input is: " + outputDir);
+            }
+            if (timeoutNanos < 0) {
+                throw new IllegalArgumentException("Timeout must not be negative");
+            }
+            if (threads < 1) {
+                throw new IllegalArgumentException("Threads must be at least 1");
+            }
+            if (readThreads < 0 || writeThreads < 0 || (readThreads == 0) != (writeThreads == 0)) {
+                throw new IllegalArgumentException("Pipeline read and write threads must both be positive or both 0");
+            }
+            if (maximumThreads != 0 && maximumThreads < threads) {
+                throw new IllegalArgumentException("Maximum threads must be at least the initial threads");
+            }
+            if (shardCount < 1 || shardIndex < 1 || shardIndex > shardCount) {
+                throw new IllegalArgumentException("Shard must be k/N with 1 <= k <= N");
+            }
+            if (coordinationDir != null && leaseMillis <= 0) {
+                throw new IllegalArgumentException("Lease timeout must be positive");
+            }
+            if (coordinationDir != null && workerId != null
+                    && (workerId.isEmpty() || workerId.contains("/") || workerId.contains("\\"))) {
+                throw new IllegalArgumentException("Worker ID must be a non-empty file name");
+            }
+            if (coordinationDir != null && stateFile != null) {
+                // Which worker scales an input changes from run to run, so no state file sees all of its inputs
+                throw new IllegalArgumentException("Incremental mode cannot be combined with a coordination directory");
+            }
+            return new BatchProcessor(this);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.jpegscaler;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome counts of a {@link BatchProcessor} run.
+ */
+public final class BatchResult {
+
+    private final int processed;
+    private final int skipped;
+    private final int failed;
+    private final long elapsedNanos;
+    private final Map<String, Double> stageUtilization;
+
+    BatchResult(int processed, int skipped, int failed, long elapsedNanos) {
+        this(processed, skipped, failed, elapsedNanos, Collections.<String, Double>emptyMap());
+    }
+
+    BatchResult(int processed, int skipped, int failed, long elapsedNanos, Map<String, Double> stageUtilization) {
+        this.processed = processed;
+        this.skipped = skipped;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+        this.stageUtilization = Collections.unmodifiableMap(stageUtilization);
+    }
+
+    /**
+     * Returns the number of images scaled in this run.
+     *
+     * @return the processed count
+     */
+    public int getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Returns the number of images whose output was still up to date.
+     *
+     * @return the skipped count
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Returns, for a pipelined batch, the share of its threads' time each stage spent
+     * working, in pipeline order. The stage closest to 1 is the bottleneck. Empty
+     * unless the batch was {@linkplain BatchProcessor.Builder#pipeline(int, int) pipelined}.
+     *
+     * @return the utilization by stage name, between 0 and 1
+     */
+    public Map<String, Double> getStageUtilization() {
+        return stageUtilization;
+    }
+
+    /**
+     * Formats the stage utilization, e.g. {@code read 12%, decode 40%, ...}.
+     *
+     * @return the formatted utilization, empty if the batch was not pipelined
+     */
+    public String formatStageUtilization() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Double> stage : stageUtilization.entrySet()) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(String.format(Locale.ROOT, "%s %.0f%%", stage.getKey(), stage.getValue() * 100));
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Processed " + processed + ", skipped " + skipped + " up to date, failed " + failed
+                + " in " + getElapsedMillis() + " ms";
+    }
+}
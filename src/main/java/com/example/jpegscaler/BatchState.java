@@ -0,0 +1,241 @@
+package com.example.jpegscaler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * State file of an incremental batch: for every input, relative to the input root,
+ * the size, modification time and content hash it had when its output was written,
+ * the parameters used, and the size and modification time of that output.
+ *
+ * The file is a gzip-compressed binary table in which parameter strings are stored
+ * once. {@link #save()} writes and syncs a temporary file and renames it over the
+ * state file, so a crash leaves either the previous or the new state, never a torn one.
+ */
+final class BatchState {
+
+    private static final int MAGIC = 0x4A535354;
+    private static final int VERSION = 1;
+
+    /**
+     * What was recorded for one input when its output was written.
+     */
+    static final class Entry {
+        final long size;
+        final long modified;
+        final long hash;
+        final String parameters;
+        final long outputSize;
+        final long outputModified;
+
+        Entry(long size, long modified, long hash, String parameters, long outputSize, long outputModified) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.parameters = parameters;
+            this.outputSize = outputSize;
+            this.outputModified = outputModified;
+        }
+
+        Entry withModified(long newModified) {
+            return new Entry(size, newModified, hash, parameters, outputSize, outputModified);
+        }
+    }
+
+    private final Path file;
+    private final String inputRoot;
+    private final String outputRoot;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private BatchState(Path file, String inputRoot, String outputRoot) {
+        this.file = file;
+        this.inputRoot = inputRoot;
+        this.outputRoot = outputRoot;
+    }
+
+    /**
+     * Loads the state file, or returns an empty state if it does not exist or was
+     * written for different input or output roots.
+     *
+     * @param file       the state file
+     * @param inputRoot  the batch input directory
+     * @param outputRoot the batch output directory
+     * @return the state
+     * @throws IOException if the file exists but cannot be read
+     */
+    static BatchState load(Path file, Path inputRoot, Path outputRoot) throws IOException {
+        BatchState state = new BatchState(file, inputRoot.toAbsolutePath().normalize().toString(),
+                outputRoot.toAbsolutePath().normalize().toString());
+        try (InputStream raw = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(raw)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a batch state file: " + file);
+            }
+            if (!in.readUTF().equals(state.inputRoot) || !in.readUTF().equals(state.outputRoot)) {
+                return state;
+            }
+            String[] parameters = new String[in.readInt()];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = in.readUTF();
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                state.entries.put(path, new Entry(in.readLong(), in.readLong(), in.readLong(),
+                        parameters[in.readInt()], in.readLong(), in.readLong()));
+            }
+        } catch (NoSuchFileException e) {
+            // First run
+        }
+        return state;
+    }
+
+    Entry get(String relativePath) {
+        return entries.get(relativePath);
+    }
+
+    void put(String relativePath, Entry entry) {
+        entries.put(relativePath, entry);
+    }
+
+    /**
+     * Drops entries of inputs that no longer exist.
+     *
+     * @param relativePaths the inputs seen by the current run
+     */
+    void retainAll(Set<String> relativePaths) {
+        entries.keySet().retainAll(relativePaths);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the state to a temporary file next to the state file and renames it
+     * over the state file.
+     *
+     * @throws IOException if the state cannot be written
+     */
+    synchronized void save() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                GZIPOutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(channel));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip));
+                writeTo(out);
+                out.flush();
+                gzip.finish();
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void writeTo(DataOutputStream out) throws IOException {
+        List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+        Map<String, Integer> parameterIndex = new HashMap<>();
+        List<String> parameters = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : snapshot) {
+            if (parameterIndex.putIfAbsent(entry.getValue().parameters, parameters.size()) == null) {
+                parameters.add(entry.getValue().parameters);
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(inputRoot);
+        out.writeUTF(outputRoot);
+        out.writeInt(parameters.size());
+        for (String value : parameters) {
+            out.writeUTF(value);
+        }
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, Entry> entry : snapshot) {
+            Entry value = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(value.size);
+            out.writeLong(value.modified);
+            out.writeLong(value.hash);
+            out.writeInt(parameterIndex.get(value.parameters));
+            out.writeLong(value.outputSize);
+            out.writeLong(value.outputModified);
+        }
+    }
+
+    /**
+     * Returns the first 64 bits of the SHA-256 digest of a file.
+     *
+     * @param path the file
+     * @return the content hash
+     * @throws IOException if the file cannot be read
+     */
+    static long hash(Path path) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toLong(digest.digest());
+    }
+
+    /**
+     * Returns the hash of file contents already in memory, equal to {@link #hash(Path)}
+     * of that file.
+     *
+     * @param data the file contents
+     * @return the content hash
+     */
+    static long hash(byte[] data) {
+        return toLong(sha256().digest(data));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static long toLong(byte[] bytes) {
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (bytes[i] & 0xFF);
+        }
+        return hash;
+    }
+}
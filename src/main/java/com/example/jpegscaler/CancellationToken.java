@@ -0,0 +1,94 @@
+package com.example.jpegscaler;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cooperative cancellation of a scaling job, optionally with a deadline.
+ *
+ * {@link JpegScaler} checks the token while the decoder reads rows, between
+ * resampled rows and while the encoder writes, and gives up with an
+ * {@link InterruptedIOException} once it is cancelled or past its deadline. The
+ * job's buffers are then unreachable and no output is written. Tokens are
+ * thread-safe; {@link #cancel()} is typically called from another thread.
+ */
+public final class CancellationToken {
+
+    /** A token that is never cancelled. */
+    public static final CancellationToken NONE = new CancellationToken(false, 0);
+
+    private final boolean cancellable;
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    private CancellationToken(boolean cancellable, long deadline) {
+        this.cancellable = cancellable;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Creates a token that is only cancelled by {@link #cancel()}.
+     *
+     * @return the token
+     */
+    public static CancellationToken create() {
+        return new CancellationToken(true, 0);
+    }
+
+    /**
+     * Creates a token that is cancelled by {@link #cancel()} or once the timeout,
+     * counted from now, has elapsed.
+     *
+     * @param timeout the timeout
+     * @param unit    the unit of the timeout
+     * @return the token
+     * @throws IllegalArgumentException if the timeout is not positive
+     */
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        // Zero marks "no deadline", so never store it as a deadline
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return new CancellationToken(true, deadline == 0 ? 1 : deadline);
+    }
+
+    /**
+     * Requests cancellation. Jobs using this token stop at their next check.
+     *
+     * @throws UnsupportedOperationException if called on {@link #NONE}
+     */
+    public void cancel() {
+        if (!cancellable) {
+            throw new UnsupportedOperationException("This token cannot be cancelled");
+        }
+        cancelled = true;
+    }
+
+    /**
+     * Returns whether the token was cancelled or its deadline has passed.
+     *
+     * @return {@code true} if jobs should stop
+     */
+    public boolean isCancelled() {
+        return cancelled || isDeadlineExceeded();
+    }
+
+    public boolean isDeadlineExceeded() {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Throws if the token was cancelled or its deadline has passed.
+     *
+     * @throws InterruptedIOException if jobs should stop
+     */
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Scaling was cancelled");
+        }
+        if (isDeadlineExceeded()) {
+            throw new InterruptedIOException("Scaling exceeded its deadline");
+        }
+    }
+}
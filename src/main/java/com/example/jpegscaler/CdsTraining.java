@@ -0,0 +1,54 @@
+package com.example.jpegscaler;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+
+/**
+ * Training workload for the application class-data-sharing archive built by the
+ * {@code cds} Maven profile. It runs the CLI through its common paths so that the
+ * classes they load end up in the archive.
+ */
+final class CdsTraining {
+
+    private CdsTraining() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        Path workDir = Files.createTempDirectory("jpeg-scaler-cds");
+        try {
+            File input = workDir.resolve("input.jpg").toFile();
+            BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, (x * 255 / image.getWidth()) << 16 | (y * 255 / image.getHeight()) << 8);
+                }
+            }
+            ImageIO.write(image, "JPEG", input);
+            String in = input.getPath();
+
+            run("--version");
+            run("--help");
+            run("-i", in, "-o", workDir.resolve("exact.jpg").toString(), "-w", "320", "-h", "240", "-v");
+            run("-i", in, "-o", workDir.resolve("width.jpg").toString(), "-w", "200");
+            run("-i", in, "-o", workDir.resolve("bounded.jpg").toString(), "--max-width", "160",
+                    "--optimize-huffman", "--metadata", "keep");
+        } finally {
+            try (Stream<Path> paths = Files.walk(workDir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static void run(String... args) {
+        if (JpegScalerCLI.run(args) != 0) {
+            throw new IllegalStateException("Training run failed: " + String.join(" ", args));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.jpegscaler;
+
+/**
+ * Chroma subsampling modes supported by the JPEG encoder.
+ */
+public enum ChromaSubsampling {
+
+    /** Full-resolution chroma. */
+    YUV444("4:4:4", 1, 1),
+
+    /** Chroma halved horizontally. */
+    YUV422("4:2:2", 2, 1),
+
+    /** Chroma halved horizontally and vertically. */
+    YUV420("4:2:0", 2, 2);
+
+    private final String label;
+    private final int lumaHorizontalFactor;
+    private final int lumaVerticalFactor;
+
+    ChromaSubsampling(String label, int lumaHorizontalFactor, int lumaVerticalFactor) {
+        this.label = label;
+        this.lumaHorizontalFactor = lumaHorizontalFactor;
+        this.lumaVerticalFactor = lumaVerticalFactor;
+    }
+
+    /**
+     * Returns the luma horizontal sampling factor; chroma components always use 1.
+     *
+     * @return the horizontal sampling factor of the Y component
+     */
+    public int getLumaHorizontalFactor() {
+        return lumaHorizontalFactor;
+    }
+
+    /**
+     * Returns the luma vertical sampling factor; chroma components always use 1.
+     *
+     * @return the vertical sampling factor of the Y component
+     */
+    public int getLumaVerticalFactor() {
+        return lumaVerticalFactor;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+
+    /**
+     * Parses a subsampling mode such as {@code 4:2:0} or {@code 420}.
+     *
+     * @param value the mode to parse
+     * @return the matching mode
+     * @throws IllegalArgumentException if the value is not a supported mode
+     */
+    public static ChromaSubsampling parse(String value) {
+        String normalized = value.trim().replace(":", "");
+        for (ChromaSubsampling mode : values()) {
+            if (mode.label.replace(":", "").equals(normalized)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Chroma subsampling must be one of 4:4:4, 4:2:2 or 4:2:0");
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.jpegscaler;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts decoded CMYK and YCCK samples to an sRGB image.
+ *
+ * With an embedded CMYK profile, the colour management system is run once per
+ * profile over a {@value #GRID}-point grid of CMYK values, and pixels are
+ * interpolated in that table instead of being converted one by one. Tables are
+ * cached by profile contents, so a batch of print JPEGs sharing a profile builds
+ * it once. Without a profile the ink values are converted with the usual naive
+ * formula, as other viewers do.
+ */
+final class CmykConverter {
+
+    /** Grid points per ink; 17 is the size colour management systems use for their own tables. */
+    static final int GRID = 17;
+
+    /** Profiles kept in the cache before it is cleared; print workflows use a handful. */
+    private static final int MAX_CACHED_PROFILES = 16;
+
+    private static final CmykConverter NAIVE = new CmykConverter(null);
+    private static final Map<ByteBuffer, CmykConverter> CACHE = new ConcurrentHashMap<>();
+
+    private static final int STRIDE_C = GRID * GRID * GRID;
+    private static final int STRIDE_M = GRID * GRID;
+    private static final int STRIDE_Y = GRID;
+
+    /** Packed 0xRRGGBB per grid point, or {@code null} for the naive formula. */
+    private final int[] table;
+
+    private CmykConverter(int[] table) {
+        this.table = table;
+    }
+
+    /**
+     * Returns the converter for an embedded profile, building its table on first use.
+     *
+     * @param profile the embedded profile, or {@code null} if there is none
+     * @return the converter; the naive one if the profile is not a CMYK profile
+     */
+    static CmykConverter forProfile(ICC_Profile profile) {
+        if (profile == null || profile.getColorSpaceType() != ColorSpace.TYPE_CMYK) {
+            return NAIVE;
+        }
+        ByteBuffer key = ByteBuffer.wrap(profile.getData());
+        CmykConverter converter = CACHE.get(key);
+        if (converter == null) {
+            converter = forColorSpace(new ICC_ColorSpace(profile));
+            if (CACHE.size() >= MAX_CACHED_PROFILES) {
+                CACHE.clear();
+            }
+            CACHE.putIfAbsent(key, converter);
+        }
+        return converter;
+    }
+
+    /**
+     * Builds a converter whose table samples the given colour space.
+     *
+     * @param cmyk a four-component colour space
+     * @return the converter
+     */
+    static CmykConverter forColorSpace(ColorSpace cmyk) {
+        int points = GRID * GRID * GRID * GRID;
+        WritableRaster grid = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, points, 1, 4, null);
+        byte[] samples = ((DataBufferByte) grid.getDataBuffer()).getData();
+        for (int i = 0, s = 0; i < points; i++) {
+            samples[s++] = (byte) gridValue(i / STRIDE_C);
+            samples[s++] = (byte) gridValue(i / STRIDE_M % GRID);
+            samples[s++] = (byte) gridValue(i / STRIDE_Y % GRID);
+            samples[s++] = (byte) gridValue(i % GRID);
+        }
+        WritableRaster rgb = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, points, 1, 3, null);
+        new ColorConvertOp(cmyk, ColorSpace.getInstance(ColorSpace.CS_sRGB), null).filter(grid, rgb);
+        byte[] converted = ((DataBufferByte) rgb.getDataBuffer()).getData();
+        int[] table = new int[points];
+        for (int i = 0, s = 0; i < points; i++) {
+            table[i] = (converted[s++] & 0xFF) << 16 | (converted[s++] & 0xFF) << 8 | converted[s++] & 0xFF;
+        }
+        return new CmykConverter(table);
+    }
+
+    private static int gridValue(int index) {
+        return (index * 255 + (GRID - 1) / 2) / (GRID - 1);
+    }
+
+    /**
+     * Converts a decoded four-band raster. Adobe applications write CMYK inverted,
+     * so the samples of files with an Adobe segment are inverted after any YCCK
+     * conversion. Stops early, leaving the rest of the image black, once the job
+     * is cancelled.
+     *
+     * @param raster       the decoded samples
+     * @param adobe        whether the file has an Adobe APP14 segment
+     * @param ycck         whether the samples are YCCK rather than CMYK
+     * @param cancellation the cancellation token
+     * @return a {@link BufferedImage#TYPE_3BYTE_BGR} image
+     */
+    BufferedImage toRgb(Raster raster, boolean adobe, boolean ycck, CancellationToken cancellation) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int[] row = new int[width * 4];
+        int[] cmyk = new int[4];
+        int[] fraction = new int[4];
+        int[] stride = new int[4];
+        for (int y = 0, out = 0; y < height && !cancellation.isCancelled(); y++) {
+            raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, row);
+            for (int i = 0; i < row.length; i += 4) {
+                if (ycck) {
+                    toCmyk(row, i);
+                }
+                for (int c = 0; c < 4; c++) {
+                    cmyk[c] = adobe ? 255 - row[i + c] : row[i + c];
+                }
+                int rgb = table != null ? interpolate(cmyk, fraction, stride) : naive(cmyk);
+                bgr[out++] = (byte) rgb;
+                bgr[out++] = (byte) (rgb >> 8);
+                bgr[out++] = (byte) (rgb >> 16);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Converts YCC to the CMY it encodes as libjpeg does, in place; K is stored as is.
+     */
+    private static void toCmyk(int[] row, int i) {
+        float luma = row[i];
+        float cb = row[i + 1] - 128;
+        float cr = row[i + 2] - 128;
+        row[i] = 255 - Resampler.clamp(luma + 1.402f * cr);
+        row[i + 1] = 255 - Resampler.clamp(luma - 0.344136f * cb - 0.714136f * cr);
+        row[i + 2] = 255 - Resampler.clamp(luma + 1.772f * cb);
+    }
+
+    private static int naive(int[] cmyk) {
+        int white = 255 - cmyk[3];
+        int r = (255 - cmyk[0]) * white / 255;
+        int g = (255 - cmyk[1]) * white / 255;
+        int b = (255 - cmyk[2]) * white / 255;
+        return r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Interpolates in the simplex of the grid cell that contains the colour: the
+     * cell corners are walked from the base corner along the inks in order of
+     * decreasing fraction, so 5 table entries are read instead of the 16 corners
+     * of the cell. {@code fraction} and {@code stride} are scratch arrays.
+     */
+    private int interpolate(int[] cmyk, int[] fraction, int[] stride) {
+        stride[0] = STRIDE_C;
+        stride[1] = STRIDE_M;
+        stride[2] = STRIDE_Y;
+        stride[3] = 1;
+        int base = 0;
+        for (int c = 0; c < 4; c++) {
+            // Position in 1/256ths of a grid step
+            int position = cmyk[c] * ((GRID - 1) << 8) / 255;
+            int cell = Math.min(position >> 8, GRID - 2);
+            fraction[c] = position - (cell << 8);
+            base += cell * stride[c];
+        }
+        // Sort the inks by decreasing fraction
+        for (int i = 1; i < 4; i++) {
+            for (int j = i; j > 0 && fraction[j] > fraction[j - 1]; j--) {
+                int f = fraction[j];
+                fraction[j] = fraction[j - 1];
+                fraction[j - 1] = f;
+                int s = stride[j];
+                stride[j] = stride[j - 1];
+                stride[j - 1] = s;
+            }
+        }
+        int corner = base;
+        int weight = 256 - fraction[0];
+        int r = weight * (table[corner] >> 16 & 0xFF);
+        int g = weight * (table[corner] >> 8 & 0xFF);
+        int b = weight * (table[corner] & 0xFF);
+        for (int i = 0; i < 4; i++) {
+            corner += stride[i];
+            weight = i < 3 ? fraction[i] - fraction[i + 1] : fraction[3];
+            r += weight * (table[corner] >> 16 & 0xFF);
+            g += weight * (table[corner] >> 8 & 0xFF);
+            b += weight * (table[corner] & 0xFF);
+        }
+        return (r + 128) >> 8 << 16 | (g + 128) >> 8 << 8 | (b + 128) >> 8;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.jpegscaler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Ordered set of codecs available to {@link JpegScaler}.
+ *
+ * When no codec is named, the first registered codec that can decode the input is
+ * used, so codecs registered earlier take precedence.
+ */
+public final class CodecRegistry {
+
+    /** Codec name that selects a codec from the input traits. */
+    public static final String AUTO = "auto";
+
+    private final List<ImageCodec> codecs = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a registry with the ImageIO codec followed by the Commons Imaging decoder
+     * and the ImageIO variant that keeps YCbCr samples, which is only used by name.
+     *
+     * @return the default registry
+     */
+    public static CodecRegistry createDefault() {
+        return createDefault(OffHeapImages.threshold());
+    }
+
+    /**
+     * Creates the {@linkplain #createDefault() default registry} with the given off-heap
+     * threshold for the ImageIO codecs.
+     *
+     * @param offHeapThreshold the frame size in pixels from which images are decoded off the heap
+     * @return the default registry
+     */
+    static CodecRegistry createDefault(long offHeapThreshold) {
+        CodecRegistry registry = new CodecRegistry();
+        registry.register(new ImageIOCodec(ImageIOCodec.NAME, false, offHeapThreshold));
+        registry.register(new CommonsImagingCodec());
+        registry.register(new ImageIOCodec(ImageIOCodec.YCBCR_NAME, true, offHeapThreshold));
+        return registry;
+    }
+
+    /**
+     * Adds a codec after the ones already registered.
+     *
+     * @param codec the codec to add
+     * @throws IllegalArgumentException if a codec with the same name is registered
+     */
+    public void register(ImageCodec codec) {
+        for (ImageCodec existing : codecs) {
+            if (existing.getName().equals(codec.getName())) {
+                throw new IllegalArgumentException("Codec already registered: " + codec.getName());
+            }
+        }
+        codecs.add(codec);
+    }
+
+    public List<ImageCodec> getCodecs() {
+        return Collections.unmodifiableList(new ArrayList<>(codecs));
+    }
+
+    /**
+     * Returns the codec with the given name.
+     *
+     * @param name the codec name
+     * @return the codec
+     * @throws IllegalArgumentException if no such codec is registered
+     */
+    public ImageCodec get(String name) {
+        for (ImageCodec codec : codecs) {
+            if (codec.getName().equals(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown codec: " + name + " (available: " + names() + ")");
+    }
+
+    /**
+     * Selects the decoder for an input.
+     *
+     * @param traits the header traits of the input
+     * @param name   the requested codec, or {@code null} or {@value #AUTO} to choose by traits
+     * @return the decoder
+     */
+    public ImageCodec selectDecoder(SourceTraits traits, String name) {
+        if (name != null && !name.equals(AUTO)) {
+            return get(name);
+        }
+        for (ImageCodec codec : codecs) {
+            if (codec.canDecode(traits)) {
+                return codec;
+            }
+        }
+        return first();
+    }
+
+    /**
+     * Selects the encoder. A named codec that cannot encode falls back to the
+     * first codec that can.
+     *
+     * @param name the requested codec, or {@code null} or {@value #AUTO}
+     * @return the encoder
+     * @throws IllegalStateException if no registered codec can encode
+     */
+    public ImageCodec selectEncoder(String name) {
+        if (name != null && !name.equals(AUTO)) {
+            ImageCodec codec = get(name);
+            if (codec.canEncode()) {
+                return codec;
+            }
+        }
+        for (ImageCodec codec : codecs) {
+            if (codec.canEncode()) {
+                return codec;
+            }
+        }
+        throw new IllegalStateException("No registered codec can encode JPEG");
+    }
+
+    private ImageCodec first() {
+        if (codecs.isEmpty()) {
+            throw new IllegalStateException("No codecs registered");
+        }
+        return codecs.get(0);
+    }
+
+    private String names() {
+        StringBuilder builder = new StringBuilder();
+        for (ImageCodec codec : codecs) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(codec.getName());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.jpegscaler;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe decode and encode timings of one codec, grouped by input class
+ * (see {@link SourceTraits#getInputClass()}).
+ */
+public final class CodecStatistics {
+
+    /**
+     * Codec operations that are timed.
+     */
+    public enum Operation {
+        DECODE,
+        ENCODE
+    }
+
+    /**
+     * Accumulated count and time of one operation for one input class.
+     */
+    public static final class Timing {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        void record(long elapsedNanos) {
+            count.increment();
+            nanos.add(elapsedNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return nanos.sum();
+        }
+
+        /**
+         * Returns the mean time per operation in milliseconds, or 0 if none were recorded.
+         *
+         * @return the mean time in milliseconds
+         */
+        public double getMeanMillis() {
+            long n = getCount();
+            return n == 0 ? 0.0 : getTotalNanos() / 1e6 / n;
+        }
+    }
+
+    private final ConcurrentMap<String, Timing> timings = new ConcurrentHashMap<>();
+
+    void record(Operation operation, String inputClass, long elapsedNanos) {
+        timings.computeIfAbsent(key(operation, inputClass), k -> new Timing()).record(elapsedNanos);
+    }
+
+    /**
+     * Returns the timing of an operation for one input class.
+     *
+     * @param operation  the operation
+     * @param inputClass the input class
+     * @return the timing, empty if nothing was recorded
+     */
+    public Timing get(Operation operation, String inputClass) {
+        Timing timing = timings.get(key(operation, inputClass));
+        return timing != null ? timing : new Timing();
+    }
+
+    /**
+     * Returns the total timing of an operation over all input classes.
+     *
+     * @param operation the operation
+     * @return the combined timing
+     */
+    public Timing total(Operation operation) {
+        Timing total = new Timing();
+        String prefix = operation.name() + '/';
+        for (Map.Entry<String, Timing> entry : timings.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                total.count.add(entry.getValue().getCount());
+                total.nanos.add(entry.getValue().getTotalNanos());
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns a snapshot of all timings keyed by {@code OPERATION/inputClass}.
+     *
+     * @return the timings, sorted by key
+     */
+    public Map<String, Timing> snapshot() {
+        return new TreeMap<>(timings);
+    }
+
+    private static String key(Operation operation, String inputClass) {
+        return operation.name() + '/' + inputClass;
+    }
+}
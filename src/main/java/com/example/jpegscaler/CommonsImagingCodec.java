@@ -0,0 +1,52 @@
+package com.example.jpegscaler;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.ImagingException;
+
+/**
+ * Decoder backed by Apache Commons Imaging.
+ *
+ * Commons Imaging converts CMYK and YCCK JPEGs to RGB itself, which the JDK reader
+ * does not, but it only decodes baseline JPEG and holds the whole file in memory.
+ * It has no JPEG encoder, and a decode cannot be cancelled once it has started.
+ */
+final class CommonsImagingCodec extends AbstractImageCodec {
+
+    static final String NAME = "commons-imaging";
+
+    CommonsImagingCodec() {
+        super(NAME);
+    }
+
+    @Override
+    public boolean canDecode(SourceTraits traits) {
+        return traits.isKnown() && !traits.isProgressive() && !traits.isHuge();
+    }
+
+    @Override
+    public boolean canEncode() {
+        return false;
+    }
+
+    @Override
+    protected BufferedImage doDecode(File file, CancellationToken cancellation) throws IOException {
+        try {
+            return Imaging.getBufferedImage(file);
+        } catch (ImagingException e) {
+            // Unsupported or corrupt format, reported like ImageIO.read does
+            return null;
+        }
+    }
+
+    @Override
+    protected BufferedImage doDecode(byte[] data, CancellationToken cancellation) throws IOException {
+        try {
+            return Imaging.getBufferedImage(data);
+        } catch (ImagingException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.jpegscaler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thin client mode of {@link JpegScalerCLI}: forwards the invocation to a
+ * {@link ScalerDaemon}, starting one on first use, and falls back to running
+ * in-process whenever no daemon can be reached.
+ *
+ * Enabled with {@code -Djpegscaler.daemon=true} or the environment variable
+ * {@code JPEG_SCALER_DAEMON=true}; the command line itself is unchanged.
+ */
+final class DaemonClient {
+
+    static final String ENABLED_PROPERTY = "jpegscaler.daemon";
+    static final String ENABLED_ENV = "JPEG_SCALER_DAEMON";
+
+    private static final long START_TIMEOUT_MILLIS = 10_000;
+
+    /** How long a daemon may stay silent, several keep-alive intervals, before the client gives up on it. */
+    static final long REPLY_TIMEOUT_MILLIS = 6 * TimeUnit.SECONDS.toMillis(ScalerDaemon.KEEPALIVE_SECONDS);
+
+    private DaemonClient() {
+    }
+
+    static boolean isEnabled() {
+        String value = System.getProperty(ENABLED_PROPERTY, System.getenv(ENABLED_ENV));
+        if (value == null) {
+            return false;
+        }
+        String normalized = value.trim().toLowerCase(Locale.ROOT);
+        return normalized.equals("true") || normalized.equals("1") || normalized.equals("on");
+    }
+
+    /**
+     * Runs the invocation on the daemon, or in-process if the daemon is unavailable.
+     *
+     * @param args command line arguments
+     * @param out  stream for normal output
+     * @param err  stream for error output
+     * @return exit code (0 for success, non-zero for error)
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        Integer exitCode = call(ScalerDaemon.transport(), ScalerDaemon.socketPath(), args, out, err, true);
+        return exitCode != null ? exitCode : JpegScalerCLI.run(args, JpegScaler::new, null, out, err);
+    }
+
+    /**
+     * Sends the invocation to the daemon on {@code socket}.
+     *
+     * @param transport the transport, or {@code null} if the runtime has none
+     * @param socket    the daemon socket
+     * @param args      command line arguments
+     * @param out       stream for normal output
+     * @param err       stream for error output
+     * @param autoStart whether to start a daemon when none is listening
+     * @return the exit code, or {@code null} if no daemon could be reached or it declined
+     *         the invocation
+     */
+    static Integer call(DaemonTransport transport, Path socket, String[] args, PrintStream out, PrintStream err,
+                        boolean autoStart) {
+        if (transport == null) {
+            return null;
+        }
+        try {
+            ScalerDaemon.checkSocketDirectory(socket, true);
+        } catch (IOException e) {
+            // Not a directory only this user controls; never talk to whatever listens there
+            return null;
+        }
+        SocketChannel channel = connect(transport, socket);
+        if (channel == null && autoStart && startDaemon(socket)) {
+            long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+            while (channel == null && System.currentTimeMillis() < deadline && sleep(20)) {
+                channel = connect(transport, socket);
+            }
+        }
+        if (channel == null) {
+            return null;
+        }
+        try (SocketChannel open = channel) {
+            if (!transport.isCurrentUser(open)) {
+                return null;
+            }
+            return ScalerDaemon.call(open, new File("").getAbsoluteFile(), ScalerDaemon.scalingProperties(), args,
+                    out, err, REPLY_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            // The daemon died or hung mid-request; scaling is idempotent, so the caller reruns it in-process
+            return null;
+        }
+    }
+
+    private static SocketChannel connect(DaemonTransport transport, Path socket) {
+        try {
+            return transport.connect(socket);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean startDaemon(Path socket) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-D" + ScalerDaemon.SOCKET_PROPERTY + "=" + socket);
+        command.add("-D" + ScalerDaemon.IDLE_PROPERTY + "=" + ScalerDaemon.idleSeconds());
+        // So the daemon accepts this client: properties it cannot apply per invocation must match
+        for (Map.Entry<String, String> property : ScalerDaemon.scalingProperties().entrySet()) {
+            command.add("-D" + property.getKey() + "=" + property.getValue());
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            command.add("--add-modules");
+            command.add("jdk.incubator.vector");
+        }
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+        command.add(JpegScalerCLI.class.getName());
+        command.add("--daemon");
+        try {
+            new ProcessBuilder(command)
+                    .redirectInput(ProcessBuilder.Redirect.from(new File(isWindows() ? "NUL" : "/dev/null")))
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
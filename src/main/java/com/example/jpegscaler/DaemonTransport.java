@@ -0,0 +1,46 @@
+package com.example.jpegscaler;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Local socket transport between {@link DaemonClient} and {@link ScalerDaemon}.
+ *
+ * The Unix domain socket implementation needs Java 16+ and is loaded reflectively
+ * from the multi-release jar by {@link ScalerDaemon#transport()}.
+ */
+interface DaemonTransport {
+
+    /**
+     * Connects to a daemon listening on the given socket.
+     *
+     * @param socket the socket file
+     * @return a blocking channel to the daemon
+     * @throws IOException if no daemon accepts the connection
+     */
+    SocketChannel connect(Path socket) throws IOException;
+
+    /**
+     * Binds a server channel to the given socket file, which must not exist.
+     *
+     * @param socket the socket file
+     * @return the bound server channel
+     * @throws IOException if the socket cannot be bound
+     */
+    ServerSocketChannel bind(Path socket) throws IOException;
+
+    /**
+     * Returns whether the process at the other end of the channel runs as the current
+     * user. Transports that cannot tell return {@code true} and rely on the private
+     * socket directory alone.
+     *
+     * @param channel a connected channel
+     * @return whether the peer is the current user
+     * @throws IOException if the peer's credentials cannot be read
+     */
+    default boolean isCurrentUser(SocketChannel channel) throws IOException {
+        return true;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.jpegscaler;
+
+import java.util.Arrays;
+
+/**
+ * In-place access to the TIFF structure of an EXIF APP1 payload.
+ *
+ * Values are read and patched directly in the segment bytes so the segment can
+ * be copied to the output without being rebuilt.
+ */
+final class Exif {
+
+    static final int TAG_IMAGE_WIDTH = 0x0100;
+    static final int TAG_IMAGE_LENGTH = 0x0101;
+    static final int TAG_ORIENTATION = 0x0112;
+    static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    static final int TAG_EXIF_IFD = 0x8769;
+    static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+    static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    /** Offset of the TIFF header inside the APP1 payload, after {@code Exif\0\0}. */
+    private static final int TIFF_OFFSET = 6;
+
+    private final byte[] payload;
+    private final boolean littleEndian;
+
+    private Exif(byte[] payload, boolean littleEndian) {
+        this.payload = payload;
+        this.littleEndian = littleEndian;
+    }
+
+    /**
+     * Wraps an EXIF APP1 payload, or returns {@code null} if it is malformed.
+     *
+     * @param payload the payload starting with {@code Exif\0\0}
+     * @return the wrapper or {@code null}
+     */
+    static Exif of(byte[] payload) {
+        if (payload.length < TIFF_OFFSET + 8) {
+            return null;
+        }
+        int order = ((payload[TIFF_OFFSET] & 0xFF) << 8) | (payload[TIFF_OFFSET + 1] & 0xFF);
+        if (order != 0x4949 && order != 0x4D4D) {
+            return null;
+        }
+        return new Exif(payload, order == 0x4949);
+    }
+
+    /**
+     * Updates the image dimension tags of IFD0 and the EXIF sub-IFD to the given size.
+     * Tags that are absent or cannot hold the new value are left unchanged.
+     *
+     * @param payload the EXIF APP1 payload, modified in place
+     * @param width   the new width
+     * @param height  the new height
+     */
+    static void updateDimensions(byte[] payload, int width, int height) {
+        Exif exif = of(payload);
+        if (exif == null) {
+            return;
+        }
+        int ifd0 = exif.firstIfd();
+        exif.setInteger(ifd0, TAG_IMAGE_WIDTH, width);
+        exif.setInteger(ifd0, TAG_IMAGE_LENGTH, height);
+
+        int exifIfd = exif.getInteger(ifd0, TAG_EXIF_IFD, -1);
+        if (exifIfd > 0) {
+            exif.setInteger(exifIfd, TAG_PIXEL_X_DIMENSION, width);
+            exif.setInteger(exifIfd, TAG_PIXEL_Y_DIMENSION, height);
+        }
+    }
+
+    /**
+     * Returns the JPEG thumbnail stored in IFD1, or {@code null} if there is none or
+     * it is declared with an orientation other than the main image's.
+     *
+     * @param payload the EXIF APP1 payload
+     * @return a copy of the thumbnail JPEG or {@code null}
+     */
+    static byte[] thumbnail(byte[] payload) {
+        Exif exif = of(payload);
+        if (exif == null) {
+            return null;
+        }
+        int ifd0 = exif.firstIfd();
+        int ifd1 = exif.nextIfd(ifd0);
+        if (ifd1 <= 0) {
+            return null;
+        }
+        if (exif.getInteger(ifd1, TAG_ORIENTATION, 1) != exif.getInteger(ifd0, TAG_ORIENTATION, 1)) {
+            return null;
+        }
+        int offset = exif.getInteger(ifd1, TAG_THUMBNAIL_OFFSET, -1);
+        int length = exif.getInteger(ifd1, TAG_THUMBNAIL_LENGTH, -1);
+        if (offset <= 0 || length <= 0 || (long) TIFF_OFFSET + offset + length > payload.length) {
+            return null;
+        }
+        return Arrays.copyOfRange(payload, TIFF_OFFSET + offset, TIFF_OFFSET + offset + length);
+    }
+
+    /**
+     * Returns the offset of IFD0 relative to the TIFF header.
+     *
+     * @return the IFD0 offset
+     */
+    int firstIfd() {
+        return readInt(TIFF_OFFSET + 4);
+    }
+
+    /**
+     * Returns the offset of the IFD linked after the given one, or {@code 0} if it is the last.
+     *
+     * @param ifd the IFD offset relative to the TIFF header
+     * @return the next IFD offset, {@code 0} or negative if there is none
+     */
+    int nextIfd(int ifd) {
+        int count = entryCount(ifd);
+        long position = (long) TIFF_OFFSET + ifd + 2 + count * 12L;
+        if (count < 0 || position + 4 > payload.length) {
+            return 0;
+        }
+        return readInt((int) position);
+    }
+
+    /**
+     * Reads a SHORT or LONG tag value.
+     *
+     * @param ifd          the IFD offset relative to the TIFF header
+     * @param tag          the tag to read
+     * @param defaultValue the value returned if the tag is missing
+     * @return the tag value or {@code defaultValue}
+     */
+    int getInteger(int ifd, int tag, int defaultValue) {
+        int entry = findEntry(ifd, tag);
+        if (entry < 0) {
+            return defaultValue;
+        }
+        int type = readShort(entry + 2);
+        if (type == TYPE_SHORT) {
+            return readShort(entry + 8);
+        }
+        if (type == TYPE_LONG) {
+            return readInt(entry + 8);
+        }
+        return defaultValue;
+    }
+
+    private void setInteger(int ifd, int tag, int value) {
+        int entry = findEntry(ifd, tag);
+        if (entry < 0) {
+            return;
+        }
+        int type = readShort(entry + 2);
+        if (type == TYPE_SHORT && value <= 0xFFFF) {
+            writeShort(entry + 8, value);
+        } else if (type == TYPE_LONG) {
+            writeInt(entry + 8, value);
+        }
+    }
+
+    /**
+     * Returns the absolute payload position of the given tag's 12-byte entry, or {@code -1}.
+     */
+    private int findEntry(int ifd, int tag) {
+        int count = entryCount(ifd);
+        for (int i = 0; i < count; i++) {
+            long entry = (long) TIFF_OFFSET + ifd + 2 + i * 12L;
+            if (entry + 12 > payload.length) {
+                return -1;
+            }
+            if (readShort((int) entry) == tag) {
+                return (int) entry;
+            }
+        }
+        return -1;
+    }
+
+    private int entryCount(int ifd) {
+        // Offsets come from the file, so a bogus one must not overflow past the check
+        if (ifd <= 0 || ifd > payload.length - TIFF_OFFSET - 2) {
+            return -1;
+        }
+        return readShort(TIFF_OFFSET + ifd);
+    }
+
+    int readShort(int position) {
+        int a = payload[position] & 0xFF;
+        int b = payload[position + 1] & 0xFF;
+        return littleEndian ? (b << 8) | a : (a << 8) | b;
+    }
+
+    int readInt(int position) {
+        int high = readShort(littleEndian ? position + 2 : position);
+        int low = readShort(littleEndian ? position : position + 2);
+        return (high << 16) | low;
+    }
+
+    private void writeShort(int position, int value) {
+        byte high = (byte) (value >> 8);
+        byte low = (byte) value;
+        payload[position] = littleEndian ? low : high;
+        payload[position + 1] = littleEndian ? high : low;
+    }
+
+    private void writeInt(int position, int value) {
+        writeShort(littleEndian ? position + 2 : position, value >>> 16);
+        writeShort(littleEndian ? position : position + 2, value & 0xFFFF);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.jpegscaler;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * A decoder and/or encoder backend used by {@link JpegScaler}.
+ *
+ * Implementations are registered with a {@link CodecRegistry}, which picks one per
+ * job either by name or by the {@link SourceTraits} of the input. Every codec keeps
+ * its own {@link CodecStatistics}.
+ */
+public interface ImageCodec {
+
+    /**
+     * Returns the name used to select this codec, e.g. {@code imageio}.
+     *
+     * @return the codec name
+     */
+    String getName();
+
+    /**
+     * Returns whether this codec should be chosen automatically for the given input.
+     *
+     * @param traits the header traits of the input
+     * @return {@code true} if this codec decodes such inputs correctly
+     */
+    boolean canDecode(SourceTraits traits);
+
+    /**
+     * Returns whether this codec can write JPEG output.
+     *
+     * @return {@code true} if {@link #encode} is supported
+     */
+    boolean canEncode();
+
+    /**
+     * Decodes an image file.
+     *
+     * @param file   the file to decode
+     * @param traits the header traits of the file
+     * @return the decoded image, or {@code null} if the file is not a readable image
+     * @throws IOException if an I/O error occurs
+     */
+    BufferedImage decode(File file, SourceTraits traits) throws IOException;
+
+    /**
+     * Decodes an image file, giving up once the token is cancelled. Codecs that
+     * cannot stop mid-decode only check the token before and after decoding.
+     *
+     * @param file         the file to decode
+     * @param traits       the header traits of the file
+     * @param cancellation the cancellation token of the job
+     * @return the decoded image, or {@code null} if the file is not a readable image
+     * @throws java.io.InterruptedIOException if the token was cancelled
+     * @throws IOException if an I/O error occurs
+     */
+    default BufferedImage decode(File file, SourceTraits traits, CancellationToken cancellation) throws IOException {
+        cancellation.throwIfCancelled();
+        BufferedImage image = decode(file, traits);
+        cancellation.throwIfCancelled();
+        return image;
+    }
+
+    /**
+     * Decodes an image already read into memory, e.g. by the prefetch stage of a
+     * pipelined batch. The default implementation writes the data to a temporary
+     * file and decodes that; codecs that can read from memory should override it.
+     *
+     * @param data         the complete file contents
+     * @param traits       the header traits of the data
+     * @param cancellation the cancellation token of the job
+     * @return the decoded image, or {@code null} if the data is not a readable image
+     * @throws java.io.InterruptedIOException if the token was cancelled
+     * @throws IOException if an I/O error occurs
+     */
+    default BufferedImage decode(byte[] data, SourceTraits traits, CancellationToken cancellation)
+            throws IOException {
+        File file = File.createTempFile("jpeg-scaler-", ".jpg");
+        try {
+            Files.write(file.toPath(), data);
+            return decode(file, traits, cancellation);
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Encodes an image as JPEG.
+     *
+     * @param image   the image to encode
+     * @param output  the stream to write to; not closed by this method
+     * @param options the encoder options
+     * @throws IOException if an I/O error occurs
+     * @throws UnsupportedOperationException if {@link #canEncode()} is {@code false}
+     */
+    void encode(BufferedImage image, OutputStream output, ScaleOptions options) throws IOException;
+
+    /**
+     * Encodes an image as JPEG, giving up once the token is cancelled. Output
+     * written before that is incomplete and must be discarded.
+     *
+     * @param image        the image to encode
+     * @param output       the stream to write to; not closed by this method
+     * @param options      the encoder options
+     * @param cancellation the cancellation token of the job
+     * @throws java.io.InterruptedIOException if the token was cancelled
+     * @throws IOException if an I/O error occurs
+     */
+    default void encode(BufferedImage image, OutputStream output, ScaleOptions options,
+                        CancellationToken cancellation) throws IOException {
+        cancellation.throwIfCancelled();
+        encode(image, output, options);
+        cancellation.throwIfCancelled();
+    }
+
+    /**
+     * Returns the timings recorded by this codec.
+     *
+     * @return the codec statistics
+     */
+    CodecStatistics getStatistics();
+}
@@ -0,0 +1,422 @@
+package com.example.jpegscaler;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Codec backed by the JDK's ImageIO JPEG reader and writer.
+ *
+ * The JDK reader handles progressive and very large files but returns CMYK and
+ * YCCK images without converting them to RGB. Their samples are read as a raster
+ * instead and converted by a {@link CmykConverter} for the embedded profile.
+ *
+ * The {@value #YCBCR_NAME} variant reads YCbCr JPEGs as raw component samples in
+ * a {@link YCbCrColorSpace} image, and writes such images back as a raster, so
+ * neither the decoder nor the encoder converts between YCbCr and RGB. Inputs it
+ * cannot keep in YCbCr, such as those with an ICC profile, are read as usual.
+ *
+ * Grayscale and plain RGB frames from the {@linkplain OffHeapImages off-heap
+ * threshold} up are decoded into an off-heap destination image.
+ */
+final class ImageIOCodec extends AbstractImageCodec {
+
+    static final String NAME = "imageio";
+
+    static final String YCBCR_NAME = "imageio-ycbcr";
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    /** "ICC_PROFILE", a NUL, then the chunk's sequence number and the chunk count. */
+    private static final int ICC_CHUNK_HEADER = 14;
+
+    private final boolean keepYCbCr;
+    private final long offHeapThreshold;
+
+    ImageIOCodec() {
+        this(NAME, false);
+    }
+
+    /**
+     * Creates the codec.
+     *
+     * @param name      the codec name
+     * @param keepYCbCr whether YCbCr input is decoded without converting it to RGB
+     */
+    ImageIOCodec(String name, boolean keepYCbCr) {
+        this(name, keepYCbCr, OffHeapImages.threshold());
+    }
+
+    /**
+     * Creates the codec.
+     *
+     * @param name             the codec name
+     * @param keepYCbCr        whether YCbCr input is decoded without converting it to RGB
+     * @param offHeapThreshold the frame size in pixels from which images are decoded off the heap
+     */
+    ImageIOCodec(String name, boolean keepYCbCr, long offHeapThreshold) {
+        super(name);
+        this.keepYCbCr = keepYCbCr;
+        this.offHeapThreshold = offHeapThreshold;
+    }
+
+    @Override
+    public boolean canDecode(SourceTraits traits) {
+        return true;
+    }
+
+    @Override
+    public boolean canEncode() {
+        return true;
+    }
+
+    @Override
+    protected BufferedImage doDecode(File file, CancellationToken cancellation) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            return read(input, cancellation);
+        }
+    }
+
+    @Override
+    protected BufferedImage doDecode(byte[] data, CancellationToken cancellation) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            return read(input, cancellation);
+        }
+    }
+
+    private BufferedImage read(ImageInputStream input, CancellationToken cancellation) throws IOException {
+        Iterator<ImageReader> readers = input == null
+                ? Collections.<ImageReader>emptyIterator()
+                : ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            if (cancellation != CancellationToken.NONE) {
+                reader.addIIOReadProgressListener(new AbortOnCancel(cancellation));
+            }
+            IIOMetadataNode root = nativeMetadata(reader);
+            // An aborted read returns a partial image; the caller checks the token
+            if (root != null && frameComponents(root) == 4) {
+                int adobeTransform = adobeTransform(root);
+                Raster raster = reader.readRaster(0, reader.getDefaultReadParam());
+                return CmykConverter.forProfile(iccProfile(root))
+                        .toRgb(raster, adobeTransform >= 0, adobeTransform == 2, cancellation);
+            }
+            if (keepYCbCr && root != null && isYCbCr(root) && iccProfile(root) == null) {
+                Raster raster = reader.readRaster(0, reader.getDefaultReadParam());
+                if (raster instanceof WritableRaster && raster.getTransferType() == DataBuffer.TYPE_BYTE) {
+                    return YCbCrColorSpace.createImage(((WritableRaster) raster)
+                            .createWritableTranslatedChild(0, 0));
+                }
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            BufferedImage destination = offHeapDestination(reader, root);
+            param.setDestination(destination);
+            try {
+                return reader.read(0, param);
+            } catch (IOException | RuntimeException e) {
+                OffHeapImages.release(destination);
+                throw e;
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Returns the native metadata tree, or {@code null} for files whose marker order
+     * the metadata parser rejects although the decoder accepts it.
+     */
+    private static IIOMetadataNode nativeMetadata(ImageReader reader) throws IOException {
+        try {
+            return (IIOMetadataNode) reader.getImageMetadata(0).getAsTree(JPEG_METADATA_FORMAT);
+        } catch (IIOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns an off-heap image to decode into, or {@code null} to let the reader
+     * allocate one. Only frames the reader returns as linear gray or sRGB qualify;
+     * ICC-tagged frames keep the reader's own colour space.
+     */
+    private BufferedImage offHeapDestination(ImageReader reader, IIOMetadataNode root) throws IOException {
+        if (root == null || iccProfile(root) != null) {
+            return null;
+        }
+        int components = frameComponents(root);
+        if (components != 1 && components != 3) {
+            return null;
+        }
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        if (!OffHeapImages.applies(width, height, components, offHeapThreshold)) {
+            return null;
+        }
+        return OffHeapImages.create(width, height,
+                ColorSpace.getInstance(components == 1 ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB));
+    }
+
+    private static int frameComponents(IIOMetadataNode root) {
+        NodeList sof = root.getElementsByTagName("sof");
+        return sof.getLength() > 0 ? ((IIOMetadataNode) sof.item(0)).getChildNodes().getLength() : 0;
+    }
+
+    /**
+     * Returns whether the frame holds YCbCr: three components, unless an Adobe
+     * segment or the component IDs 'R', 'G' and 'B' mark them as RGB.
+     */
+    private static boolean isYCbCr(IIOMetadataNode root) {
+        if (frameComponents(root) != 3 || adobeTransform(root) == 0) {
+            return false;
+        }
+        NodeList components = root.getElementsByTagName("sof").item(0).getChildNodes();
+        return !("82".equals(((IIOMetadataNode) components.item(0)).getAttribute("componentId"))
+                && "71".equals(((IIOMetadataNode) components.item(1)).getAttribute("componentId"))
+                && "66".equals(((IIOMetadataNode) components.item(2)).getAttribute("componentId")));
+    }
+
+    private static int adobeTransform(IIOMetadataNode root) {
+        NodeList adobe = root.getElementsByTagName("app14Adobe");
+        return adobe.getLength() > 0 ? Integer.parseInt(((IIOMetadataNode) adobe.item(0)).getAttribute("transform")) : -1;
+    }
+
+    /**
+     * Reassembles the embedded ICC profile from its APP2 chunks, which the JDK
+     * reader leaves as unknown segments when the file has no JFIF segment.
+     *
+     * @param root the native image metadata
+     * @return the profile, or {@code null} if there is none or it is invalid
+     */
+    static ICC_Profile iccProfile(IIOMetadataNode root) {
+        NodeList jfifProfiles = root.getElementsByTagName("app2ICC");
+        if (jfifProfiles.getLength() > 0) {
+            return (ICC_Profile) ((IIOMetadataNode) jfifProfiles.item(0)).getUserObject();
+        }
+        SortedMap<Integer, byte[]> chunks = new TreeMap<>();
+        NodeList unknown = root.getElementsByTagName("unknown");
+        for (int i = 0; i < unknown.getLength(); i++) {
+            IIOMetadataNode node = (IIOMetadataNode) unknown.item(i);
+            Object data = node.getUserObject();
+            if ("226".equals(node.getAttribute("MarkerTag")) && data instanceof byte[]
+                    && MetadataPolicy.classify(JpegHeader.APP0 + 2, (byte[]) data) == MetadataPolicy.SegmentType.ICC
+                    && ((byte[]) data).length > ICC_CHUNK_HEADER) {
+                chunks.put(((byte[]) data)[ICC_CHUNK_HEADER - 2] & 0xFF, (byte[]) data);
+            }
+        }
+        if (chunks.isEmpty()) {
+            return null;
+        }
+        ByteArrayOutputStream profile = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks.values()) {
+            profile.write(chunk, ICC_CHUNK_HEADER, chunk.length - ICC_CHUNK_HEADER);
+        }
+        try {
+            return ICC_Profile.getInstance(profile.toByteArray());
+        } catch (IllegalArgumentException e) {
+            // A damaged profile is ignored, as viewers do
+            return null;
+        }
+    }
+
+    @Override
+    protected void doEncode(BufferedImage image, OutputStream output, ScaleOptions options,
+                            CancellationToken cancellation) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("JPEG");
+        if (!writers.hasNext()) {
+            throw new IOException("No JPEG writer available");
+        }
+        
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(options.getQuality());
+        }
+        
+        if (options.isOptimizeHuffman() && param instanceof JPEGImageWriteParam) {
+            ((JPEGImageWriteParam) param).setOptimizeHuffmanTables(true);
+        }
+        
+        if (options.isProgressive() && param.canWriteProgressive()) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        
+        // YCbCr samples are written as a raster, which the writer stores without conversion.
+        // Metadata for RGB input makes it write the same JFIF segment and sampling.
+        boolean ycbcr = YCbCrColorSpace.isYCbCr(image);
+        IIOMetadata metadata = createJpegMetadata(writer,
+                ycbcr ? ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB)
+                        : ImageTypeSpecifier.createFromRenderedImage(image),
+                param, options, ycbcr);
+        IIOImage content = ycbcr ? new IIOImage(image.getRaster(), null, metadata)
+                : new IIOImage(image, null, metadata);
+        
+        if (cancellation != CancellationToken.NONE) {
+            writer.addIIOWriteProgressListener(new AbortOnCancel(cancellation));
+        }
+        
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(output)) {
+            writer.setOutput(ios);
+            writer.write(null, content, param);
+        } finally {
+            writer.dispose();
+        }
+    }
+    
+    /**
+     * Builds the image metadata carrying the chroma subsampling and restart interval,
+     * or returns {@code null} when the encoder defaults are requested and the
+     * metadata is not {@code required}.
+     */
+    private IIOMetadata createJpegMetadata(ImageWriter writer, ImageTypeSpecifier type, ImageWriteParam param,
+                                           ScaleOptions options, boolean required) throws IOException {
+        ChromaSubsampling subsampling = options.getChromaSubsampling();
+        int restartInterval = options.getRestartInterval();
+        if (subsampling == null && restartInterval == 0) {
+            return required ? writer.getDefaultImageMetadata(type, param) : null;
+        }
+        
+        IIOMetadata metadata = writer.getDefaultImageMetadata(type, param);
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA_FORMAT);
+        IIOMetadataNode markerSequence = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+        IIOMetadataNode sof = (IIOMetadataNode) markerSequence.getElementsByTagName("sof").item(0);
+        
+        if (subsampling != null && sof != null) {
+            Node component = sof.getFirstChild();
+            for (int index = 0; component != null; index++, component = component.getNextSibling()) {
+                IIOMetadataNode componentSpec = (IIOMetadataNode) component;
+                boolean luma = index == 0;
+                componentSpec.setAttribute("HsamplingFactor",
+                        String.valueOf(luma ? subsampling.getLumaHorizontalFactor() : 1));
+                componentSpec.setAttribute("VsamplingFactor",
+                        String.valueOf(luma ? subsampling.getLumaVerticalFactor() : 1));
+            }
+        }
+        
+        if (restartInterval > 0) {
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", String.valueOf(restartInterval));
+            markerSequence.insertBefore(dri, sof);
+        }
+        
+        metadata.setFromTree(JPEG_METADATA_FORMAT, root);
+        return metadata;
+    }
+
+    /**
+     * Aborts a read or write in progress once the job is cancelled. The JDK codecs
+     * report progress every few rows, which bounds how long cancelling takes.
+     */
+    private static final class AbortOnCancel implements IIOReadProgressListener, IIOWriteProgressListener {
+        private final CancellationToken cancellation;
+
+        AbortOnCancel(CancellationToken cancellation) {
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (cancellation.isCancelled()) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void imageProgress(ImageWriter source, float percentageDone) {
+            if (cancellation.isCancelled()) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageWriter source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageWriter source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void writeAborted(ImageWriter source) {
+        }
+    }
+}
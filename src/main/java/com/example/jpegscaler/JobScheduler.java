@@ -0,0 +1,437 @@
+package com.example.jpegscaler;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded worker pool that runs the cheapest queued job first.
+ *
+ * Jobs are submitted with an estimated cost, e.g. from {@link JpegScaler#estimateCost}.
+ * To keep expensive jobs from starving, a job's priority improves the longer it
+ * waits: it is ordered by {@code cost - age * agingRate}. Because every waiting job
+ * ages at the same rate, that order is fixed at submission, so the queue is a plain
+ * priority queue keyed by {@code cost + submitTime * agingRate}.
+ *
+ * Optionally, jobs from a cost threshold up go to a large-job lane with its own
+ * workers, so a few huge jobs cannot occupy every worker. Regular workers also take
+ * large jobs when they have nothing else to do and more large jobs wait than there
+ * are free large-lane workers, so no worker idles while work waits.
+ *
+ * The number of regular workers that run jobs at once can be changed at runtime with
+ * {@link #setConcurrency(int)}, up to the thread count given to the builder, e.g. by
+ * an {@link AdaptiveConcurrency} controller. Workers are started on demand.
+ */
+public final class JobScheduler implements AutoCloseable {
+
+    /** By default, waiting one second is worth ten megapixels of estimated cost. */
+    public static final double DEFAULT_AGING_RATE = 10_000_000;
+
+    private static final Comparator<Job> ORDER = Comparator.<Job>comparingDouble(job -> job.key)
+            .thenComparingLong(job -> job.sequence);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition terminated = lock.newCondition();
+    private final PriorityQueue<Job> regular = new PriorityQueue<>(ORDER);
+    private final PriorityQueue<Job> large = new PriorityQueue<>(ORDER);
+    private final double agingRatePerNano;
+    private final long largeJobCost;
+    private final int capacity;
+    private final long origin = System.nanoTime();
+    private long sequence;
+    private final int largeLaneWorkers;
+    private final int maximumConcurrency;
+    private final ThreadFactory factory;
+    private int concurrency;
+    private int regularWorkers;
+    private int runningRegularJobs;
+    private int liveWorkers;
+    private int busyLargeLaneWorkers;
+    private long completedJobs;
+    private boolean shutdown;
+
+    private JobScheduler(Builder builder) {
+        this.agingRatePerNano = builder.agingRate / TimeUnit.SECONDS.toNanos(1);
+        this.largeJobCost = builder.largeJobLaneThreads > 0 ? builder.largeJobCost : Long.MAX_VALUE;
+        this.capacity = builder.capacity;
+        this.largeLaneWorkers = builder.largeJobLaneThreads;
+        this.maximumConcurrency = builder.threads;
+        this.concurrency = builder.concurrency > 0 ? builder.concurrency : builder.threads;
+        AtomicInteger counter = new AtomicInteger();
+        this.factory = task -> {
+            Thread thread = new Thread(task, "jpeg-scaler-" + builder.name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        lock.lock();
+        try {
+            for (int i = 0; i < builder.largeJobLaneThreads; i++) {
+                liveWorkers++;
+                factory.newThread(() -> work(true)).start();
+            }
+            startRegularWorkers();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static Builder builder(int threads) {
+        return new Builder(threads);
+    }
+
+    /**
+     * Queues a job, waiting while the queue is full.
+     *
+     * @param cost the estimated cost of the job, in the unit of the aging rate
+     * @param task the job
+     * @throws InterruptedException if interrupted while waiting for room
+     * @throws IllegalStateException if the scheduler is shut down
+     */
+    public void submit(long cost, Runnable task) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (regular.size() + large.size() >= capacity && !shutdown) {
+                notFull.await();
+            }
+            if (shutdown) {
+                throw new IllegalStateException("Scheduler is shut down");
+            }
+            double key = cost + (System.nanoTime() - origin) * agingRatePerNano;
+            boolean isLarge = cost >= largeJobCost;
+            (isLarge ? large : regular).add(new Job(key, sequence++, task, isLarge));
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes how many regular workers may run jobs at once. Jobs already running
+     * are not interrupted when the limit drops; fewer are started until it is met.
+     *
+     * @param concurrency the new limit, clamped to 1 and the builder's thread count
+     * @return the limit in effect
+     */
+    public int setConcurrency(int concurrency) {
+        lock.lock();
+        try {
+            this.concurrency = Math.max(1, Math.min(maximumConcurrency, concurrency));
+            if (!shutdown) {
+                startRegularWorkers();
+            }
+            notEmpty.signalAll();
+            return this.concurrency;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many regular workers may run jobs at once.
+     *
+     * @return the current limit
+     */
+    public int getConcurrency() {
+        lock.lock();
+        try {
+            return concurrency;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the highest value {@link #setConcurrency(int)} accepts.
+     *
+     * @return the regular thread count given to the builder
+     */
+    public int getMaximumConcurrency() {
+        return maximumConcurrency;
+    }
+
+    /**
+     * Returns how many jobs have finished, successfully or not.
+     *
+     * @return the number of finished jobs
+     */
+    public long getCompletedJobs() {
+        lock.lock();
+        try {
+            return completedJobs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many jobs are waiting for a worker.
+     *
+     * @return the number of queued jobs
+     */
+    public int getQueuedJobs() {
+        lock.lock();
+        try {
+            return regular.size() + large.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting jobs; queued jobs still run.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all queued jobs have run after {@link #shutdown()}.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitTermination() throws InterruptedException {
+        lock.lock();
+        try {
+            while (liveWorkers > 0) {
+                terminated.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Shuts down and waits for all queued jobs.
+     */
+    @Override
+    public void close() {
+        shutdown();
+        try {
+            awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work(boolean largeLane) {
+        boolean drained = false;
+        try {
+            Job job;
+            while ((job = take(largeLane)) != null) {
+                try {
+                    job.task.run();
+                } catch (Throwable e) {
+                    // Also an Error, such as running out of memory on a huge input: the job is
+                    // lost, but the worker stays, so the pool keeps its size and drains the queue
+                    Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, e);
+                } finally {
+                    finish(job, largeLane);
+                }
+            }
+            drained = true;
+        } finally {
+            lock.lock();
+            try {
+                liveWorkers--;
+                if (!drained && !largeLane) {
+                    // Died outside a job; replace it, or queued jobs might never run
+                    regularWorkers--;
+                    if (!shutdown || !regular.isEmpty() || !large.isEmpty()) {
+                        startRegularWorkers();
+                    }
+                }
+                if (liveWorkers == 0) {
+                    terminated.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void startRegularWorkers() {
+        while (regularWorkers < concurrency) {
+            regularWorkers++;
+            liveWorkers++;
+            factory.newThread(() -> work(false)).start();
+        }
+    }
+
+    private void finish(Job job, boolean largeLane) {
+        lock.lock();
+        try {
+            completedJobs++;
+            if (largeLane) {
+                busyLargeLaneWorkers--;
+            } else {
+                runningRegularJobs--;
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Job take(boolean largeLane) {
+        lock.lock();
+        try {
+            while (true) {
+                Job job = null;
+                if (largeLane) {
+                    job = large.poll();
+                } else if (runningRegularJobs < concurrency) {
+                    job = regular.poll();
+                    if (job == null && large.size() > largeLaneWorkers - busyLargeLaneWorkers) {
+                        job = large.poll();
+                    }
+                }
+                if (job != null) {
+                    if (largeLane) {
+                        busyLargeLaneWorkers++;
+                    } else {
+                        runningRegularJobs++;
+                    }
+                    notFull.signal();
+                    return job;
+                }
+                if (shutdown) {
+                    return null;
+                }
+                notEmpty.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Job {
+        final double key;
+        final long sequence;
+        final Runnable task;
+        final boolean large;
+
+        Job(double key, long sequence, Runnable task, boolean large) {
+            this.key = key;
+            this.sequence = sequence;
+            this.task = task;
+            this.large = large;
+        }
+    }
+
+    /**
+     * Builder for {@link JobScheduler}.
+     */
+    public static final class Builder {
+        private final int threads;
+        private String name = "worker";
+        private double agingRate = DEFAULT_AGING_RATE;
+        private long largeJobCost;
+        private int largeJobLaneThreads;
+        private int concurrency;
+        private int capacity;
+
+        private Builder(int threads) {
+            this.threads = threads;
+            this.capacity = Math.max(threads * 4, 10_000);
+        }
+
+        /**
+         * Sets the name of the worker threads, {@code jpeg-scaler-<name>-<n>}.
+         *
+         * @param name the thread name part, by default {@code worker}
+         * @return this builder
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Sets how much estimated cost a job makes up for per second of waiting.
+         * Zero gives pure shortest-job-first, which may starve expensive jobs.
+         *
+         * @param costPerSecond the aging rate
+         * @return this builder
+         */
+        public Builder agingRate(double costPerSecond) {
+            this.agingRate = costPerSecond;
+            return this;
+        }
+
+        /**
+         * Runs jobs from the given cost up in a lane with its own workers.
+         *
+         * @param minimumCost the cost from which a job counts as large
+         * @param threads     the number of large-lane workers
+         * @return this builder
+         */
+        public Builder largeJobLane(long minimumCost, int threads) {
+            this.largeJobCost = minimumCost;
+            this.largeJobLaneThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets how many regular workers may run jobs at first; by default all of them.
+         * The limit can later be changed with {@link JobScheduler#setConcurrency(int)}.
+         *
+         * @param concurrency the initial limit, at most the thread count
+         * @return this builder
+         */
+        public Builder initialConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Sets how many jobs may wait; shortest-job-first ordering applies within
+         * this window. Defaults to 10000 or four per worker, whichever is larger.
+         *
+         * @param capacity the queue capacity
+         * @return this builder
+         */
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Validates the settings and starts the workers.
+         *
+         * @return the scheduler
+         * @throws IllegalArgumentException if a value is out of range
+         */
+        public JobScheduler build() {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Threads must be at least 1");
+            }
+            if (agingRate < 0) {
+                throw new IllegalArgumentException("Aging rate must not be negative");
+            }
+            if (largeJobLaneThreads < 0 || largeJobCost < 0) {
+                throw new IllegalArgumentException("Large-job lane threshold and threads must not be negative");
+            }
+            if (concurrency < 0 || concurrency > threads) {
+                throw new IllegalArgumentException("Initial concurrency must be between 1 and " + threads);
+            }
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Capacity must be at least 1");
+            }
+            return new JobScheduler(this);
+        }
+    }
+}
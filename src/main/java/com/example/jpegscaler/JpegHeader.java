@@ -0,0 +1,288 @@
+package com.example.jpegscaler;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming parser for the marker segments preceding the first scan of a JPEG file.
+ *
+ * Only the header is read; entropy-coded data is never touched. Metadata segments
+ * are retained according to a {@link MetadataPolicy} and all others are skipped.
+ */
+final class JpegHeader {
+
+    static final int SOI = 0xD8;
+    static final int EOI = 0xD9;
+    static final int SOS = 0xDA;
+    static final int DRI = 0xDD;
+    static final int APP0 = 0xE0;
+    static final int APP14 = 0xEE;
+    static final int COM = 0xFE;
+
+    /**
+     * A metadata segment copied from the source file.
+     */
+    static final class Segment {
+        final int marker;
+        final MetadataPolicy.SegmentType type;
+        final byte[] payload;
+
+        Segment(int marker, MetadataPolicy.SegmentType type, byte[] payload) {
+            this.marker = marker;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        /**
+         * Returns the segment encoded as marker, length and payload.
+         *
+         * @return the encoded segment
+         */
+        byte[] toBytes() {
+            int length = payload.length + 2;
+            byte[] bytes = new byte[length + 2];
+            bytes[0] = (byte) 0xFF;
+            bytes[1] = (byte) marker;
+            bytes[2] = (byte) (length >> 8);
+            bytes[3] = (byte) length;
+            System.arraycopy(payload, 0, bytes, 4, payload.length);
+            return bytes;
+        }
+    }
+
+    private int width;
+    private int height;
+    private int components;
+    private boolean progressive;
+    private int adobeTransform = -1;
+    private byte[] thumbnail;
+    private final List<Segment> segments = new ArrayList<>();
+
+    private JpegHeader() {
+    }
+
+    /**
+     * Reads the header of a JPEG file.
+     *
+     * @param file   the JPEG file
+     * @param policy which metadata segments to retain
+     * @return the parsed header
+     * @throws IOException if the file cannot be read or is not a JPEG file
+     */
+    static JpegHeader read(File file, MetadataPolicy policy) throws IOException {
+        return read(file, policy, false);
+    }
+
+    /**
+     * Reads the header of a JPEG file, optionally keeping its EXIF thumbnail.
+     *
+     * @param file          the JPEG file
+     * @param policy        which metadata segments to retain
+     * @param exifThumbnail whether to extract the EXIF thumbnail, even if the policy drops EXIF
+     * @return the parsed header
+     * @throws IOException if the file cannot be read or is not a JPEG file
+     */
+    static JpegHeader read(File file, MetadataPolicy policy, boolean exifThumbnail) throws IOException {
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            return read(input, policy, exifThumbnail);
+        }
+    }
+
+    /**
+     * Reads a JPEG header from a stream. The stream is left positioned somewhere
+     * before the first scan.
+     *
+     * @param input  the stream, positioned at the start of the file
+     * @param policy which metadata segments to retain
+     * @return the parsed header
+     * @throws IOException if the stream cannot be read or is not a JPEG stream
+     */
+    static JpegHeader read(InputStream input, MetadataPolicy policy) throws IOException {
+        return read(input, policy, false);
+    }
+
+    /**
+     * Reads a JPEG header from a stream, optionally keeping its EXIF thumbnail.
+     *
+     * @param input         the stream, positioned at the start of the file
+     * @param policy        which metadata segments to retain
+     * @param exifThumbnail whether to extract the EXIF thumbnail, even if the policy drops EXIF
+     * @return the parsed header
+     * @throws IOException if the stream cannot be read or is not a JPEG stream
+     */
+    static JpegHeader read(InputStream input, MetadataPolicy policy, boolean exifThumbnail) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        if (data.readUnsignedByte() != 0xFF || data.readUnsignedByte() != SOI) {
+            throw new IOException("Not a JPEG file");
+        }
+
+        JpegHeader header = new JpegHeader();
+        while (true) {
+            int marker = nextMarker(data);
+            if (marker == SOS || marker == EOI) {
+                break;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue;
+            }
+
+            int length = data.readUnsignedShort() - 2;
+            if (length < 0) {
+                throw new IOException("Corrupt JPEG segment length");
+            }
+
+            if (isStartOfFrame(marker)) {
+                byte[] payload = readFully(data, length);
+                header.height = ((payload[1] & 0xFF) << 8) | (payload[2] & 0xFF);
+                header.width = ((payload[3] & 0xFF) << 8) | (payload[4] & 0xFF);
+                header.components = payload[5] & 0xFF;
+                header.progressive = marker == 0xC2 || marker == 0xC6 || marker == 0xCA || marker == 0xCE;
+                if (policy.isStrip()) {
+                    break;
+                }
+            } else if (marker == APP14) {
+                byte[] payload = readFully(data, length);
+                if (payload.length >= 12 && new String(payload, 0, 5, StandardCharsets.US_ASCII).equals("Adobe")) {
+                    header.adobeTransform = payload[11] & 0xFF;
+                }
+            } else if (!policy.isStrip() && (marker >= APP0 && marker <= APP0 + 15 || marker == COM)
+                    || exifThumbnail && marker == APP0 + 1) {
+                byte[] payload = readFully(data, length);
+                MetadataPolicy.SegmentType type = MetadataPolicy.classify(marker, payload);
+                if (exifThumbnail && type == MetadataPolicy.SegmentType.EXIF && header.thumbnail == null) {
+                    header.thumbnail = Exif.thumbnail(payload);
+                }
+                if (type != null && !policy.isStrip() && policy.keeps(type)) {
+                    header.segments.add(new Segment(marker, type, payload));
+                }
+            } else {
+                skipFully(data, length);
+            }
+        }
+
+        if (header.width == 0 || header.height == 0) {
+            throw new IOException("JPEG header has no frame dimensions");
+        }
+        return header;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getComponents() {
+        return components;
+    }
+
+    boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * Returns the colour transform flag of the Adobe APP14 segment, or {@code -1} if
+     * there is none: 0 means RGB or CMYK, 1 YCbCr and 2 YCCK.
+     *
+     * @return the Adobe transform or {@code -1}
+     */
+    int getAdobeTransform() {
+        return adobeTransform;
+    }
+
+    /**
+     * Returns the JPEG thumbnail of the EXIF segment, if it was requested when
+     * reading and declares the main image's orientation.
+     *
+     * @return the thumbnail JPEG or {@code null}
+     */
+    byte[] getExifThumbnail() {
+        return thumbnail;
+    }
+
+    List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Returns whether the retained segments include an ICC profile.
+     *
+     * @return {@code true} if an ICC profile segment is retained
+     */
+    boolean hasIccProfile() {
+        for (Segment segment : segments) {
+            if (segment.type == MetadataPolicy.SegmentType.ICC) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the retained segments with EXIF dimension tags updated to the given size.
+     * The profile of a CMYK source is dropped, since the output is converted to sRGB.
+     *
+     * @param scaledWidth  the output width
+     * @param scaledHeight the output height
+     * @return the segments to write into the output
+     */
+    List<Segment> segmentsForOutput(int scaledWidth, int scaledHeight) {
+        List<Segment> result = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            if (segment.type == MetadataPolicy.SegmentType.ICC && components == 4) {
+                continue;
+            }
+            if (segment.type == MetadataPolicy.SegmentType.EXIF) {
+                byte[] payload = segment.payload.clone();
+                Exif.updateDimensions(payload, scaledWidth, scaledHeight);
+                result.add(new Segment(segment.marker, segment.type, payload));
+            } else {
+                result.add(segment);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static int nextMarker(DataInputStream data) throws IOException {
+        int value = data.readUnsignedByte();
+        if (value != 0xFF) {
+            throw new IOException("Corrupt JPEG header: expected marker");
+        }
+        do {
+            value = data.readUnsignedByte();
+        } while (value == 0xFF);
+        return value;
+    }
+
+    private static byte[] readFully(DataInputStream data, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return bytes;
+    }
+
+    private static void skipFully(DataInputStream data, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = data.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException("Unexpected end of JPEG header");
+            }
+            remaining -= skipped;
+        }
+    }
+}
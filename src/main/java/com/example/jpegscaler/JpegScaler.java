@@ -1,20 +1,280 @@
 package com.example.jpegscaler;
 
 import java.awt.*;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriter;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 /**
  * Service class for scaling JPEG images.
+ *
+ * Besides the one-call methods, the package has a staged API for pipelined batches:
+ * {@link #read} loads an input into memory, {@link #transcode} decodes, scales and
+ * encodes it without touching the disk, and {@link #write} stores the result.
  */
 public class JpegScaler {
     
+    /**
+     * An input read into memory, with its header.
+     */
+    static final class Source {
+        final String name;
+        final byte[] data;
+        final JpegHeader header;
+        final long readNanos;
+        final ResourceUsage readUsage;
+        final ScalingEvents.Job job;
+        
+        Source(String name, byte[] data, JpegHeader header, long readNanos, ResourceUsage readUsage,
+               ScalingEvents.Job job) {
+            this.name = name;
+            this.data = data;
+            this.header = header;
+            this.readNanos = readNanos;
+            this.readUsage = readUsage;
+            this.job = job;
+        }
+    }
+    
+    /**
+     * A scaled and encoded image that has not been written yet.
+     */
+    static final class Encoded {
+        final int sourceWidth;
+        final int sourceHeight;
+        final int width;
+        final int height;
+        final long bytesIn;
+        final byte[] jpeg;
+        final long decodeNanos;
+        final long scaleNanos;
+        final long encodeNanos;
+        final ResourceUsage decodeUsage;
+        final ResourceUsage scaleUsage;
+        final ResourceUsage encodeUsage;
+        final long peakRasterBytes;
+        final ScalingEvents.Job job;
+        final boolean coalesced;
+        
+        Encoded(int sourceWidth, int sourceHeight, int width, int height, long bytesIn, byte[] jpeg,
+                long decodeNanos, long scaleNanos, long encodeNanos, ResourceUsage decodeUsage,
+                ResourceUsage scaleUsage, ResourceUsage encodeUsage, long peakRasterBytes, ScalingEvents.Job job) {
+            this(sourceWidth, sourceHeight, width, height, bytesIn, jpeg, decodeNanos, scaleNanos, encodeNanos,
+                    decodeUsage, scaleUsage, encodeUsage, peakRasterBytes, job, false);
+        }
+        
+        private Encoded(int sourceWidth, int sourceHeight, int width, int height, long bytesIn, byte[] jpeg,
+                        long decodeNanos, long scaleNanos, long encodeNanos, ResourceUsage decodeUsage,
+                        ResourceUsage scaleUsage, ResourceUsage encodeUsage, long peakRasterBytes,
+                        ScalingEvents.Job job, boolean coalesced) {
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.width = width;
+            this.height = height;
+            this.bytesIn = bytesIn;
+            this.jpeg = jpeg;
+            this.decodeNanos = decodeNanos;
+            this.scaleNanos = scaleNanos;
+            this.encodeNanos = encodeNanos;
+            this.decodeUsage = decodeUsage;
+            this.scaleUsage = scaleUsage;
+            this.encodeUsage = encodeUsage;
+            this.peakRasterBytes = peakRasterBytes;
+            this.job = job;
+            this.coalesced = coalesced;
+        }
+        
+        /**
+         * Returns the output as a job that waited for this one sees it: with the same
+         * image and timings, but none of the costs of producing it.
+         */
+        Encoded coalesced() {
+            return new Encoded(sourceWidth, sourceHeight, width, height, bytesIn, jpeg, decodeNanos, scaleNanos,
+                    encodeNanos, ResourceUsage.ZERO, ResourceUsage.ZERO, ResourceUsage.ZERO, 0, job, true);
+        }
+        
+        ScaleResult toResult(long writeNanos, ResourceUsage writeUsage) {
+            return new ScaleResult(sourceWidth, sourceHeight, width, height, bytesIn, jpeg.length,
+                    decodeNanos, scaleNanos, encodeNanos, writeNanos, decodeUsage, scaleUsage, encodeUsage,
+                    writeUsage, peakRasterBytes, coalesced);
+        }
+    }
+    
+    /**
+     * What makes two {@link #scaleImage} jobs identical: the input file, identified by
+     * its canonical path, file key, size and modification time, the target size and
+     * the options.
+     */
+    private static final class JobKey {
+        private final String path;
+        private final Object fileKey;
+        private final long size;
+        private final long lastModified;
+        private final int width;
+        private final int height;
+        private final ScaleOptions options;
+        
+        private JobKey(String path, Object fileKey, long size, long lastModified, int width, int height,
+                       ScaleOptions options) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.width = width;
+            this.height = height;
+            this.options = options;
+        }
+        
+        static JobKey of(File inputFile, int width, int height, ScaleOptions options) throws IOException {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(inputFile.toPath(), BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                throw new IOException("Input file does not exist: " + inputFile.getPath());
+            }
+            return new JobKey(inputFile.getCanonicalPath(), attributes.fileKey(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis(), width, height, options);
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof JobKey)) {
+                return false;
+            }
+            JobKey that = (JobKey) other;
+            return path.equals(that.path) && Objects.equals(fileKey, that.fileKey) && size == that.size
+                    && lastModified == that.lastModified && width == that.width && height == that.height
+                    && options.equals(that.options);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, fileKey, size, lastModified, width, height, options);
+        }
+    }
+    
+    /**
+     * System property with the source size in pixels from which a single image is
+     * resampled on all cores of the common fork/join pool.
+     */
+    static final String PARALLEL_THRESHOLD_PROPERTY = "jpegscaler.parallel.threshold";
+    
+    static final long DEFAULT_PARALLEL_THRESHOLD = 4_000_000;
+    
+    /**
+     * System property that makes {@link #scaleImage} coalesce identical concurrent
+     * jobs (see {@link #coalescing()}); the daemon always does.
+     */
+    static final String COALESCE_PROPERTY = "jpegscaler.coalesce";
+    
+    private final CodecRegistry codecs;
+    private final ForkJoinPool pool;
+    private final long parallelThreshold;
+    private final long offHeapThreshold;
+    private final SingleFlight<JobKey, Encoded> inFlight;
+    
+    /**
+     * Creates a scaler using the {@linkplain CodecRegistry#createDefault() default codecs}.
+     */
+    public JpegScaler() {
+        this(CodecRegistry.createDefault());
+    }
+    
+    /**
+     * Creates a scaler decoding and encoding with the given codecs.
+     *
+     * @param codecs the available codecs
+     */
+    public JpegScaler(CodecRegistry codecs) {
+        this(codecs, ForkJoinPool.commonPool(),
+                Long.getLong(PARALLEL_THRESHOLD_PROPERTY, DEFAULT_PARALLEL_THRESHOLD));
+    }
+    
+    /**
+     * Creates a scaler that resamples sources of at least {@code parallelThreshold}
+     * pixels in strips on the given pool.
+     *
+     * @param codecs            the available codecs
+     * @param pool              the pool for intra-image parallelism
+     * @param parallelThreshold the minimum source size in pixels to resample in parallel
+     */
+    JpegScaler(CodecRegistry codecs, ForkJoinPool pool, long parallelThreshold) {
+        this(codecs, pool, parallelThreshold, OffHeapImages.threshold(),
+                Boolean.getBoolean(COALESCE_PROPERTY) ? new SingleFlight<>() : null);
+    }
+    
+    private JpegScaler(CodecRegistry codecs, ForkJoinPool pool, long parallelThreshold, long offHeapThreshold,
+                       SingleFlight<JobKey, Encoded> inFlight) {
+        this.codecs = codecs;
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+        this.offHeapThreshold = offHeapThreshold;
+        this.inFlight = inFlight;
+    }
+    
+    /**
+     * Returns a scaler sharing this one's codecs and settings whose {@link #scaleImage}
+     * runs identical concurrent jobs once. Jobs are identical if they read the same
+     * file, with the same size and modification time, and scale it to the same size
+     * with equal options. The first job decodes, scales and encodes; the others wait
+     * for its output, each writing it to its own output file. They report its timings
+     * but only the cost of their own write, and are {@linkplain ScaleResult#isCoalesced()
+     * marked} as coalesced. Finished jobs are not cached, so a job arriving after the first one
+     * completed runs again.
+     *
+     * @return this scaler if it already coalesces, otherwise a coalescing copy
+     */
+    JpegScaler coalescing() {
+        return inFlight != null ? this
+                : new JpegScaler(codecs, pool, parallelThreshold, offHeapThreshold, new SingleFlight<>());
+    }
+    
+    /**
+     * Returns a scaler for one daemon invocation with the client's settings. It has its
+     * own {@linkplain CodecRegistry#createDefault(long) default codecs}, so their
+     * statistics only count this invocation, and shares this scaler's pool. If it
+     * coalesces, it shares this scaler's in-flight jobs, so identical jobs of concurrent
+     * invocations still run once.
+     *
+     * @param parallelThreshold the minimum source size in pixels to resample in parallel
+     * @param offHeapThreshold  the image size in pixels from which images are kept off the heap
+     * @param coalesce          whether to coalesce identical concurrent jobs
+     * @return the scaler for the invocation
+     */
+    JpegScaler forInvocation(long parallelThreshold, long offHeapThreshold, boolean coalesce) {
+        SingleFlight<JobKey, Encoded> shared = inFlight != null ? inFlight : new SingleFlight<>();
+        return new JpegScaler(CodecRegistry.createDefault(offHeapThreshold), pool, parallelThreshold,
+                offHeapThreshold, coalesce ? shared : null);
+    }
+    
+    public CodecRegistry getCodecRegistry() {
+        return codecs;
+    }
+    
     /**
      * Scales a JPEG image to the specified dimensions.
      *
@@ -23,9 +283,49 @@ public class JpegScaler {
      * @param width      the target width
      * @param height     the target height
      * @param quality    the JPEG quality (0.0f to 1.0f)
+     * @return the dimensions, sizes and timings of the job
+     * @throws IOException if an I/O error occurs
+     */
+    public ScaleResult scaleImage(File inputFile, File outputFile, int width, int height, float quality) throws IOException {
+        if (!inputFile.exists()) {
+            throw new IOException("Input file does not exist: " + inputFile.getPath());
+        }
+        
+        return scaleImage(inputFile, outputFile, width, height, ScaleOptions.ofQuality(quality));
+    }
+    
+    /**
+     * Scales a JPEG image to the specified dimensions using the given encoder options.
+     *
+     * @param inputFile  the input JPEG file
+     * @param outputFile the output JPEG file
+     * @param width      the target width
+     * @param height     the target height
+     * @param options    the encoder options
+     * @return the dimensions, sizes and timings of the job
      * @throws IOException if an I/O error occurs
      */
-    public void scaleImage(File inputFile, File outputFile, int width, int height, float quality) throws IOException {
+    public ScaleResult scaleImage(File inputFile, File outputFile, int width, int height, ScaleOptions options) throws IOException {
+        return scaleImage(inputFile, outputFile, width, height, options, CancellationToken.NONE);
+    }
+    
+    /**
+     * Scales a JPEG image to the specified dimensions, giving up once the token is
+     * cancelled or its deadline has passed. The token is checked while decoding,
+     * between resampled rows and while encoding; a cancelled job writes no output.
+     *
+     * @param inputFile    the input JPEG file
+     * @param outputFile   the output JPEG file
+     * @param width        the target width
+     * @param height       the target height
+     * @param options      the encoder options
+     * @param cancellation the cancellation token, e.g. {@link CancellationToken#withTimeout}
+     * @return the dimensions, sizes and timings of the job
+     * @throws InterruptedIOException if the job was cancelled
+     * @throws IOException if an I/O error occurs
+     */
+    public ScaleResult scaleImage(File inputFile, File outputFile, int width, int height, ScaleOptions options,
+                                  CancellationToken cancellation) throws IOException {
         if (!inputFile.exists()) {
             throw new IOException("Input file does not exist: " + inputFile.getPath());
         }
@@ -34,25 +334,246 @@ public class JpegScaler {
             throw new IllegalArgumentException("Width and height must be positive integers");
         }
         
-        if (quality < 0.0f || quality > 1.0f) {
-            throw new IllegalArgumentException("Quality must be between 0.0 and 1.0");
+        Encoded encoded;
+        if (inFlight == null) {
+            encoded = encode(inputFile, width, height, options, cancellation);
+        } else {
+            // The call only runs on this thread, and only if this job leads
+            boolean[] led = new boolean[1];
+            encoded = inFlight.execute(JobKey.of(inputFile, width, height, options), () -> {
+                led[0] = true;
+                return encode(inputFile, width, height, options, cancellation);
+            }, cancellation);
+            if (!led[0]) {
+                encoded = encoded.coalesced();
+            }
+        }
+        cancellation.throwIfCancelled();
+        return write(encoded, outputFile);
+    }
+    
+    private Encoded encode(File inputFile, int width, int height, ScaleOptions options,
+                           CancellationToken cancellation) throws IOException {
+        long start = System.nanoTime();
+        ResourceUsage.Meter meter = ResourceUsage.meter();
+        ScalingEvents.Job job = new ScalingEvents.Job(inputFile.getPath(), options.getQuality());
+        ScalingEvents.Decode decode = new ScalingEvents.Decode();
+        decode.begin();
+        JpegHeader header = readHeader(inputFile, options);
+        BufferedImage originalImage = decodeExifThumbnail(header, width, height, options, cancellation);
+        if (originalImage == null) {
+            SourceTraits traits = header == null ? SourceTraits.UNKNOWN : SourceTraits.of(header);
+            ImageCodec decoder = codecs.selectDecoder(traits, options.getCodec());
+            originalImage = decoder.decode(inputFile, traits, cancellation);
         }
-        
-        BufferedImage originalImage = ImageIO.read(inputFile);
         if (originalImage == null) {
             throw new IOException("Could not read image from file: " + inputFile.getPath());
         }
         
-        BufferedImage scaledImage = scaleImage(originalImage, width, height);
+        return render(originalImage, header, width, height, options, cancellation,
+                inputFile.length(), System.nanoTime() - start, meter.stop(), job, decode);
+    }
+    
+    /**
+     * Reads an input file into memory together with its header. This is the only
+     * stage of {@link #transcode} that reads the input, so it can run ahead on an
+     * I/O pool.
+     *
+     * @param inputFile the input file
+     * @param options   the options, for the metadata to keep
+     * @return the input contents
+     * @throws IOException if the file cannot be read
+     */
+    Source read(File inputFile, ScaleOptions options) throws IOException {
+        long start = System.nanoTime();
+        ResourceUsage.Meter meter = ResourceUsage.meter();
+        byte[] data;
+        try {
+            data = Files.readAllBytes(inputFile.toPath());
+        } catch (NoSuchFileException e) {
+            throw new IOException("Input file does not exist: " + inputFile.getPath());
+        }
+        return source(inputFile.getPath(), data, options, System.nanoTime() - start, meter);
+    }
+    
+    /**
+     * Wraps an input that is already in memory for {@link #transcode}.
+     *
+     * @param name      the name used in error messages
+     * @param data      the complete file contents
+     * @param options   the options, for the metadata to keep
+     * @param readNanos the time it took to obtain the data
+     * @return the input contents
+     */
+    Source source(String name, byte[] data, ScaleOptions options, long readNanos) {
+        return source(name, data, options, readNanos, ResourceUsage.meter());
+    }
+    
+    private Source source(String name, byte[] data, ScaleOptions options, long readNanos, ResourceUsage.Meter meter) {
+        JpegHeader header;
+        try {
+            header = JpegHeader.read(new ByteArrayInputStream(data), options.getMetadataPolicy(),
+                    options.isExifThumbnail());
+        } catch (IOException e) {
+            header = null;
+        }
+        return new Source(name, data, header, readNanos, meter.stop(),
+                new ScalingEvents.Job(name, options.getQuality()));
+    }
+    
+    /**
+     * Decodes, scales and encodes an input read by {@link #read}, in memory.
+     *
+     * @param source       the input contents
+     * @param target       the target size
+     * @param options      the encoder options
+     * @param cancellation the cancellation token
+     * @return the encoded output
+     * @throws InterruptedIOException if the job was cancelled
+     * @throws IOException if the input cannot be decoded or the output encoded
+     */
+    Encoded transcode(Source source, TargetSize target, ScaleOptions options, CancellationToken cancellation)
+            throws IOException {
+        long start = System.nanoTime();
+        ResourceUsage.Meter meter = ResourceUsage.meter();
+        ScalingEvents.Decode decode = new ScalingEvents.Decode();
+        decode.begin();
+        if (options.isExifThumbnail() && source.header != null) {
+            Dimension scaled = target.resolve(source.header.getWidth(), source.header.getHeight());
+            BufferedImage thumbnail = scaled.width > 0 && scaled.height > 0
+                    ? decodeExifThumbnail(source.header, scaled.width, scaled.height, options, cancellation)
+                    : null;
+            if (thumbnail != null) {
+                return render(thumbnail, source.header, scaled.width, scaled.height, options, cancellation,
+                        source.data.length, System.nanoTime() - start, source.readUsage.plus(meter.stop()),
+                        source.job, decode);
+            }
+        }
+        SourceTraits traits = source.header == null ? SourceTraits.UNKNOWN : SourceTraits.of(source.header);
+        ImageCodec decoder = codecs.selectDecoder(traits, options.getCodec());
+        BufferedImage originalImage = decoder.decode(source.data, traits, cancellation);
+        if (originalImage == null) {
+            throw new IOException("Could not read image from file: " + source.name);
+        }
+        Dimension scaled = target.resolve(originalImage.getWidth(), originalImage.getHeight());
+        if (scaled.width <= 0 || scaled.height <= 0) {
+            throw new IllegalArgumentException("Width and height must be positive integers");
+        }
+        return render(originalImage, source.header, scaled.width, scaled.height, options, cancellation,
+                source.data.length, System.nanoTime() - start, source.readUsage.plus(meter.stop()), source.job,
+                decode);
+    }
+    
+    /**
+     * Writes an encoded output atomically, creating its directory if needed.
+     *
+     * @param encoded    the encoded output
+     * @param outputFile the output file
+     * @return the dimensions, sizes and timings of the job
+     * @throws IOException if an I/O error occurs
+     */
+    ScaleResult write(Encoded encoded, File outputFile) throws IOException {
+        long start = System.nanoTime();
+        ResourceUsage.Meter meter = ResourceUsage.meter();
+        ScalingEvents.Write event = new ScalingEvents.Write();
+        event.begin();
+        writeAtomically(encoded.jpeg, outputFile);
+        event.complete(encoded.job, encoded.width, encoded.height, encoded.jpeg.length);
+        return encoded.toResult(System.nanoTime() - start, meter.stop());
+    }
+    
+    private Encoded render(BufferedImage originalImage, JpegHeader header, int width, int height,
+                           ScaleOptions options, CancellationToken cancellation, long bytesIn, long decodeNanos,
+                           ResourceUsage decodeUsage, ScalingEvents.Job job, ScalingEvents.Decode decode)
+            throws IOException {
+        long decoded = System.nanoTime();
+        ResourceUsage.Meter meter = ResourceUsage.meter();
+        // The source size is the main image's, also when its EXIF thumbnail was scaled
+        job.setSource(header != null ? header.getWidth() : originalImage.getWidth(),
+                header != null ? header.getHeight() : originalImage.getHeight());
+        decode.complete(job, width, height, bytesIn);
         
-        // Create output directory if it doesn't exist
-        File outputDir = outputFile.getParentFile();
-        if (outputDir != null && !outputDir.exists()) {
-            outputDir.mkdirs();
+        // Pixels stay in the embedded profile's colour space when that profile is copied
+        boolean convertToSrgb = header == null || !header.hasIccProfile();
+        BufferedImage scaledImage = null;
+        long scaled;
+        ResourceUsage scaleUsage;
+        long peakRasterBytes;
+        byte[] jpeg;
+        try {
+            ResourceUsage.Accumulator helpers = new ResourceUsage.Accumulator();
+            ScalingEvents.Resample resample = new ScalingEvents.Resample();
+            resample.begin();
+            scaledImage = scaleImage(originalImage, width, height, convertToSrgb, cancellation, helpers);
+            cancellation.throwIfCancelled();
+            scaled = System.nanoTime();
+            scaleUsage = meter.stop().plus(helpers.sum());
+            // Both rasters are alive while resampling, the most pixel memory the job holds at once
+            peakRasterBytes = rasterBytes(originalImage) + rasterBytes(scaledImage);
+            resample.complete(job, width, height, peakRasterBytes);
+            meter = ResourceUsage.meter();
+            ScalingEvents.Encode encode = new ScalingEvents.Encode();
+            encode.begin();
+            List<JpegHeader.Segment> segments = header == null
+                    ? Collections.<JpegHeader.Segment>emptyList()
+                    : header.segmentsForOutput(width, height);
+            
+            // Encode the scaled image with quality control
+            jpeg = encodeJpeg(scaledImage, options, segments, cancellation);
+            encode.complete(job, width, height, jpeg.length);
+        } finally {
+            // Off-heap pixels are unmapped as soon as the job is done with them
+            OffHeapImages.release(originalImage);
+            OffHeapImages.release(scaledImage);
         }
+        long encoded = System.nanoTime();
         
-        // Write the scaled image with quality control
-        writeJpegWithQuality(scaledImage, outputFile, quality);
+        return new Encoded(job.sourceWidth, job.sourceHeight, width, height, bytesIn, jpeg, decodeNanos,
+                scaled - decoded, encoded - scaled, decodeUsage, scaleUsage, meter.stop(), peakRasterBytes, job);
+    }
+    
+    /**
+     * Decodes the EXIF thumbnail to scale instead of the main image, or returns
+     * {@code null} if the shortcut is off or the thumbnail does not qualify. It must be
+     * at least as large as the target and have the main image's aspect ratio to
+     * within a thumbnail pixel, which rules out thumbnails padded to 160x120.
+     *
+     * @param header       the source header, read with the thumbnail
+     * @param width        the target width
+     * @param height       the target height
+     * @param options      the options
+     * @param cancellation the cancellation token
+     * @return the decoded thumbnail or {@code null}
+     * @throws InterruptedIOException if the job was cancelled
+     */
+    private BufferedImage decodeExifThumbnail(JpegHeader header, int width, int height, ScaleOptions options,
+                                              CancellationToken cancellation) throws InterruptedIOException {
+        byte[] thumbnail = options.isExifThumbnail() && header != null ? header.getExifThumbnail() : null;
+        if (thumbnail == null) {
+            return null;
+        }
+        try {
+            JpegHeader thumbnailHeader = JpegHeader.read(new ByteArrayInputStream(thumbnail), MetadataPolicy.STRIP);
+            int thumbnailWidth = thumbnailHeader.getWidth();
+            int thumbnailHeight = thumbnailHeader.getHeight();
+            long mismatch = Math.abs((long) thumbnailWidth * header.getHeight()
+                    - (long) thumbnailHeight * header.getWidth());
+            if (thumbnailWidth < width || thumbnailHeight < height
+                    || mismatch > Math.max(header.getWidth(), header.getHeight())) {
+                return null;
+            }
+            SourceTraits traits = SourceTraits.of(thumbnailHeader);
+            BufferedImage image = codecs.selectDecoder(traits, options.getCodec())
+                    .decode(thumbnail, traits, cancellation);
+            return image != null && image.getWidth() == thumbnailWidth && image.getHeight() == thumbnailHeight
+                    ? image
+                    : null;
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // A damaged thumbnail leaves the main image to decode
+            return null;
+        }
     }
     
     /**
@@ -63,103 +584,316 @@ public class JpegScaler {
      * @param maxWidth   the maximum width
      * @param maxHeight  the maximum height
      * @param quality    the JPEG quality (0.0f to 1.0f)
+     * @return the dimensions, sizes and timings of the job
      * @throws IOException if an I/O error occurs
      */
-    public void scaleImageMaintainAspectRatio(File inputFile, File outputFile, int maxWidth, int maxHeight, float quality) throws IOException {
+    public ScaleResult scaleImageMaintainAspectRatio(File inputFile, File outputFile, int maxWidth, int maxHeight, float quality) throws IOException {
         if (!inputFile.exists()) {
             throw new IOException("Input file does not exist: " + inputFile.getPath());
         }
         
-        BufferedImage originalImage = ImageIO.read(inputFile);
-        if (originalImage == null) {
-            throw new IOException("Could not read image from file: " + inputFile.getPath());
+        return scaleImageMaintainAspectRatio(inputFile, outputFile, maxWidth, maxHeight, ScaleOptions.ofQuality(quality));
+    }
+    
+    /**
+     * Scales a JPEG image maintaining aspect ratio using the given encoder options.
+     *
+     * @param inputFile  the input JPEG file
+     * @param outputFile the output JPEG file
+     * @param maxWidth   the maximum width
+     * @param maxHeight  the maximum height
+     * @param options    the encoder options
+     * @return the dimensions, sizes and timings of the job
+     * @throws IOException if an I/O error occurs
+     */
+    public ScaleResult scaleImageMaintainAspectRatio(File inputFile, File outputFile, int maxWidth, int maxHeight, ScaleOptions options) throws IOException {
+        if (!inputFile.exists()) {
+            throw new IOException("Input file does not exist: " + inputFile.getPath());
         }
         
-        Dimension scaledDimension = calculateScaledDimension(
-            originalImage.getWidth(), 
-            originalImage.getHeight(), 
-            maxWidth, 
-            maxHeight
-        );
+        return scale(inputFile, outputFile, TargetSize.bounded(maxWidth, maxHeight), options);
+    }
+    
+    /**
+     * Scales a JPEG image to a target size resolved against the source's header dimensions.
+     *
+     * @param inputFile  the input JPEG file
+     * @param outputFile the output JPEG file
+     * @param target     the target size
+     * @param options    the encoder options
+     * @return the dimensions, sizes and timings of the job
+     * @throws IOException if an I/O error occurs
+     */
+    public ScaleResult scale(File inputFile, File outputFile, TargetSize target, ScaleOptions options) throws IOException {
+        return scale(inputFile, outputFile, target, options, CancellationToken.NONE);
+    }
+    
+    /**
+     * Scales a JPEG image to a target size, giving up once the token is cancelled or
+     * its deadline has passed (see {@link #scaleImage(File, File, int, int, ScaleOptions, CancellationToken)}).
+     *
+     * @param inputFile    the input JPEG file
+     * @param outputFile   the output JPEG file
+     * @param target       the target size
+     * @param options      the encoder options
+     * @param cancellation the cancellation token
+     * @return the dimensions, sizes and timings of the job
+     * @throws InterruptedIOException if the job was cancelled
+     * @throws IOException if an I/O error occurs
+     */
+    public ScaleResult scale(File inputFile, File outputFile, TargetSize target, ScaleOptions options,
+                             CancellationToken cancellation) throws IOException {
+        if (!inputFile.exists()) {
+            throw new IOException("Input file does not exist: " + inputFile.getPath());
+        }
         
-        scaleImage(inputFile, outputFile, scaledDimension.width, scaledDimension.height, quality);
+        Dimension scaledDimension = target.dependsOnSource()
+                ? resolve(target, getImageDimensions(inputFile))
+                : target.resolve(0, 0);
+        
+        return scaleImage(inputFile, outputFile, scaledDimension.width, scaledDimension.height, options, cancellation);
+    }
+    
+    /**
+     * Scales a JPEG image without blocking the calling thread, on the common
+     * fork/join pool for the CPU phases and the default asynchronous channel group
+     * for reading and writing.
+     *
+     * @param inputFile  the input JPEG file
+     * @param outputFile the output JPEG file
+     * @param target     the target size
+     * @param options    the encoder options
+     * @return the future result; see {@link #scaleAsync(File, File, TargetSize, ScaleOptions, ExecutorService, Executor)}
+     */
+    public CompletableFuture<ScaleResult> scaleAsync(File inputFile, File outputFile, TargetSize target,
+                                                     ScaleOptions options) {
+        return scaleAsync(inputFile, outputFile, target, options, null, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Scales a JPEG image without blocking the calling thread. The input is read and
+     * the output written with {@link java.nio.channels.AsynchronousFileChannel}s whose
+     * completions run on {@code ioExecutor}; decoding, scaling and encoding run on
+     * {@code cpuExecutor}. No thread waits on the job in between, so a few threads
+     * can carry many concurrent jobs.
+     *
+     * Cancelling the returned future stops the job at its next cancellation check
+     * and no output is written. Failures complete the future exceptionally with the
+     * {@link IOException} or {@link IllegalArgumentException} the blocking methods throw.
+     *
+     * @param inputFile   the input JPEG file
+     * @param outputFile  the output JPEG file
+     * @param target      the target size
+     * @param options     the encoder options
+     * @param ioExecutor  the pool for file channel completions, or {@code null} for the default group
+     * @param cpuExecutor the executor for decoding, scaling and encoding
+     * @return the future result
+     */
+    public CompletableFuture<ScaleResult> scaleAsync(File inputFile, File outputFile, TargetSize target,
+                                                     ScaleOptions options, ExecutorService ioExecutor,
+                                                     Executor cpuExecutor) {
+        return new AsyncScaleJob(this, inputFile, outputFile, target, options, ioExecutor, cpuExecutor).start();
     }
     
     /**
      * Scales a BufferedImage to the specified dimensions using high-quality scaling.
+     * The resampling itself runs in {@link Resampler}, which uses SIMD instructions
+     * when the runtime supports them. Sources from the parallel threshold up are
+     * resampled in strips on the fork/join pool, with identical results. Outputs
+     * from the off-heap threshold up are created by {@link OffHeapImages}.
      *
      * @param originalImage the original image
      * @param width         the target width
      * @param height        the target height
+     * @param convertToSrgb whether to convert pixels from an embedded colour profile to sRGB
+     * @param cancellation  the cancellation token; the image is incomplete once it is cancelled
+     * @param helpers       receives the usage of pool threads resampling in parallel
      * @return the scaled image
      */
-    private BufferedImage scaleImage(BufferedImage originalImage, int width, int height) {
-        BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = scaledImage.createGraphics();
-        
-        // Set high-quality rendering hints
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        g2d.drawImage(originalImage, 0, 0, width, height, null);
-        g2d.dispose();
-        
+    private BufferedImage scaleImage(BufferedImage originalImage, int width, int height, boolean convertToSrgb,
+                                     CancellationToken cancellation, ResourceUsage.Accumulator helpers) {
+        // Grayscale stays one channel, a third of the work and a one-component output;
+        // YCbCr samples are resampled as they are and written back without conversion
+        BufferedImage scaledImage;
+        boolean raw = true;
+        if (Resampler.isDirectGray(originalImage, convertToSrgb)) {
+            scaledImage = OffHeapImages.applies(width, height, 1, offHeapThreshold)
+                    ? OffHeapImages.create(width, height, ColorSpace.getInstance(ColorSpace.CS_GRAY))
+                    : new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        } else if (YCbCrColorSpace.isYCbCr(originalImage)) {
+            scaledImage = OffHeapImages.applies(width, height, 3, offHeapThreshold)
+                    ? OffHeapImages.create(width, height, YCbCrColorSpace.INSTANCE)
+                    : YCbCrColorSpace.createImage(width, height);
+        } else {
+            scaledImage = OffHeapImages.applies(width, height, 3, offHeapThreshold)
+                    ? OffHeapImages.create(width, height, ColorSpace.getInstance(ColorSpace.CS_sRGB))
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            raw = false;
+        }
+        Resampler resampler = new Resampler(originalImage.getWidth(), originalImage.getHeight(), width, height,
+                scaledImage.getRaster().getNumBands());
+        // An off-heap RGB output holds byte samples, which the sample sink stores
+        Resampler.RowSink sink = raw || OffHeapImages.isOffHeap(scaledImage)
+                ? Resampler.sampleSink(scaledImage)
+                : Resampler.rgbSink(scaledImage);
+        Supplier<Resampler.RowSource> sources = raw
+                ? () -> Resampler.sampleSource(originalImage)
+                : () -> Resampler.rgbSource(originalImage, convertToSrgb);
+        long pixels = (long) originalImage.getWidth() * originalImage.getHeight();
+        if (pixels >= parallelThreshold && pool.getParallelism() > 1 && height >= 2 * Resampler.MIN_STRIP_ROWS
+                && Resampler.supportsConcurrentReads(originalImage, convertToSrgb)) {
+            resampler.resample(sources, sink, pool, cancellation, helpers);
+        } else {
+            resampler.resample(sources.get(), sink, 0, height, cancellation);
+        }
         return scaledImage;
     }
     
     /**
-     * Writes a BufferedImage as JPEG with specified quality.
+     * Returns the size of an image's pixel buffer, on or off the heap.
+     */
+    private static long rasterBytes(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+    
+    /**
+     * Reads the source header with the metadata segments to copy and, if requested,
+     * the EXIF thumbnail, or returns {@code null} if the input is not a JPEG file.
+     *
+     * @param inputFile the input file
+     * @param options   the options, for the metadata to keep
+     * @return the source header or {@code null}
+     */
+    private JpegHeader readHeader(File inputFile, ScaleOptions options) {
+        try {
+            return JpegHeader.read(inputFile, options.getMetadataPolicy(), options.isExifThumbnail());
+        } catch (IOException e) {
+            // Not a JPEG file: no APPn segments to carry over and no traits to pick a codec by
+            return null;
+        }
+    }
+    
+    /**
+     * Encodes a BufferedImage as JPEG in memory using the given encoder options.
+     *
+     * @param image        the image to encode
+     * @param options      the encoder options
+     * @param segments     metadata segments copied into the output as it is encoded
+     * @param cancellation the cancellation token
+     * @return the encoded JPEG
+     * @throws IOException if an I/O error occurs
+     */
+    private byte[] encodeJpeg(BufferedImage image, ScaleOptions options, List<JpegHeader.Segment> segments,
+                              CancellationToken cancellation) throws IOException {
+        ImageCodec encoder = codecs.selectEncoder(options.getCodec());
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (OutputStream out = new SegmentInjectingOutputStream(buffer, segments)) {
+            encoder.encode(image, out, options, cancellation);
+        }
+        return buffer.toByteArray();
+    }
+    
+    /**
+     * Writes and syncs the data to a temporary file next to the output and renames it
+     * over the output, so a crash never leaves a truncated output behind.
      *
-     * @param image      the image to write
+     * @param data       the encoded image
      * @param outputFile the output file
-     * @param quality    the JPEG quality (0.0f to 1.0f)
      * @throws IOException if an I/O error occurs
      */
-    private void writeJpegWithQuality(BufferedImage image, File outputFile, float quality) throws IOException {
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("JPEG");
-        if (!writers.hasNext()) {
-            throw new IOException("No JPEG writer available");
+    private static void writeAtomically(byte[] data, File outputFile) throws IOException {
+        File tempFile = createTempFor(outputFile);
+        try {
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                out.write(data);
+                out.getFD().sync();
+            }
+            moveIntoPlace(tempFile, outputFile);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
         }
-        
-        ImageWriter writer = writers.next();
-        ImageWriteParam param = writer.getDefaultWriteParam();
-        
-        if (param.canWriteCompressed()) {
-            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            param.setCompressionQuality(quality);
+    }
+    
+    /**
+     * Creates the temporary file an output is written to before
+     * {@linkplain #moveIntoPlace being renamed}, creating the output directory if needed.
+     *
+     * @param outputFile the output file
+     * @return the empty temporary file next to the output
+     * @throws IOException if an I/O error occurs
+     */
+    static File createTempFor(File outputFile) throws IOException {
+        // Create output directory if it doesn't exist
+        File outputDir = outputFile.getAbsoluteFile().getParentFile();
+        if (outputDir != null && !outputDir.exists()) {
+            outputDir.mkdirs();
         }
-        
-        try (ImageOutputStream ios = ImageIO.createImageOutputStream(outputFile)) {
-            writer.setOutput(ios);
-            writer.write(null, new javax.imageio.IIOImage(image, null, null), param);
-        } finally {
-            writer.dispose();
+        return File.createTempFile("." + outputFile.getName() + ".", ".tmp", outputDir);
+    }
+    
+    /**
+     * Renames a synced temporary file over the output, atomically where the file
+     * system supports it.
+     *
+     * @param tempFile   the temporary file
+     * @param outputFile the output file
+     * @throws IOException if an I/O error occurs
+     */
+    static void moveIntoPlace(File tempFile, File outputFile) throws IOException {
+        try {
+            Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
     }
     
+    private static Dimension resolve(TargetSize target, Dimension source) {
+        return target.resolve(source.width, source.height);
+    }
+    
     /**
-     * Calculates the scaled dimensions while maintaining aspect ratio.
+     * Estimates the work of scaling a JPEG image from its header, without decoding it:
+     * the source pixels plus the target pixels, doubled for progressive sources, which
+     * are decoded in several passes. Used to schedule the cheapest jobs first.
      *
-     * @param originalWidth  the original width
-     * @param originalHeight the original height
-     * @param maxWidth       the maximum width
-     * @param maxHeight      the maximum height
-     * @return the scaled dimensions
+     * @param inputFile the input JPEG file
+     * @param target    the target size
+     * @return the estimated cost in pixels, or 0 if the header cannot be read
      */
-    private Dimension calculateScaledDimension(int originalWidth, int originalHeight, int maxWidth, int maxHeight) {
-        double widthRatio = (double) maxWidth / originalWidth;
-        double heightRatio = (double) maxHeight / originalHeight;
-        double ratio = Math.min(widthRatio, heightRatio);
-        
-        int scaledWidth = (int) (originalWidth * ratio);
-        int scaledHeight = (int) (originalHeight * ratio);
-        
-        return new Dimension(scaledWidth, scaledHeight);
+    public long estimateCost(File inputFile, TargetSize target) {
+        JpegHeader header;
+        try {
+            header = JpegHeader.read(inputFile, MetadataPolicy.STRIP);
+        } catch (IOException e) {
+            // Unreadable inputs fail fast, so they are cheap
+            return 0;
+        }
+        return estimateCost(header, target);
+    }
+    
+    /**
+     * Estimates the work of scaling an input already read by {@link #read}, like
+     * {@link #estimateCost(File, TargetSize)}.
+     *
+     * @param source the input contents
+     * @param target the target size
+     * @return the estimated cost in pixels, or 0 if the input is not a JPEG file
+     */
+    long estimateCost(Source source, TargetSize target) {
+        return source.header == null ? 0 : estimateCost(source.header, target);
+    }
+    
+    private static long estimateCost(JpegHeader header, TargetSize target) {
+        Dimension scaled = target.resolve(header.getWidth(), header.getHeight());
+        long cost = (long) header.getWidth() * header.getHeight() + (long) scaled.width * scaled.height;
+        return SourceTraits.of(header).isProgressive() ? cost * 2 : cost;
     }
     
     /**
-     * Gets the dimensions of an image file.
+     * Gets the dimensions of an image file without decoding its pixels. JPEG files
+     * are measured from their frame header; other formats fall back to an ImageIO reader.
      *
      * @param imageFile the image file
      * @return the dimensions of the image
@@ -170,11 +904,27 @@ public class JpegScaler {
             throw new IOException("Image file does not exist: " + imageFile.getPath());
         }
         
-        BufferedImage image = ImageIO.read(imageFile);
-        if (image == null) {
-            throw new IOException("Could not read image from file: " + imageFile.getPath());
+        try {
+            JpegHeader header = JpegHeader.read(imageFile, MetadataPolicy.STRIP);
+            return new Dimension(header.getWidth(), header.getHeight());
+        } catch (IOException e) {
+            // Not a JPEG file, let ImageIO find a reader for it
         }
         
-        return new Dimension(image.getWidth(), image.getHeight());
+        try (ImageInputStream input = ImageIO.createImageInputStream(imageFile)) {
+            Iterator<ImageReader> readers = input == null
+                    ? Collections.<ImageReader>emptyIterator()
+                    : ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Could not read image from file: " + imageFile.getPath());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
     }
 }
\ No newline at end of file
@@ -5,6 +5,14 @@ import org.apache.commons.cli.*;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Command line interface for the JPEG Scaler application.
@@ -12,10 +20,15 @@ import java.io.IOException;
 public class JpegScalerCLI {
     
     private static final String PROGRAM_NAME = "jpeg-scaler";
-    private static final float DEFAULT_QUALITY = 0.8f;
+    // With --threads auto the controller may go well past the core count while workers wait for I/O
+    private static final int AUTO_THREADS_PER_CORE = 4;
     
     public static void main(String[] args) {
-        int exitCode = run(args);
+        // Nothing is displayed, so skip the display probing AWT would do when Java2D loads
+        System.setProperty("java.awt.headless", "true");
+        int exitCode = DaemonClient.isEnabled() && !Arrays.asList(args).contains("--daemon")
+                ? DaemonClient.run(args, System.out, System.err)
+                : run(args);
         if (exitCode != 0) {
             System.exit(exitCode);
         }
@@ -29,6 +42,36 @@ public class JpegScalerCLI {
      * @return exit code (0 for success, non-zero for error)
      */
     public static int run(String[] args) {
+        return run(args, JpegScaler::new, null, System.out, System.err);
+    }
+    
+    /**
+     * Runs the CLI against the given scaler, resolving relative paths against
+     * {@code workingDir}. Used by {@link ScalerDaemon} to serve clients from one JVM.
+     *
+     * @param args       command line arguments
+     * @param scaler     the scaler to use
+     * @param workingDir directory relative paths are resolved against, or {@code null} for the current directory
+     * @param out        stream for normal output
+     * @param err        stream for error output
+     * @return exit code (0 for success, non-zero for error)
+     */
+    static int run(String[] args, JpegScaler scaler, File workingDir, PrintStream out, PrintStream err) {
+        return run(args, () -> scaler, workingDir, out, err);
+    }
+    
+    /**
+     * Runs the CLI, creating the scaler only once the arguments call for scaling, so
+     * help, version and argument errors do not pay for setting up the codecs.
+     *
+     * @param args       command line arguments
+     * @param scalers    supplies the scaler to use
+     * @param workingDir directory relative paths are resolved against, or {@code null} for the current directory
+     * @param out        stream for normal output
+     * @param err        stream for error output
+     * @return exit code (0 for success, non-zero for error)
+     */
+    static int run(String[] args, Supplier<JpegScaler> scalers, File workingDir, PrintStream out, PrintStream err) {
         Options options = createOptions();
         CommandLineParser parser = new DefaultParser();
         
@@ -36,63 +79,97 @@ public class JpegScalerCLI {
             CommandLine cmd = parser.parse(options, args);
             
             if (cmd.hasOption("help")) {
-                printHelp(options);
+                printHelp(options, out);
                 return 0;
             }
             
             if (cmd.hasOption("version")) {
-                printVersion();
+                printVersion(out);
                 return 0;
             }
             
+            if (cmd.hasOption("daemon")) {
+                return runDaemon(scalers.get(), out, err);
+            }
+            
             // Validate required arguments
             if (!cmd.hasOption("input") || !cmd.hasOption("output")) {
-                System.err.println("Error: Both input and output files are required.");
-                printHelp(options);
+                err.println("Error: Both input and output files are required.");
+                printHelp(options, out);
                 return 1;
             }
             
             if (!cmd.hasOption("width") && !cmd.hasOption("height") && !cmd.hasOption("max-width") && !cmd.hasOption("max-height")) {
-                System.err.println("Error: At least one dimension parameter is required (width, height, max-width, or max-height).");
-                printHelp(options);
+                err.println("Error: At least one dimension parameter is required (width, height, max-width, or max-height).");
+                printHelp(options, out);
                 return 1;
             }
             
             // Parse arguments
             String inputPath = cmd.getOptionValue("input");
             String outputPath = cmd.getOptionValue("output");
-            float quality = Float.parseFloat(cmd.getOptionValue("quality", String.valueOf(DEFAULT_QUALITY)));
+            float quality = Float.parseFloat(cmd.getOptionValue("quality", String.valueOf(ScaleOptions.DEFAULT_QUALITY)));
             boolean verbose = cmd.hasOption("verbose");
+            ScaleOptions scaleOptions = createScaleOptions(cmd, quality);
+            
+            File inputFile = resolve(workingDir, inputPath);
+            File outputFile = resolve(workingDir, outputPath);
+            
+            JpegScaler scaler = scalers.get();
+            if (scaleOptions.getCodec() != null) {
+                scaler.getCodecRegistry().get(scaleOptions.getCodec());
+            }
             
-            File inputFile = new File(inputPath);
-            File outputFile = new File(outputPath);
+            ScaleReport report = null;
+            if (cmd.hasOption("report")) {
+                report = new ScaleReport(ScaleReport.Format.parse(cmd.getOptionValue("report")), out);
+                // Keep standard output machine-readable; status messages go to standard error
+                out = err;
+            }
             
-            JpegScaler scaler = new JpegScaler();
+            if (inputFile.isDirectory()) {
+                return runBatch(cmd, scaler, workingDir, inputFile, outputFile, scaleOptions, report, out, err);
+            }
             
             if (verbose) {
-                System.out.println("Input file: " + inputFile.getAbsolutePath());
-                System.out.println("Output file: " + outputFile.getAbsolutePath());
-                System.out.println("Quality: " + quality);
+                out.println("Input file: " + inputFile.getAbsolutePath());
+                out.println("Output file: " + outputFile.getAbsolutePath());
+                out.println("Quality: " + quality);
+                if (scaleOptions.getChromaSubsampling() != null) {
+                    out.println("Chroma subsampling: " + scaleOptions.getChromaSubsampling());
+                }
+                if (scaleOptions.getCodec() != null) {
+                    out.println("Codec: " + scaleOptions.getCodec());
+                }
+                if (!scaleOptions.getMetadataPolicy().isStrip()) {
+                    out.println("Metadata: " + scaleOptions.getMetadataPolicy());
+                }
+                if (scaleOptions.isOptimizeHuffman() || scaleOptions.isProgressive()) {
+                    out.println("Optimized Huffman tables: " + scaleOptions.isOptimizeHuffman()
+                            + ", progressive: " + scaleOptions.isProgressive());
+                }
                 
                 try {
                     Dimension originalDimensions = scaler.getImageDimensions(inputFile);
-                    System.out.println("Original dimensions: " + originalDimensions.width + "x" + originalDimensions.height);
+                    out.println("Original dimensions: " + originalDimensions.width + "x" + originalDimensions.height);
                 } catch (IOException e) {
-                    System.err.println("Warning: Could not read original image dimensions: " + e.getMessage());
+                    err.println("Warning: Could not read original image dimensions: " + e.getMessage());
                 }
             }
             
             // Determine scaling mode
+            ScaleResult result;
             if (cmd.hasOption("max-width") || cmd.hasOption("max-height")) {
                 // Aspect ratio preserving mode
                 int maxWidth = Integer.parseInt(cmd.getOptionValue("max-width", "10000"));
                 int maxHeight = Integer.parseInt(cmd.getOptionValue("max-height", "10000"));
                 
                 if (verbose) {
-                    System.out.println("Scaling with aspect ratio preservation. Max dimensions: " + maxWidth + "x" + maxHeight);
+                    out.println("Scaling with aspect ratio preservation. Max dimensions: " + maxWidth + "x" + maxHeight);
                 }
                 
-                scaler.scaleImageMaintainAspectRatio(inputFile, outputFile, maxWidth, maxHeight, quality);
+                result = scaler.scale(inputFile, outputFile, TargetSize.bounded(maxWidth, maxHeight), scaleOptions,
+                        createCancellationToken(cmd));
             } else {
                 // Exact dimensions mode
                 int width = Integer.parseInt(cmd.getOptionValue("width", "0"));
@@ -108,44 +185,227 @@ public class JpegScalerCLI {
                             height = (int) ((double) width * originalDimensions.height / originalDimensions.width);
                         }
                     } catch (IOException e) {
-                        System.err.println("Error: Could not read original image dimensions to calculate missing dimension: " + e.getMessage());
+                        err.println("Error: Could not read original image dimensions to calculate missing dimension: " + e.getMessage());
                         return 1;
                     }
                 }
                 
                 if (verbose) {
-                    System.out.println("Scaling to exact dimensions: " + width + "x" + height);
+                    out.println("Scaling to exact dimensions: " + width + "x" + height);
                 }
                 
-                scaler.scaleImage(inputFile, outputFile, width, height, quality);
+                result = scaler.scaleImage(inputFile, outputFile, width, height, scaleOptions, createCancellationToken(cmd));
+            }
+            
+            if (report != null) {
+                report.record(inputPath, outputPath, result);
+                report.printSummary(err);
             }
             
             if (verbose) {
-                try {
-                    Dimension scaledDimensions = scaler.getImageDimensions(outputFile);
-                    System.out.println("Scaled dimensions: " + scaledDimensions.width + "x" + scaledDimensions.height);
-                } catch (IOException e) {
-                    System.err.println("Warning: Could not read scaled image dimensions: " + e.getMessage());
-                }
+                out.println("Scaled dimensions: " + result.getWidth() + "x" + result.getHeight());
+                out.println("Cost: " + result.getTotalUsage() + ", peak raster memory "
+                        + result.getPeakRasterBytes() + " bytes");
+                printCodecStatistics(scaler.getCodecRegistry(), out);
             }
             
-            System.out.println("Image scaling completed successfully!");
+            out.println("Image scaling completed successfully!");
             return 0;
             
         } catch (ParseException e) {
-            System.err.println("Error parsing command line arguments: " + e.getMessage());
-            printHelp(options);
+            err.println("Error parsing command line arguments: " + e.getMessage());
+            printHelp(options, out);
             return 1;
         } catch (NumberFormatException e) {
-            System.err.println("Error: Invalid number format: " + e.getMessage());
+            err.println("Error: Invalid number format: " + e.getMessage());
             return 1;
         } catch (IllegalArgumentException e) {
-            System.err.println("Error: " + e.getMessage());
+            err.println("Error: " + e.getMessage());
             return 1;
         } catch (IOException e) {
-            System.err.println("Error processing image: " + e.getMessage());
+            err.println("Error processing image: " + e.getMessage());
+            return 1;
+        }
+    }
+    
+    private static ScaleOptions createScaleOptions(CommandLine cmd, float quality) {
+        ScaleOptions.Builder builder = ScaleOptions.builder()
+                .quality(quality)
+                .optimizeHuffman(cmd.hasOption("optimize-huffman"))
+                .exifThumbnail(cmd.hasOption("exif-thumbnail"))
+                .progressive(cmd.hasOption("progressive"))
+                .restartInterval(Integer.parseInt(cmd.getOptionValue("restart-interval", "0")));
+        
+        if (cmd.hasOption("subsampling")) {
+            builder.chromaSubsampling(ChromaSubsampling.parse(cmd.getOptionValue("subsampling")));
+        }
+        
+        if (cmd.hasOption("metadata")) {
+            builder.metadataPolicy(MetadataPolicy.parse(cmd.getOptionValue("metadata")));
+        }
+        
+        if (cmd.hasOption("codec")) {
+            builder.codec(cmd.getOptionValue("codec"));
+        }
+        
+        return builder.build();
+    }
+    
+    private static int runBatch(CommandLine cmd, JpegScaler scaler, File workingDir, File inputDir, File outputDir,
+                                ScaleOptions scaleOptions, ScaleReport report, PrintStream out, PrintStream err)
+            throws IOException {
+        TargetSize target;
+        if (cmd.hasOption("max-width") || cmd.hasOption("max-height")) {
+            target = TargetSize.bounded(Integer.parseInt(cmd.getOptionValue("max-width", "10000")),
+                    Integer.parseInt(cmd.getOptionValue("max-height", "10000")));
+        } else {
+            target = TargetSize.exact(Integer.parseInt(cmd.getOptionValue("width", "0")),
+                    Integer.parseInt(cmd.getOptionValue("height", "0")));
+        }
+        
+        int[] shard = parseShard(cmd);
+        Path coordinationDir = cmd.hasOption("coordination")
+                ? resolve(workingDir, cmd.getOptionValue("coordination")).toPath()
+                : null;
+        
+        Path stateFile = null;
+        if (cmd.hasOption("state")) {
+            stateFile = resolve(workingDir, cmd.getOptionValue("state")).toPath();
+        } else if (cmd.hasOption("incremental")) {
+            stateFile = BatchProcessor.defaultStateFile(outputDir.toPath(), shard[0], shard[1]);
+        }
+        
+        String threads = cmd.getOptionValue("threads", "1");
+        int ioThreads = Integer.parseInt(cmd.getOptionValue("io-threads", "0"));
+        boolean adaptive = threads.equals("auto");
+        int cores = Runtime.getRuntime().availableProcessors();
+        
+        BatchProcessor processor = BatchProcessor.builder(scaler, inputDir.toPath(), outputDir.toPath(), target)
+                .options(scaleOptions)
+                .threads(adaptive ? cores : Integer.parseInt(threads))
+                .adaptiveThreads(adaptive ? cores * AUTO_THREADS_PER_CORE : 0)
+                .pipeline(ioThreads, ioThreads)
+                .stateFile(stateFile)
+                .resume(cmd.hasOption("resume"))
+                .report(report)
+                .timeout(parseTimeoutMillis(cmd), TimeUnit.MILLISECONDS)
+                .largeJobLane(parseLargeJobPixels(cmd), cmd.hasOption("large-job-lane") ? 1 : 0)
+                .shard(shard[0], shard[1])
+                .coordination(coordinationDir)
+                .workerId(cmd.getOptionValue("worker-id"))
+                .leaseTimeout(parseLeaseTimeoutMillis(cmd), TimeUnit.MILLISECONDS)
+                .log(err)
+                .build();
+        
+        if (cmd.hasOption("verbose")) {
+            out.println("Input directory: " + inputDir.getAbsolutePath());
+            out.println("Output directory: " + outputDir.getAbsolutePath());
+            out.println("Target size: " + target);
+            if (stateFile != null) {
+                out.println("State file: " + stateFile.toAbsolutePath());
+            }
+            if (shard[1] > 1) {
+                out.println("Shard: " + shard[0] + "/" + shard[1]);
+            }
+            if (coordinationDir != null) {
+                out.println("Coordination directory: " + coordinationDir.toAbsolutePath());
+            }
+        }
+        
+        BatchResult result = processor.run();
+        out.println(result);
+        BatchResult merged = processor.mergedResult();
+        if (merged != null) {
+            // No other worker is running and none has printed the totals of this run
+            out.println("All workers: " + merged);
+        }
+        if (cmd.hasOption("verbose") && !result.getStageUtilization().isEmpty()) {
+            out.println("Stage utilization: " + result.formatStageUtilization());
+        }
+        if (report != null) {
+            report.printSummary(err);
+        }
+        if (cmd.hasOption("verbose")) {
+            printCodecStatistics(scaler.getCodecRegistry(), out);
+        }
+        return result.getFailed() == 0 ? 0 : 1;
+    }
+    
+    private static CancellationToken createCancellationToken(CommandLine cmd) {
+        long timeoutMillis = parseTimeoutMillis(cmd);
+        return timeoutMillis > 0
+                ? CancellationToken.withTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                : CancellationToken.NONE;
+    }
+    
+    private static long parseTimeoutMillis(CommandLine cmd) {
+        double seconds = Double.parseDouble(cmd.getOptionValue("timeout", "0"));
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        return (long) Math.ceil(seconds * 1000);
+    }
+    
+    /**
+     * Parses {@code --shard k/N}.
+     *
+     * @return the shard index and count, {@code {1, 1}} without the option
+     */
+    private static int[] parseShard(CommandLine cmd) {
+        if (!cmd.hasOption("shard")) {
+            return new int[] {1, 1};
+        }
+        String[] parts = cmd.getOptionValue("shard").trim().split("/");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Shard must be k/N with 1 <= k <= N");
+        }
+        return new int[] {Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())};
+    }
+    
+    private static long parseLeaseTimeoutMillis(CommandLine cmd) {
+        if (!cmd.hasOption("lease-timeout")) {
+            return BatchProcessor.DEFAULT_LEASE_MILLIS;
+        }
+        double seconds = Double.parseDouble(cmd.getOptionValue("lease-timeout"));
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("Lease timeout must be positive");
+        }
+        return (long) Math.ceil(seconds * 1000);
+    }
+    
+    private static long parseLargeJobPixels(CommandLine cmd) {
+        double megapixels = Double.parseDouble(cmd.getOptionValue("large-job-lane", "0"));
+        if (megapixels < 0) {
+            throw new IllegalArgumentException("Large-job lane threshold must not be negative");
+        }
+        return (long) (megapixels * 1_000_000);
+    }
+    
+    private static int runDaemon(JpegScaler scaler, PrintStream out, PrintStream err) throws IOException {
+        DaemonTransport transport = ScalerDaemon.transport();
+        if (transport == null) {
+            err.println("Error: Daemon mode requires Java 16 or later");
             return 1;
         }
+        Path socket = ScalerDaemon.socketPath();
+        out.println("Listening on " + socket);
+        new ScalerDaemon(transport, socket, scaler, ScalerDaemon.idleSeconds()).serve();
+        return 0;
+    }
+    
+    private static File resolve(File workingDir, String path) {
+        File file = new File(path);
+        return workingDir == null || file.isAbsolute() ? file : new File(workingDir, path);
+    }
+    
+    private static void printCodecStatistics(CodecRegistry registry, PrintStream out) {
+        for (ImageCodec codec : registry.getCodecs()) {
+            for (Map.Entry<String, CodecStatistics.Timing> entry : codec.getStatistics().snapshot().entrySet()) {
+                CodecStatistics.Timing timing = entry.getValue();
+                out.printf("Codec %s %s: %d in %.1f ms%n", codec.getName(),
+                        entry.getKey().toLowerCase(Locale.ROOT), timing.getCount(), timing.getTotalNanos() / 1e6);
+            }
+        }
     }
     
     private static Options createOptions() {
@@ -154,13 +414,13 @@ public class JpegScalerCLI {
         options.addOption(Option.builder("i")
                 .longOpt("input")
                 .hasArg()
-                .desc("Input JPEG file path")
+                .desc("Input JPEG file path, or a directory to scale every JPEG below it")
                 .build());
         
         options.addOption(Option.builder("o")
                 .longOpt("output")
                 .hasArg()
-                .desc("Output JPEG file path")
+                .desc("Output JPEG file path, or the output directory when the input is one")
                 .build());
         
         options.addOption(Option.builder("w")
@@ -190,7 +450,130 @@ public class JpegScalerCLI {
         options.addOption(Option.builder("q")
                 .longOpt("quality")
                 .hasArg()
-                .desc("JPEG quality (0.0 to 1.0, default: " + DEFAULT_QUALITY + ")")
+                .desc("JPEG quality (0.0 to 1.0, default: " + ScaleOptions.DEFAULT_QUALITY + ")")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("subsampling")
+                .hasArg()
+                .desc("Chroma subsampling: 4:4:4, 4:2:2 or 4:2:0 (default: encoder default, 4:2:0)")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("optimize-huffman")
+                .desc("Compute optimized Huffman tables (smaller output, slower encode)")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("exif-thumbnail")
+                .desc("Scale the embedded EXIF thumbnail instead of the image when it is large enough")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("progressive")
+                .desc("Write a progressive JPEG")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("restart-interval")
+                .hasArg()
+                .desc("Restart marker interval in MCUs (default: 0, none)")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("metadata")
+                .hasArg()
+                .desc("Metadata to copy from the input: strip (default), keep, or a list of exif,xmp,icc,iptc,comment,other")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("codec")
+                .hasArg()
+                .desc("Codec: auto (default, chosen from the input), imageio, commons-imaging, or imageio-ycbcr to "
+                        + "scale YCbCr samples without converting them to RGB")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("threads")
+                .hasArg()
+                .desc("Number of images scaled in parallel in directory mode (default: 1), or auto to adapt it "
+                        + "to throughput, GC time and heap use while the batch runs")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("io-threads")
+                .hasArg()
+                .desc("In directory mode, read inputs ahead and write outputs behind on this many threads each, "
+                        + "so the --threads workers only decode, scale and encode (default: 0, off)")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("large-job-lane")
+                .hasArg()
+                .desc("In directory mode, scale images of at least this many megapixels (source plus target) on one "
+                        + "extra worker so they do not hold up small ones")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("incremental")
+                .desc("In directory mode, skip images whose output is still up to date (state kept in <output>/.jpeg-scaler-state)")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("state")
+                .hasArg()
+                .desc("State file for incremental directory mode (implies --incremental)")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("resume")
+                .desc("In directory mode, skip images finished by an interrupted run (journal kept in <output>/.jpeg-scaler-journal)")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("shard")
+                .hasArg()
+                .desc("In directory mode, scale only shard k of N (k/N, from 1/N), so N processes together cover "
+                        + "the directory once")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("coordination")
+                .hasArg()
+                .desc("In directory mode, share the batch with other processes by claiming images through lease "
+                        + "files in this directory on a shared filesystem; the last worker prints the merged result")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("worker-id")
+                .hasArg()
+                .desc("Worker name in the coordination directory (default: host name and process ID)")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("lease-timeout")
+                .hasArg()
+                .desc("Seconds after which the leases of a worker that stopped renewing them expire and its images "
+                        + "are reclaimed (default: " + BatchProcessor.DEFAULT_LEASE_MILLIS / 1000 + ")")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("timeout")
+                .hasArg()
+                .desc("Give up on an image after this many seconds (default: 0, no limit)")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("report")
+                .hasArg()
+                .desc("Write per-job dimensions, sizes and decode/scale/encode/write times as json (one object per line) "
+                        + "or csv to standard output, and a throughput and latency summary to standard error")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("daemon")
+                .desc("Run as a resident daemon serving clients started with -D" + DaemonClient.ENABLED_PROPERTY
+                        + "=true or " + DaemonClient.ENABLED_ENV + "=true")
                 .build());
         
         options.addOption(Option.builder("v")
@@ -211,18 +594,23 @@ public class JpegScalerCLI {
         return options;
     }
     
-    private static void printHelp(Options options) {
+    private static void printHelp(Options options, PrintStream out) {
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp(PROGRAM_NAME, 
+        PrintWriter writer = new PrintWriter(out);
+        formatter.printHelp(writer, formatter.getWidth(), PROGRAM_NAME, 
                 "A command line tool for scaling JPEG images\n\n", 
-                options, 
+                options, formatter.getLeftPadding(), formatter.getDescPadding(),
                 "\nExamples:\n" +
                 "  " + PROGRAM_NAME + " -i input.jpg -o output.jpg -w 800 -h 600\n" +
                 "  " + PROGRAM_NAME + " -i input.jpg -o output.jpg --max-width 1024\n" +
-                "  " + PROGRAM_NAME + " -i input.jpg -o output.jpg -w 800 -q 0.9 -v\n");
+                "  " + PROGRAM_NAME + " -i input.jpg -o output.jpg -w 800 -q 0.9 -v\n" +
+                "  " + PROGRAM_NAME + " -i input.jpg -o output.jpg -w 800 --optimize-huffman --progressive\n" +
+                "  " + PROGRAM_NAME + " -i photos/ -o thumbs/ --max-width 320 --threads 4 --incremental\n" +
+                "  " + PROGRAM_NAME + " -i /mnt/photos/ -o /mnt/thumbs/ --max-width 320 --coordination /mnt/batch\n");
+        writer.flush();
     }
     
-    private static void printVersion() {
-        System.out.println(PROGRAM_NAME + " version 1.0.0");
+    private static void printVersion(PrintStream out) {
+        out.println(PROGRAM_NAME + " version 1.0.0");
     }
 }
\ No newline at end of file
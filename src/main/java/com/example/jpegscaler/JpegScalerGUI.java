@@ -11,7 +11,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import javax.swing.SwingWorker;
 
 /**
@@ -35,6 +37,7 @@ public class JpegScalerGUI extends JFrame {
     private JButton selectInputButton;
     private JButton selectOutputButton;
     private JButton processButton;
+    private JButton cancelButton;
     private JProgressBar progressBar;
     private JTextArea logArea;
     private JRadioButton exactDimensionsRadio;
@@ -46,6 +49,7 @@ public class JpegScalerGUI extends JFrame {
     private File inputFile;
     private File outputFile;
     private JpegScaler scaler;
+    private CancellationToken currentJob;
     
     public JpegScalerGUI() {
         scaler = new JpegScaler();
@@ -245,11 +249,19 @@ public class JpegScalerGUI extends JFrame {
         processButton.setEnabled(false);
         processButton.addActionListener(e -> processImage());
         
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> cancelProcessing());
+        
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        buttonPanel.add(processButton);
+        buttonPanel.add(cancelButton);
+        
         progressBar = new JProgressBar();
         progressBar.setStringPainted(true);
         progressBar.setString("Ready");
         
-        panel.add(processButton, BorderLayout.WEST);
+        panel.add(buttonPanel, BorderLayout.WEST);
         panel.add(progressBar, BorderLayout.CENTER);
         
         return panel;
@@ -426,23 +438,29 @@ public class JpegScalerGUI extends JFrame {
         }
         
         // Process image in background thread
-        SwingWorker<Void, String> worker = new SwingWorker<Void, String>() {
+        CancellationToken cancellation = CancellationToken.create();
+        currentJob = cancellation;
+        processButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+        
+        SwingWorker<ScaleResult, String> worker = new SwingWorker<ScaleResult, String>() {
             @Override
-            protected Void doInBackground() throws Exception {
-                processButton.setEnabled(false);
+            protected ScaleResult doInBackground() throws Exception {
                 progressBar.setIndeterminate(true);
                 progressBar.setString("Processing...");
                 
                 publish("Starting image processing...");
                 
                 float quality = qualitySlider.getValue() / 100.0f;
+                ScaleOptions options = ScaleOptions.ofQuality(quality);
                 
                 if (maxDimensionsRadio.isSelected()) {
                     int maxWidth = Integer.parseInt(maxWidthField.getText().trim());
                     int maxHeight = Integer.parseInt(maxHeightField.getText().trim());
                     
                     publish("Scaling with aspect ratio preservation. Max dimensions: " + maxWidth + "x" + maxHeight);
-                    scaler.scaleImageMaintainAspectRatio(inputFile, outputFile, maxWidth, maxHeight, quality);
+                    return scaler.scale(inputFile, outputFile, TargetSize.bounded(maxWidth, maxHeight), options,
+                            cancellation);
                     
                 } else {
                     int width = 0, height = 0;
@@ -465,10 +483,8 @@ public class JpegScalerGUI extends JFrame {
                     }
                     
                     publish("Scaling to exact dimensions: " + width + "x" + height);
-                    scaler.scaleImage(inputFile, outputFile, width, height, quality);
+                    return scaler.scaleImage(inputFile, outputFile, width, height, options, cancellation);
                 }
-                
-                return null;
             }
             
             @Override
@@ -481,10 +497,9 @@ public class JpegScalerGUI extends JFrame {
             @Override
             protected void done() {
                 try {
-                    get(); // This will throw any exceptions from doInBackground
+                    ScaleResult scaled = get(); // This will throw any exceptions from doInBackground
                     
-                    Dimension scaledDimensions = scaler.getImageDimensions(outputFile);
-                    log("Scaled dimensions: " + scaledDimensions.width + "x" + scaledDimensions.height);
+                    log("Scaled dimensions: " + scaled.getWidth() + "x" + scaled.getHeight());
                     log("Image scaling completed successfully!");
                     
                     progressBar.setString("Completed");
@@ -502,23 +517,46 @@ public class JpegScalerGUI extends JFrame {
                         }
                     }
                     
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof InterruptedIOException && cancellation.isCancelled()) {
+                        log(e.getCause().getMessage());
+                        progressBar.setString("Cancelled");
+                    } else {
+                        showError(e.getCause());
+                    }
                 } catch (Exception e) {
-                    log("Error processing image: " + e.getMessage());
-                    JOptionPane.showMessageDialog(JpegScalerGUI.this, 
-                        "Error processing image: " + e.getMessage(), 
-                        "Error", 
-                        JOptionPane.ERROR_MESSAGE);
-                    progressBar.setString("Error");
+                    showError(e);
                 } finally {
+                    currentJob = null;
                     progressBar.setIndeterminate(false);
+                    cancelButton.setEnabled(false);
                     processButton.setEnabled(true);
                 }
             }
+            
+            private void showError(Throwable e) {
+                log("Error processing image: " + e.getMessage());
+                JOptionPane.showMessageDialog(JpegScalerGUI.this, 
+                    "Error processing image: " + e.getMessage(), 
+                    "Error", 
+                    JOptionPane.ERROR_MESSAGE);
+                progressBar.setString("Error");
+            }
         };
         
         worker.execute();
     }
     
+    private void cancelProcessing() {
+        CancellationToken job = currentJob;
+        if (job != null) {
+            job.cancel();
+            cancelButton.setEnabled(false);
+            progressBar.setString("Cancelling...");
+            log("Cancelling...");
+        }
+    }
+    
     private void validateInputs() throws IllegalArgumentException {
         if (exactDimensionsRadio.isSelected()) {
             if (widthField.getText().trim().isEmpty() || heightField.getText().trim().isEmpty()) {
@@ -0,0 +1,167 @@
+package com.example.jpegscaler;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides which metadata segments of the source JPEG are copied into the output.
+ *
+ * Segments are copied byte-for-byte, except that EXIF dimension tags are updated
+ * to the scaled size. JFIF (APP0), Adobe (APP14) and MPF segments are never copied
+ * because they describe the encoding or trailing data of the source file rather
+ * than the image.
+ */
+public final class MetadataPolicy {
+
+    /**
+     * Kinds of metadata segments recognised in the source file.
+     */
+    public enum SegmentType {
+        /** EXIF (APP1 {@code Exif}). */
+        EXIF,
+        /** XMP, including extended XMP (APP1). */
+        XMP,
+        /** ICC colour profile chunks (APP2 {@code ICC_PROFILE}). */
+        ICC,
+        /** IPTC / Photoshop resources (APP13). */
+        IPTC,
+        /** Comment segments (COM). */
+        COMMENT,
+        /** Any other application segment. */
+        OTHER
+    }
+
+    /** Drops all metadata; the default. */
+    public static final MetadataPolicy STRIP = new MetadataPolicy(EnumSet.noneOf(SegmentType.class));
+
+    /** Keeps every copyable metadata segment. */
+    public static final MetadataPolicy KEEP = new MetadataPolicy(EnumSet.allOf(SegmentType.class));
+
+    private final Set<SegmentType> kept;
+
+    private MetadataPolicy(Set<SegmentType> kept) {
+        this.kept = Collections.unmodifiableSet(kept);
+    }
+
+    /**
+     * Returns a policy keeping only the given segment types.
+     *
+     * @param first the first type to keep
+     * @param rest  further types to keep
+     * @return the policy
+     */
+    public static MetadataPolicy only(SegmentType first, SegmentType... rest) {
+        return new MetadataPolicy(EnumSet.of(first, rest));
+    }
+
+    /**
+     * Parses {@code strip}, {@code keep} or a comma separated whitelist such as
+     * {@code exif,icc}.
+     *
+     * @param value the policy to parse
+     * @return the policy
+     * @throws IllegalArgumentException if the value names an unknown segment type
+     */
+    public static MetadataPolicy parse(String value) {
+        String normalized = value.trim().toLowerCase(Locale.ROOT);
+        if (normalized.equals("strip") || normalized.equals("none")) {
+            return STRIP;
+        }
+        if (normalized.equals("keep") || normalized.equals("all")) {
+            return KEEP;
+        }
+        Set<SegmentType> types = EnumSet.noneOf(SegmentType.class);
+        for (String name : normalized.split(",")) {
+            try {
+                types.add(SegmentType.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Metadata must be strip, keep or a list of exif, xmp, icc, iptc, comment, other");
+            }
+        }
+        return new MetadataPolicy(types);
+    }
+
+    public boolean isStrip() {
+        return kept.isEmpty();
+    }
+
+    public boolean keeps(SegmentType type) {
+        return kept.contains(type);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof MetadataPolicy && kept.equals(((MetadataPolicy) other).kept);
+    }
+
+    @Override
+    public int hashCode() {
+        return kept.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (isStrip()) {
+            return "strip";
+        }
+        if (kept.size() == SegmentType.values().length) {
+            return "keep";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (SegmentType type : kept) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(type.name().toLowerCase(Locale.ROOT));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Classifies a segment, or returns {@code null} for segments that must never be copied.
+     *
+     * @param marker  the marker code (second marker byte)
+     * @param payload the segment payload, without marker and length
+     * @return the segment type or {@code null}
+     */
+    static SegmentType classify(int marker, byte[] payload) {
+        switch (marker) {
+            case JpegHeader.COM:
+                return SegmentType.COMMENT;
+            case JpegHeader.APP0:
+            case JpegHeader.APP14:
+                return null;
+            case JpegHeader.APP0 + 1:
+                if (startsWith(payload, "Exif\0")) {
+                    return SegmentType.EXIF;
+                }
+                if (startsWith(payload, "http://ns.adobe.com/")) {
+                    return SegmentType.XMP;
+                }
+                return SegmentType.OTHER;
+            case JpegHeader.APP0 + 2:
+                if (startsWith(payload, "ICC_PROFILE\0")) {
+                    return SegmentType.ICC;
+                }
+                return startsWith(payload, "MPF\0") ? null : SegmentType.OTHER;
+            case JpegHeader.APP0 + 13:
+                return SegmentType.IPTC;
+            default:
+                return SegmentType.OTHER;
+        }
+    }
+
+    private static boolean startsWith(byte[] payload, String prefix) {
+        if (payload.length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (payload[i] != (byte) prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
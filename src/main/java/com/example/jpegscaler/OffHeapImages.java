@@ -0,0 +1,229 @@
+package com.example.jpegscaler;
+
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Images whose pixels live in memory-mapped temporary files instead of on the Java heap.
+ *
+ * Decoding a 100-megapixel photo allocates a 300 MB array, which G1 places in
+ * humongous regions and which can cost every other job in the JVM a long pause.
+ * Images from {@value #THRESHOLD_PROPERTY} pixels up are therefore decoded and
+ * scaled into 8-bit interleaved rasters backed by a mapping of a deleted temporary
+ * file: the pixels occupy the page cache, which the kernel can write back under
+ * memory pressure, and the heap only holds the image objects. Each job
+ * {@linkplain #release(BufferedImage) releases} its mappings when it finishes
+ * rather than when the collector finds them unreachable.
+ */
+final class OffHeapImages {
+
+    /**
+     * System property with the image size in pixels from which pixels are kept off
+     * the heap. Unset, every image stays on the heap.
+     */
+    static final String THRESHOLD_PROPERTY = "jpegscaler.offheap.threshold";
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            // Unmaps at once; without it a mapping is only released once collected
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private OffHeapImages() {
+    }
+
+    /**
+     * Returns the configured threshold.
+     *
+     * @return the size in pixels from which images are kept off the heap, or
+     *         {@link Long#MAX_VALUE} if the property is unset
+     */
+    static long threshold() {
+        return Long.getLong(THRESHOLD_PROPERTY, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns whether an image of the given size is kept off the heap: it reaches the
+     * threshold and its samples fit one mapping.
+     *
+     * @param width     the image width
+     * @param height    the image height
+     * @param bands     the samples per pixel
+     * @param threshold the threshold in pixels
+     * @return {@code true} to use {@link #create}
+     */
+    static boolean applies(int width, int height, int bands, long threshold) {
+        long pixels = (long) width * height;
+        return pixels >= threshold && pixels * bands <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates an opaque image with one byte per sample, mapped from a new temporary file.
+     *
+     * @param width      the width
+     * @param height     the height
+     * @param colorSpace the colour space, e.g. sRGB, linear gray or {@link YCbCrColorSpace}
+     * @return the image, to be {@linkplain #release released} after use
+     * @throws UncheckedIOException if the temporary file cannot be created or mapped
+     */
+    static BufferedImage create(int width, int height, ColorSpace colorSpace) {
+        int bands = colorSpace.getNumComponents();
+        int[] offsets = new int[bands];
+        for (int i = 0; i < bands; i++) {
+            offsets[i] = i;
+        }
+        MappedDataBuffer buffer = new MappedDataBuffer(map((long) width * height * bands));
+        WritableRaster raster = Raster.createWritableRaster(new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE,
+                width, height, bands, width * bands, offsets), buffer, new Point(0, 0));
+        ColorModel colorModel = new ComponentColorModel(colorSpace, false, false, Transparency.OPAQUE,
+                DataBuffer.TYPE_BYTE);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Returns whether the image's pixels are mapped by {@link #create}.
+     *
+     * @param image the image
+     * @return {@code true} for off-heap images
+     */
+    static boolean isOffHeap(BufferedImage image) {
+        return image != null && image.getRaster().getDataBuffer() instanceof MappedDataBuffer;
+    }
+
+    /**
+     * Unmaps the pixels of an off-heap image; other images are left alone. The image
+     * must not be used afterwards.
+     *
+     * @param image the image, or {@code null}
+     */
+    static void release(BufferedImage image) {
+        if (isOffHeap(image)) {
+            ((MappedDataBuffer) image.getRaster().getDataBuffer()).release();
+        }
+    }
+
+    /**
+     * Copies the samples of one row of an off-heap image in a single bulk read.
+     *
+     * @param image   an image from {@link #create}
+     * @param y       the row
+     * @param samples receives the row's samples, at least width times bands long
+     */
+    static void readRow(BufferedImage image, int y, byte[] samples) {
+        MappedDataBuffer buffer = (MappedDataBuffer) image.getRaster().getDataBuffer();
+        int length = image.getWidth() * image.getRaster().getNumBands();
+        buffer.read(y * length, samples, length);
+    }
+
+    /**
+     * Stores the samples of one row of an off-heap image in a single bulk write.
+     *
+     * @param image   an image from {@link #create}
+     * @param y       the row
+     * @param samples the row's samples, width times bands of them
+     */
+    static void writeRow(BufferedImage image, int y, byte[] samples) {
+        MappedDataBuffer buffer = (MappedDataBuffer) image.getRaster().getDataBuffer();
+        int length = image.getWidth() * image.getRaster().getNumBands();
+        buffer.write(y * length, samples, length);
+    }
+
+    private static MappedByteBuffer map(long size) {
+        try {
+            Path file = Files.createTempFile("jpeg-scaler-", ".pixels");
+            // The mapping outlives the channel, and the file is gone once both are
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map image buffer", e);
+        }
+    }
+
+    /**
+     * Byte samples in a mapped buffer. Accessing it after {@link #release()} throws
+     * a {@link NullPointerException} rather than touching unmapped memory.
+     */
+    private static final class MappedDataBuffer extends DataBuffer {
+        // Read once per access; null once released, so a late access fails fast
+        private volatile MappedByteBuffer buffer;
+
+        MappedDataBuffer(MappedByteBuffer buffer) {
+            super(DataBuffer.TYPE_BYTE, buffer.capacity());
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            MappedByteBuffer mapped = buffer;
+            return mapped.get(i) & 0xFF;
+        }
+
+        @Override
+        public void setElem(int bank, int i, int value) {
+            MappedByteBuffer mapped = buffer;
+            mapped.put(i, (byte) value);
+        }
+
+        void read(int index, byte[] samples, int length) {
+            // A duplicate has its own position, so rows can be read from several threads
+            MappedByteBuffer mapped = buffer;
+            ByteBuffer view = mapped.duplicate();
+            view.position(index);
+            view.get(samples, 0, length);
+        }
+
+        void write(int index, byte[] samples, int length) {
+            MappedByteBuffer mapped = buffer;
+            ByteBuffer view = mapped.duplicate();
+            view.position(index);
+            view.put(samples, 0, length);
+        }
+
+        synchronized void release() {
+            MappedByteBuffer mapped = buffer;
+            buffer = null;
+            if (mapped != null && INVOKE_CLEANER != null) {
+                try {
+                    INVOKE_CLEANER.invoke(UNSAFE, mapped);
+                } catch (ReflectiveOperationException e) {
+                    // Left to the collector
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.jpegscaler;
+
+/**
+ * The multiply-accumulate loops at the heart of {@link Resampler}.
+ *
+ * Implementations must accumulate taps in ascending order and compute every
+ * element as {@code acc = acc + weight * sample}, starting from {@code 0f}, so
+ * that all kernels produce bit-identical output.
+ */
+interface ResampleKernel {
+
+    /**
+     * Resamples one interleaved source row horizontally.
+     *
+     * @param src      the source row ({@code srcWidth * channels} samples)
+     * @param channels the number of interleaved channels
+     * @param offsets  the index of the first tap for each output sample
+     * @param weights  the tap weights, laid out as {@code weights[tap * length + i]}
+     * @param taps     the number of taps per output sample
+     * @param dst      the output row
+     * @param length   the number of output samples ({@code dstWidth * channels})
+     */
+    void horizontal(float[] src, int channels, int[] offsets, float[] weights, int taps, float[] dst, int length);
+
+    /**
+     * Combines horizontally resampled rows into one output row.
+     *
+     * @param rows    the contributing rows, in source order
+     * @param weights the row weights
+     * @param weightOffset the index of the first weight in {@code weights}
+     * @param taps    the number of contributing rows
+     * @param dst     the output row
+     * @param length  the number of samples per row
+     */
+    void vertical(float[][] rows, float[] weights, int weightOffset, int taps, float[] dst, int length);
+
+    /**
+     * Returns a short name identifying this kernel.
+     *
+     * @return the kernel name
+     */
+    String name();
+}
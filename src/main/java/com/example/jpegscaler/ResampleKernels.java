@@ -0,0 +1,58 @@
+package com.example.jpegscaler;
+
+/**
+ * Selects the fastest {@link ResampleKernel} available at runtime.
+ *
+ * The SIMD kernel lives in {@code META-INF/versions/17} of the multi-release
+ * jar and needs {@code --add-modules jdk.incubator.vector}. On older runtimes,
+ * when the module is not resolved, or when {@code -Djpegscaler.vector=false} is
+ * set, the scalar kernel is used instead.
+ */
+final class ResampleKernels {
+
+    static final String VECTOR_PROPERTY = "jpegscaler.vector";
+
+    private static final String VECTOR_KERNEL_CLASS = "com.example.jpegscaler.VectorKernel";
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static final ResampleKernel DEFAULT = load();
+
+    private ResampleKernels() {
+    }
+
+    /**
+     * Returns the kernel used by default.
+     *
+     * @return the preferred kernel
+     */
+    static ResampleKernel get() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the SIMD kernel, or {@code null} if it cannot be used on this runtime.
+     *
+     * @return the vector kernel or {@code null}
+     */
+    static ResampleKernel vector() {
+        // Checked first so a plain launch does not pay for loading a class that fails to link
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            return null;
+        }
+        try {
+            Class<?> type = Class.forName(VECTOR_KERNEL_CLASS);
+            return (ResampleKernel) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static ResampleKernel load() {
+        if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))) {
+            return ScalarKernel.INSTANCE;
+        }
+        ResampleKernel vector = vector();
+        return vector != null ? vector : ScalarKernel.INSTANCE;
+    }
+}
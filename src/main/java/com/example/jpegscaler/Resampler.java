@@ -0,0 +1,487 @@
+package com.example.jpegscaler;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Separable triangle-filter resampler for interleaved 8-bit images.
+ *
+ * When downscaling, the filter support is widened by the scale factor so every
+ * source pixel contributes to the output (area-correct, no aliasing). Rows are
+ * streamed through a small ring buffer of horizontally resampled rows, so memory
+ * use is proportional to the output width rather than the source size.
+ *
+ * Large images can be resampled in horizontal strips on a {@link ForkJoinPool}.
+ * Every strip reads the source rows its filter window overlaps, so the result is
+ * bit-identical to a single pass.
+ */
+final class Resampler {
+
+    /**
+     * Supplies source rows as interleaved float samples.
+     */
+    interface RowSource {
+        void readRow(int y, float[] row);
+    }
+
+    /**
+     * Receives resampled rows as interleaved float samples.
+     */
+    interface RowSink {
+        void writeRow(int y, float[] row);
+    }
+
+    /**
+     * Output strips are not split below this many rows, so re-reading the rows that
+     * overlap neighbouring strips stays a small fraction of the work.
+     */
+    static final int MIN_STRIP_ROWS = 32;
+
+    private final int srcWidth;
+    private final int srcHeight;
+    private final int dstWidth;
+    private final int dstHeight;
+    private final int channels;
+    private final ResampleKernel kernel;
+
+    private final int horizontalTaps;
+    private final int[] horizontalOffsets;
+    private final float[] horizontalWeights;
+
+    private final int verticalTaps;
+    private final int[] verticalStart;
+    private final float[] verticalWeights;
+
+    Resampler(int srcWidth, int srcHeight, int dstWidth, int dstHeight, int channels) {
+        this(srcWidth, srcHeight, dstWidth, dstHeight, channels, ResampleKernels.get());
+    }
+
+    Resampler(int srcWidth, int srcHeight, int dstWidth, int dstHeight, int channels, ResampleKernel kernel) {
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.dstWidth = dstWidth;
+        this.dstHeight = dstHeight;
+        this.channels = channels;
+        this.kernel = kernel;
+
+        Contributions horizontal = Contributions.compute(srcWidth, dstWidth);
+        int length = dstWidth * channels;
+        this.horizontalTaps = horizontal.taps;
+        this.horizontalOffsets = new int[length];
+        this.horizontalWeights = new float[horizontal.taps * length];
+        for (int x = 0; x < dstWidth; x++) {
+            for (int c = 0; c < channels; c++) {
+                int i = x * channels + c;
+                horizontalOffsets[i] = horizontal.start[x] * channels + c;
+                for (int k = 0; k < horizontal.taps; k++) {
+                    horizontalWeights[k * length + i] = horizontal.weights[x * horizontal.taps + k];
+                }
+            }
+        }
+
+        Contributions vertical = Contributions.compute(srcHeight, dstHeight);
+        this.verticalTaps = vertical.taps;
+        this.verticalStart = vertical.start;
+        this.verticalWeights = vertical.weights;
+    }
+
+    int getDstWidth() {
+        return dstWidth;
+    }
+
+    int getDstHeight() {
+        return dstHeight;
+    }
+
+    ResampleKernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * Resamples the whole image.
+     *
+     * @param source the source rows
+     * @param sink   the destination rows
+     */
+    void resample(RowSource source, RowSink sink) {
+        resample(source, sink, 0, dstHeight);
+    }
+
+    /**
+     * Resamples the output rows {@code [fromRow, toRow)}. Each output row depends
+     * only on its own source window, so disjoint row ranges may be resampled
+     * independently and produce the same samples as a single pass.
+     *
+     * @param source  the source rows
+     * @param sink    the destination rows
+     * @param fromRow the first output row, inclusive
+     * @param toRow   the last output row, exclusive
+     */
+    void resample(RowSource source, RowSink sink, int fromRow, int toRow) {
+        resample(source, sink, fromRow, toRow, CancellationToken.NONE);
+    }
+
+    /**
+     * Resamples the output rows {@code [fromRow, toRow)}, stopping before the next
+     * row once the token is cancelled.
+     *
+     * @param source       the source rows
+     * @param sink         the destination rows
+     * @param fromRow      the first output row, inclusive
+     * @param toRow        the last output row, exclusive
+     * @param cancellation the cancellation token of the job
+     * @return {@code false} if cancelled before all rows were written
+     */
+    boolean resample(RowSource source, RowSink sink, int fromRow, int toRow, CancellationToken cancellation) {
+        int length = dstWidth * channels;
+        float[] srcRow = new float[srcWidth * channels];
+        float[][] ring = new float[verticalTaps][length];
+        float[][] window = new float[verticalTaps][];
+        float[] dstRow = new float[length];
+        int nextSourceRow = -1;
+
+        for (int y = fromRow; y < toRow; y++) {
+            if (cancellation.isCancelled()) {
+                return false;
+            }
+            int start = verticalStart[y];
+            int end = start + verticalTaps;
+            if (nextSourceRow < start) {
+                nextSourceRow = start;
+            }
+            for (; nextSourceRow < end; nextSourceRow++) {
+                source.readRow(nextSourceRow, srcRow);
+                kernel.horizontal(srcRow, channels, horizontalOffsets, horizontalWeights, horizontalTaps,
+                        ring[nextSourceRow % verticalTaps], length);
+            }
+            for (int k = 0; k < verticalTaps; k++) {
+                window[k] = ring[(start + k) % verticalTaps];
+            }
+            kernel.vertical(window, verticalWeights, y * verticalTaps, verticalTaps, dstRow, length);
+            sink.writeRow(y, dstRow);
+        }
+        return true;
+    }
+
+    /**
+     * Resamples the whole image in strips on the given pool. Each strip reads the
+     * source through its own {@link RowSource}, so sources need not be thread-safe;
+     * the sink must accept rows from several threads at once.
+     *
+     * @param sources      creates one row source per strip
+     * @param sink         the destination rows
+     * @param pool         the pool to run strips on
+     * @param cancellation the cancellation token of the job
+     * @return {@code false} if cancelled before all rows were written
+     */
+    boolean resample(Supplier<RowSource> sources, RowSink sink, ForkJoinPool pool, CancellationToken cancellation) {
+        return resample(sources, sink, pool, cancellation, null);
+    }
+
+    /**
+     * Resamples the whole image in strips on the given pool, adding the usage of the
+     * strips run by other threads than the calling one to {@code helpers}. Strips the
+     * calling thread runs itself are left to its own meter.
+     *
+     * @param sources      creates one row source per strip
+     * @param sink         the destination rows
+     * @param pool         the pool to run strips on
+     * @param cancellation the cancellation token of the job
+     * @param helpers      receives the usage of the other threads, or {@code null}
+     * @return {@code false} if cancelled before all rows were written
+     */
+    boolean resample(Supplier<RowSource> sources, RowSink sink, ForkJoinPool pool, CancellationToken cancellation,
+                     ResourceUsage.Accumulator helpers) {
+        // A few strips per worker balance uneven progress without shrinking strips needlessly
+        int strips = pool.getParallelism() * 4;
+        int stripRows = Math.max(MIN_STRIP_ROWS, (dstHeight + strips - 1) / strips);
+        return pool.invoke(new StripTask(sources, sink, 0, dstHeight, stripRows, cancellation,
+                Thread.currentThread(), helpers));
+    }
+
+    /**
+     * Resamples a range of output rows, halving it until it fits one strip.
+     */
+    private final class StripTask extends RecursiveTask<Boolean> {
+        private final Supplier<RowSource> sources;
+        private final RowSink sink;
+        private final int fromRow;
+        private final int toRow;
+        private final int stripRows;
+        private final CancellationToken cancellation;
+        private final Thread caller;
+        private final ResourceUsage.Accumulator helpers;
+
+        StripTask(Supplier<RowSource> sources, RowSink sink, int fromRow, int toRow, int stripRows,
+                  CancellationToken cancellation, Thread caller, ResourceUsage.Accumulator helpers) {
+            this.sources = sources;
+            this.sink = sink;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.stripRows = stripRows;
+            this.cancellation = cancellation;
+            this.caller = caller;
+            this.helpers = helpers;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (toRow - fromRow <= stripRows) {
+                if (helpers == null || Thread.currentThread() == caller) {
+                    return resample(sources.get(), sink, fromRow, toRow, cancellation);
+                }
+                // A strip never joins, so the worker runs nothing else while it is measured
+                ResourceUsage.Meter meter = ResourceUsage.meter();
+                try {
+                    return resample(sources.get(), sink, fromRow, toRow, cancellation);
+                } finally {
+                    helpers.add(meter.stop());
+                }
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            StripTask upper = new StripTask(sources, sink, fromRow, middle, stripRows, cancellation, caller, helpers);
+            StripTask lower = new StripTask(sources, sink, middle, toRow, stripRows, cancellation, caller, helpers);
+            lower.fork();
+            boolean completed;
+            try {
+                completed = upper.compute();
+            } catch (RuntimeException | Error e) {
+                // The forked half may still be writing the sink, so it must finish first
+                lower.quietlyJoin();
+                throw e;
+            }
+            return lower.join() && completed;
+        }
+    }
+
+    /**
+     * Returns whether row sources of the image may read rows on several threads at
+     * once: rows read straight from the raster or converted by an sRGB colour model
+     * may, ICC conversions, which are not safe for concurrent use, may not.
+     *
+     * @param image         the source image
+     * @param convertToSrgb whether samples are converted to sRGB
+     * @return {@code true} if the image may be resampled in parallel
+     */
+    static boolean supportsConcurrentReads(BufferedImage image, boolean convertToSrgb) {
+        return image.getColorModel().getColorSpace().isCS_sRGB() || isDirectRgb(image, convertToSrgb)
+                || isDirectGray(image, convertToSrgb) || YCbCrColorSpace.isYCbCr(image);
+    }
+
+    /**
+     * Returns whether the image holds 8-bit grayscale samples that can be resampled
+     * as a single channel, as the JDK decodes one-component JPEGs. Grayscale with an
+     * embedded profile only qualifies when samples are not converted to sRGB.
+     *
+     * @param image         the source image
+     * @param convertToSrgb whether samples are converted to sRGB
+     * @return {@code true} if {@link #sampleSource(BufferedImage)} applies
+     */
+    static boolean isDirectGray(BufferedImage image, boolean convertToSrgb) {
+        ColorModel colorModel = image.getColorModel();
+        ColorSpace colorSpace = colorModel.getColorSpace();
+        return colorModel instanceof ComponentColorModel
+                && colorSpace.getType() == ColorSpace.TYPE_GRAY
+                && (colorSpace == ColorSpace.getInstance(ColorSpace.CS_GRAY) || !convertToSrgb)
+                && colorModel.getNumComponents() == 1
+                && colorModel.getComponentSize(0) == 8
+                && image.getRaster().getTransferType() == DataBuffer.TYPE_BYTE;
+    }
+
+    /**
+     * Returns a row source reading the stored 8-bit samples of every band as they
+     * are: the gray of a grayscale JPEG, already gamma encoded although the JDK
+     * labels it with its linear gray space, or the components of a
+     * {@link YCbCrColorSpace} image.
+     *
+     * @param image an image with one byte per sample
+     * @return a row source with one channel per band
+     */
+    static RowSource sampleSource(BufferedImage image) {
+        int width = image.getWidth();
+        Raster raster = image.getRaster();
+        if (OffHeapImages.isOffHeap(image)) {
+            byte[] bytes = new byte[width * raster.getNumBands()];
+            return (y, row) -> {
+                OffHeapImages.readRow(image, y, bytes);
+                for (int i = 0; i < bytes.length; i++) {
+                    row[i] = bytes[i] & 0xFF;
+                }
+            };
+        }
+        int[] samples = new int[width * raster.getNumBands()];
+        return (y, row) -> {
+            raster.getPixels(0, y, width, 1, samples);
+            for (int i = 0; i < samples.length; i++) {
+                row[i] = samples[i];
+            }
+        };
+    }
+
+    /**
+     * Returns a row source reading 8-bit RGB samples from the given image,
+     * converted to sRGB.
+     *
+     * @param image the source image
+     * @return a three-channel row source
+     */
+    static RowSource rgbSource(BufferedImage image) {
+        return rgbSource(image, true);
+    }
+
+    /**
+     * Returns a row source reading 8-bit RGB samples from the given image.
+     *
+     * @param image         the source image
+     * @param convertToSrgb whether samples in another RGB colour space are converted
+     *                      to sRGB, or read as-is
+     * @return a three-channel row source
+     */
+    static RowSource rgbSource(BufferedImage image, boolean convertToSrgb) {
+        int width = image.getWidth();
+        Raster raster = image.getRaster();
+        if (isDirectRgb(image, convertToSrgb) && OffHeapImages.isOffHeap(image)) {
+            return sampleSource(image);
+        }
+        if (isDirectRgb(image, convertToSrgb)) {
+            int[] samples = new int[width * 3];
+            return (y, row) -> {
+                raster.getPixels(0, y, width, 1, samples);
+                for (int i = 0; i < samples.length; i++) {
+                    row[i] = samples[i];
+                }
+            };
+        }
+        int[] argb = new int[width];
+        return (y, row) -> {
+            image.getRGB(0, y, width, 1, argb, 0, width);
+            for (int x = 0, i = 0; x < width; x++) {
+                int pixel = argb[x];
+                row[i++] = (pixel >> 16) & 0xFF;
+                row[i++] = (pixel >> 8) & 0xFF;
+                row[i++] = pixel & 0xFF;
+            }
+        };
+    }
+
+    private static boolean isDirectRgb(BufferedImage image, boolean convertToSrgb) {
+        ColorModel colorModel = image.getColorModel();
+        return colorModel instanceof ComponentColorModel
+                && (colorModel.getColorSpace().isCS_sRGB() || !convertToSrgb)
+                && colorModel.getNumComponents() == 3
+                && image.getRaster().getTransferType() == DataBuffer.TYPE_BYTE;
+    }
+
+    /**
+     * Returns a row sink writing into a {@link BufferedImage#TYPE_INT_RGB} image.
+     * Rows may be written from several threads at once, each packing its rows in a
+     * buffer of its own.
+     *
+     * @param image the destination image
+     * @return a three-channel row sink
+     */
+    static RowSink rgbSink(BufferedImage image) {
+        int width = image.getWidth();
+        WritableRaster raster = image.getRaster();
+        ThreadLocal<int[]> buffers = ThreadLocal.withInitial(() -> new int[width]);
+        return (y, row) -> {
+            int[] pixels = buffers.get();
+            for (int x = 0, i = 0; x < width; x++) {
+                pixels[x] = (clamp(row[i++]) << 16) | (clamp(row[i++]) << 8) | clamp(row[i++]);
+            }
+            raster.setDataElements(0, y, width, 1, pixels);
+        };
+    }
+
+    /**
+     * Returns a row sink storing the samples of every band of an image with one
+     * byte per sample, such as {@link BufferedImage#TYPE_BYTE_GRAY} or a
+     * {@link YCbCrColorSpace} image. Rows may be written from several threads at once,
+     * each with a buffer of its own.
+     *
+     * @param image the destination image
+     * @return a row sink with one channel per band
+     */
+    static RowSink sampleSink(BufferedImage image) {
+        int width = image.getWidth();
+        WritableRaster raster = image.getRaster();
+        int length = width * raster.getNumBands();
+        if (OffHeapImages.isOffHeap(image)) {
+            ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[length]);
+            return (y, row) -> {
+                byte[] samples = buffers.get();
+                for (int i = 0; i < length; i++) {
+                    samples[i] = (byte) clamp(row[i]);
+                }
+                OffHeapImages.writeRow(image, y, samples);
+            };
+        }
+        ThreadLocal<int[]> buffers = ThreadLocal.withInitial(() -> new int[length]);
+        return (y, row) -> {
+            int[] samples = buffers.get();
+            for (int i = 0; i < length; i++) {
+                samples[i] = clamp(row[i]);
+            }
+            raster.setPixels(0, y, width, 1, samples);
+        };
+    }
+
+    static int clamp(float value) {
+        int rounded = (int) (value + 0.5f);
+        if (rounded < 0) {
+            return 0;
+        }
+        return rounded > 255 ? 255 : rounded;
+    }
+
+    /**
+     * Filter taps for one axis: output sample {@code i} is the weighted sum of
+     * source samples {@code start[i] .. start[i] + taps - 1}.
+     */
+    static final class Contributions {
+        final int taps;
+        final int[] start;
+        final float[] weights;
+
+        private Contributions(int taps, int[] start, float[] weights) {
+            this.taps = taps;
+            this.start = start;
+            this.weights = weights;
+        }
+
+        static Contributions compute(int srcSize, int dstSize) {
+            double scale = (double) dstSize / srcSize;
+            double support = scale < 1.0 ? 1.0 / scale : 1.0;
+            int taps = Math.min(srcSize, (int) Math.ceil(support * 2.0) + 1);
+            int[] start = new int[dstSize];
+            float[] weights = new float[dstSize * taps];
+            double[] raw = new double[taps];
+
+            for (int i = 0; i < dstSize; i++) {
+                double center = (i + 0.5) / scale;
+                int first = (int) Math.floor(center - support);
+                first = Math.max(0, Math.min(first, srcSize - taps));
+                start[i] = first;
+
+                double total = 0.0;
+                for (int k = 0; k < taps; k++) {
+                    double distance = Math.abs(first + k + 0.5 - center) / support;
+                    raw[k] = Math.max(0.0, 1.0 - distance);
+                    total += raw[k];
+                }
+                for (int k = 0; k < taps; k++) {
+                    weights[i * taps + k] = total > 0.0 ? (float) (raw[k] / total) : (k == 0 ? 1f : 0f);
+                }
+            }
+            return new Contributions(taps, start, weights);
+        }
+    }
+}
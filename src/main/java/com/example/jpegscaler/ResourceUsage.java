@@ -0,0 +1,148 @@
+package com.example.jpegscaler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CPU time and heap allocation of one phase of a job, summed over the threads that
+ * worked on it.
+ *
+ * Both are read from the {@link ThreadMXBean} of the thread running the phase: CPU
+ * time from {@link ThreadMXBean#getCurrentThreadCpuTime()}, allocation from
+ * {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes}. A JVM without
+ * either measurement reports zero for it. Allocation counts the bytes of every
+ * object allocated, including garbage collected before the phase ended; pixels kept
+ * {@linkplain OffHeapImages off the heap} are not allocations.
+ */
+public final class ResourceUsage {
+
+    /** No CPU time and no allocation. */
+    public static final ResourceUsage ZERO = new ResourceUsage(0, 0);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME;
+    private static final com.sun.management.ThreadMXBean ALLOCATION;
+
+    static {
+        boolean cpuTime = false;
+        com.sun.management.ThreadMXBean allocation = null;
+        try {
+            if (THREADS.isCurrentThreadCpuTimeSupported()) {
+                if (!THREADS.isThreadCpuTimeEnabled()) {
+                    THREADS.setThreadCpuTimeEnabled(true);
+                }
+                cpuTime = true;
+            }
+            if (THREADS instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()) {
+                allocation = (com.sun.management.ThreadMXBean) THREADS;
+                if (!allocation.isThreadAllocatedMemoryEnabled()) {
+                    allocation.setThreadAllocatedMemoryEnabled(true);
+                }
+            }
+        } catch (UnsupportedOperationException | SecurityException | LinkageError e) {
+            // Measured as far as the JVM allows
+        }
+        CPU_TIME = cpuTime;
+        ALLOCATION = allocation;
+    }
+
+    private final long cpuNanos;
+    private final long allocatedBytes;
+
+    ResourceUsage(long cpuNanos, long allocatedBytes) {
+        this.cpuNanos = cpuNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Returns the CPU time, user and system, of the threads while working on the phase.
+     *
+     * @return the CPU time in nanoseconds
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /**
+     * Returns the heap bytes allocated while working on the phase.
+     *
+     * @return the allocated bytes
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Returns the sum of this and another usage.
+     *
+     * @param other the other usage
+     * @return the sum
+     */
+    public ResourceUsage plus(ResourceUsage other) {
+        return new ResourceUsage(cpuNanos + other.cpuNanos, allocatedBytes + other.allocatedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%.1f ms CPU, %d bytes allocated",
+                cpuNanos / (double) TimeUnit.MILLISECONDS.toNanos(1), allocatedBytes);
+    }
+
+    /**
+     * Starts measuring the current thread.
+     *
+     * @return the meter, to be stopped on the same thread
+     */
+    static Meter meter() {
+        return new Meter();
+    }
+
+    private static long currentCpuNanos() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long currentAllocatedBytes() {
+        return ALLOCATION != null ? ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    /**
+     * The usage of the current thread since the meter was started.
+     */
+    static final class Meter {
+        private final long cpuNanos = currentCpuNanos();
+        private final long allocatedBytes = currentAllocatedBytes();
+
+        /**
+         * Returns the usage since the meter was started. Must be called on the thread
+         * that started it.
+         *
+         * @return the usage
+         */
+        ResourceUsage stop() {
+            return new ResourceUsage(Math.max(0, currentCpuNanos() - cpuNanos),
+                    Math.max(0, currentAllocatedBytes() - allocatedBytes));
+        }
+    }
+
+    /**
+     * Sums the usage that helper threads measured for a phase, e.g. the fork/join
+     * workers resampling strips of one image.
+     */
+    static final class Accumulator {
+        private final LongAdder cpuNanos = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+
+        void add(ResourceUsage usage) {
+            cpuNanos.add(usage.cpuNanos);
+            allocatedBytes.add(usage.allocatedBytes);
+        }
+
+        ResourceUsage sum() {
+            return new ResourceUsage(cpuNanos.sum(), allocatedBytes.sum());
+        }
+    }
+}
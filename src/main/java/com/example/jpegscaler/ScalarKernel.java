@@ -0,0 +1,40 @@
+package com.example.jpegscaler;
+
+/**
+ * Portable {@link ResampleKernel} used on every Java version.
+ */
+final class ScalarKernel implements ResampleKernel {
+
+    static final ScalarKernel INSTANCE = new ScalarKernel();
+
+    private ScalarKernel() {
+    }
+
+    @Override
+    public void horizontal(float[] src, int channels, int[] offsets, float[] weights, int taps, float[] dst, int length) {
+        for (int i = 0; i < length; i++) {
+            float acc = 0f;
+            int offset = offsets[i];
+            for (int k = 0; k < taps; k++) {
+                acc = acc + weights[k * length + i] * src[offset + k * channels];
+            }
+            dst[i] = acc;
+        }
+    }
+
+    @Override
+    public void vertical(float[][] rows, float[] weights, int weightOffset, int taps, float[] dst, int length) {
+        for (int i = 0; i < length; i++) {
+            float acc = 0f;
+            for (int k = 0; k < taps; k++) {
+                acc = acc + weights[weightOffset + k] * rows[k][i];
+            }
+            dst[i] = acc;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.jpegscaler;
+
+import java.util.Objects;
+
+/**
+ * Options controlling how {@link JpegScaler} encodes its output.
+ * Instances are immutable; use {@link #builder()} to create them.
+ */
+public final class ScaleOptions {
+
+    /** Default JPEG quality. */
+    public static final float DEFAULT_QUALITY = 0.8f;
+
+    private final float quality;
+    private final ChromaSubsampling chromaSubsampling;
+    private final boolean optimizeHuffman;
+    private final boolean progressive;
+    private final int restartInterval;
+    private final MetadataPolicy metadataPolicy;
+    private final String codec;
+    private final boolean exifThumbnail;
+
+    private ScaleOptions(Builder builder) {
+        this.quality = builder.quality;
+        this.chromaSubsampling = builder.chromaSubsampling;
+        this.optimizeHuffman = builder.optimizeHuffman;
+        this.progressive = builder.progressive;
+        this.restartInterval = builder.restartInterval;
+        this.metadataPolicy = builder.metadataPolicy;
+        this.codec = builder.codec;
+        this.exifThumbnail = builder.exifThumbnail;
+    }
+
+    /**
+     * Returns options with the given quality and encoder defaults otherwise.
+     *
+     * @param quality the JPEG quality (0.0f to 1.0f)
+     * @return the options
+     */
+    public static ScaleOptions ofQuality(float quality) {
+        return builder().quality(quality).build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a builder initialised with the values of these options.
+     *
+     * @return a new builder
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .quality(quality)
+                .chromaSubsampling(chromaSubsampling)
+                .optimizeHuffman(optimizeHuffman)
+                .progressive(progressive)
+                .restartInterval(restartInterval)
+                .metadataPolicy(metadataPolicy)
+                .codec(codec)
+                .exifThumbnail(exifThumbnail);
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    /**
+     * Returns the chroma subsampling, or {@code null} to keep the encoder default (4:2:0).
+     *
+     * @return the chroma subsampling or {@code null}
+     */
+    public ChromaSubsampling getChromaSubsampling() {
+        return chromaSubsampling;
+    }
+
+    public boolean isOptimizeHuffman() {
+        return optimizeHuffman;
+    }
+
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * Returns the restart interval in MCUs, or {@code 0} for no restart markers.
+     *
+     * @return the restart interval
+     */
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    /**
+     * Returns which metadata segments of the source are copied into the output.
+     *
+     * @return the metadata policy, {@link MetadataPolicy#STRIP} by default
+     */
+    public MetadataPolicy getMetadataPolicy() {
+        return metadataPolicy;
+    }
+
+    /**
+     * Returns the name of the codec to decode and encode with, or {@code null} to
+     * choose one from the input (see {@link CodecRegistry}).
+     *
+     * @return the codec name or {@code null}
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns whether a large enough EXIF thumbnail is scaled instead of the main
+     * image (see {@link Builder#exifThumbnail(boolean)}).
+     *
+     * @return {@code true} if the thumbnail shortcut is enabled
+     */
+    public boolean isExifThumbnail() {
+        return exifThumbnail;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ScaleOptions)) {
+            return false;
+        }
+        ScaleOptions that = (ScaleOptions) other;
+        return Float.compare(quality, that.quality) == 0
+                && chromaSubsampling == that.chromaSubsampling
+                && optimizeHuffman == that.optimizeHuffman
+                && progressive == that.progressive
+                && restartInterval == that.restartInterval
+                && Objects.equals(metadataPolicy, that.metadataPolicy)
+                && Objects.equals(codec, that.codec)
+                && exifThumbnail == that.exifThumbnail;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(quality, chromaSubsampling, optimizeHuffman, progressive, restartInterval,
+                metadataPolicy, codec, exifThumbnail);
+    }
+
+    /**
+     * Returns all option values in a stable form, e.g. to detect that outputs written
+     * with different options are out of date.
+     */
+    @Override
+    public String toString() {
+        return "quality=" + quality
+                + ",subsampling=" + (chromaSubsampling != null ? chromaSubsampling : "default")
+                + ",optimizeHuffman=" + optimizeHuffman
+                + ",progressive=" + progressive
+                + ",restartInterval=" + restartInterval
+                + ",metadata=" + metadataPolicy
+                + ",codec=" + (codec != null ? codec : CodecRegistry.AUTO)
+                // Only when set, so outputs recorded before the option existed stay current
+                + (exifThumbnail ? ",exifThumbnail=true" : "");
+    }
+
+    /**
+     * Builder for {@link ScaleOptions}.
+     */
+    public static final class Builder {
+        private float quality = DEFAULT_QUALITY;
+        private ChromaSubsampling chromaSubsampling;
+        private boolean optimizeHuffman;
+        private boolean progressive;
+        private int restartInterval;
+        private MetadataPolicy metadataPolicy = MetadataPolicy.STRIP;
+        private String codec;
+        private boolean exifThumbnail;
+
+        private Builder() {
+        }
+
+        public Builder quality(float quality) {
+            this.quality = quality;
+            return this;
+        }
+
+        public Builder chromaSubsampling(ChromaSubsampling chromaSubsampling) {
+            this.chromaSubsampling = chromaSubsampling;
+            return this;
+        }
+
+        public Builder optimizeHuffman(boolean optimizeHuffman) {
+            this.optimizeHuffman = optimizeHuffman;
+            return this;
+        }
+
+        public Builder progressive(boolean progressive) {
+            this.progressive = progressive;
+            return this;
+        }
+
+        public Builder restartInterval(int restartInterval) {
+            this.restartInterval = restartInterval;
+            return this;
+        }
+
+        public Builder metadataPolicy(MetadataPolicy metadataPolicy) {
+            this.metadataPolicy = metadataPolicy;
+            return this;
+        }
+
+        public Builder codec(String codec) {
+            this.codec = CodecRegistry.AUTO.equals(codec) ? null : codec;
+            return this;
+        }
+
+        /**
+         * Scales the thumbnail embedded in the EXIF segment instead of decoding the
+         * main image, when the thumbnail is at least as large as the target and has
+         * the main image's aspect ratio and orientation. Thumbnails are small and
+         * compressed hard, so this suits gallery-sized targets only.
+         *
+         * @param exifThumbnail whether to use the thumbnail shortcut
+         * @return this builder
+         */
+        public Builder exifThumbnail(boolean exifThumbnail) {
+            this.exifThumbnail = exifThumbnail;
+            return this;
+        }
+
+        /**
+         * Validates and builds the options.
+         *
+         * @return the options
+         * @throws IllegalArgumentException if a value is out of range
+         */
+        public ScaleOptions build() {
+            if (quality < 0.0f || quality > 1.0f) {
+                throw new IllegalArgumentException("Quality must be between 0.0 and 1.0");
+            }
+            if (restartInterval < 0 || restartInterval > 65535) {
+                throw new IllegalArgumentException("Restart interval must be between 0 and 65535");
+            }
+            if (metadataPolicy == null) {
+                throw new IllegalArgumentException("Metadata policy must not be null");
+            }
+            return new ScaleOptions(this);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.jpegscaler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The result of one {@link ScaleRequest} published by a {@link ScaleProcessor}:
+ * either the scaled image or the error that stopped it. A failed request does not
+ * end the stream.
+ */
+public final class ScaleOutcome {
+
+    private final ScaleRequest request;
+    private final ScaleResult result;
+    private final byte[] jpeg;
+    private final Throwable error;
+
+    private ScaleOutcome(ScaleRequest request, ScaleResult result, byte[] jpeg, Throwable error) {
+        this.request = request;
+        this.result = result;
+        this.jpeg = jpeg;
+        this.error = error;
+    }
+
+    static ScaleOutcome success(ScaleRequest request, ScaleResult result, byte[] jpeg) {
+        return new ScaleOutcome(request, result, jpeg, null);
+    }
+
+    static ScaleOutcome failure(ScaleRequest request, Throwable error) {
+        return new ScaleOutcome(request, null, null, error);
+    }
+
+    public ScaleRequest getRequest() {
+        return request;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Returns the dimensions, sizes and timings of the scaled image.
+     *
+     * @return the result, or {@code null} if the request failed
+     */
+    public ScaleResult getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the encoded output if the request had no output file.
+     *
+     * @return a read-only buffer with the JPEG, or {@code null} if it was written to a
+     *         file or the request failed
+     */
+    public ByteBuffer getJpeg() {
+        return jpeg != null ? ByteBuffer.wrap(jpeg).asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * Returns why the request failed.
+     *
+     * @return the error, or {@code null} on success
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return request + (error == null ? ": " + result.getWidth() + "x" + result.getHeight() : ": " + error);
+    }
+}
@@ -0,0 +1,399 @@
+package com.example.jpegscaler;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link Flow.Processor} that scales the {@link ScaleRequest}s it receives and
+ * publishes one {@link ScaleOutcome} for each, to a single subscriber.
+ *
+ * Demand is bounded by the parallelism: requests being scaled plus outcomes not
+ * yet delivered never exceed it, and the processor only requests more from
+ * upstream as that window frees up. A slow subscriber therefore slows the
+ * publisher instead of filling memory. Outcomes are delivered either in request
+ * order, where one slow image holds back the ones after it, or as they complete.
+ *
+ * A request that fails produces a failed outcome; only an error from upstream
+ * ends the stream with {@code onError}, after the outcomes before it. Cancelling
+ * the subscription cancels upstream and the images being scaled.
+ */
+public final class ScaleProcessor implements Flow.Processor<ScaleRequest, ScaleOutcome> {
+
+    private final JpegScaler scaler;
+    private final Executor executor;
+    private final int parallelism;
+    private final boolean ordered;
+    private final CancellationToken cancellation = CancellationToken.create();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, ScaleOutcome> completedBySequence = new HashMap<>();
+    private final Queue<ScaleOutcome> completed = new ArrayDeque<>();
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super ScaleOutcome> downstream;
+    private long received;
+    private long emitted;
+    private long requestedUpstream;
+    private long demand;
+    private int inFlight;
+    private boolean upstreamDone;
+    private Throwable upstreamError;
+    private boolean failFast;
+    private boolean terminated;
+
+    private ScaleProcessor(Builder builder) {
+        this.scaler = builder.scaler;
+        this.executor = builder.executor;
+        this.parallelism = builder.parallelism;
+        this.ordered = builder.ordered;
+    }
+
+    public static Builder builder(JpegScaler scaler) {
+        return new Builder(scaler);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ScaleOutcome> subscriber) {
+        boolean first;
+        lock.lock();
+        try {
+            first = downstream == null;
+            if (first) {
+                downstream = subscriber;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!first) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("ScaleProcessor supports a single subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                Flow.Subscription cancelled = null;
+                lock.lock();
+                try {
+                    if (n <= 0) {
+                        // Rule 3.9: signal the violation instead of throwing
+                        cancelled = terminate(
+                                new IllegalArgumentException("Requested " + n + " outcomes, must be positive"));
+                    } else {
+                        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (cancelled != null) {
+                    cancelled.cancel();
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelAll();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        boolean duplicate;
+        lock.lock();
+        try {
+            duplicate = upstream != null;
+            if (!duplicate) {
+                upstream = subscription;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (duplicate) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(ScaleRequest request) {
+        long sequence;
+        lock.lock();
+        try {
+            if (terminated || failFast) {
+                return;
+            }
+            sequence = received++;
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            executor.execute(() -> run(sequence, request));
+        } catch (RejectedExecutionException e) {
+            complete(sequence, ScaleOutcome.failure(request, e));
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        lock.lock();
+        try {
+            upstreamDone = true;
+            upstreamError = throwable;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        lock.lock();
+        try {
+            upstreamDone = true;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * Scales a request and completes it whatever happens, so an {@link Error} such as
+     * running out of memory on a huge input fails the request instead of leaving it
+     * in flight forever. The error is still rethrown to the executor.
+     */
+    private void run(long sequence, ScaleRequest request) {
+        ScaleOutcome outcome = null;
+        Throwable error = null;
+        try {
+            outcome = scale(request);
+        } catch (Throwable e) {
+            error = e;
+            throw e;
+        } finally {
+            complete(sequence, outcome != null ? outcome : ScaleOutcome.failure(request, error));
+        }
+    }
+
+    private ScaleOutcome scale(ScaleRequest request) {
+        try {
+            ScaleOptions options = request.getOptions();
+            JpegScaler.Source source = request.getInputFile() != null
+                    ? scaler.read(request.getInputFile(), options)
+                    : scaler.source(request.toString(), request.getInputData(), options, 0);
+            JpegScaler.Encoded encoded = scaler.transcode(source, request.getTarget(), options, cancellation);
+            if (request.getOutputFile() != null) {
+                return ScaleOutcome.success(request, scaler.write(encoded, request.getOutputFile()), null);
+            }
+            return ScaleOutcome.success(request, encoded.toResult(0, ResourceUsage.ZERO), encoded.jpeg);
+        } catch (Exception e) {
+            return ScaleOutcome.failure(request, e);
+        }
+    }
+
+    private void complete(long sequence, ScaleOutcome outcome) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (ordered) {
+                completedBySequence.put(sequence, outcome);
+            } else {
+                completed.add(outcome);
+            }
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    private void cancelAll() {
+        Flow.Subscription subscription;
+        lock.lock();
+        try {
+            terminated = true;
+            completed.clear();
+            completedBySequence.clear();
+            subscription = upstream;
+        } finally {
+            lock.unlock();
+        }
+        cancellation.cancel();
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Must hold the lock; the error is delivered by {@link #drain()} without waiting
+     * for pending outcomes. Returns the upstream subscription, or {@code null}, for the
+     * caller to cancel once it has released the lock.
+     */
+    private Flow.Subscription terminate(Throwable error) {
+        upstreamDone = true;
+        upstreamError = error;
+        failFast = true;
+        demand = 0;
+        completed.clear();
+        completedBySequence.clear();
+        cancellation.cancel();
+        return upstream;
+    }
+
+    /**
+     * Delivers ready outcomes and the terminal signal, and requests more from
+     * upstream. Only one thread drains at a time, so the subscriber's methods are
+     * never called concurrently; a thread that finds another draining leaves it
+     * another round.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        while (true) {
+            while (true) {
+                Flow.Subscriber<? super ScaleOutcome> subscriber;
+                ScaleOutcome next = null;
+                boolean done = false;
+                Throwable error = null;
+                Flow.Subscription subscription = null;
+                long credit = 0;
+                lock.lock();
+                try {
+                    subscriber = downstream;
+                    if (terminated || subscriber == null) {
+                        break;
+                    }
+                    if (demand > 0) {
+                        next = ordered ? completedBySequence.remove(emitted) : completed.poll();
+                    }
+                    if (next != null) {
+                        demand--;
+                        emitted++;
+                    } else if (upstreamDone && (failFast || (inFlight == 0 && buffered() == 0))) {
+                        terminated = true;
+                        done = true;
+                        error = upstreamError;
+                    } else if (!upstreamDone && upstream != null) {
+                        long window = requestedUpstream - received + inFlight + buffered();
+                        credit = parallelism - window;
+                        if (credit > 0) {
+                            requestedUpstream += credit;
+                            subscription = upstream;
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (next != null) {
+                    subscriber.onNext(next);
+                    continue;
+                }
+                if (done) {
+                    if (error != null) {
+                        subscriber.onError(error);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    break;
+                }
+                if (subscription != null) {
+                    subscription.request(credit);
+                }
+                break;
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private int buffered() {
+        return ordered ? completedBySequence.size() : completed.size();
+    }
+
+    /**
+     * Builder for {@link ScaleProcessor}.
+     */
+    public static final class Builder {
+        private final JpegScaler scaler;
+        private Executor executor = ForkJoinPool.commonPool();
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private boolean ordered = true;
+
+        private Builder(JpegScaler scaler) {
+            this.scaler = scaler;
+        }
+
+        /**
+         * Sets where images are scaled, by default the common fork/join pool.
+         *
+         * @param executor the executor
+         * @return this builder
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Sets how many requests may be scaled or waiting for delivery at once,
+         * by default one per core.
+         *
+         * @param parallelism the window size
+         * @return this builder
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Chooses between delivering outcomes in request order (the default) and as
+         * they complete.
+         *
+         * @param ordered whether to keep request order
+         * @return this builder
+         */
+        public Builder ordered(boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        /**
+         * Validates the settings and builds the processor.
+         *
+         * @return the processor
+         * @throws IllegalArgumentException if a value is out of range
+         */
+        public ScaleProcessor build() {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be at least 1");
+            }
+            if (executor == null) {
+                throw new IllegalArgumentException("Executor is required");
+            }
+            return new ScaleProcessor(this);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.jpegscaler;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Machine-readable per-job report with a throughput and latency summary.
+ *
+ * Each {@linkplain #record recorded} job is written as one JSON object per line or
+ * one CSV row, built from its {@link ScaleResult} alone. {@link #printSummary}
+ * prints images/s and megapixels/s over the wall time since the report was created,
+ * the p50/p95/p99 job latencies, the total CPU time and allocation, and the input
+ * that allocated the most per source pixel. The report is thread-safe.
+ */
+public final class ScaleReport {
+
+    /**
+     * Output format of the per-job records.
+     */
+    public enum Format {
+        JSON,
+        CSV;
+
+        /**
+         * Parses a format name as given on the command line.
+         *
+         * @param value {@code json} or {@code csv}
+         * @return the format
+         * @throws IllegalArgumentException if the value names no format
+         */
+        public static Format parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Report format must be json or csv");
+            }
+        }
+    }
+
+    private static final String CSV_HEADER = "input,output,source_width,source_height,width,height,"
+            + "bytes_in,bytes_out,decode_ms,scale_ms,encode_ms,write_ms,total_ms,"
+            + "decode_cpu_ms,scale_cpu_ms,encode_cpu_ms,write_cpu_ms,cpu_ms,"
+            + "decode_allocated_bytes,scale_allocated_bytes,encode_allocated_bytes,write_allocated_bytes,"
+            + "allocated_bytes,peak_raster_bytes";
+
+    private final Format format;
+    private final PrintStream out;
+    private final long start = System.nanoTime();
+    private long[] latencies = new long[256];
+    private int count;
+    private long pixels;
+    private long bytesIn;
+    private long bytesOut;
+    private long cpuNanos;
+    private long allocatedBytes;
+    private double maxAllocatedPerPixel;
+    private String maxAllocatedInput;
+
+    public ScaleReport(Format format, PrintStream out) {
+        this.format = format;
+        this.out = out;
+        if (format == Format.CSV) {
+            out.println(CSV_HEADER);
+        }
+    }
+
+    /**
+     * Writes the record of one job and adds it to the summary.
+     *
+     * @param input  the input path as given
+     * @param output the output path as given
+     * @param result the job result
+     */
+    public synchronized void record(String input, String output, ScaleResult result) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = result.getTotalNanos();
+        pixels += result.getSourcePixels();
+        bytesIn += result.getBytesIn();
+        bytesOut += result.getBytesOut();
+        ResourceUsage usage = result.getTotalUsage();
+        cpuNanos += usage.getCpuNanos();
+        allocatedBytes += usage.getAllocatedBytes();
+        double perPixel = usage.getAllocatedBytes() / (double) Math.max(1, result.getSourcePixels());
+        if (maxAllocatedInput == null || perPixel > maxAllocatedPerPixel) {
+            maxAllocatedPerPixel = perPixel;
+            maxAllocatedInput = input;
+        }
+        out.println(format == Format.JSON ? toJson(input, output, result) : toCsv(input, output, result));
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the given percentile of the recorded job latencies (nearest rank).
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sorted[Math.max(0, Math.min(count, rank) - 1)];
+    }
+
+    /**
+     * Prints the throughput and latency summary.
+     *
+     * @param summary the stream to print to
+     */
+    public synchronized void printSummary(PrintStream summary) {
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        summary.printf(Locale.ROOT, "Images: %d in %.2f s, %.1f images/s, %.2f MP/s, %d bytes in, %d bytes out%n",
+                count, seconds, count / seconds, pixels / 1e6 / seconds, bytesIn, bytesOut);
+        summary.printf(Locale.ROOT, "Latency: p50 %.1f ms, p95 %.1f ms, p99 %.1f ms%n",
+                millis(getLatencyPercentile(50)), millis(getLatencyPercentile(95)), millis(getLatencyPercentile(99)));
+        if (count > 0) {
+            summary.printf(Locale.ROOT, "Cost: %.2f s CPU, %.1f MB allocated, most per source pixel %.1f bytes (%s)%n",
+                    cpuNanos / 1e9, allocatedBytes / 1e6, maxAllocatedPerPixel, maxAllocatedInput);
+        }
+    }
+
+    private static String toJson(String input, String output, ScaleResult result) {
+        return String.format(Locale.ROOT, "{\"input\":%s,\"output\":%s,\"sourceWidth\":%d,\"sourceHeight\":%d,"
+                        + "\"width\":%d,\"height\":%d,\"bytesIn\":%d,\"bytesOut\":%d,\"decodeMs\":%.3f,"
+                        + "\"scaleMs\":%.3f,\"encodeMs\":%.3f,\"writeMs\":%.3f,\"totalMs\":%.3f,"
+                        + "\"decodeCpuMs\":%.3f,\"scaleCpuMs\":%.3f,\"encodeCpuMs\":%.3f,\"writeCpuMs\":%.3f,"
+                        + "\"cpuMs\":%.3f,\"decodeAllocatedBytes\":%d,\"scaleAllocatedBytes\":%d,"
+                        + "\"encodeAllocatedBytes\":%d,\"writeAllocatedBytes\":%d,\"allocatedBytes\":%d,"
+                        + "\"peakRasterBytes\":%d}",
+                fields(jsonString(input), jsonString(output), result));
+    }
+
+    private static String toCsv(String input, String output, ScaleResult result) {
+        return String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,"
+                        + "%.3f,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%d,%d,%d",
+                fields(csvField(input), csvField(output), result));
+    }
+
+    /**
+     * Returns the values of a record in column order, the paths already formatted.
+     */
+    private static Object[] fields(String input, String output, ScaleResult result) {
+        ResourceUsage total = result.getTotalUsage();
+        return new Object[] {input, output, result.getSourceWidth(), result.getSourceHeight(),
+                result.getWidth(), result.getHeight(), result.getBytesIn(), result.getBytesOut(),
+                millis(result.getDecodeNanos()), millis(result.getScaleNanos()), millis(result.getEncodeNanos()),
+                millis(result.getWriteNanos()), millis(result.getTotalNanos()),
+                millis(result.getDecodeUsage().getCpuNanos()), millis(result.getScaleUsage().getCpuNanos()),
+                millis(result.getEncodeUsage().getCpuNanos()), millis(result.getWriteUsage().getCpuNanos()),
+                millis(total.getCpuNanos()), result.getDecodeUsage().getAllocatedBytes(),
+                result.getScaleUsage().getAllocatedBytes(), result.getEncodeUsage().getAllocatedBytes(),
+                result.getWriteUsage().getAllocatedBytes(), total.getAllocatedBytes(), result.getPeakRasterBytes()};
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
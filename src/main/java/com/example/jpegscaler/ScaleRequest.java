@@ -0,0 +1,151 @@
+package com.example.jpegscaler;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * One image to scale through a {@link ScaleProcessor}: a source file or the bytes
+ * of one, a target size and options. The output is written to a file if one is
+ * set and otherwise returned in memory with the {@link ScaleOutcome}.
+ */
+public final class ScaleRequest {
+
+    private final File inputFile;
+    private final byte[] inputData;
+    private final TargetSize target;
+    private final ScaleOptions options;
+    private final File outputFile;
+    private final Object tag;
+
+    private ScaleRequest(Builder builder) {
+        this.inputFile = builder.inputFile;
+        this.inputData = builder.inputData;
+        this.target = builder.target;
+        this.options = builder.options;
+        this.outputFile = builder.outputFile;
+        this.tag = builder.tag;
+    }
+
+    /**
+     * Starts a request that reads its source from a file.
+     *
+     * @param inputFile the source JPEG file
+     * @param target    the target size
+     * @return the builder
+     */
+    public static Builder builder(File inputFile, TargetSize target) {
+        return new Builder(inputFile, null, target);
+    }
+
+    /**
+     * Starts a request for a source already in memory. The remaining bytes of the
+     * buffer are copied, so it may be reused once this method returns.
+     *
+     * @param inputData the source JPEG contents
+     * @param target    the target size
+     * @return the builder
+     */
+    public static Builder builder(ByteBuffer inputData, TargetSize target) {
+        byte[] data = new byte[inputData.remaining()];
+        inputData.duplicate().get(data);
+        return new Builder(null, data, target);
+    }
+
+    /**
+     * Returns the source file, or {@code null} for an in-memory source.
+     *
+     * @return the source file
+     */
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    byte[] getInputData() {
+        return inputData;
+    }
+
+    public TargetSize getTarget() {
+        return target;
+    }
+
+    public ScaleOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns the output file, or {@code null} if the output is returned in memory.
+     *
+     * @return the output file
+     */
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * Returns the caller's object attached to this request, e.g. to correlate
+     * outcomes delivered as they complete.
+     *
+     * @return the tag or {@code null}
+     */
+    public Object getTag() {
+        return tag;
+    }
+
+    @Override
+    public String toString() {
+        String source = inputFile != null ? inputFile.getPath() : inputData.length + " bytes";
+        return tag != null ? tag + " (" + source + ")" : source;
+    }
+
+    /**
+     * Builder for {@link ScaleRequest}.
+     */
+    public static final class Builder {
+        private final File inputFile;
+        private final byte[] inputData;
+        private final TargetSize target;
+        private ScaleOptions options = ScaleOptions.builder().build();
+        private File outputFile;
+        private Object tag;
+
+        private Builder(File inputFile, byte[] inputData, TargetSize target) {
+            this.inputFile = inputFile;
+            this.inputData = inputData;
+            this.target = target;
+        }
+
+        public Builder options(ScaleOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * Writes the output to a file instead of returning it in memory.
+         *
+         * @param outputFile the output file
+         * @return this builder
+         */
+        public Builder output(File outputFile) {
+            this.outputFile = outputFile;
+            return this;
+        }
+
+        public Builder tag(Object tag) {
+            this.tag = tag;
+            return this;
+        }
+
+        /**
+         * Builds the request.
+         *
+         * @return the request
+         * @throws IllegalArgumentException if the target size is missing
+         */
+        public ScaleRequest build() {
+            if (target == null) {
+                throw new IllegalArgumentException("Target size is required");
+            }
+            return new ScaleRequest(this);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.jpegscaler;
+
+import java.awt.Dimension;
+
+/**
+ * Dimensions, sizes, phase timings and phase costs of one scaled image, as returned
+ * by {@link JpegScaler}. Everything is measured while scaling, so reporting it
+ * needs no further I/O.
+ *
+ * The {@link ResourceUsage} of a phase sums the CPU time and allocation of every
+ * thread that worked on it: reading the input on an I/O thread counts towards
+ * decoding, fork/join workers resampling strips of a large image towards scaling,
+ * and a write thread towards writing.
+ *
+ * A {@linkplain #isCoalesced() coalesced} result only reports the costs of its own
+ * write, so summing the costs of many results counts every phase once.
+ */
+public final class ScaleResult {
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int width;
+    private final int height;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long decodeNanos;
+    private final long scaleNanos;
+    private final long encodeNanos;
+    private final long writeNanos;
+    private final ResourceUsage decodeUsage;
+    private final ResourceUsage scaleUsage;
+    private final ResourceUsage encodeUsage;
+    private final ResourceUsage writeUsage;
+    private final long peakRasterBytes;
+    private final boolean coalesced;
+
+    ScaleResult(int sourceWidth, int sourceHeight, int width, int height, long bytesIn, long bytesOut,
+                long decodeNanos, long scaleNanos, long encodeNanos, long writeNanos) {
+        this(sourceWidth, sourceHeight, width, height, bytesIn, bytesOut, decodeNanos, scaleNanos, encodeNanos,
+                writeNanos, ResourceUsage.ZERO, ResourceUsage.ZERO, ResourceUsage.ZERO, ResourceUsage.ZERO, 0);
+    }
+
+    ScaleResult(int sourceWidth, int sourceHeight, int width, int height, long bytesIn, long bytesOut,
+                long decodeNanos, long scaleNanos, long encodeNanos, long writeNanos, ResourceUsage decodeUsage,
+                ResourceUsage scaleUsage, ResourceUsage encodeUsage, ResourceUsage writeUsage,
+                long peakRasterBytes) {
+        this(sourceWidth, sourceHeight, width, height, bytesIn, bytesOut, decodeNanos, scaleNanos, encodeNanos,
+                writeNanos, decodeUsage, scaleUsage, encodeUsage, writeUsage, peakRasterBytes, false);
+    }
+
+    ScaleResult(int sourceWidth, int sourceHeight, int width, int height, long bytesIn, long bytesOut,
+                long decodeNanos, long scaleNanos, long encodeNanos, long writeNanos, ResourceUsage decodeUsage,
+                ResourceUsage scaleUsage, ResourceUsage encodeUsage, ResourceUsage writeUsage,
+                long peakRasterBytes, boolean coalesced) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.width = width;
+        this.height = height;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.decodeNanos = decodeNanos;
+        this.scaleNanos = scaleNanos;
+        this.encodeNanos = encodeNanos;
+        this.writeNanos = writeNanos;
+        this.decodeUsage = decodeUsage;
+        this.scaleUsage = scaleUsage;
+        this.encodeUsage = encodeUsage;
+        this.writeUsage = writeUsage;
+        this.peakRasterBytes = peakRasterBytes;
+        this.coalesced = coalesced;
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Dimension getDimension() {
+        return new Dimension(width, height);
+    }
+
+    /**
+     * Returns the number of source pixels, the measure of work used for throughput.
+     *
+     * @return the source pixel count
+     */
+    public long getSourcePixels() {
+        return (long) sourceWidth * sourceHeight;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Returns the time spent reading the header and decoding the source.
+     *
+     * @return the decode time in nanoseconds
+     */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    public long getScaleNanos() {
+        return scaleNanos;
+    }
+
+    /**
+     * Returns the time spent encoding the scaled image in memory.
+     *
+     * @return the encode time in nanoseconds
+     */
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /**
+     * Returns the time spent writing, syncing and renaming the output file.
+     *
+     * @return the write time in nanoseconds
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    public long getTotalNanos() {
+        return decodeNanos + scaleNanos + encodeNanos + writeNanos;
+    }
+
+    /**
+     * Returns the cost of reading the input, its header and decoding the source.
+     *
+     * @return the decode usage
+     */
+    public ResourceUsage getDecodeUsage() {
+        return decodeUsage;
+    }
+
+    /**
+     * Returns the cost of resampling, including the pool threads of a parallel resample.
+     *
+     * @return the scale usage
+     */
+    public ResourceUsage getScaleUsage() {
+        return scaleUsage;
+    }
+
+    public ResourceUsage getEncodeUsage() {
+        return encodeUsage;
+    }
+
+    public ResourceUsage getWriteUsage() {
+        return writeUsage;
+    }
+
+    public ResourceUsage getTotalUsage() {
+        return decodeUsage.plus(scaleUsage).plus(encodeUsage).plus(writeUsage);
+    }
+
+    /**
+     * Returns the size of the decoded and the scaled pixel buffers, which are both
+     * held while resampling, on or off the heap. Decoders may briefly hold more, e.g.
+     * the CMYK samples of an image being converted.
+     *
+     * @return the peak raster memory in bytes
+     */
+    public long getPeakRasterBytes() {
+        return peakRasterBytes;
+    }
+
+    /**
+     * Returns whether an identical job running at the same time decoded, scaled and
+     * encoded the image, and this one only waited for it and wrote the output. Such a
+     * result reports the other job's timings, but zero decode, scale and encode costs
+     * and no raster memory.
+     *
+     * @return {@code true} if the result shares another job's work
+     */
+    public boolean isCoalesced() {
+        return coalesced;
+    }
+}
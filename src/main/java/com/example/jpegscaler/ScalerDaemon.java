@@ -0,0 +1,516 @@
+package com.example.jpegscaler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resident server that runs CLI invocations sent by {@link DaemonClient} against
+ * one warm {@link JpegScaler}, so clients skip class loading, ImageIO plugin
+ * discovery and JIT warm-up.
+ *
+ * A request carries the client's working directory, its {@code jpegscaler.*} system
+ * properties and raw arguments; the reply carries the exit code and everything the
+ * invocation printed. While the invocation runs, the daemon sends a keep-alive byte
+ * every {@value #KEEPALIVE_SECONDS} seconds, so a client can tell a long batch from a
+ * hung daemon and give up on the latter. The parallel and off-heap thresholds and coalescing are applied
+ * per invocation from the client's properties, and each invocation gets its own
+ * codecs, so verbose codec statistics only count its own jobs. Any other property
+ * must match the daemon's, or the daemon declines and the client runs in-process.
+ * The daemon exits
+ * after {@value #DEFAULT_IDLE_SECONDS} seconds without requests, or the number of
+ * seconds in {@code -Djpegscaler.daemon.idle}. It deletes its socket as soon as it
+ * stops accepting requests, but only while the file is still the one it bound, so a
+ * replacement daemon started meanwhile keeps its socket.
+ *
+ * The socket lives in a directory that only the current user can enter, and both
+ * sides check that before binding or connecting, so other users can neither reach
+ * the daemon nor plant a socket of their own for clients to talk to. Transports
+ * that can tell also check that the peer process runs as the current user.
+ *
+ * Clients asking for the same rendition at once share one decode, scale and
+ * encode: unless a client sets {@code -Djpegscaler.coalesce=false}, the daemon
+ * {@linkplain JpegScaler#coalescing() coalesces} identical concurrent jobs, and
+ * each client still gets its own output file.
+ */
+final class ScalerDaemon implements AutoCloseable {
+
+    static final String SOCKET_PROPERTY = "jpegscaler.daemon.socket";
+    static final String IDLE_PROPERTY = "jpegscaler.daemon.idle";
+    static final long DEFAULT_IDLE_SECONDS = 1800;
+
+    /** Prefix of the system properties that configure scaling and are sent with each request. */
+    static final String PROPERTY_PREFIX = "jpegscaler.";
+
+    /** Client properties that the daemon applies per invocation instead of requiring them to match. */
+    private static final Set<String> PER_INVOCATION_PROPERTIES = Set.of(JpegScaler.PARALLEL_THRESHOLD_PROPERTY,
+            OffHeapImages.THRESHOLD_PROPERTY, JpegScaler.COALESCE_PROPERTY);
+
+    /** How often a running invocation tells the client that the daemon is still alive. */
+    static final long KEEPALIVE_SECONDS = 5;
+
+    private static final int MAGIC = 0x4A534333;
+    private static final int KEEPALIVE = 0;
+    private static final int ACCEPTED = 1;
+    private static final int DECLINED = 2;
+    private static final String TRANSPORT_CLASS = "com.example.jpegscaler.UnixSocketTransport";
+
+    private final DaemonTransport transport;
+    private final Path socket;
+    private final JpegScaler scaler;
+    private final long idleNanos;
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long lastRequest = System.nanoTime();
+    private volatile ServerSocketChannel server;
+    private volatile ScheduledExecutorService timer;
+
+    ScalerDaemon(DaemonTransport transport, Path socket, JpegScaler scaler, long idleSeconds) {
+        this.transport = transport;
+        this.socket = socket;
+        this.scaler = scaler.coalescing();
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+    }
+
+    /**
+     * Returns the Unix domain socket transport, or {@code null} if this runtime has none.
+     *
+     * @return the transport or {@code null}
+     */
+    static DaemonTransport transport() {
+        try {
+            Class<?> type = Class.forName(TRANSPORT_CLASS);
+            return (DaemonTransport) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the socket the daemon listens on: {@code -Djpegscaler.daemon.socket}, or
+     * {@code daemon.sock} in a private directory under {@code $XDG_RUNTIME_DIR}, or under
+     * the temporary directory if that is not set.
+     *
+     * @return the socket path
+     */
+    static Path socketPath() {
+        String configured = System.getProperty(SOCKET_PROPERTY);
+        if (configured != null) {
+            return Paths.get(configured);
+        }
+        String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+        if (runtimeDir != null && !runtimeDir.isEmpty()) {
+            return Paths.get(runtimeDir, "jpeg-scaler", "daemon.sock");
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "jpeg-scaler-" + System.getProperty("user.name"),
+                "daemon.sock");
+    }
+
+    /**
+     * Checks that the directory holding the socket belongs to the current user and is
+     * closed to everyone else, creating it with owner-only permissions if asked to.
+     *
+     * @param socket the socket file
+     * @param create whether to create a missing directory
+     * @throws IOException if the directory is missing, not owned by the current user or
+     *                     accessible to other users
+     */
+    static void checkSocketDirectory(Path socket, boolean create) throws IOException {
+        Path directory = socket.toAbsolutePath().getParent();
+        if (create && !Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            Files.createDirectories(directory.getParent());
+            try {
+                Files.createDirectory(directory,
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system; only the owner check below applies
+                Files.createDirectory(directory);
+            } catch (FileAlreadyExistsException e) {
+                // Created concurrently; checked below like any existing directory
+            }
+        }
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("Socket directory is missing or not a directory: " + directory);
+        }
+        UserPrincipal owner = Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS);
+        if (!owner.equals(currentUser())) {
+            throw new IOException("Socket directory " + directory + " belongs to " + owner.getName()
+                    + ", not the current user");
+        }
+        try {
+            Set<PosixFilePermission> others = Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS);
+            others.removeAll(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE,
+                    PosixFilePermission.OWNER_EXECUTE));
+            if (!others.isEmpty()) {
+                throw new IOException("Socket directory " + directory + " is accessible to other users");
+            }
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system; the owner check has to do
+        }
+    }
+
+    /**
+     * Returns the user this process runs as.
+     *
+     * @return the current user
+     * @throws IOException if the user cannot be looked up
+     */
+    static UserPrincipal currentUser() throws IOException {
+        return FileSystems.getDefault().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+    }
+
+    /**
+     * Returns this JVM's {@code jpegscaler.*} system properties, without the ones that
+     * only configure the daemon and its client.
+     *
+     * @return the scaling properties, sorted by name
+     */
+    static Map<String, String> scalingProperties() {
+        Map<String, String> properties = new TreeMap<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PROPERTY_PREFIX) && !name.equals(DaemonClient.ENABLED_PROPERTY)
+                    && !name.startsWith(DaemonClient.ENABLED_PROPERTY + ".")) {
+                properties.put(name, System.getProperty(name));
+            }
+        }
+        return properties;
+    }
+
+    static long idleSeconds() {
+        return Long.getLong(IDLE_PROPERTY, DEFAULT_IDLE_SECONDS);
+    }
+
+    /**
+     * Binds the socket and serves requests until the daemon is idle for too long or closed.
+     *
+     * @throws IOException if the socket cannot be bound or another daemon owns it
+     */
+    void serve() throws IOException {
+        server = bind();
+        Object socketKey = fileKey(socket);
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "jpeg-scaler-daemon");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService idleCheck = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jpeg-scaler-daemon-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer = idleCheck;
+        idleCheck.scheduleWithFixedDelay(() -> {
+            if (active.get() == 0 && System.nanoTime() - lastRequest > idleNanos) {
+                close();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+
+        try {
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                active.incrementAndGet();
+                lastRequest = System.nanoTime();
+                workers.execute(() -> handle(channel));
+            }
+        } finally {
+            // At once, so clients start a new daemon rather than fail to connect to this one
+            deleteSocket(socketKey);
+            workers.shutdown();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            idleCheck.shutdownNow();
+        }
+    }
+
+    /**
+     * Deletes the socket if it is still the file this daemon bound. A replacement
+     * daemon that bound the path after this one stopped accepting keeps its socket.
+     */
+    private void deleteSocket(Object socketKey) throws IOException {
+        if (socketKey != null && socketKey.equals(fileKey(socket))) {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /**
+     * Returns the key identifying a file, such as its device and inode, or {@code null}
+     * if it does not exist or the file system has no such key.
+     */
+    private static Object fileKey(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops accepting requests; requests in progress are completed by {@link #serve()}.
+     */
+    @Override
+    public void close() {
+        ServerSocketChannel current = server;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    private ServerSocketChannel bind() throws IOException {
+        checkSocketDirectory(socket, true);
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            if (isListening(socket)) {
+                throw new IOException("A daemon is already listening on " + socket);
+            }
+            // Left behind by a daemon that did not shut down cleanly
+            Files.deleteIfExists(socket);
+        }
+        return transport.bind(socket);
+    }
+
+    private boolean isListening(Path path) {
+        try (SocketChannel probe = transport.connect(path)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (SocketChannel open = channel) {
+            if (!transport.isCurrentUser(open)) {
+                return;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(open)));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            File workingDir = new File(in.readUTF());
+            Map<String, String> properties = new TreeMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                properties.put(in.readUTF(), in.readUTF());
+            }
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+
+            DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(open)));
+            JpegScaler invocationScaler = scalerFor(properties);
+            if (invocationScaler == null) {
+                reply.writeByte(DECLINED);
+                reply.flush();
+                return;
+            }
+            ScheduledFuture<?> keepAlive = timer.scheduleWithFixedDelay(() -> sendKeepAlive(reply),
+                    KEEPALIVE_SECONDS, KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+
+            ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+            ByteArrayOutputStream errBuffer = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(outBuffer, true);
+            PrintStream err = new PrintStream(errBuffer, true);
+            int exitCode;
+            try {
+                if (Arrays.asList(args).contains("--daemon")) {
+                    err.println("Error: The daemon is already running on " + socket);
+                    exitCode = 1;
+                } else {
+                    exitCode = JpegScalerCLI.run(args, invocationScaler, workingDir, out, err);
+                }
+            } finally {
+                keepAlive.cancel(false);
+            }
+
+            synchronized (reply) {
+                reply.writeByte(ACCEPTED);
+                reply.writeInt(exitCode);
+                writeBytes(reply, outBuffer.toByteArray());
+                writeBytes(reply, errBuffer.toByteArray());
+                reply.flush();
+            }
+        } catch (IOException e) {
+            // The client went away; nothing to report to
+        } finally {
+            lastRequest = System.nanoTime();
+            active.decrementAndGet();
+        }
+    }
+
+    private static void sendKeepAlive(DataOutputStream reply) {
+        synchronized (reply) {
+            try {
+                reply.writeByte(KEEPALIVE);
+                reply.flush();
+            } catch (IOException e) {
+                // The client went away; the invocation still finishes
+            }
+        }
+    }
+
+    /**
+     * Returns the scaler for an invocation with the given client properties, or
+     * {@code null} if the client sets a property this daemon cannot apply per
+     * invocation to a different value than its own.
+     */
+    private JpegScaler scalerFor(Map<String, String> properties) {
+        Map<String, String> own = scalingProperties();
+        Set<String> names = new HashSet<>(own.keySet());
+        names.addAll(properties.keySet());
+        names.removeAll(PER_INVOCATION_PROPERTIES);
+        for (String name : names) {
+            if (!Objects.equals(own.get(name), properties.get(name))) {
+                return null;
+            }
+        }
+        String coalesce = properties.get(JpegScaler.COALESCE_PROPERTY);
+        return scaler.forInvocation(
+                longProperty(properties, JpegScaler.PARALLEL_THRESHOLD_PROPERTY, JpegScaler.DEFAULT_PARALLEL_THRESHOLD),
+                longProperty(properties, OffHeapImages.THRESHOLD_PROPERTY, Long.MAX_VALUE),
+                coalesce == null || Boolean.parseBoolean(coalesce));
+    }
+
+    /**
+     * Parses a property like {@link Long#getLong(String, long)} does.
+     */
+    private static long longProperty(Map<String, String> properties, String name, long defaultValue) {
+        String value = properties.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.decode(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Sends one invocation to a daemon and copies its output to the given streams.
+     *
+     * @param channel    a connected channel
+     * @param workingDir the directory relative paths are resolved against
+     * @param properties the client's {@linkplain #scalingProperties() scaling properties}
+     * @param args       the command line arguments
+     * @param out        stream for normal output
+     * @param err        stream for error output
+     * @param timeoutMillis how long to wait for the daemon to send anything, keep-alives included
+     * @return the exit code of the invocation, or {@code null} if the daemon declined
+     *         it because it cannot apply the client's properties
+     * @throws IOException if the daemon does not answer, also within the timeout
+     */
+    static Integer call(SocketChannel channel, File workingDir, Map<String, String> properties, String[] args,
+                        PrintStream out, PrintStream err, long timeoutMillis) throws IOException {
+        DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        request.writeInt(MAGIC);
+        request.writeUTF(workingDir.getAbsolutePath());
+        request.writeInt(properties.size());
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            request.writeUTF(property.getKey());
+            request.writeUTF(property.getValue());
+        }
+        request.writeInt(args.length);
+        for (String arg : args) {
+            request.writeUTF(arg);
+        }
+        request.flush();
+
+        // Blocking channel reads have no timeout, so a watchdog closes the channel of a silent daemon
+        AtomicLong lastRead = new AtomicLong(System.nanoTime());
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jpeg-scaler-daemon-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, Math.min(timeoutMillis / 4, 1000));
+        watchdog.scheduleWithFixedDelay(() -> {
+            if (System.nanoTime() - lastRead.get() > timeoutNanos) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        int exitCode;
+        byte[] output;
+        byte[] errors;
+        try {
+            DataInputStream reply = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int status;
+            while ((status = reply.readUnsignedByte()) == KEEPALIVE) {
+                lastRead.set(System.nanoTime());
+            }
+            if (status != ACCEPTED) {
+                return null;
+            }
+            exitCode = reply.readInt();
+            output = readBytes(reply);
+            errors = readBytes(reply);
+        } finally {
+            watchdog.shutdownNow();
+        }
+        out.write(output, 0, output.length);
+        out.flush();
+        err.write(errors, 0, errors.length);
+        err.flush();
+        return exitCode;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
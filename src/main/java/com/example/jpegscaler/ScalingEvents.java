@@ -0,0 +1,143 @@
+package com.example.jpegscaler;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Java Flight Recorder events for the phases of a job, so a recording shows which
+ * image and which phase the ImageIO and Java2D frames around them belong to.
+ *
+ * Every job gets an ID shared by its events. The events are enabled by default with
+ * a 20 ms threshold, which a recording's settings can change, e.g.
+ * {@code com.example.jpegscaler.Decode#threshold=0 ms}. Without a recording the
+ * events are never instrumented: creating, beginning and ending one compiles to
+ * nothing, and their fields are only filled in once {@link Event#shouldCommit()}
+ * says the event will be written.
+ */
+final class ScalingEvents {
+
+    private static final AtomicLong JOB_IDS = new AtomicLong();
+
+    private ScalingEvents() {
+    }
+
+    /**
+     * Returns a new job ID, unique within the JVM.
+     *
+     * @return the job ID
+     */
+    static long nextJobId() {
+        return JOB_IDS.incrementAndGet();
+    }
+
+    /**
+     * The fields all phase events share.
+     */
+    @Category({"JPEG Scaler", "Jobs"})
+    @StackTrace(false)
+    @Threshold("20 ms")
+    abstract static class PhaseEvent extends Event {
+        @Label("Job ID")
+        long jobId;
+
+        @Label("Input")
+        String input;
+
+        @Label("Source Width")
+        int sourceWidth;
+
+        @Label("Source Height")
+        int sourceHeight;
+
+        @Label("Target Width")
+        int targetWidth;
+
+        @Label("Target Height")
+        int targetHeight;
+
+        @Label("Quality")
+        float quality;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /**
+         * Ends the event and commits it if it is enabled and exceeded its threshold.
+         *
+         * @param job    the job the phase belongs to
+         * @param width  the target width
+         * @param height the target height
+         * @param bytes  the bytes the phase read or produced
+         */
+        void complete(Job job, int width, int height, long bytes) {
+            end();
+            if (shouldCommit()) {
+                this.jobId = job.id;
+                this.input = job.input;
+                this.sourceWidth = job.sourceWidth;
+                this.sourceHeight = job.sourceHeight;
+                this.targetWidth = width;
+                this.targetHeight = height;
+                this.quality = job.quality;
+                this.bytes = bytes;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.example.jpegscaler.Decode")
+    @Label("Decode")
+    @Description("Reading the header and decoding the source image; bytes are the input size")
+    static final class Decode extends PhaseEvent {
+    }
+
+    @Name("com.example.jpegscaler.Resample")
+    @Label("Resample")
+    @Description("Resampling the decoded image to the target size; bytes are the decoded and scaled rasters")
+    static final class Resample extends PhaseEvent {
+    }
+
+    @Name("com.example.jpegscaler.Encode")
+    @Label("Encode")
+    @Description("Encoding the scaled image in memory; bytes are the encoded size")
+    static final class Encode extends PhaseEvent {
+    }
+
+    @Name("com.example.jpegscaler.Write")
+    @Label("Write")
+    @Description("Writing, syncing and renaming the output file; bytes are the written size")
+    static final class Write extends PhaseEvent {
+    }
+
+    /**
+     * What the events of one job have in common. The source size is filled in once
+     * the header or the decoded image tells it.
+     */
+    static final class Job {
+        final long id;
+        final String input;
+        final float quality;
+        int sourceWidth;
+        int sourceHeight;
+
+        Job(String input, float quality) {
+            this.id = nextJobId();
+            this.input = input;
+            this.quality = quality;
+        }
+
+        void setSource(int width, int height) {
+            this.sourceWidth = width;
+            this.sourceHeight = height;
+        }
+    }
+}
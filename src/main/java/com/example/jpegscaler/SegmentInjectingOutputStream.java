@@ -0,0 +1,88 @@
+package com.example.jpegscaler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Inserts metadata segments into a JPEG stream as the encoder writes it.
+ *
+ * The segments are placed directly after the SOI marker, or after the encoder's
+ * JFIF APP0 segment if it writes one, which must stay first. Only the start of
+ * the stream is buffered; everything after the insertion point is passed through.
+ */
+final class SegmentInjectingOutputStream extends FilterOutputStream {
+
+    private final List<JpegHeader.Segment> segments;
+    private final ByteArrayOutputStream head = new ByteArrayOutputStream(64);
+    private boolean injected;
+
+    SegmentInjectingOutputStream(OutputStream out, List<JpegHeader.Segment> segments) {
+        super(out);
+        this.segments = segments;
+        this.injected = segments.isEmpty();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (injected) {
+            out.write(b);
+        } else {
+            head.write(b);
+            injectIfReady();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int i = 0;
+        while (!injected && i < len) {
+            head.write(b[off + i++]);
+            injectIfReady();
+        }
+        if (i < len) {
+            out.write(b, off + i, len - i);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!injected) {
+            out.write(head.toByteArray());
+            injected = true;
+        }
+        super.close();
+    }
+
+    private void injectIfReady() throws IOException {
+        int size = head.size();
+        if (size < 4) {
+            return;
+        }
+        byte[] bytes = head.toByteArray();
+        if ((bytes[0] & 0xFF) != 0xFF || (bytes[1] & 0xFF) != JpegHeader.SOI) {
+            // Not a JPEG stream; pass it through untouched
+            out.write(bytes);
+            injected = true;
+            return;
+        }
+        int insertAt = 2;
+        if ((bytes[2] & 0xFF) == 0xFF && (bytes[3] & 0xFF) == JpegHeader.APP0) {
+            if (size < 6) {
+                return;
+            }
+            insertAt = 4 + (((bytes[4] & 0xFF) << 8) | (bytes[5] & 0xFF));
+            if (size < insertAt) {
+                return;
+            }
+        }
+        out.write(bytes, 0, insertAt);
+        for (JpegHeader.Segment segment : segments) {
+            out.write(segment.toBytes());
+        }
+        out.write(bytes, insertAt, bytes.length - insertAt);
+        injected = true;
+    }
+}
@@ -0,0 +1,539 @@
+package com.example.jpegscaler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets several processes share one batch through a coordination directory on a
+ * shared filesystem, without any other coordination service.
+ *
+ * A worker claims an input by creating its lease file with {@code CREATE_NEW},
+ * which only one worker can do, and renews the lease's modification time while the
+ * input is queued or being scaled. A finished input gets a marker in {@code done/}
+ * or {@code failed/} before its lease is deleted. An input marked done is never
+ * claimed again; one that failed before a worker joined is retried by that worker,
+ * as a batch without coordination retries the failures of an earlier run. A
+ * lease not renewed for the lease timeout belongs to a dead worker: the first worker
+ * to rename it away claims the input again. Each lease names its worker and claim,
+ * and a lease is only deleted, on expiry or release, after renaming it away and
+ * checking it is still the one meant; a lease renewed or claimed anew meanwhile is
+ * linked back. A worker that merely stalled past the timeout can still finish an
+ * input that was reclaimed, so an image may at worst be scaled twice; outputs are
+ * replaced atomically either way.
+ * Lease times are compared with the local clock, so the timeout must be well above
+ * the clock skew between nodes.
+ *
+ * Each worker also renews a file in {@code workers/} and, once its part is done,
+ * publishes its counts there, from which the merged result of all workers is built.
+ * The workers of one run share a run ID in the {@code run} file, which they renew
+ * too; a worker that finds it missing or expired starts a new run. Results carry
+ * the run ID, so the merged result of a rerun in the same directory only counts
+ * that run, and the one worker that creates the run's {@code .merged} marker
+ * reports it and ends the run.
+ * Marker times are compared with this worker's start on the local clock as well.
+ */
+final class ShardCoordinator implements Closeable {
+
+    private static final String LEASES = "leases";
+    private static final String DONE = "done";
+    private static final String FAILED = "failed";
+    private static final String WORKERS = "workers";
+    private static final String RESULT_SUFFIX = ".result";
+    private static final String RUN = "run";
+    private static final String MERGED_SUFFIX = ".merged";
+
+    /** How often {@link #mergedResult(Path, long)} checks whether the other workers are done. */
+    private static final long POLL_MILLIS = 100;
+
+    private final Path leases;
+    private final Path done;
+    private final Path failed;
+    private final Path workers;
+    private final Path run;
+    private final String worker;
+    private final long leaseMillis;
+    private final long joinedMillis = System.currentTimeMillis();
+    private final PrintStream log;
+    private final Map<String, Lease> held = new ConcurrentHashMap<>();
+    private final AtomicLong claims = new AtomicLong();
+    private final ScheduledExecutorService heartbeat;
+
+    private ShardCoordinator(Path directory, String worker, long leaseMillis, PrintStream log) {
+        this.leases = directory.resolve(LEASES);
+        this.done = directory.resolve(DONE);
+        this.failed = directory.resolve(FAILED);
+        this.workers = directory.resolve(WORKERS);
+        this.run = directory.resolve(RUN);
+        this.worker = worker;
+        this.leaseMillis = leaseMillis;
+        this.log = log;
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "jpeg-scaler-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Joins the batch coordinated in the given directory and starts renewing this
+     * worker's leases.
+     *
+     * @param directory   the coordination directory shared by all workers
+     * @param worker      the worker ID, unique among the workers
+     * @param leaseMillis the time after which a lease not renewed has expired
+     * @param log         the stream reclaimed leases are reported to
+     * @return the coordinator
+     * @throws IOException if the directory cannot be set up
+     */
+    static ShardCoordinator open(Path directory, String worker, long leaseMillis, PrintStream log)
+            throws IOException {
+        ShardCoordinator coordinator = new ShardCoordinator(directory, worker, leaseMillis, log);
+        for (Path path : new Path[] {coordinator.leases, coordinator.done, coordinator.failed,
+                coordinator.workers}) {
+            Files.createDirectories(path);
+        }
+        Files.deleteIfExists(coordinator.workers.resolve(worker + RESULT_SUFFIX));
+        Files.write(coordinator.workers.resolve(worker), new byte[0]);
+        coordinator.joinRun();
+        long interval = Math.max(1, leaseMillis / 3);
+        coordinator.heartbeat.scheduleWithFixedDelay(coordinator::renew, interval, interval, TimeUnit.MILLISECONDS);
+        return coordinator;
+    }
+
+    /**
+     * Starts a new run unless a live worker keeps the current one. Workers starting
+     * a run at the same time may each write an ID; the last one written stands, and
+     * results read the ID only when they are published.
+     */
+    private void joinRun() throws IOException {
+        try {
+            if (!isExpired(run, leaseMillis)) {
+                return;
+            }
+        } catch (NoSuchFileException e) {
+            // No run in progress
+        }
+        writeAtomically(run, UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the ID of the current run, or {@code null} if none is in progress.
+     */
+    private static String runId(Path directory) throws IOException {
+        try {
+            return new String(Files.readAllBytes(directory.resolve(RUN)), StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Claims an input unless it is done, failed since this worker joined, or another
+     * live worker holds it.
+     *
+     * @param relative the input path relative to the input root
+     * @return {@code true} if this worker now holds the input
+     * @throws IOException if the coordination directory cannot be accessed
+     */
+    boolean claim(String relative) throws IOException {
+        String key = key(relative);
+        if (isFinished(key)) {
+            return false;
+        }
+        Path lease = leases.resolve(key);
+        String content = worker + "\n" + relative + "\n" + claims.incrementAndGet() + "\n";
+        // A second attempt follows only when an expired lease was just removed
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                Files.write(lease, content.getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException e) {
+                if (!expire(lease, relative)) {
+                    return false;
+                }
+                continue;
+            }
+            held.put(relative, new Lease(lease, content));
+            // Finished and released between the check above and the claim
+            if (isFinished(key)) {
+                release(relative);
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the inputs whose leases other workers hold, so a worker done with its
+     * walk can wait for them and reclaim those that expire. Expired leases of inputs
+     * that are already finished, left by a worker that lost track of them, are deleted.
+     *
+     * @return the inputs leased by other workers
+     * @throws IOException if the coordination directory cannot be read
+     */
+    List<String> leasedByOthers() throws IOException {
+        List<String> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(leases)) {
+            for (Path lease : files) {
+                String key = lease.getFileName().toString();
+                if (key.indexOf('.') >= 0) {
+                    // Being removed by a worker
+                    continue;
+                }
+                try {
+                    String content = read(lease);
+                    String[] lines = content.split("\n");
+                    if (lines.length < 2 || isFinished(key)) {
+                        // Not written yet, or finished and about to be released
+                        if (isExpired(lease, leaseMillis)) {
+                            remove(lease, content, true);
+                        }
+                    } else if (!lines[0].equals(worker)) {
+                        inputs.add(lines[1]);
+                    }
+                } catch (NoSuchFileException e) {
+                    // Released meanwhile
+                }
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Marks a claimed input as finished and releases its lease.
+     *
+     * @param relative  the input path relative to the input root
+     * @param succeeded whether it was scaled, or else failed
+     * @throws IOException if the marker cannot be written
+     */
+    void finish(String relative, boolean succeeded) throws IOException {
+        String key = key(relative);
+        Path marker = (succeeded ? done : failed).resolve(key);
+        try {
+            Files.createFile(marker);
+        } catch (FileAlreadyExistsException e) {
+            // Also finished by a worker that reclaimed it, or failed again on retry
+        }
+        if (succeeded) {
+            Files.deleteIfExists(failed.resolve(key));
+        } else {
+            // Stamped by the clock that worker start times come from; the file system's may lag behind it
+            Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        release(relative);
+    }
+
+    /**
+     * Publishes this worker's counts for {@link #mergedResult(Path, long)}.
+     *
+     * @param result the result of this worker's run
+     * @throws IOException if the result cannot be written
+     */
+    void publish(BatchResult result) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("processed", String.valueOf(result.getProcessed()));
+        properties.setProperty("skipped", String.valueOf(result.getSkipped()));
+        properties.setProperty("failed", String.valueOf(result.getFailed()));
+        properties.setProperty("elapsedMillis", String.valueOf(result.getElapsedMillis()));
+        String runId = runId(run.getParent());
+        properties.setProperty("run", runId != null ? runId : "");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        properties.store(bytes, worker);
+        writeAtomically(workers.resolve(worker + RESULT_SUFFIX), bytes.toByteArray());
+        Files.deleteIfExists(workers.resolve(worker));
+    }
+
+    /**
+     * Replaces a file so that readers see either the old or the new content.
+     */
+    private void writeAtomically(Path file, byte[] content) throws IOException {
+        Path temp = Files.createTempFile(workers, worker, ".tmp");
+        try {
+            Files.write(temp, content);
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Returns the sum of the published results once no other live worker is left,
+     * with the elapsed time of the slowest. Workers that died without publishing
+     * are not counted; the inputs they held were reclaimed by the others. A worker
+     * that died recently still looks alive until its file expires, so this waits up
+     * to one lease period for the other workers to publish or expire. Only results
+     * of the current run count, and only one caller gets the merged result of a run.
+     *
+     * @param directory   the coordination directory
+     * @param leaseMillis the time after which a worker not renewing its file is dead
+     * @return the merged result, or {@code null} while other workers are running or
+     *         if another worker already took the merged result of this run
+     * @throws IOException if the coordination directory cannot be read
+     */
+    static BatchResult mergedResult(Path directory, long leaseMillis) throws IOException {
+        Path workers = directory.resolve(WORKERS);
+        String runId = runId(directory);
+        if (runId == null) {
+            return null;
+        }
+        long deadline = System.currentTimeMillis() + leaseMillis;
+        List<Path> results = new ArrayList<>();
+        while (!collectResults(workers, leaseMillis, results)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            try {
+                Thread.sleep(Math.min(remaining, POLL_MILLIS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the other workers");
+            }
+        }
+        int processed = 0;
+        int skipped = 0;
+        int failedCount = 0;
+        long elapsedMillis = 0;
+        for (Path file : results) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+            if (!runId.equals(properties.getProperty("run"))) {
+                // Left by an earlier run in the same directory
+                continue;
+            }
+            processed += Integer.parseInt(properties.getProperty("processed", "0"));
+            skipped += Integer.parseInt(properties.getProperty("skipped", "0"));
+            failedCount += Integer.parseInt(properties.getProperty("failed", "0"));
+            elapsedMillis = Math.max(elapsedMillis, Long.parseLong(properties.getProperty("elapsedMillis", "0")));
+        }
+        try {
+            Files.createFile(directory.resolve(RUN + "-" + runId + MERGED_SUFFIX));
+        } catch (FileAlreadyExistsException e) {
+            // Another worker finishing at the same time reports it
+            return null;
+        }
+        // The run is over; the next worker to join starts a new one
+        if (runId.equals(runId(directory))) {
+            Files.deleteIfExists(directory.resolve(RUN));
+        }
+        return new BatchResult(processed, skipped, failedCount, TimeUnit.MILLISECONDS.toNanos(elapsedMillis));
+    }
+
+    /**
+     * Collects the published results.
+     *
+     * @return {@code false} if a worker file has not expired yet
+     */
+    private static boolean collectResults(Path workers, long leaseMillis, List<Path> results) throws IOException {
+        results.clear();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(workers)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    if (name.endsWith(RESULT_SUFFIX)) {
+                        results.add(file);
+                    } else if (!name.endsWith(".tmp") && !isExpired(file, leaseMillis)) {
+                        return false;
+                    }
+                } catch (NoSuchFileException e) {
+                    // Deleted by a worker that just published; its result is picked up on the next check
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops renewing and releases the leases still held, so other workers can claim
+     * those inputs at once.
+     */
+    @Override
+    public void close() throws IOException {
+        heartbeat.shutdownNow();
+        for (String relative : held.keySet()) {
+            release(relative);
+        }
+    }
+
+    private boolean isFinished(String key) throws IOException {
+        if (Files.exists(done.resolve(key))) {
+            return true;
+        }
+        try {
+            return Files.getLastModifiedTime(failed.resolve(key)).toMillis() >= joinedMillis;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes the lease if it has expired.
+     *
+     * @return {@code true} if the lease is gone and may be claimed
+     */
+    private boolean expire(Path lease, String relative) throws IOException {
+        String stale;
+        try {
+            if (!isExpired(lease, leaseMillis)) {
+                return false;
+            }
+            stale = read(lease);
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+        if (!remove(lease, stale, true)) {
+            return false;
+        }
+        log.println("Reclaimed " + relative + " from worker " + stale.split("\n", 2)[0]);
+        return true;
+    }
+
+    /**
+     * Deletes a lease if it is still the expected one and, if asked, still expired.
+     * The lease is renamed to a name of this worker's first, so the check sees a file
+     * nobody else can renew or remove any more. A lease that turns out to be another
+     * one, because another worker reclaimed the stale one first or the owner renewed
+     * it, is linked back; linking fails rather than replace a lease claimed meanwhile.
+     *
+     * @return {@code true} if the lease was deleted or was already gone
+     */
+    private boolean remove(Path lease, String expected, boolean expired) throws IOException {
+        Path moved = leases.resolve(lease.getFileName() + "." + worker + "." + claims.incrementAndGet() + ".removed");
+        try {
+            Files.move(lease, moved, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // Removed by its owner or by another worker reclaiming it
+            return true;
+        }
+        try {
+            if (read(moved).equals(expected) && (!expired || isExpired(moved, leaseMillis))) {
+                return true;
+            }
+            try {
+                Files.createLink(lease, moved);
+            } catch (FileAlreadyExistsException e) {
+                // Claimed again meanwhile; the displaced holder may scale the input a second time
+            } catch (UnsupportedOperationException e) {
+                try {
+                    Files.move(moved, lease);
+                } catch (FileAlreadyExistsException alreadyClaimed) {
+                    // As above
+                }
+            }
+            return false;
+        } finally {
+            Files.deleteIfExists(moved);
+        }
+    }
+
+    private static String read(Path lease) throws IOException {
+        return new String(Files.readAllBytes(lease), StandardCharsets.UTF_8);
+    }
+
+    private static boolean isExpired(Path file, long leaseMillis) throws IOException {
+        return System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() >= leaseMillis;
+    }
+
+    /**
+     * Deletes this worker's lease of an input, unless another worker reclaimed it.
+     */
+    private void release(String relative) throws IOException {
+        Lease lease = held.remove(relative);
+        if (lease != null) {
+            remove(lease.path, lease.content, false);
+        }
+    }
+
+    /**
+     * Renews this worker's file and leases; runs on the heartbeat thread.
+     */
+    private void renew() {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        try {
+            Files.setLastModifiedTime(workers.resolve(worker), now);
+        } catch (IOException e) {
+            // Published or not yet written; nothing to renew
+        }
+        try {
+            Files.setLastModifiedTime(run, now);
+        } catch (IOException e) {
+            // Ended by a worker that reported the merged result
+        }
+        for (Map.Entry<String, Lease> lease : held.entrySet()) {
+            try {
+                Files.setLastModifiedTime(lease.getValue().path, now);
+            } catch (NoSuchFileException e) {
+                // Reclaimed after a stall; the input may be scaled twice but ends up finished once
+                held.remove(lease.getKey(), lease.getValue());
+            } catch (IOException e) {
+                log.println("Could not renew lease of " + lease.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A lease this worker holds, with the content identifying its claim.
+     */
+    private static final class Lease {
+        final Path path;
+        final String content;
+
+        Lease(Path path, String content) {
+            this.path = path;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Names the lease and markers of an input; the hash keeps nested paths flat and
+     * their length bounded.
+     */
+    static String key(String relative) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(relative.replace('\\', '/').getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(40);
+            for (int i = 0; i < 20; i++) {
+                key.append(Character.forDigit(hash[i] >> 4 & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.jpegscaler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs concurrent calls with equal keys once: the first caller computes the value
+ * and every caller that arrives while it is in flight waits for and shares it.
+ *
+ * Only calls in flight are held, and a call is forgotten as soon as it completes,
+ * so memory is bounded by the concurrent callers and nothing is cached. A failure
+ * reaches every waiter: an {@link IOException} as a new one with the leader's as
+ * its cause, so each waiter's stack trace shows where it waited, and unchecked
+ * exceptions as they are. A leader that was cancelled is not a failure of the
+ * call; its waiters start over and one of them takes the lead. Each waiter checks
+ * its own {@link CancellationToken} while it waits.
+ *
+ * @param <K> the key type, with equality identifying identical calls
+ * @param <V> the value type, shared by all callers and therefore best immutable
+ */
+final class SingleFlight<K, V> {
+
+    /**
+     * The computation of a call.
+     */
+    interface Call<V> {
+        V run() throws IOException;
+    }
+
+    /** How often a waiter checks its cancellation token. */
+    private static final long POLL_MILLIS = 50;
+
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the call, or waits for the one in flight with an equal key.
+     *
+     * @param key          the key identifying the call
+     * @param call         the computation, run on the calling thread if it leads
+     * @param cancellation the caller's cancellation token
+     * @return the value, computed by this or another caller
+     * @throws InterruptedIOException if the caller was cancelled or interrupted
+     * @throws IOException if the computation failed
+     */
+    V execute(K key, Call<V> call, CancellationToken cancellation) throws IOException {
+        while (true) {
+            cancellation.throwIfCancelled();
+            CompletableFuture<V> flight = new CompletableFuture<>();
+            CompletableFuture<V> leader = calls.putIfAbsent(key, flight);
+            if (leader == null) {
+                return lead(key, flight, call);
+            }
+            try {
+                return await(leader, cancellation);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof InterruptedIOException) {
+                    // The leader gave up, not the call: run it again
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw new IOException(cause.getMessage(), cause);
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of calls in flight.
+     *
+     * @return the calls in flight
+     */
+    int inFlight() {
+        return calls.size();
+    }
+
+    private V lead(K key, CompletableFuture<V> flight, Call<V> call) throws IOException {
+        try {
+            V value = call.run();
+            flight.complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, flight);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> leader, CancellationToken cancellation)
+            throws IOException, ExecutionException {
+        try {
+            while (true) {
+                try {
+                    return leader.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    cancellation.throwIfCancelled();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an identical job");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.jpegscaler;
+
+/**
+ * Properties of a source image, read from its header without decoding it.
+ * Used to pick a codec and to group codec timings by kind of input.
+ */
+public final class SourceTraits {
+
+    /** Inputs at or above this many pixels are considered huge. */
+    public static final long HUGE_PIXELS = 64L * 1000 * 1000;
+
+    /** Traits of an input whose header could not be parsed as JPEG. */
+    public static final SourceTraits UNKNOWN = new SourceTraits(0, 0, 0, false, -1);
+
+    private final int width;
+    private final int height;
+    private final int components;
+    private final boolean progressive;
+    private final int adobeTransform;
+
+    SourceTraits(int width, int height, int components, boolean progressive, int adobeTransform) {
+        this.width = width;
+        this.height = height;
+        this.components = components;
+        this.progressive = progressive;
+        this.adobeTransform = adobeTransform;
+    }
+
+    static SourceTraits of(JpegHeader header) {
+        return new SourceTraits(header.getWidth(), header.getHeight(), header.getComponents(),
+                header.isProgressive(), header.getAdobeTransform());
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getComponents() {
+        return components;
+    }
+
+    public boolean isKnown() {
+        return components > 0;
+    }
+
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    public boolean isGrayscale() {
+        return components == 1;
+    }
+
+    /**
+     * Returns whether the image is stored as CMYK or YCCK.
+     *
+     * @return {@code true} for four-component images
+     */
+    public boolean isCmyk() {
+        return components == 4;
+    }
+
+    public boolean isYcck() {
+        return components == 4 && adobeTransform == 2;
+    }
+
+    public boolean isHuge() {
+        return (long) width * height >= HUGE_PIXELS;
+    }
+
+    /**
+     * Returns a coarse class name used to group codec timings, such as
+     * {@code baseline}, {@code progressive}, {@code cmyk}, {@code gray} or {@code huge}.
+     *
+     * @return the input class
+     */
+    public String getInputClass() {
+        if (!isKnown()) {
+            return "unknown";
+        }
+        if (isHuge()) {
+            return "huge";
+        }
+        if (isCmyk()) {
+            return isYcck() ? "ycck" : "cmyk";
+        }
+        if (progressive) {
+            return "progressive";
+        }
+        return isGrayscale() ? "gray" : "baseline";
+    }
+
+    @Override
+    public String toString() {
+        return getInputClass() + " " + width + "x" + height;
+    }
+}
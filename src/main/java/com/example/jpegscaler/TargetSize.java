@@ -0,0 +1,105 @@
+package com.example.jpegscaler;
+
+import java.awt.Dimension;
+
+/**
+ * The requested output size of a job, resolved against each source's dimensions.
+ *
+ * Either both sides are fixed, one side is fixed and the other follows the source
+ * aspect ratio, or the image is fitted into a bounding box.
+ */
+public final class TargetSize {
+
+    private final int width;
+    private final int height;
+    private final boolean bounded;
+
+    private TargetSize(int width, int height, boolean bounded) {
+        this.width = width;
+        this.height = height;
+        this.bounded = bounded;
+    }
+
+    /**
+     * Returns a size with both sides fixed, or one side fixed if the other is 0.
+     *
+     * @param width  the target width, or 0 to derive it from the aspect ratio
+     * @param height the target height, or 0 to derive it from the aspect ratio
+     * @return the target size
+     * @throws IllegalArgumentException if a side is negative or both are 0
+     */
+    public static TargetSize exact(int width, int height) {
+        if (width < 0 || height < 0 || (width == 0 && height == 0)) {
+            throw new IllegalArgumentException("Width and height must be positive integers");
+        }
+        return new TargetSize(width, height, false);
+    }
+
+    /**
+     * Returns a size that fits the image into the given box, keeping its aspect ratio.
+     *
+     * @param maxWidth  the maximum width
+     * @param maxHeight the maximum height
+     * @return the target size
+     * @throws IllegalArgumentException if a side is not positive
+     */
+    public static TargetSize bounded(int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            throw new IllegalArgumentException("Maximum width and height must be positive integers");
+        }
+        return new TargetSize(maxWidth, maxHeight, true);
+    }
+
+    /**
+     * Resolves the output dimensions for a source image.
+     *
+     * @param sourceWidth  the source width
+     * @param sourceHeight the source height
+     * @return the output dimensions
+     */
+    public Dimension resolve(int sourceWidth, int sourceHeight) {
+        if (bounded) {
+            double ratio = Math.min((double) width / sourceWidth, (double) height / sourceHeight);
+            return new Dimension((int) (sourceWidth * ratio), (int) (sourceHeight * ratio));
+        }
+        if (width == 0) {
+            return new Dimension((int) ((double) height * sourceWidth / sourceHeight), height);
+        }
+        if (height == 0) {
+            return new Dimension(width, (int) ((double) width * sourceHeight / sourceWidth));
+        }
+        return new Dimension(width, height);
+    }
+
+    /**
+     * Returns whether the output size depends on the source dimensions.
+     *
+     * @return {@code false} only if both sides are fixed
+     */
+    public boolean dependsOnSource() {
+        return bounded || width == 0 || height == 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TargetSize)) {
+            return false;
+        }
+        TargetSize that = (TargetSize) other;
+        return width == that.width && height == that.height && bounded == that.bounded;
+    }
+
+    @Override
+    public int hashCode() {
+        return (width * 31 + height) * 2 + (bounded ? 1 : 0);
+    }
+
+    /**
+     * Returns {@code 800x600}, {@code 800x?}, {@code ?x600} or {@code max 1024x768}.
+     */
+    @Override
+    public String toString() {
+        String size = (width == 0 ? "?" : String.valueOf(width)) + "x" + (height == 0 ? "?" : String.valueOf(height));
+        return bounded ? "max " + size : size;
+    }
+}
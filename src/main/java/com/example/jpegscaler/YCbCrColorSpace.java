@@ -0,0 +1,103 @@
+package com.example.jpegscaler;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+
+/**
+ * The full-range YCbCr space of JFIF, in which baseline JPEG stores sRGB pixels.
+ *
+ * Images in this space hold the decoder's component samples as they are, so they
+ * can be scaled and encoded again without converting to RGB and back. Code that
+ * asks such an image for RGB values still gets them, converted pixel by pixel.
+ */
+final class YCbCrColorSpace extends ColorSpace {
+
+    static final YCbCrColorSpace INSTANCE = new YCbCrColorSpace();
+
+    private static final ColorSpace SRGB = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+
+    private static final long serialVersionUID = 1L;
+
+    private YCbCrColorSpace() {
+        super(ColorSpace.TYPE_YCbCr, 3);
+    }
+
+    /**
+     * Returns whether the image holds YCbCr samples in this space.
+     *
+     * @param image the image
+     * @return {@code true} for images created by {@link #createImage}
+     */
+    static boolean isYCbCr(BufferedImage image) {
+        return image.getColorModel().getColorSpace() == INSTANCE;
+    }
+
+    /**
+     * Wraps 8-bit interleaved Y, Cb and Cr samples in an image.
+     *
+     * @param raster the three-band byte raster
+     * @return the image
+     */
+    static BufferedImage createImage(WritableRaster raster) {
+        return new BufferedImage(createColorModel(), raster, false, null);
+    }
+
+    /**
+     * Creates an empty image for YCbCr samples.
+     *
+     * @param width  the width
+     * @param height the height
+     * @return the image
+     */
+    static BufferedImage createImage(int width, int height) {
+        ColorModel colorModel = createColorModel();
+        return new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(width, height), false, null);
+    }
+
+    private static ColorModel createColorModel() {
+        return new ComponentColorModel(INSTANCE, false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+    }
+
+    @Override
+    public float[] toRGB(float[] value) {
+        float luma = value[0];
+        float cb = value[1] - 0.5f;
+        float cr = value[2] - 0.5f;
+        return new float[] {
+                clamp(luma + 1.402f * cr),
+                clamp(luma - 0.344136f * cb - 0.714136f * cr),
+                clamp(luma + 1.772f * cb)};
+    }
+
+    @Override
+    public float[] fromRGB(float[] rgb) {
+        float luma = 0.299f * rgb[0] + 0.587f * rgb[1] + 0.114f * rgb[2];
+        return new float[] {
+                luma,
+                clamp(0.5f + (rgb[2] - luma) / 1.772f),
+                clamp(0.5f + (rgb[0] - luma) / 1.402f)};
+    }
+
+    @Override
+    public float[] toCIEXYZ(float[] value) {
+        return SRGB.toCIEXYZ(toRGB(value));
+    }
+
+    @Override
+    public float[] fromCIEXYZ(float[] xyz) {
+        return fromRGB(SRGB.fromCIEXYZ(xyz));
+    }
+
+    private static float clamp(float value) {
+        return value < 0 ? 0 : value > 1 ? 1 : value;
+    }
+
+    private Object readResolve() {
+        return INSTANCE;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.jpegscaler;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * {@link DaemonTransport} over Unix domain sockets (JDK 16+).
+ *
+ * Only shipped in {@code META-INF/versions/17} and loaded reflectively by
+ * {@link ScalerDaemon}; on older runtimes the CLI always runs in-process.
+ */
+final class UnixSocketTransport implements DaemonTransport {
+
+    @Override
+    public SocketChannel connect(Path socket) throws IOException {
+        return SocketChannel.open(UnixDomainSocketAddress.of(socket));
+    }
+
+    @Override
+    public ServerSocketChannel bind(Path socket) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            return server;
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isCurrentUser(SocketChannel channel) throws IOException {
+        if (!channel.supportedOptions().contains(ExtendedSocketOptions.SO_PEERCRED)) {
+            return true;
+        }
+        return channel.getOption(ExtendedSocketOptions.SO_PEERCRED).user().equals(ScalerDaemon.currentUser());
+    }
+}
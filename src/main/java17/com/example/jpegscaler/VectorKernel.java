@@ -0,0 +1,75 @@
+package com.example.jpegscaler;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ResampleKernel} using the incubating Vector API. Each loop iteration
+ * processes a full SIMD register of interleaved channel samples; the horizontal
+ * pass gathers its taps, the vertical pass streams whole rows.
+ *
+ * Only shipped in {@code META-INF/versions/17} and loaded reflectively by
+ * {@link ResampleKernels}, which falls back to {@link ScalarKernel} when the
+ * {@code jdk.incubator.vector} module is not resolved.
+ */
+final class VectorKernel implements ResampleKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    VectorKernel() {
+        if (SPECIES.length() < 2) {
+            throw new UnsupportedOperationException("No SIMD support for float vectors");
+        }
+    }
+
+    @Override
+    public void horizontal(float[] src, int channels, int[] offsets, float[] weights, int taps, float[] dst, int length) {
+        int lanes = SPECIES.length();
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += lanes) {
+            FloatVector acc = FloatVector.zero(SPECIES);
+            for (int k = 0; k < taps; k++) {
+                FloatVector weight = FloatVector.fromArray(SPECIES, weights, k * length + i);
+                FloatVector sample = FloatVector.fromArray(SPECIES, src, k * channels, offsets, i);
+                acc = acc.add(weight.mul(sample));
+            }
+            acc.intoArray(dst, i);
+        }
+        for (; i < length; i++) {
+            float acc = 0f;
+            int offset = offsets[i];
+            for (int k = 0; k < taps; k++) {
+                acc = acc + weights[k * length + i] * src[offset + k * channels];
+            }
+            dst[i] = acc;
+        }
+    }
+
+    @Override
+    public void vertical(float[][] rows, float[] weights, int weightOffset, int taps, float[] dst, int length) {
+        int lanes = SPECIES.length();
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += lanes) {
+            FloatVector acc = FloatVector.zero(SPECIES);
+            for (int k = 0; k < taps; k++) {
+                FloatVector sample = FloatVector.fromArray(SPECIES, rows[k], i);
+                acc = acc.add(sample.mul(weights[weightOffset + k]));
+            }
+            acc.intoArray(dst, i);
+        }
+        for (; i < length; i++) {
+            float acc = 0f;
+            for (int k = 0; k < taps; k++) {
+                acc = acc + weights[weightOffset + k] * rows[k][i];
+            }
+            dst[i] = acc;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector-" + SPECIES.vectorBitSize();
+    }
+}
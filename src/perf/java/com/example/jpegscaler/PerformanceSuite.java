@@ -0,0 +1,418 @@
+package com.example.jpegscaler;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.imageio.ImageIO;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Performance regression suite, run by the {@code perf} profile in a JVM of its own.
+ *
+ * Generates a deterministic corpus of synthetic JPEGs (eight sizes from 0.3 to 12 MP
+ * in landscape, portrait, square and panorama shapes, each in colour and grayscale
+ * with noisy and with flat content), then runs the command line over it twice: once
+ * per file, as a script calling the tool would, and once over the whole directory
+ * with {@code --threads}. The single-file latency percentiles, the batch throughput
+ * and latency percentiles, the peak live heap (the most left after a collection, so
+ * it does not merely follow {@code -Xmx}) and the peak resident set size are written to
+ * {@code results.json} and compared with the committed baseline. A metric worse than
+ * its baseline by more than the tolerance fails the run with exit code 1.
+ *
+ * Timings depend on the machine, so the baseline has to be recorded with
+ * {@code -Dperf.updateBaseline=true} on the machine that runs the comparison.
+ *
+ * Arguments: the baseline file and the work directory. System properties:
+ * {@code perf.tolerance} (the allowed relative regression, default 0.25, or
+ * {@code perf.tolerance.<metric>} for one metric), {@code perf.iterations} (measured
+ * passes after one warm-up pass, default 3), {@code perf.threads} (batch workers,
+ * default 4) and {@code perf.updateBaseline}.
+ */
+public final class PerformanceSuite {
+
+    /** Bumped whenever the corpus changes, so a cached corpus is regenerated. */
+    private static final String CORPUS_VERSION = "1";
+
+    private static final int[][] SIZES = {
+            {640, 480}, {1280, 720}, {720, 1280}, {1600, 1600},
+            {3000, 2000}, {4000, 1000}, {2400, 3600}, {4000, 3000}};
+
+    private static final String TARGET = "1024";
+
+    private final Path corpus;
+    private final Path output;
+    private final int iterations;
+    private final int threads;
+
+    private PerformanceSuite(Path workDir, int iterations, int threads) {
+        this.corpus = workDir.resolve("corpus");
+        this.output = workDir.resolve("output");
+        this.iterations = iterations;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: PerformanceSuite <baseline.json> <work directory>");
+            System.exit(2);
+        }
+        Path baselineFile = Paths.get(args[0]);
+        Path workDir = Paths.get(args[1]);
+        PerformanceSuite suite = new PerformanceSuite(workDir, Integer.getInteger("perf.iterations", 3),
+                Integer.getInteger("perf.threads", 4));
+
+        suite.generateCorpus();
+        Map<String, Double> results = suite.measure();
+        Files.write(workDir.resolve("results.json"), toJson(results).getBytes(StandardCharsets.UTF_8));
+
+        if (Boolean.getBoolean("perf.updateBaseline") || !Files.exists(baselineFile)) {
+            Files.createDirectories(baselineFile.toAbsolutePath().getParent());
+            Files.write(baselineFile, toJson(results).getBytes(StandardCharsets.UTF_8));
+            System.out.println("Baseline written to " + baselineFile);
+            return;
+        }
+        Map<String, Double> baseline = parseJson(new String(Files.readAllBytes(baselineFile), StandardCharsets.UTF_8));
+        if (compare(baseline, results, System.out)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes the corpus unless the work directory holds the current version of it.
+     */
+    private void generateCorpus() throws IOException {
+        Path marker = corpus.resolve(".version");
+        if (Files.exists(marker)
+                && CORPUS_VERSION.equals(new String(Files.readAllBytes(marker), StandardCharsets.UTF_8))) {
+            return;
+        }
+        deleteRecursively(corpus);
+        Files.createDirectories(corpus);
+        Random random = new Random(20240917L);
+        for (int[] size : SIZES) {
+            for (boolean gray : new boolean[] {false, true}) {
+                for (boolean noisy : new boolean[] {false, true}) {
+                    BufferedImage image = synthesize(size[0], size[1], gray, noisy, random);
+                    String name = String.format(Locale.ROOT, "%dx%d-%s-%s.jpg", size[0], size[1],
+                            gray ? "gray" : "color", noisy ? "noisy" : "flat");
+                    if (!ImageIO.write(image, "jpg", corpus.resolve(name).toFile())) {
+                        throw new IOException("No JPEG writer for " + name);
+                    }
+                }
+            }
+        }
+        Files.write(marker, CORPUS_VERSION.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Draws a gradient under a few flat rectangles; noisy images add per-pixel noise,
+     * which leaves the entropy coder far more to do.
+     */
+    private static BufferedImage synthesize(int width, int height, boolean gray, boolean noisy, Random random) {
+        int[][] blocks = new int[6][];
+        for (int i = 0; i < blocks.length; i++) {
+            int x = random.nextInt(width / 2);
+            int y = random.nextInt(height / 2);
+            blocks[i] = new int[] {x, y, x + width / 4 + random.nextInt(width / 4),
+                    y + height / 4 + random.nextInt(height / 4), random.nextInt(0x1000000)};
+        }
+        BufferedImage image = new BufferedImage(width, height,
+                gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x + y) * 127 / (width + height));
+                for (int[] block : blocks) {
+                    if (x >= block[0] && x < block[2] && y >= block[1] && y < block[3]) {
+                        rgb = block[4];
+                    }
+                }
+                if (noisy) {
+                    int noise = random.nextInt(65) - 32;
+                    rgb = clamp((rgb >> 16 & 0xFF) + noise) << 16 | clamp((rgb >> 8 & 0xFF) + noise) << 8
+                            | clamp((rgb & 0xFF) + random.nextInt(65) - 32);
+                }
+                row[x] = rgb;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    private Map<String, Double> measure() throws IOException {
+        List<Path> files = corpusFiles();
+        long sourcePixels = 0;
+        for (Path file : files) {
+            JpegHeader header = JpegHeader.read(file.toFile(), MetadataPolicy.STRIP);
+            sourcePixels += (long) header.getWidth() * header.getHeight();
+        }
+
+        // Corpus generation is not part of the measured footprint
+        System.gc();
+        resetPeakRss();
+        AtomicLong peakLiveHeap = new AtomicLong();
+        watchLiveHeap(peakLiveHeap);
+
+        // One scaler for all runs, as in the daemon; each pass starts from an empty output directory
+        JpegScaler scaler = new JpegScaler();
+        long[] single = null;
+        double batchSeconds = Double.MAX_VALUE;
+        long[] batch = null;
+        for (int pass = 0; pass <= iterations; pass++) {
+            long[] singleLatencies = runSingle(scaler, files);
+            long start = System.nanoTime();
+            long[] batchLatencies = runBatch(scaler, files.size());
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (pass == 0) {
+                continue;
+            }
+            // Best of the measured passes: noise from the machine only ever makes a pass slower
+            if (single == null || percentile(singleLatencies, 50) < percentile(single, 50)) {
+                single = singleLatencies;
+            }
+            if (seconds < batchSeconds) {
+                batchSeconds = seconds;
+                batch = batchLatencies;
+            }
+        }
+
+        Map<String, Double> results = new TreeMap<>();
+        results.put("single.p50Ms", percentile(single, 50) / 1e6);
+        results.put("single.p95Ms", percentile(single, 95) / 1e6);
+        results.put("single.p99Ms", percentile(single, 99) / 1e6);
+        results.put("batch.imagesPerSecond", files.size() / batchSeconds);
+        results.put("batch.megapixelsPerSecond", sourcePixels / 1e6 / batchSeconds);
+        results.put("batch.p50Ms", percentile(batch, 50) / 1e6);
+        results.put("batch.p95Ms", percentile(batch, 95) / 1e6);
+        results.put("batch.p99Ms", percentile(batch, 99) / 1e6);
+        results.put("memory.peakLiveHeapMb", peakLiveHeap.get() / 1048576.0);
+        long rss = peakRssBytes();
+        if (rss > 0) {
+            results.put("memory.peakRssMb", rss / 1048576.0);
+        }
+        return results;
+    }
+
+    /**
+     * Scales each file with its own command line, timing each call.
+     */
+    private long[] runSingle(JpegScaler scaler, List<Path> files) throws IOException {
+        Path target = cleanOutput("single");
+        long[] latencies = new long[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            long start = System.nanoTime();
+            cli(scaler, "-i", file.toString(), "-o", target.resolve(file.getFileName()).toString(),
+                    "--max-width", TARGET, "--max-height", TARGET);
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    /**
+     * Scales the corpus directory with one command line and returns the job latencies
+     * from its JSON report.
+     */
+    private long[] runBatch(JpegScaler scaler, int count) throws IOException {
+        Path target = cleanOutput("batch");
+        String report = cli(scaler, "-i", corpus.toString(), "-o", target.toString(),
+                "--max-width", TARGET, "--max-height", TARGET, "--threads", String.valueOf(threads),
+                "--report", "json");
+        Matcher matcher = Pattern.compile("\"totalMs\":([0-9.]+)").matcher(report);
+        List<Long> latencies = new ArrayList<>();
+        while (matcher.find()) {
+            latencies.add((long) (Double.parseDouble(matcher.group(1)) * 1e6));
+        }
+        if (latencies.size() != count) {
+            throw new IOException("Batch reported " + latencies.size() + " of " + count + " images");
+        }
+        return latencies.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static String cli(JpegScaler scaler, String... args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = JpegScalerCLI.run(args, scaler, null, new PrintStream(out, true, "UTF-8"),
+                new PrintStream(err, true, "UTF-8"));
+        if (status != 0) {
+            throw new IOException("CLI exited with " + status + " for " + String.join(" ", args) + ": "
+                    + err.toString("UTF-8"));
+        }
+        return out.toString("UTF-8");
+    }
+
+    private List<Path> corpusFiles() throws IOException {
+        try (Stream<Path> files = Files.list(corpus)) {
+            List<Path> jpegs = new ArrayList<>();
+            files.filter(file -> file.getFileName().toString().endsWith(".jpg")).sorted().forEach(jpegs::add);
+            return jpegs;
+        }
+    }
+
+    private Path cleanOutput(String name) throws IOException {
+        Path directory = output.resolve(name);
+        deleteRecursively(directory);
+        return Files.createDirectories(directory);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /** Nearest-rank percentile, as in {@link ScaleReport#getLatencyPercentile}. */
+    private static long percentile(long[] values, double percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    private static void resetPeakRss() {
+        try {
+            // Resets VmHWM on Linux; elsewhere the peak includes the corpus generation
+            Files.write(Paths.get("/proc/self/clear_refs"), "5".getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException | UnsupportedOperationException e) {
+            // Not Linux, or not permitted
+        }
+    }
+
+    /**
+     * Keeps the most heap in use after any collection from now on in {@code peak}.
+     */
+    private static void watchLiveHeap(AtomicLong peak) {
+        Set<String> heapPools = new HashSet<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            }
+        }
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                        (CompositeData) notification.getUserData());
+                long used = 0;
+                for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                    if (heapPools.contains(pool.getKey())) {
+                        used += pool.getValue().getUsed();
+                    }
+                }
+                peak.accumulateAndGet(used, Math::max);
+            }, null, null);
+        }
+    }
+
+    /**
+     * Returns the peak resident set size from {@code /proc/self/status}.
+     *
+     * @return the size in bytes, or 0 where the file does not exist
+     */
+    private static long peakRssBytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return 0;
+    }
+
+    /**
+     * Prints each metric against its baseline.
+     *
+     * @return {@code true} if a metric regressed beyond its tolerance
+     */
+    static boolean compare(Map<String, Double> baseline, Map<String, Double> results, PrintStream out) {
+        boolean regressed = false;
+        out.printf(Locale.ROOT, "%-28s %12s %12s %9s%n", "Metric", "Baseline", "Actual", "Change");
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            String metric = result.getKey();
+            Double expected = baseline.get(metric);
+            if (expected == null || expected <= 0) {
+                out.printf(Locale.ROOT, "%-28s %12s %12.2f %9s%n", metric, "-", result.getValue(), "new");
+                continue;
+            }
+            double change = result.getValue() / expected - 1;
+            // Throughput regresses when it drops, everything else when it grows
+            double worse = metric.endsWith("PerSecond") ? -change : change;
+            double tolerance = Double.parseDouble(System.getProperty("perf.tolerance." + metric,
+                    System.getProperty("perf.tolerance", "0.25")));
+            boolean failed = worse > tolerance;
+            regressed |= failed;
+            out.printf(Locale.ROOT, "%-28s %12.2f %12.2f %+8.1f%%%s%n", metric, expected, result.getValue(),
+                    change * 100, failed ? "  REGRESSION" : "");
+        }
+        if (regressed) {
+            out.println("Performance regressed beyond the tolerance; rerun with -Dperf.updateBaseline=true "
+                    + "to accept the new numbers");
+        }
+        return regressed;
+    }
+
+    static String toJson(Map<String, Double> results) {
+        StringBuilder json = new StringBuilder("{\n");
+        String separator = "";
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            json.append(separator).append(String.format(Locale.ROOT, "  \"%s\": %.3f", result.getKey(),
+                    result.getValue()));
+            separator = ",\n";
+        }
+        return json.append("\n}\n").toString();
+    }
+
+    /**
+     * Reads a flat JSON object of numbers, as written by {@link #toJson}.
+     */
+    static Map<String, Double> parseJson(String json) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        Matcher matcher = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(-?[0-9][0-9.eE+-]*)").matcher(json);
+        while (matcher.find()) {
+            values.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+        }
+        return values;
+    }
+}
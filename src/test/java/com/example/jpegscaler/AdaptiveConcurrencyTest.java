@@ -0,0 +1,81 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+class AdaptiveConcurrencyTest {
+    
+    private JobScheduler scheduler;
+    private AdaptiveConcurrency controller;
+    
+    @BeforeEach
+    void setUp() {
+        scheduler = JobScheduler.builder(16).initialConcurrency(4).build();
+        controller = AdaptiveConcurrency.builder(scheduler).build();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        controller.close();
+        scheduler.close();
+    }
+    
+    @Test
+    void testKeepsAddingWorkersWhileThroughputRises() {
+        assertThat(controller.decide(4, busy(100))).isEqualTo(5);
+        assertThat(controller.decide(5, busy(120))).isEqualTo(6);
+        assertThat(controller.decide(6, busy(140))).isEqualTo(7);
+        // No gain from the seventh worker: take it back, then hold before probing again
+        assertThat(controller.decide(7, busy(141))).isEqualTo(6);
+        assertThat(controller.decide(6, busy(140))).isEqualTo(6);
+        assertThat(controller.decide(6, busy(140))).isEqualTo(7);
+    }
+    
+    @Test
+    void testCutsWorkersUnderMemoryPressure() {
+        assertThat(controller.decide(12, new AdaptiveConcurrency.Sample(100, 0.25, 0.5, false))).isEqualTo(9);
+        assertThat(controller.decide(9, new AdaptiveConcurrency.Sample(100, 0.01, 0.95, false))).isEqualTo(6);
+        assertThat(controller.decide(1, new AdaptiveConcurrency.Sample(100, 0.5, 0.95, false))).isEqualTo(1);
+        // Holds for one interval after a cut before probing upwards again
+        assertThat(controller.decide(6, busy(80))).isEqualTo(6);
+        assertThat(controller.decide(6, busy(80))).isEqualTo(7);
+    }
+    
+    @Test
+    void testHoldsWhileQueueIsEmptyAndStaysWithinLimits() {
+        assertThat(controller.decide(4, new AdaptiveConcurrency.Sample(10, 0, 0.1, true))).isEqualTo(4);
+        assertThat(controller.decide(16, busy(100))).isEqualTo(16);
+    }
+    
+    @Test
+    void testHeapOccupancyCountsLiveHeap() {
+        // Pools not collected yet count with their current usage instead of zero
+        assertThat(AdaptiveConcurrency.heapOccupancy()).isPositive().isLessThanOrEqualTo(1.0);
+    }
+    
+    @Test
+    void testLogsEveryDecision() throws InterruptedException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        try (AdaptiveConcurrency running = AdaptiveConcurrency.builder(scheduler)
+                .log(new PrintStream(log, true))
+                .interval(20)
+                .build()
+                .start()) {
+            Thread.sleep(200);
+        }
+        
+        assertThat(log.toString()).contains("Concurrency stays at 4").contains("queue empty");
+        assertThatThrownBy(() -> AdaptiveConcurrency.builder(scheduler).maxGcFraction(0).build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    private static AdaptiveConcurrency.Sample busy(double throughput) {
+        return new AdaptiveConcurrency.Sample(throughput, 0.01, 0.3, false);
+    }
+}
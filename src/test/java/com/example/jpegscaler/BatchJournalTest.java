@@ -0,0 +1,91 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+class BatchJournalTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testResumeReplaysCompletedInputs() throws IOException {
+        Path file = tempDir.resolve("journal");
+        try (BatchJournal journal = BatchJournal.open(file, "batch", false)) {
+            journal.completed("a.jpg");
+            journal.completed("nested/b.jpg");
+        }
+        
+        try (BatchJournal journal = BatchJournal.open(file, "batch", true)) {
+            assertThat(journal.getCompleted()).containsExactlyInAnyOrder("a.jpg", "nested/b.jpg");
+            journal.completed("c.jpg");
+        }
+        
+        try (BatchJournal journal = BatchJournal.open(file, "batch", true)) {
+            assertThat(journal.getCompleted()).containsExactlyInAnyOrder("a.jpg", "nested/b.jpg", "c.jpg");
+        }
+    }
+    
+    @Test
+    void testFreshRunOrOtherBatchStartsEmpty() throws IOException {
+        Path file = tempDir.resolve("journal");
+        try (BatchJournal journal = BatchJournal.open(file, "batch", false)) {
+            journal.completed("a.jpg");
+        }
+        
+        try (BatchJournal journal = BatchJournal.open(file, "other", true)) {
+            assertThat(journal.getCompleted()).isEmpty();
+        }
+        try (BatchJournal journal = BatchJournal.open(file, "other", false)) {
+            assertThat(journal.getCompleted()).isEmpty();
+        }
+    }
+    
+    @Test
+    void testPendingRecordsAreSyncedWithoutFurtherInputs() throws Exception {
+        Path file = tempDir.resolve("journal");
+        try (BatchJournal journal = BatchJournal.open(file, "batch", false)) {
+            long header = Files.size(file);
+            journal.completed("a.jpg");
+            
+            // No further record arrives, so only the timer can write this one
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BatchJournal.SYNC_MILLIS * 5);
+            while (Files.size(file) == header && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertThat(Files.size(file)).isGreaterThan(header);
+        }
+    }
+    
+    @Test
+    void testReplayStopsAtTornRecord() throws IOException {
+        Path file = tempDir.resolve("journal");
+        try (BatchJournal journal = BatchJournal.open(file, "batch", false)) {
+            journal.completed("a.jpg");
+            journal.completed("b.jpg");
+        }
+        // Simulate a crash halfway through writing the last record
+        long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+        
+        try (BatchJournal journal = BatchJournal.open(file, "batch", true)) {
+            assertThat(journal.getCompleted()).containsExactly("a.jpg");
+            journal.completed("c.jpg");
+        }
+        
+        try (BatchJournal journal = BatchJournal.open(file, "batch", true)) {
+            assertThat(journal.getCompleted()).containsExactlyInAnyOrder("a.jpg", "c.jpg");
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+import static org.assertj.core.api.Assertions.*;
+
+class BatchProcessorTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private Path input;
+    private Path output;
+    private Path state;
+    private JpegScaler scaler;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        input = tempDir.resolve("in");
+        output = tempDir.resolve("out");
+        state = tempDir.resolve("state");
+        scaler = new JpegScaler();
+        writeImage(input.resolve("a.jpg"), 100, 50);
+        writeImage(input.resolve("nested/b.JPEG"), 60, 60);
+        Files.write(input.resolve("notes.txt"), new byte[] {1, 2, 3});
+    }
+    
+    @Test
+    void testScalesTreeIntoOutputDirectory() throws IOException {
+        BatchResult result = processor(TargetSize.bounded(40, 40), null).run();
+        
+        assertThat(result.getProcessed()).isEqualTo(2);
+        assertThat(result.getFailed()).isZero();
+        assertThat(scaler.getImageDimensions(output.resolve("a.jpg").toFile()).width).isEqualTo(40);
+        assertThat(scaler.getImageDimensions(output.resolve("nested/b.JPEG").toFile()).height).isEqualTo(40);
+        assertThat(output.resolve("notes.txt")).doesNotExist();
+    }
+    
+    @Test
+    void testPipelinedBatchMatchesSerialOutput() throws IOException {
+        for (int i = 0; i < 6; i++) {
+            writeImage(input.resolve("more/" + i + ".jpg"), 40 + i * 10, 30);
+        }
+        Path serialOutput = tempDir.resolve("serial");
+        
+        BatchResult serial = BatchProcessor.builder(scaler, input, serialOutput, TargetSize.bounded(32, 32))
+                .build()
+                .run();
+        BatchResult pipelined = BatchProcessor.builder(scaler, input, output, TargetSize.bounded(32, 32))
+                .threads(2)
+                .pipeline(2, 1)
+                .stateFile(state)
+                .build()
+                .run();
+        
+        assertThat(pipelined.getProcessed()).isEqualTo(serial.getProcessed()).isEqualTo(8);
+        assertThat(serial.getStageUtilization()).isEmpty();
+        assertThat(pipelined.getStageUtilization()).containsOnlyKeys("read", "decode", "scale", "encode", "write");
+        assertThat(pipelined.getStageUtilization().values()).allSatisfy(u -> assertThat(u).isBetween(0.0, 1.0));
+        assertThat(pipelined.formatStageUtilization()).startsWith("read ");
+        for (String name : new String[] {"a.jpg", "nested/b.JPEG", "more/5.jpg"}) {
+            assertThat(Files.readAllBytes(output.resolve(name))).isEqualTo(Files.readAllBytes(serialOutput.resolve(name)));
+        }
+        assertThat(BatchProcessor.builder(scaler, input, output, TargetSize.bounded(32, 32))
+                .pipeline(2, 1)
+                .stateFile(state)
+                .build()
+                .run()
+                .getSkipped()).isEqualTo(8);
+    }
+    
+    @Test
+    void testPipelinedBatchReportsFailuresPerImage() throws IOException {
+        Files.write(input.resolve("broken.jpg"), new byte[] {1, 2, 3});
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        
+        BatchResult result = BatchProcessor.builder(scaler, input, output, TargetSize.exact(20, 20))
+                .pipeline(1, 1)
+                .log(new PrintStream(log, true))
+                .build()
+                .run();
+        
+        assertThat(result.getProcessed()).isEqualTo(2);
+        assertThat(result.getFailed()).isEqualTo(1);
+        assertThat(log.toString()).contains("Failed: broken.jpg");
+        assertThatThrownBy(() -> BatchProcessor.builder(scaler, input, output, TargetSize.exact(20, 20))
+                .pipeline(1, 0)
+                .build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    @Test
+    void testIncrementalRunSkipsUpToDateOutputs() throws IOException {
+        processor(TargetSize.bounded(40, 40), state).run();
+        
+        BatchResult second = processor(TargetSize.bounded(40, 40), state).run();
+        
+        assertThat(second.getProcessed()).isZero();
+        assertThat(second.getSkipped()).isEqualTo(2);
+    }
+    
+    @Test
+    void testIncrementalRunReprocessesChangedInputs() throws IOException {
+        processor(TargetSize.bounded(40, 40), state).run();
+        writeImage(input.resolve("a.jpg"), 50, 100);
+        writeImage(input.resolve("c.jpg"), 20, 20);
+        
+        BatchResult second = processor(TargetSize.bounded(40, 40), state).run();
+        
+        assertThat(second.getProcessed()).isEqualTo(2);
+        assertThat(second.getSkipped()).isEqualTo(1);
+        assertThat(scaler.getImageDimensions(output.resolve("a.jpg").toFile()).height).isEqualTo(40);
+    }
+    
+    @Test
+    void testIncrementalRunSkipsTouchedButUnchangedInputs() throws IOException {
+        processor(TargetSize.bounded(40, 40), state).run();
+        Files.setLastModifiedTime(input.resolve("a.jpg"), FileTime.fromMillis(1_000_000_000_000L));
+        
+        BatchResult second = processor(TargetSize.bounded(40, 40), state).run();
+        BatchResult third = processor(TargetSize.bounded(40, 40), state).run();
+        
+        assertThat(second.getSkipped()).isEqualTo(2);
+        assertThat(third.getSkipped()).isEqualTo(2);
+        assertThat(BatchState.load(state, input, output).get("a.jpg").modified).isEqualTo(1_000_000_000_000L);
+    }
+    
+    @Test
+    void testIncrementalRunReprocessesOnNewParametersOrMissingOutput() throws IOException {
+        processor(TargetSize.bounded(40, 40), state).run();
+        Files.delete(output.resolve("a.jpg"));
+        
+        assertThat(processor(TargetSize.bounded(40, 40), state).run().getProcessed()).isEqualTo(1);
+        assertThat(processor(TargetSize.exact(30, 0), state).run().getProcessed()).isEqualTo(2);
+    }
+    
+    @Test
+    void testStateForgetsDeletedInputs() throws IOException {
+        processor(TargetSize.bounded(40, 40), state).run();
+        Files.delete(input.resolve("nested/b.JPEG"));
+        
+        processor(TargetSize.bounded(40, 40), state).run();
+        
+        BatchState loaded = BatchState.load(state, input, output);
+        assertThat(loaded.size()).isEqualTo(1);
+        assertThat(loaded.get("a.jpg")).isNotNull();
+        assertThat(BatchState.load(state, input, tempDir.resolve("elsewhere")).size()).isZero();
+    }
+    
+    @Test
+    void testResumeSkipsInputsFinishedBeforeCrash() throws IOException {
+        Path journalFile = BatchProcessor.defaultJournalFile(output);
+        String batch = input.toAbsolutePath().normalize() + "\n" + output.toAbsolutePath().normalize() + "\n"
+                + TargetSize.bounded(40, 40) + ";" + ScaleOptions.builder().build();
+        try (BatchJournal journal = BatchJournal.open(journalFile, batch, false)) {
+            journal.completed("a.jpg");
+        }
+        
+        BatchResult result = BatchProcessor.builder(scaler, input, output, TargetSize.bounded(40, 40))
+                .resume(true)
+                .build()
+                .run();
+        
+        assertThat(result.getProcessed()).isEqualTo(1);
+        assertThat(result.getSkipped()).isEqualTo(1);
+        assertThat(output.resolve("a.jpg")).doesNotExist();
+        assertThat(journalFile).doesNotExist();
+    }
+    
+    @Test
+    void testResumeRecordsJournaledInputsInState() throws IOException {
+        processor(TargetSize.bounded(40, 40), null).run();
+        Path journalFile = BatchProcessor.defaultJournalFile(output);
+        String batch = input.toAbsolutePath().normalize() + "\n" + output.toAbsolutePath().normalize() + "\n"
+                + TargetSize.bounded(40, 40) + ";" + ScaleOptions.builder().build();
+        try (BatchJournal journal = BatchJournal.open(journalFile, batch, false)) {
+            journal.completed("a.jpg");
+        }
+        
+        BatchResult resumed = BatchProcessor.builder(scaler, input, output, TargetSize.bounded(40, 40))
+                .stateFile(state)
+                .resume(true)
+                .build()
+                .run();
+        
+        assertThat(resumed.getSkipped()).isEqualTo(1);
+        assertThat(BatchState.load(state, input, output).get("a.jpg")).isNotNull();
+        assertThat(processor(TargetSize.bounded(40, 40), state).run().getProcessed()).isZero();
+    }
+    
+    @Test
+    void testJournalIsKeptWhenJobsFail() throws IOException {
+        Files.write(input.resolve("broken.jpg"), new byte[] {0, 1, 2, 3});
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        
+        processor(TargetSize.bounded(40, 40), null).run();
+        BatchResult resumed = BatchProcessor.builder(scaler, input, output, TargetSize.bounded(40, 40))
+                .resume(true)
+                .log(new PrintStream(err, true))
+                .build()
+                .run();
+        
+        assertThat(BatchProcessor.defaultJournalFile(output)).exists();
+        assertThat(resumed.getProcessed()).isZero();
+        assertThat(resumed.getSkipped()).isEqualTo(2);
+        assertThat(resumed.getFailed()).isEqualTo(1);
+    }
+    
+    @Test
+    void testFailuresAreReportedAndBatchContinues() throws IOException {
+        Files.write(input.resolve("broken.jpg"), new byte[] {0, 1, 2, 3});
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        
+        BatchResult result = BatchProcessor.builder(scaler, input, output, TargetSize.bounded(40, 40))
+                .threads(2)
+                .log(new PrintStream(err, true))
+                .build()
+                .run();
+        
+        assertThat(result.getProcessed()).isEqualTo(2);
+        assertThat(result.getFailed()).isEqualTo(1);
+        assertThat(err.toString()).contains("Failed: broken.jpg");
+    }
+    
+    @Test
+    void testJobsPastTheirTimeoutFail() throws IOException {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        
+        BatchResult result = BatchProcessor.builder(scaler, input, output, TargetSize.bounded(40, 40))
+                .timeout(1, TimeUnit.NANOSECONDS)
+                .log(new PrintStream(err, true))
+                .build()
+                .run();
+        
+        assertThat(result.getFailed()).isEqualTo(2);
+        assertThat(err.toString()).contains("exceeded its deadline");
+        assertThat(output.resolve("a.jpg")).doesNotExist();
+    }
+    
+    @Test
+    void testStaticShardsCoverBatchOnce() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            writeImage(input.resolve("more/image-" + i + ".jpg"), 30, 20);
+        }
+        
+        int processed = 0;
+        for (int shard = 1; shard <= 3; shard++) {
+            BatchResult result = BatchProcessor.builder(scaler, input, output, TargetSize.bounded(10, 10))
+                    .shard(shard, 3)
+                    .build()
+                    .run();
+            assertThat(result.getProcessed()).isLessThan(12);
+            processed += result.getProcessed();
+        }
+        
+        assertThat(processed).isEqualTo(12);
+        assertThat(output.resolve("a.jpg")).exists();
+        assertThat(output.resolve("more/image-9.jpg")).exists();
+        assertThat(BatchProcessor.defaultStateFile(output, 2, 3).getFileName().toString())
+                .isEqualTo(".jpeg-scaler-state-2-of-3");
+    }
+    
+    @Test
+    void testCoordinatedWorkerReclaimsExpiredLeases() throws IOException {
+        Path coordination = tempDir.resolve("coordination");
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        long hour = TimeUnit.HOURS.toMillis(1);
+        // The dead worker does not renew its lease during the test and it is backdated
+        try (ShardCoordinator dead = ShardCoordinator.open(coordination, "dead", hour, System.err);
+             ShardCoordinator alive = ShardCoordinator.open(coordination, "alive", 300, System.err)) {
+            assertThat(dead.claim("a.jpg")).isTrue();
+            assertThat(alive.claim("nested/b.JPEG")).isTrue();
+            assertThat(alive.claim("a.jpg")).isFalse();
+            FileTime past = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(2));
+            Files.setLastModifiedTime(coordination.resolve("leases").resolve(ShardCoordinator.key("a.jpg")), past);
+            Files.setLastModifiedTime(coordination.resolve("workers/dead"), past);
+            
+            BatchProcessor processor = BatchProcessor.builder(scaler, input, output, TargetSize.bounded(40, 40))
+                    .coordination(coordination)
+                    .workerId("rescuer")
+                    .leaseTimeout(1, TimeUnit.SECONDS)
+                    .log(new PrintStream(err, true))
+                    .build();
+            // The live worker finishes its input while the rescuer waits for it after its walk
+            CompletableFuture<Void> aliveFinishes = CompletableFuture.runAsync(() -> {
+                try {
+                    alive.finish("nested/b.JPEG", true);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS));
+            BatchResult result = processor.run();
+            
+            assertThat(aliveFinishes).isDone();
+            assertThat(result.getProcessed()).isEqualTo(1);
+            assertThat(output.resolve("a.jpg")).exists();
+            assertThat(output.resolve("nested/b.JPEG")).doesNotExist();
+            assertThat(err.toString()).contains("Reclaimed a.jpg from worker dead");
+            assertThat(processor.mergedResult()).isNull();
+            
+            alive.publish(new BatchResult(1, 0, 0, TimeUnit.SECONDS.toNanos(5)));
+            BatchResult merged = processor.mergedResult();
+            assertThat(merged.getProcessed()).isEqualTo(2);
+            assertThat(merged.getElapsedMillis()).isEqualTo(5000);
+            assertThat(alive.claim("a.jpg")).isFalse();
+        }
+    }
+    
+    @Test
+    void testCoordinationRejectsIncrementalMode() {
+        assertThatThrownBy(() -> BatchProcessor.builder(scaler, input, output, TargetSize.bounded(40, 40))
+                .coordination(tempDir.resolve("coordination"))
+                .stateFile(state)
+                .build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("coordination directory");
+    }
+    
+    private BatchProcessor processor(TargetSize target, Path stateFile) {
+        return BatchProcessor.builder(scaler, input, output, target)
+                .threads(2)
+                .stateFile(stateFile)
+                .build();
+    }
+    
+    private static void writeImage(Path file, int width, int height) throws IOException {
+        Files.createDirectories(file.getParent());
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "JPEG", file.toFile());
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+class CmykConverterTest {
+    
+    @Test
+    void testWithoutProfileUsesNaiveConversion() {
+        BufferedImage rgb = convert(CmykConverter.forProfile(null), new int[] {255, 0, 0, 0}, false, false);
+        
+        assertThat(rgb.getRGB(0, 0) & 0xFFFFFF).isEqualTo(0x00FFFF);
+    }
+    
+    @Test
+    void testAdobeSamplesAreInverted() {
+        BufferedImage rgb = convert(CmykConverter.forProfile(null), new int[] {0, 255, 255, 255}, true, false);
+        
+        assertThat(rgb.getRGB(0, 0) & 0xFFFFFF).isEqualTo(0x00FFFF);
+    }
+    
+    @Test
+    void testProfileTableMatchesDirectConversion() {
+        ColorSpace space = new CurvedCmykSpace();
+        CmykConverter converter = CmykConverter.forColorSpace(space);
+        ColorConvertOp direct = new ColorConvertOp(space, ColorSpace.getInstance(ColorSpace.CS_sRGB), null);
+        Random random = new Random(42);
+        
+        for (int i = 0; i < 200; i++) {
+            int[] cmyk = {random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256)};
+            int rgb = convert(converter, cmyk, false, false).getRGB(0, 0);
+            
+            WritableRaster source = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 1, 1, 4, null);
+            source.setPixel(0, 0, cmyk);
+            int[] expected = direct.filter(source, null).getPixel(0, 0, (int[]) null);
+            assertThat((rgb >> 16) & 0xFF).isCloseTo(expected[0], within(3));
+            assertThat((rgb >> 8) & 0xFF).isCloseTo(expected[1], within(3));
+            assertThat(rgb & 0xFF).isCloseTo(expected[2], within(3));
+        }
+    }
+    
+    private static BufferedImage convert(CmykConverter converter, int[] cmyk, boolean adobe, boolean ycck) {
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 1, 1, 4, null);
+        raster.setPixel(0, 0, cmyk);
+        return converter.toRgb(raster, adobe, ycck, CancellationToken.NONE);
+    }
+    
+    /**
+     * A CMYK space with non-linear ink curves, standing in for a print profile.
+     */
+    private static final class CurvedCmykSpace extends ColorSpace {
+        private static final ColorSpace SRGB = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+        
+        CurvedCmykSpace() {
+            super(ColorSpace.TYPE_CMYK, 4);
+        }
+        
+        @Override
+        public float[] toRGB(float[] value) {
+            float white = 1 - value[3] * value[3];
+            return new float[] {
+                    (1 - value[0] * (0.9f - 0.2f * value[0])) * white,
+                    (1 - value[1] * 0.85f - value[0] * 0.1f) * white,
+                    (1 - value[2] * (0.7f + 0.25f * value[2]) - value[1] * 0.05f) * white};
+        }
+        
+        @Override
+        public float[] fromRGB(float[] rgb) {
+            return new float[] {1 - rgb[0], 1 - rgb[1], 1 - rgb[2], 0};
+        }
+        
+        @Override
+        public float[] toCIEXYZ(float[] value) {
+            return SRGB.toCIEXYZ(toRGB(value));
+        }
+        
+        @Override
+        public float[] fromCIEXYZ(float[] xyz) {
+            return fromRGB(SRGB.fromCIEXYZ(xyz));
+        }
+    }
+}
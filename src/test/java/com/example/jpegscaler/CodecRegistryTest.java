@@ -0,0 +1,313 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import org.w3c.dom.NodeList;
+
+import static org.assertj.core.api.Assertions.*;
+
+class CodecRegistryTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testSelectDecoderByTraits() {
+        CodecRegistry registry = CodecRegistry.createDefault();
+        
+        assertThat(registry.selectDecoder(new SourceTraits(800, 600, 3, false, -1), null).getName())
+                .isEqualTo("imageio");
+        assertThat(registry.selectDecoder(new SourceTraits(800, 600, 3, true, -1), null).getName())
+                .isEqualTo("imageio");
+        assertThat(registry.selectDecoder(new SourceTraits(800, 600, 4, false, 2), null).getName())
+                .isEqualTo("imageio");
+        assertThat(registry.selectDecoder(SourceTraits.UNKNOWN, CodecRegistry.AUTO).getName())
+                .isEqualTo("imageio");
+        assertThat(registry.selectDecoder(SourceTraits.UNKNOWN, "commons-imaging").getName())
+                .isEqualTo("commons-imaging");
+    }
+    
+    @Test
+    void testSelectEncoderFallsBackToEncodingCodec() {
+        CodecRegistry registry = CodecRegistry.createDefault();
+        
+        assertThat(registry.selectEncoder("commons-imaging").getName()).isEqualTo("imageio");
+        assertThat(registry.selectEncoder(null).getName()).isEqualTo("imageio");
+    }
+    
+    @Test
+    void testUnknownCodecIsRejected() {
+        CodecRegistry registry = CodecRegistry.createDefault();
+        
+        assertThatThrownBy(() -> registry.get("turbo"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unknown codec: turbo");
+        assertThatThrownBy(() -> registry.register(new ImageIOCodec()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("already registered");
+    }
+    
+    @Test
+    void testInputClasses() {
+        assertThat(new SourceTraits(800, 600, 3, false, -1).getInputClass()).isEqualTo("baseline");
+        assertThat(new SourceTraits(800, 600, 3, true, -1).getInputClass()).isEqualTo("progressive");
+        assertThat(new SourceTraits(800, 600, 1, false, -1).getInputClass()).isEqualTo("gray");
+        assertThat(new SourceTraits(800, 600, 4, false, 0).getInputClass()).isEqualTo("cmyk");
+        assertThat(new SourceTraits(800, 600, 4, false, 2).getInputClass()).isEqualTo("ycck");
+        assertThat(new SourceTraits(10000, 8000, 3, false, -1).getInputClass()).isEqualTo("huge");
+        assertThat(SourceTraits.UNKNOWN.getInputClass()).isEqualTo("unknown");
+    }
+    
+    @Test
+    void testScaleRecordsTimingPerCodec() throws IOException {
+        JpegScaler scaler = new JpegScaler();
+        File inputFile = createRgbImage(80, 60);
+        
+        scaler.scaleImage(inputFile, tempDir.resolve("auto.jpg").toFile(), 40, 30, ScaleOptions.builder().build());
+        scaler.scaleImage(inputFile, tempDir.resolve("imaging.jpg").toFile(), 40, 30,
+                ScaleOptions.builder().codec("commons-imaging").build());
+        
+        CodecRegistry registry = scaler.getCodecRegistry();
+        CodecStatistics imageio = registry.get("imageio").getStatistics();
+        CodecStatistics imaging = registry.get("commons-imaging").getStatistics();
+        assertThat(imageio.get(CodecStatistics.Operation.DECODE, "baseline").getCount()).isEqualTo(1);
+        assertThat(imageio.total(CodecStatistics.Operation.ENCODE).getCount()).isEqualTo(2);
+        assertThat(imaging.get(CodecStatistics.Operation.DECODE, "baseline").getCount()).isEqualTo(1);
+        assertThat(imaging.get(CodecStatistics.Operation.DECODE, "baseline").getTotalNanos()).isPositive();
+        assertThat(imaging.total(CodecStatistics.Operation.ENCODE).getCount()).isZero();
+        
+        assertThat(ImageIO.read(tempDir.resolve("imaging.jpg").toFile()).getRGB(20, 15) & 0xFF)
+                .isCloseTo(ImageIO.read(tempDir.resolve("auto.jpg").toFile()).getRGB(20, 15) & 0xFF, within(4));
+    }
+    
+    @Test
+    void testYCbCrCodecMatchesRgbPath() throws IOException {
+        JpegScaler scaler = new JpegScaler();
+        File inputFile = createRgbImage(160, 120);
+        File rgbFile = tempDir.resolve("rgb-output.jpg").toFile();
+        File ycbcrFile = tempDir.resolve("ycbcr-output.jpg").toFile();
+        
+        scaler.scaleImage(inputFile, rgbFile, 80, 60, ScaleOptions.builder().build());
+        scaler.scaleImage(inputFile, ycbcrFile, 80, 60, ScaleOptions.builder().codec("imageio-ycbcr").build());
+        
+        CodecStatistics ycbcr = scaler.getCodecRegistry().get("imageio-ycbcr").getStatistics();
+        assertThat(ycbcr.get(CodecStatistics.Operation.DECODE, "baseline").getCount()).isEqualTo(1);
+        assertThat(ycbcr.get(CodecStatistics.Operation.ENCODE, "output").getCount()).isEqualTo(1);
+        
+        BufferedImage rgb = ImageIO.read(rgbFile);
+        BufferedImage planes = ImageIO.read(ycbcrFile);
+        assertThat(planes.getWidth()).isEqualTo(80);
+        assertThat(planes.getType()).isEqualTo(rgb.getType());
+        for (int[] point : new int[][] {{5, 5}, {40, 30}, {70, 50}}) {
+            Color expected = new Color(rgb.getRGB(point[0], point[1]));
+            Color actual = new Color(planes.getRGB(point[0], point[1]));
+            assertThat(actual.getRed()).isCloseTo(expected.getRed(), within(6));
+            assertThat(actual.getGreen()).isCloseTo(expected.getGreen(), within(6));
+            assertThat(actual.getBlue()).isCloseTo(expected.getBlue(), within(6));
+        }
+        // The same JFIF segment and chroma subsampling as the RGB path
+        assertThat(frameLayout(ycbcrFile)).isEqualTo(frameLayout(rgbFile)).startsWith("JFIF 2x2");
+    }
+    
+    @Test
+    void testYCbCrCodecKeepsSamplesOnlyForPlainYCbCr() throws IOException {
+        ImageIOCodec codec = new ImageIOCodec(ImageIOCodec.YCBCR_NAME, true);
+        File inputFile = createRgbImage(32, 24);
+        
+        BufferedImage planes = codec.decode(inputFile, SourceTraits.UNKNOWN);
+        BufferedImage rgb = new ImageIOCodec().decode(inputFile, SourceTraits.UNKNOWN);
+        BufferedImage cmyk = codec.decode(createCmykImage(32, 24), SourceTraits.UNKNOWN);
+        
+        assertThat(YCbCrColorSpace.isYCbCr(planes)).isTrue();
+        assertThat(YCbCrColorSpace.isYCbCr(rgb)).isFalse();
+        assertThat(YCbCrColorSpace.isYCbCr(cmyk)).isFalse();
+        // Callers that ask for RGB still get it
+        Color expected = new Color(rgb.getRGB(16, 12));
+        Color actual = new Color(planes.getRGB(16, 12));
+        assertThat(actual.getRed()).isCloseTo(expected.getRed(), within(3));
+        assertThat(actual.getGreen()).isCloseTo(expected.getGreen(), within(3));
+        assertThat(actual.getBlue()).isCloseTo(expected.getBlue(), within(3));
+    }
+    
+    @Test
+    void testScaleCmykImageUsesImageIoConversion() throws IOException {
+        JpegScaler scaler = new JpegScaler();
+        File inputFile = createCmykImage(64, 48);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        
+        scaler.scaleImage(inputFile, outputFile, 32, 24, ScaleOptions.builder().build());
+        
+        CodecStatistics imageio = scaler.getCodecRegistry().get("imageio").getStatistics();
+        assertThat(imageio.get(CodecStatistics.Operation.DECODE, "cmyk").getCount()).isEqualTo(1);
+        
+        // Pure cyan ink becomes a blue-green RGB pixel with hardly any red
+        Color color = new Color(ImageIO.read(outputFile).getRGB(16, 12));
+        assertThat(color.getRed()).isLessThan(80);
+        assertThat(color.getGreen()).isGreaterThan(120);
+        assertThat(color.getBlue()).isGreaterThan(120);
+    }
+    
+    @Test
+    void testScaleCmykImageMatchesCommonsImaging() throws IOException {
+        JpegScaler scaler = new JpegScaler();
+        File inputFile = createCmykImage(64, 48);
+        File imageioFile = tempDir.resolve("imageio.jpg").toFile();
+        File imagingFile = tempDir.resolve("imaging.jpg").toFile();
+        
+        scaler.scaleImage(inputFile, imageioFile, 32, 24, ScaleOptions.builder().build());
+        scaler.scaleImage(inputFile, imagingFile, 32, 24, ScaleOptions.builder().codec("commons-imaging").build());
+        
+        Color fast = new Color(ImageIO.read(imageioFile).getRGB(16, 12));
+        Color generic = new Color(ImageIO.read(imagingFile).getRGB(16, 12));
+        assertThat(fast.getRed()).isCloseTo(generic.getRed(), within(8));
+        assertThat(fast.getGreen()).isCloseTo(generic.getGreen(), within(8));
+        assertThat(fast.getBlue()).isCloseTo(generic.getBlue(), within(8));
+    }
+    
+    @Test
+    void testScaleAdobeYcckImage() throws IOException {
+        JpegScaler scaler = new JpegScaler();
+        // Inverted cyan ink (0, 255, 255, 255) as Adobe stores it, encoded as YCCK
+        byte[] adobe = {(byte) 0xFF, (byte) 0xEE, 0, 14, 'A', 'd', 'o', 'b', 'e', 0, 100, 0, 0, 0, 0, 2};
+        File inputFile = createCmykImage("ycck.jpg", 64, 48, new int[] {76, 85, 255, 255}, adobe);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        
+        scaler.scaleImage(inputFile, outputFile, 32, 24, ScaleOptions.builder().build());
+        
+        CodecStatistics imageio = scaler.getCodecRegistry().get("imageio").getStatistics();
+        assertThat(imageio.get(CodecStatistics.Operation.DECODE, "ycck").getCount()).isEqualTo(1);
+        Color color = new Color(ImageIO.read(outputFile).getRGB(16, 12));
+        assertThat(color.getRed()).isLessThan(80);
+        assertThat(color.getGreen()).isGreaterThan(120);
+        assertThat(color.getBlue()).isGreaterThan(120);
+    }
+    
+    @Test
+    void testIccProfileIsReassembledFromChunks() throws IOException {
+        byte[] profile = ICC_Profile.getInstance(ColorSpace.CS_sRGB).getData();
+        int half = profile.length / 2;
+        // Chunks out of order, as the sequence numbers and not the file order count
+        File inputFile = createCmykImage("icc.jpg", 16, 16, new int[] {0, 0, 0, 0},
+                iccChunk(2, Arrays.copyOfRange(profile, half, profile.length)),
+                iccChunk(1, Arrays.copyOfRange(profile, 0, half)));
+        
+        ImageReader reader = ImageIO.getImageReadersByFormatName("JPEG").next();
+        try (ImageInputStream input = ImageIO.createImageInputStream(inputFile)) {
+            reader.setInput(input);
+            IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(0)
+                    .getAsTree("javax_imageio_jpeg_image_1.0");
+            
+            assertThat(ImageIOCodec.iccProfile(root).getData()).isEqualTo(profile);
+        } finally {
+            reader.dispose();
+        }
+    }
+    
+    private static String frameLayout(File file) throws IOException {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("JPEG").next();
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            reader.setInput(input);
+            IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(0)
+                    .getAsTree("javax_imageio_jpeg_image_1.0");
+            StringBuilder layout = new StringBuilder(
+                    root.getElementsByTagName("app0JFIF").getLength() > 0 ? "JFIF" : "none");
+            NodeList components = root.getElementsByTagName("componentSpec");
+            for (int i = 0; i < components.getLength(); i++) {
+                IIOMetadataNode component = (IIOMetadataNode) components.item(i);
+                layout.append(' ').append(component.getAttribute("HsamplingFactor"))
+                        .append('x').append(component.getAttribute("VsamplingFactor"));
+            }
+            return layout.toString();
+        } finally {
+            reader.dispose();
+        }
+    }
+    
+    private File createRgbImage(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setPaint(new GradientPaint(0, 0, Color.RED, width, height, Color.BLUE));
+        g2d.fillRect(0, 0, width, height);
+        g2d.dispose();
+        
+        File file = tempDir.resolve("rgb.jpg").toFile();
+        ImageIO.write(image, "JPEG", file);
+        return file;
+    }
+    
+    private File createCmykImage(int width, int height) throws IOException {
+        return createCmykImage("cmyk.jpg", width, height, new int[] {255, 0, 0, 0});
+    }
+    
+    /**
+     * Writes a four-component JPEG filled with the given samples, with the given
+     * raw segments inserted after the start of image marker.
+     */
+    private File createCmykImage(String name, int width, int height, int[] samples, byte[]... segments)
+            throws IOException {
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, 4, null);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setPixel(x, y, samples);
+            }
+        }
+        
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("JPEG").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(jpeg)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(raster, null, null), null);
+        } finally {
+            writer.dispose();
+        }
+        
+        byte[] data = jpeg.toByteArray();
+        File file = tempDir.resolve(name).toFile();
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(data, 0, 2);
+            for (byte[] segment : segments) {
+                output.write(segment);
+            }
+            output.write(data, 2, data.length - 2);
+        }
+        return file;
+    }
+    
+    private static byte[] iccChunk(int sequence, byte[] data) {
+        byte[] header = "ICC_PROFILE\0".getBytes(StandardCharsets.US_ASCII);
+        int length = 2 + header.length + 2 + data.length;
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        segment.write(0xFF);
+        segment.write(0xE2);
+        segment.write(length >> 8);
+        segment.write(length & 0xFF);
+        segment.write(header, 0, header.length);
+        segment.write(sequence);
+        segment.write(2);
+        segment.write(data, 0, data.length);
+        return segment.toByteArray();
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+class JobSchedulerTest {
+    
+    @Test
+    void testRunsCheapestJobsFirst() throws InterruptedException {
+        List<Long> order = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        
+        try (JobScheduler scheduler = JobScheduler.builder(1).agingRate(0).build()) {
+            scheduler.submit(0, () -> await(release));
+            for (long cost : new long[] {500, 20, 300, 1, 20}) {
+                scheduler.submit(cost, () -> order.add(cost));
+            }
+            release.countDown();
+        }
+        
+        assertThat(order).containsExactly(1L, 20L, 20L, 300L, 500L);
+    }
+    
+    @Test
+    void testWaitingJobsAgeAheadOfNewerCheapOnes() throws InterruptedException {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        
+        // One second of waiting is worth 1000 cost units
+        try (JobScheduler scheduler = JobScheduler.builder(1).agingRate(1000).build()) {
+            scheduler.submit(0, () -> await(release));
+            scheduler.submit(100, () -> order.add("old"));
+            Thread.sleep(300);
+            scheduler.submit(10, () -> order.add("new"));
+            release.countDown();
+        }
+        
+        assertThat(order).containsExactly("old", "new");
+    }
+    
+    @Test
+    void testConcurrencyLimitCanChangeWhileRunning() throws InterruptedException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fourRunning = new CountDownLatch(4);
+        
+        try (JobScheduler scheduler = JobScheduler.builder(4).initialConcurrency(1).build()) {
+            for (int i = 0; i < 8; i++) {
+                scheduler.submit(0, () -> {
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    fourRunning.countDown();
+                    await(release);
+                    running.decrementAndGet();
+                });
+            }
+            try {
+                Thread.sleep(100);
+                assertThat(peak.get()).isEqualTo(1);
+                
+                assertThat(scheduler.setConcurrency(10)).isEqualTo(4);
+                assertThat(fourRunning.await(5, TimeUnit.SECONDS)).isTrue();
+                assertThat(scheduler.setConcurrency(0)).isEqualTo(1);
+            } finally {
+                release.countDown();
+            }
+        }
+        
+        assertThat(peak.get()).isEqualTo(4);
+    }
+    
+    @Test
+    void testLargeJobLaneKeepsSmallJobsMoving() throws InterruptedException {
+        CountDownLatch largeRunning = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch smallDone = new CountDownLatch(3);
+        
+        try (JobScheduler scheduler = JobScheduler.builder(1).largeJobLane(1000, 1).build()) {
+            scheduler.submit(5000, () -> {
+                largeRunning.countDown();
+                await(release);
+            });
+            try {
+                assertThat(largeRunning.await(5, TimeUnit.SECONDS)).isTrue();
+                for (int i = 0; i < 3; i++) {
+                    scheduler.submit(10, smallDone::countDown);
+                }
+                
+                assertThat(smallDone.await(5, TimeUnit.SECONDS)).isTrue();
+            } finally {
+                release.countDown();
+            }
+        }
+    }
+    
+    @Test
+    void testRegularWorkersLeaveLargeJobsToIdleLane() throws InterruptedException {
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        CountDownLatch firstRunning = new CountDownLatch(1);
+        CountDownLatch secondRunning = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        CountDownLatch releaseSecond = new CountDownLatch(1);
+        CountDownLatch thirdDone = new CountDownLatch(1);
+    
+        try (JobScheduler scheduler = JobScheduler.builder(2).largeJobLane(1000, 1).build()) {
+            scheduler.submit(5000, () -> {
+                threads.add(Thread.currentThread());
+                firstRunning.countDown();
+                await(releaseFirst);
+            });
+            try {
+                assertThat(firstRunning.await(5, TimeUnit.SECONDS)).isTrue();
+                // The lane is busy, so a regular worker takes the second large job
+                scheduler.submit(5000, () -> {
+                    secondRunning.countDown();
+                    await(releaseSecond);
+                });
+                assertThat(secondRunning.await(5, TimeUnit.SECONDS)).isTrue();
+                releaseFirst.countDown();
+                while (scheduler.getCompletedJobs() == 0) {
+                    Thread.sleep(5);
+                }
+    
+                // With the lane idle again, the next large job is the lane's
+                scheduler.submit(5000, () -> {
+                    threads.add(Thread.currentThread());
+                    thirdDone.countDown();
+                });
+                assertThat(thirdDone.await(5, TimeUnit.SECONDS)).isTrue();
+            } finally {
+                releaseFirst.countDown();
+                releaseSecond.countDown();
+            }
+        }
+    
+        assertThat(threads.get(1)).isSameAs(threads.get(0));
+    }
+    
+    @Test
+    void testWorkerSurvivesJobThrowingError() throws InterruptedException {
+        AtomicInteger completed = new AtomicInteger();
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        
+        try (JobScheduler scheduler = JobScheduler.builder(1).capacity(1).build()) {
+            Thread.UncaughtExceptionHandler quiet = (thread, e) -> { };
+            scheduler.submit(0, () -> {
+                Thread.currentThread().setUncaughtExceptionHandler(quiet);
+                threads.add(Thread.currentThread());
+                throw new OutOfMemoryError("Java heap space");
+            });
+            for (int i = 0; i < 5; i++) {
+                scheduler.submit(0, () -> {
+                    threads.add(Thread.currentThread());
+                    completed.incrementAndGet();
+                });
+            }
+            assertThat(scheduler.getConcurrency()).isEqualTo(1);
+        }
+        
+        assertThat(completed).hasValue(5);
+        assertThat(threads).hasSize(6).containsOnly(threads.get(0));
+    }
+    
+    @Test
+    void testRejectsJobsAfterShutdown() throws InterruptedException {
+        JobScheduler scheduler = JobScheduler.builder(2).build();
+        scheduler.shutdown();
+        
+        assertThatThrownBy(() -> scheduler.submit(1, () -> { }))
+                .isInstanceOf(IllegalStateException.class);
+        scheduler.awaitTermination();
+        assertThatThrownBy(() -> JobScheduler.builder(0).build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+import static org.assertj.core.api.Assertions.*;
+
+class JpegHeaderTest {
+
+    @Test
+    void testReadsFrameDimensions() throws IOException {
+        byte[] jpeg = encode(120, 45);
+
+        JpegHeader header = JpegHeader.read(new ByteArrayInputStream(jpeg), MetadataPolicy.STRIP);
+
+        assertThat(header.getWidth()).isEqualTo(120);
+        assertThat(header.getHeight()).isEqualTo(45);
+        assertThat(header.getComponents()).isEqualTo(3);
+        assertThat(header.isProgressive()).isFalse();
+        assertThat(header.getSegments()).isEmpty();
+    }
+
+    @Test
+    void testRejectsNonJpegInput() {
+        byte[] png = "\u0089PNG\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+        assertThatThrownBy(() -> JpegHeader.read(new ByteArrayInputStream(png), MetadataPolicy.STRIP))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Not a JPEG file");
+    }
+
+    @Test
+    void testRetainsSegmentsAccordingToPolicy() throws IOException {
+        byte[] jpeg = insertAfterSoi(encode(64, 32),
+                segment(0xE1, exifPayload(64, 32, 6)),
+                segment(0xE2, bytes("ICC_PROFILE\0\1\1fake")),
+                segment(0xFE, bytes("hello")));
+
+        JpegHeader all = JpegHeader.read(new ByteArrayInputStream(jpeg), MetadataPolicy.KEEP);
+        JpegHeader iccOnly = JpegHeader.read(new ByteArrayInputStream(jpeg),
+                MetadataPolicy.only(MetadataPolicy.SegmentType.ICC));
+
+        assertThat(all.getSegments()).extracting(segment -> segment.type).containsExactly(
+                MetadataPolicy.SegmentType.EXIF, MetadataPolicy.SegmentType.ICC, MetadataPolicy.SegmentType.COMMENT);
+        assertThat(iccOnly.getSegments()).extracting(segment -> segment.type)
+                .containsExactly(MetadataPolicy.SegmentType.ICC);
+        assertThat(iccOnly.hasIccProfile()).isTrue();
+    }
+
+    @Test
+    void testUpdatesExifDimensionsButKeepsOrientation() throws IOException {
+        byte[] payload = exifPayload(4000, 3000, 6);
+
+        Exif.updateDimensions(payload, 400, 300);
+
+        Exif exif = Exif.of(payload);
+        int ifd0 = exif.firstIfd();
+        int exifIfd = exif.getInteger(ifd0, Exif.TAG_EXIF_IFD, -1);
+        assertThat(exif.getInteger(ifd0, Exif.TAG_IMAGE_WIDTH, -1)).isEqualTo(400);
+        assertThat(exif.getInteger(ifd0, 0x0112, -1)).isEqualTo(6);
+        assertThat(exif.getInteger(exifIfd, Exif.TAG_PIXEL_X_DIMENSION, -1)).isEqualTo(400);
+        assertThat(exif.getInteger(exifIfd, Exif.TAG_PIXEL_Y_DIMENSION, -1)).isEqualTo(300);
+    }
+
+    @Test
+    void testLeavesExifWithBogusIfdOffsetsUnpatched() {
+        byte[] payload = exifPayload(4000, 3000, 6);
+        ByteBuffer.wrap(payload).putInt(6 + 4, Integer.MAX_VALUE - 2);
+        byte[] original = payload.clone();
+
+        Exif.updateDimensions(payload, 400, 300);
+
+        assertThat(payload).isEqualTo(original);
+        assertThat(Exif.thumbnail(payload)).isNull();
+
+        byte[] subIfd = exifPayload(4000, 3000, 6);
+        // ExifIFD pointer, the value of IFD0's third entry
+        ByteBuffer.wrap(subIfd).putInt(6 + 8 + 2 + 2 * 12 + 8, Integer.MAX_VALUE - 10);
+
+        Exif.updateDimensions(subIfd, 400, 300);
+
+        Exif exif = Exif.of(subIfd);
+        assertThat(exif.getInteger(exif.firstIfd(), Exif.TAG_IMAGE_WIDTH, -1)).isEqualTo(400);
+    }
+
+    @Test
+    void testReadsExifThumbnailOnlyWhenRequested() throws IOException {
+        byte[] thumbnail = encode(16, 12);
+        byte[] jpeg = insertAfterSoi(encode(64, 48),
+                segment(0xE1, exifPayloadWithThumbnail(1, thumbnail, 0)));
+
+        assertThat(JpegHeader.read(new ByteArrayInputStream(jpeg), MetadataPolicy.STRIP).getExifThumbnail())
+                .isNull();
+        JpegHeader header = JpegHeader.read(new ByteArrayInputStream(jpeg), MetadataPolicy.STRIP, true);
+        assertThat(header.getExifThumbnail()).isEqualTo(thumbnail);
+        assertThat(header.getSegments()).isEmpty();
+    }
+
+    @Test
+    void testIgnoresThumbnailWithOtherOrientation() {
+        byte[] thumbnail = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9};
+
+        assertThat(Exif.thumbnail(exifPayloadWithThumbnail(6, thumbnail, 6))).isEqualTo(thumbnail);
+        assertThat(Exif.thumbnail(exifPayloadWithThumbnail(6, thumbnail, 1))).isNull();
+        assertThat(Exif.thumbnail(exifPayload(4000, 3000, 6))).isNull();
+    }
+
+    @Test
+    void testInjectsSegmentsAfterJfifHeader() throws IOException {
+        byte[] encoded = encode(16, 16);
+        JpegHeader.Segment comment = new JpegHeader.Segment(JpegHeader.COM,
+                MetadataPolicy.SegmentType.COMMENT, bytes("kept"));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (OutputStream out = new SegmentInjectingOutputStream(output, List.of(comment))) {
+            // Write in awkward chunk sizes to exercise the header buffering
+            for (int i = 0; i < encoded.length; i += 3) {
+                out.write(encoded, i, Math.min(3, encoded.length - i));
+            }
+        }
+
+        byte[] result = output.toByteArray();
+        int app0Length = ((encoded[4] & 0xFF) << 8) | (encoded[5] & 0xFF);
+        int insertAt = 4 + app0Length;
+        assertThat(result.length).isEqualTo(encoded.length + comment.toBytes().length);
+        assertThat(Arrays.copyOfRange(result, insertAt, insertAt + comment.toBytes().length))
+                .isEqualTo(comment.toBytes());
+        assertThat(ImageIO.read(new ByteArrayInputStream(result)).getWidth()).isEqualTo(16);
+    }
+
+    static byte[] exifPayload(int width, int height, int orientation) {
+        ByteBuffer buffer = ByteBuffer.allocate(6 + 8 + 2 + 3 * 12 + 4 + 2 + 2 * 12 + 4);
+        buffer.put(bytes("Exif\0\0"));
+        buffer.put(bytes("MM")).putShort((short) 42).putInt(8);
+        // IFD0: ImageWidth, Orientation, ExifIFD pointer
+        buffer.putShort((short) 3);
+        buffer.putShort((short) Exif.TAG_IMAGE_WIDTH).putShort((short) 4).putInt(1).putInt(width);
+        buffer.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        buffer.putShort((short) Exif.TAG_EXIF_IFD).putShort((short) 4).putInt(1).putInt(8 + 2 + 3 * 12 + 4);
+        buffer.putInt(0);
+        // Exif IFD: PixelXDimension (LONG), PixelYDimension (SHORT)
+        buffer.putShort((short) 2);
+        buffer.putShort((short) Exif.TAG_PIXEL_X_DIMENSION).putShort((short) 4).putInt(1).putInt(width);
+        buffer.putShort((short) Exif.TAG_PIXEL_Y_DIMENSION).putShort((short) 3).putInt(1)
+                .putShort((short) height).putShort((short) 0);
+        buffer.putInt(0);
+        return buffer.array();
+    }
+
+    /**
+     * Builds an EXIF payload with an orientation in IFD0 and a JPEG thumbnail in
+     * IFD1, which declares its own orientation unless that is {@code 0}.
+     */
+    static byte[] exifPayloadWithThumbnail(int orientation, byte[] thumbnail, int thumbnailOrientation) {
+        int entries = thumbnailOrientation != 0 ? 3 : 2;
+        int ifd1 = 8 + 2 + 12 + 4;
+        int thumbnailOffset = ifd1 + 2 + entries * 12 + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(6 + thumbnailOffset + thumbnail.length);
+        buffer.put(bytes("Exif\0\0"));
+        buffer.put(bytes("MM")).putShort((short) 42).putInt(8);
+        // IFD0: Orientation, linked to IFD1
+        buffer.putShort((short) 1);
+        buffer.putShort((short) Exif.TAG_ORIENTATION).putShort((short) 3).putInt(1)
+                .putShort((short) orientation).putShort((short) 0);
+        buffer.putInt(ifd1);
+        // IFD1: Orientation, JPEGInterchangeFormat, JPEGInterchangeFormatLength
+        buffer.putShort((short) entries);
+        if (thumbnailOrientation != 0) {
+            buffer.putShort((short) Exif.TAG_ORIENTATION).putShort((short) 3).putInt(1)
+                    .putShort((short) thumbnailOrientation).putShort((short) 0);
+        }
+        buffer.putShort((short) Exif.TAG_THUMBNAIL_OFFSET).putShort((short) 4).putInt(1).putInt(thumbnailOffset);
+        buffer.putShort((short) Exif.TAG_THUMBNAIL_LENGTH).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        buffer.putInt(0);
+        buffer.put(thumbnail);
+        return buffer.array();
+    }
+
+    static byte[] segment(int marker, byte[] payload) {
+        return new JpegHeader.Segment(marker, MetadataPolicy.SegmentType.OTHER, payload).toBytes();
+    }
+
+    static byte[] insertAfterSoi(byte[] jpeg, byte[]... segments) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(jpeg, 0, 2);
+        for (byte[] segment : segments) {
+            output.write(segment, 0, segment.length);
+        }
+        output.write(jpeg, 2, jpeg.length - 2);
+        return output.toByteArray();
+    }
+
+    static byte[] encode(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "JPEG", output);
+        return output.toByteArray();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -11,7 +11,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import javax.imageio.ImageIO;
 
 import static org.assertj.core.api.Assertions.*;
@@ -65,6 +73,26 @@ class JpegScalerCLITest {
         assertThat(output).contains("jpeg-scaler version 1.0.0");
     }
     
+    @Test
+    void testScalerIsOnlyCreatedForScaling() {
+        PrintStream out = new PrintStream(outContent);
+        PrintStream err = new PrintStream(errContent);
+        int[] created = new int[1];
+        Supplier<JpegScaler> scalers = () -> {
+            created[0]++;
+            return new JpegScaler();
+        };
+        
+        assertThat(JpegScalerCLI.run(new String[] {"--help"}, scalers, null, out, err)).isEqualTo(0);
+        assertThat(JpegScalerCLI.run(new String[] {"--version"}, scalers, null, out, err)).isEqualTo(0);
+        assertThat(JpegScalerCLI.run(new String[] {"--input", "in.jpg"}, scalers, null, out, err)).isEqualTo(1);
+        assertThat(created[0]).isZero();
+        
+        JpegScalerCLI.run(new String[] {"--input", tempDir.resolve("missing.jpg").toString(),
+                "--output", tempDir.resolve("out.jpg").toString(), "--width", "10"}, scalers, null, out, err);
+        assertThat(created[0]).isEqualTo(1);
+    }
+    
     @Test
     void testCLIWithMissingInputFile() {
         String[] args = {"--output", "output.jpg", "--width", "100", "--height", "100"};
@@ -225,6 +253,74 @@ class JpegScalerCLITest {
         assertThat(output).contains("Image scaling completed successfully!");
     }
     
+    @Test
+    void testCLIWithEncoderTuning() throws IOException {
+        File inputFile = createTestImage(100, 100);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        
+        String[] args = {
+            "--input", inputFile.getAbsolutePath(),
+            "--output", outputFile.getAbsolutePath(),
+            "--width", "50",
+            "--subsampling", "4:4:4",
+            "--optimize-huffman",
+            "--progressive",
+            "--restart-interval", "8",
+            "--verbose"
+        };
+        
+        int exitCode = JpegScalerCLI.run(args);
+        assertThat(exitCode).isEqualTo(0);
+        assertThat(outputFile).exists();
+        
+        String output = outContent.toString();
+        assertThat(output).contains("Chroma subsampling: 4:4:4");
+        assertThat(output).contains("Optimized Huffman tables: true, progressive: true");
+    }
+    
+    @Test
+    void testCLIWithInvalidSubsampling() throws IOException {
+        File inputFile = createTestImage(100, 100);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        
+        String[] args = {
+            "--input", inputFile.getAbsolutePath(),
+            "--output", outputFile.getAbsolutePath(),
+            "--width", "50",
+            "--subsampling", "4:1:1"
+        };
+        
+        int exitCode = JpegScalerCLI.run(args);
+        assertThat(exitCode).isEqualTo(1);
+        assertThat(errContent.toString()).contains("Chroma subsampling must be one of");
+    }
+    
+    @Test
+    void testCLIWithCodecSelection() throws IOException {
+        File inputFile = createTestImage(100, 100);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        
+        String[] args = {
+            "--input", inputFile.getAbsolutePath(),
+            "--output", outputFile.getAbsolutePath(),
+            "--width", "50",
+            "--codec", "commons-imaging",
+            "--verbose"
+        };
+        
+        int exitCode = JpegScalerCLI.run(args);
+        assertThat(exitCode).isEqualTo(0);
+        assertThat(outputFile).exists();
+        assertThat(outContent.toString())
+                .contains("Codec: commons-imaging")
+                .contains("Codec commons-imaging decode/baseline: 1")
+                .contains("Codec imageio encode/output: 1");
+        
+        args[args.length - 2] = "turbo";
+        assertThat(JpegScalerCLI.run(args)).isEqualTo(1);
+        assertThat(errContent.toString()).contains("Unknown codec: turbo");
+    }
+    
     @Test
     void testCLIWithVerbose() throws IOException {
         File inputFile = createTestImage(100, 100);
@@ -335,6 +431,163 @@ class JpegScalerCLITest {
         assertThat(output).contains("Output file:");
     }
     
+    @Test
+    void testCLIIncrementalDirectoryMode() throws IOException {
+        File inputDir = tempDir.resolve("photos").toFile();
+        inputDir.mkdirs();
+        createTestImage(100, 100).renameTo(new File(inputDir, "one.jpg"));
+        File outputDir = tempDir.resolve("thumbs").toFile();
+        
+        String[] args = {
+            "-i", inputDir.getAbsolutePath(),
+            "-o", outputDir.getAbsolutePath(),
+            "--max-width", "40",
+            "--threads", "2",
+            "--incremental"
+        };
+        
+        assertThat(JpegScalerCLI.run(args)).isEqualTo(0);
+        assertThat(JpegScalerCLI.run(args)).isEqualTo(0);
+        
+        assertThat(new File(outputDir, "one.jpg")).exists();
+        assertThat(new File(outputDir, ".jpeg-scaler-state")).exists();
+        String output = outContent.toString();
+        assertThat(output).contains("Processed 1, skipped 0 up to date, failed 0");
+        assertThat(output).contains("Processed 0, skipped 1 up to date, failed 0");
+    }
+    
+    @Test
+    void testCLIWorkerProcessesShareDirectoryThroughCoordination() throws Exception {
+        File inputDir = tempDir.resolve("photos").toFile();
+        inputDir.mkdirs();
+        for (int i = 0; i < 12; i++) {
+            createTestImage(100, 100).renameTo(new File(inputDir, "image-" + i + ".jpg"));
+        }
+        File outputDir = tempDir.resolve("thumbs").toFile();
+        Path coordination = tempDir.resolve("coordination");
+        
+        // Separate JVMs, as on the nodes of a cluster sharing the directories
+        List<Process> workers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            workers.add(new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), JpegScalerCLI.class.getName(),
+                    "-i", inputDir.getAbsolutePath(), "-o", outputDir.getAbsolutePath(), "--max-width", "40",
+                    "--coordination", coordination.toString(), "--worker-id", "worker-" + i)
+                    .redirectErrorStream(true)
+                    .start());
+        }
+        StringBuilder output = new StringBuilder();
+        for (Process worker : workers) {
+            output.append(new String(worker.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+            assertThat(worker.waitFor(2, TimeUnit.MINUTES)).isTrue();
+            assertThat(worker.exitValue()).isEqualTo(0);
+        }
+        
+        assertThat(outputDir.list((dir, name) -> name.endsWith(".jpg"))).hasSize(12);
+        assertThat(coordination.resolve("done").toFile().list()).hasSize(12);
+        assertThat(coordination.resolve("leases").toFile().list()).isEmpty();
+        assertThat(output.toString()).contains("All workers: Processed 12, skipped 0 up to date, failed 0");
+    }
+    
+    @Test
+    void testCLIWorkerReclaimsImagesOfWorkerKilledMidRun() throws Exception {
+        File inputDir = tempDir.resolve("photos").toFile();
+        inputDir.mkdirs();
+        for (int i = 0; i < 12; i++) {
+            createTestImage(800, 800).renameTo(new File(inputDir, "image-" + i + ".jpg"));
+        }
+        File outputDir = tempDir.resolve("thumbs").toFile();
+        Path coordination = tempDir.resolve("coordination");
+        Path leases = coordination.resolve("leases");
+        
+        Process victim = startWorker(inputDir, outputDir, coordination, "victim");
+        Process survivor = startWorker(inputDir, outputDir, coordination, "survivor");
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (!holdsLease(leases, "victim")) {
+            assertThat(System.nanoTime()).as("victim claims an image").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+        victim.destroyForcibly();
+        assertThat(victim.waitFor(1, TimeUnit.MINUTES)).isTrue();
+        String output = new String(survivor.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertThat(survivor.waitFor(2, TimeUnit.MINUTES)).isTrue();
+        
+        assertThat(survivor.exitValue()).as(output).isEqualTo(0);
+        assertThat(outputDir.list((dir, name) -> name.endsWith(".jpg"))).hasSize(12);
+        assertThat(coordination.resolve("done").toFile().list()).hasSize(12);
+        assertThat(leases.toFile().list()).isEmpty();
+        assertThat(output).contains("from worker victim").contains("All workers: Processed");
+    }
+    
+    private static Process startWorker(File inputDir, File outputDir, Path coordination, String worker)
+            throws IOException {
+        return new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), JpegScalerCLI.class.getName(),
+                "-i", inputDir.getAbsolutePath(), "-o", outputDir.getAbsolutePath(), "--max-width", "40",
+                "--coordination", coordination.toString(), "--worker-id", worker, "--lease-timeout", "1")
+                .redirectErrorStream(true)
+                .start();
+    }
+    
+    private static boolean holdsLease(Path leases, String worker) throws IOException {
+        File[] files = leases.toFile().listFiles();
+        if (files != null) {
+            for (File lease : files) {
+                try {
+                    if (new String(Files.readAllBytes(lease.toPath()), StandardCharsets.UTF_8).startsWith(worker + "\n")) {
+                        return true;
+                    }
+                } catch (NoSuchFileException e) {
+                    // Released meanwhile
+                }
+            }
+        }
+        return false;
+    }
+    
+    @Test
+    void testCLIWithInvalidShard() throws IOException {
+        File inputDir = tempDir.resolve("photos").toFile();
+        inputDir.mkdirs();
+        
+        String[] args = {
+            "-i", inputDir.getAbsolutePath(),
+            "-o", tempDir.resolve("thumbs").toString(),
+            "--max-width", "40",
+            "--shard", "3/2"
+        };
+        
+        assertThat(JpegScalerCLI.run(args)).isEqualTo(1);
+        assertThat(errContent.toString()).contains("Shard must be k/N with 1 <= k <= N");
+    }
+    
+    @Test
+    void testCLIWithCsvReport() throws IOException {
+        File inputFile = createTestImage(100, 100);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        
+        String[] args = {
+            "-i", inputFile.getAbsolutePath(),
+            "-o", outputFile.getAbsolutePath(),
+            "-w", "50",
+            "--report", "csv",
+            "-v"
+        };
+        
+        int exitCode = JpegScalerCLI.run(args);
+        assertThat(exitCode).isEqualTo(0);
+        
+        String[] lines = outContent.toString().split("\\R");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).startsWith("input,output,");
+        assertThat(lines[1]).contains(",100,100,50,50,");
+        String errorOutput = errContent.toString();
+        assertThat(errorOutput).contains("Scaled dimensions: 50x50");
+        assertThat(errorOutput).contains("images/s");
+        assertThat(errorOutput).contains("Latency: p50");
+        assertThat(errorOutput).contains("Image scaling completed successfully!");
+    }
+    
     private File createTestImage(int width, int height) throws IOException {
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         Graphics2D g2d = image.createGraphics();
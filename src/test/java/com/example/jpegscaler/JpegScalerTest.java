@@ -6,10 +6,28 @@ import org.junit.jupiter.api.io.TempDir;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -120,6 +138,32 @@ class JpegScalerTest {
         assertThat(dimensions.height).isEqualTo(75);
     }
     
+    @Test
+    void testGetImageDimensionsOfOtherFormats() throws IOException {
+        File pngFile = tempDir.resolve("test.png").toFile();
+        ImageIO.write(new BufferedImage(120, 40, BufferedImage.TYPE_INT_RGB), "PNG", pngFile);
+        File textFile = tempDir.resolve("test.txt").toFile();
+        Files.write(textFile.toPath(), "not an image".getBytes(StandardCharsets.US_ASCII));
+        
+        Dimension dimensions = jpegScaler.getImageDimensions(pngFile);
+        
+        assertThat(dimensions.width).isEqualTo(120);
+        assertThat(dimensions.height).isEqualTo(40);
+        assertThatThrownBy(() -> jpegScaler.getImageDimensions(textFile))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Could not read image from file");
+    }
+    
+    @Test
+    void testEstimateCostFromHeader() throws IOException {
+        File inputFile = createTestImage(400, 300);
+        File textFile = tempDir.resolve("notes.txt").toFile();
+        Files.write(textFile.toPath(), "not an image".getBytes(StandardCharsets.US_ASCII));
+        
+        assertThat(jpegScaler.estimateCost(inputFile, TargetSize.exact(200, 0))).isEqualTo(400 * 300 + 200 * 150);
+        assertThat(jpegScaler.estimateCost(textFile, TargetSize.exact(200, 0))).isZero();
+    }
+    
     @Test
     void testGetImageDimensionsWithNonExistentFile() {
         File nonExistentFile = new File("non-existent-file.jpg");
@@ -141,6 +185,137 @@ class JpegScalerTest {
         assertThat(outputFile).exists();
     }
     
+    @Test
+    void testScaleImageReplacesOutputAtomically() throws IOException {
+        File inputFile = createTestImage(100, 100);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        Files.write(outputFile.toPath(), new byte[] {1, 2, 3});
+        
+        jpegScaler.scaleImage(inputFile, outputFile, 50, 50, 0.8f);
+        
+        assertThat(jpegScaler.getImageDimensions(outputFile).width).isEqualTo(50);
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertThat(files.map(file -> file.getFileName().toString())).noneMatch(name -> name.endsWith(".tmp"));
+        }
+    }
+    
+    @Test
+    void testScaleReturnsDimensionsSizesAndTimings() throws IOException {
+        File inputFile = createTestImage(100, 60);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        
+        ScaleResult result = jpegScaler.scale(inputFile, outputFile, TargetSize.exact(50, 0), ScaleOptions.builder().build());
+        
+        assertThat(result.getSourceWidth()).isEqualTo(100);
+        assertThat(result.getSourceHeight()).isEqualTo(60);
+        assertThat(result.getDimension()).isEqualTo(new Dimension(50, 30));
+        assertThat(result.getBytesIn()).isEqualTo(inputFile.length());
+        assertThat(result.getBytesOut()).isEqualTo(outputFile.length());
+        assertThat(result.getDecodeNanos()).isPositive();
+        assertThat(result.getTotalNanos()).isEqualTo(result.getDecodeNanos() + result.getScaleNanos()
+                + result.getEncodeNanos() + result.getWriteNanos());
+    }
+    
+    @Test
+    void testCancelledScaleWritesNoOutput() throws IOException {
+        File inputFile = createTestImage(100, 100);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        CancellationToken cancellation = CancellationToken.create();
+        cancellation.cancel();
+        
+        assertThatThrownBy(() -> jpegScaler.scaleImage(inputFile, outputFile, 50, 50, ScaleOptions.ofQuality(0.8f), cancellation))
+                .isInstanceOf(InterruptedIOException.class)
+                .hasMessageContaining("cancelled");
+        assertThat(outputFile).doesNotExist();
+        assertThatThrownBy(CancellationToken.NONE::cancel).isInstanceOf(UnsupportedOperationException.class);
+    }
+    
+    @Test
+    void testScaleGivesUpAfterDeadline() throws IOException, InterruptedException {
+        File inputFile = createTestImage(100, 100);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        CancellationToken cancellation = CancellationToken.withTimeout(1, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+        
+        assertThat(cancellation.isDeadlineExceeded()).isTrue();
+        assertThatThrownBy(() -> jpegScaler.scale(inputFile, outputFile, TargetSize.exact(50, 50),
+                ScaleOptions.builder().build(), cancellation))
+                .isInstanceOf(InterruptedIOException.class)
+                .hasMessageContaining("deadline");
+        assertThat(outputFile).doesNotExist();
+        assertThat(CancellationToken.withTimeout(1, TimeUnit.MINUTES).isCancelled()).isFalse();
+    }
+    
+    @Test
+    void testParallelScalingIsBitIdentical() throws IOException {
+        File inputFile = createTestImage(640, 480);
+        File sequentialFile = tempDir.resolve("sequential.jpg").toFile();
+        File parallelFile = tempDir.resolve("parallel.jpg").toFile();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        
+        try {
+            new JpegScaler(CodecRegistry.createDefault(), pool, Long.MAX_VALUE)
+                    .scaleImage(inputFile, sequentialFile, 300, 200, 0.8f);
+            new JpegScaler(CodecRegistry.createDefault(), pool, 0)
+                    .scaleImage(inputFile, parallelFile, 300, 200, 0.8f);
+        } finally {
+            pool.shutdown();
+        }
+        
+        assertThat(Files.readAllBytes(parallelFile.toPath())).isEqualTo(Files.readAllBytes(sequentialFile.toPath()));
+    }
+    
+    @Test
+    void testScaleAsyncMatchesBlockingScale() throws Exception {
+        File inputFile = createTestImage(400, 300);
+        File blockingFile = tempDir.resolve("blocking.jpg").toFile();
+        File asyncFile = tempDir.resolve("async/output.jpg").toFile();
+        ExecutorService io = Executors.newFixedThreadPool(1);
+        ExecutorService cpu = Executors.newFixedThreadPool(1);
+        ScaleOptions options = ScaleOptions.builder().build();
+        
+        try {
+            jpegScaler.scale(inputFile, blockingFile, TargetSize.bounded(120, 120), options);
+            ScaleResult result = jpegScaler.scaleAsync(inputFile, asyncFile, TargetSize.bounded(120, 120), options,
+                    io, cpu).get(10, TimeUnit.SECONDS);
+            
+            assertThat(result.getDimension()).isEqualTo(new Dimension(120, 90));
+            assertThat(result.getBytesOut()).isEqualTo(asyncFile.length());
+            assertThat(Files.readAllBytes(asyncFile.toPath())).isEqualTo(Files.readAllBytes(blockingFile.toPath()));
+            
+            CompletableFuture<ScaleResult> missing = jpegScaler.scaleAsync(tempDir.resolve("missing.jpg").toFile(),
+                    asyncFile, TargetSize.exact(10, 10), options, io, cpu);
+            assertThatThrownBy(() -> missing.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IOException.class)
+                    .hasMessageContaining("Input file does not exist");
+        } finally {
+            io.shutdown();
+            cpu.shutdown();
+        }
+    }
+    
+    @Test
+    void testCancelledScaleAsyncWritesNoOutput() throws Exception {
+        File inputFile = createTestImage(100, 100);
+        File outputFile = tempDir.resolve("cancelled/output.jpg").toFile();
+        List<Runnable> cpuTasks = new ArrayList<>();
+        
+        CompletableFuture<ScaleResult> future = jpegScaler.scaleAsync(inputFile, outputFile, TargetSize.exact(50, 50),
+                ScaleOptions.builder().build(), null, cpuTasks::add);
+        for (int i = 0; i < 500 && cpuTasks.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(cpuTasks).hasSize(1);
+        
+        assertThat(future.cancel(true)).isTrue();
+        cpuTasks.get(0).run();
+        
+        assertThat(future).isCancelled();
+        assertThat(outputFile).doesNotExist();
+        assertThat(outputFile.getParentFile().listFiles()).isNullOrEmpty();
+    }
+    
     @Test
     void testScaleImageWithDifferentQualitySettings() throws IOException {
         // Create a larger, more complex test image to ensure quality differences are visible
@@ -198,6 +373,341 @@ class JpegScalerTest {
         assertThat(outputDimensions.height).isEqualTo(50);
     }
     
+    @Test
+    void testScaleImageWithChromaSubsampling() throws IOException {
+        File inputFile = createTestImage(100, 100);
+        File output444 = tempDir.resolve("output-444.jpg").toFile();
+        File output422 = tempDir.resolve("output-422.jpg").toFile();
+        
+        jpegScaler.scaleImage(inputFile, output444, 64, 64,
+                ScaleOptions.builder().chromaSubsampling(ChromaSubsampling.YUV444).build());
+        jpegScaler.scaleImage(inputFile, output422, 64, 64,
+                ScaleOptions.builder().chromaSubsampling(ChromaSubsampling.YUV422).build());
+        
+        assertThat(readLumaSamplingFactors(output444)).containsExactly(1, 1);
+        assertThat(readLumaSamplingFactors(output422)).containsExactly(2, 1);
+    }
+    
+    @Test
+    void testScaleImageProgressiveWithRestartInterval() throws IOException {
+        File inputFile = createTestImage(100, 100);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        
+        jpegScaler.scaleImage(inputFile, outputFile, 80, 80,
+                ScaleOptions.builder().progressive(true).restartInterval(4).build());
+        
+        byte[] bytes = Files.readAllBytes(outputFile.toPath());
+        assertThat(containsMarker(bytes, 0xC2)).as("SOF2 progressive marker").isTrue();
+        assertThat(containsMarker(bytes, 0xDD)).as("DRI restart interval marker").isTrue();
+        
+        Dimension outputDimensions = jpegScaler.getImageDimensions(outputFile);
+        assertThat(outputDimensions.width).isEqualTo(80);
+        assertThat(outputDimensions.height).isEqualTo(80);
+    }
+    
+    @Test
+    void testScaleImageWithOptimizedHuffmanIsNotLarger() throws IOException {
+        File inputFile = createComplexTestImage(200, 200);
+        File defaultFile = tempDir.resolve("output-default.jpg").toFile();
+        File optimizedFile = tempDir.resolve("output-optimized.jpg").toFile();
+        
+        jpegScaler.scaleImage(inputFile, defaultFile, 150, 150, ScaleOptions.ofQuality(0.8f));
+        jpegScaler.scaleImage(inputFile, optimizedFile, 150, 150,
+                ScaleOptions.builder().quality(0.8f).optimizeHuffman(true).build());
+        
+        assertThat(optimizedFile.length()).isLessThan(defaultFile.length());
+    }
+    
+    @Test
+    void testScaleOptionsRejectInvalidRestartInterval() {
+        assertThatThrownBy(() -> ScaleOptions.builder().restartInterval(-1).build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Restart interval");
+        assertThatThrownBy(() -> ChromaSubsampling.parse("4:1:1"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(ChromaSubsampling.parse("420")).isEqualTo(ChromaSubsampling.YUV420);
+    }
+    
+    @Test
+    void testScaleImageCopiesMetadataSegments() throws IOException {
+        File inputFile = createTestImageWithExif(200, 100);
+        File keptFile = tempDir.resolve("output-kept.jpg").toFile();
+        File strippedFile = tempDir.resolve("output-stripped.jpg").toFile();
+        
+        jpegScaler.scaleImage(inputFile, keptFile, 100, 50,
+                ScaleOptions.builder().metadataPolicy(MetadataPolicy.KEEP).build());
+        jpegScaler.scaleImage(inputFile, strippedFile, 100, 50, ScaleOptions.ofQuality(0.8f));
+        
+        JpegHeader kept = JpegHeader.read(keptFile, MetadataPolicy.KEEP);
+        assertThat(kept.getSegments()).extracting(segment -> segment.type)
+                .containsExactly(MetadataPolicy.SegmentType.EXIF, MetadataPolicy.SegmentType.COMMENT);
+        
+        Exif exif = Exif.of(kept.getSegments().get(0).payload);
+        int ifd0 = exif.firstIfd();
+        int exifIfd = exif.getInteger(ifd0, Exif.TAG_EXIF_IFD, -1);
+        assertThat(exif.getInteger(exifIfd, Exif.TAG_PIXEL_X_DIMENSION, -1)).isEqualTo(100);
+        assertThat(exif.getInteger(exifIfd, Exif.TAG_PIXEL_Y_DIMENSION, -1)).isEqualTo(50);
+        assertThat(exif.getInteger(ifd0, 0x0112, -1)).isEqualTo(6);
+        
+        assertThat(JpegHeader.read(strippedFile, MetadataPolicy.KEEP).getSegments()).isEmpty();
+        assertThat(jpegScaler.getImageDimensions(keptFile).width).isEqualTo(100);
+    }
+    
+    @Test
+    void testScaleImageCopiesOnlyWhitelistedSegments() throws IOException {
+        File inputFile = createTestImageWithExif(200, 100);
+        File outputFile = tempDir.resolve("output.jpg").toFile();
+        
+        jpegScaler.scaleImage(inputFile, outputFile, 100, 50, ScaleOptions.builder()
+                .metadataPolicy(MetadataPolicy.parse("comment")).build());
+        
+        assertThat(JpegHeader.read(outputFile, MetadataPolicy.KEEP).getSegments())
+                .extracting(segment -> segment.type)
+                .containsExactly(MetadataPolicy.SegmentType.COMMENT);
+    }
+    
+    private File createTestImageWithExif(int width, int height) throws IOException {
+        File plain = createTestImage(width, height);
+        byte[] jpeg = JpegHeaderTest.insertAfterSoi(Files.readAllBytes(plain.toPath()),
+                JpegHeaderTest.segment(0xE1, JpegHeaderTest.exifPayload(width, height, 6)),
+                JpegHeaderTest.segment(0xFE, "scanned".getBytes(StandardCharsets.US_ASCII)));
+        File testFile = tempDir.resolve("exif-" + width + "x" + height + ".jpg").toFile();
+        Files.write(testFile.toPath(), jpeg);
+        return testFile;
+    }
+    
+    private int[] readLumaSamplingFactors(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input);
+                IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(0)
+                        .getAsTree("javax_imageio_jpeg_image_1.0");
+                IIOMetadataNode luma = (IIOMetadataNode) root.getElementsByTagName("componentSpec").item(0);
+                return new int[] {
+                    Integer.parseInt(luma.getAttribute("HsamplingFactor")),
+                    Integer.parseInt(luma.getAttribute("VsamplingFactor"))
+                };
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    private boolean containsMarker(byte[] bytes, int marker) {
+        for (int i = 0; i + 1 < bytes.length; i++) {
+            if ((bytes[i] & 0xFF) == 0xFF && (bytes[i + 1] & 0xFF) == marker) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Test
+    void testGrayscaleImageStaysSingleChannel() throws IOException {
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 200; x++) {
+                image.getRaster().setSample(x, y, 0, x < 100 ? 64 : 192);
+            }
+        }
+        File inputFile = tempDir.resolve("gray.jpg").toFile();
+        ImageIO.write(image, "JPEG", inputFile);
+        File outputFile = tempDir.resolve("gray-output.jpg").toFile();
+        
+        jpegScaler.scaleImage(inputFile, outputFile, 100, 50, 0.9f);
+        
+        BufferedImage output = ImageIO.read(outputFile);
+        assertThat(output.getColorModel().getNumComponents()).isEqualTo(1);
+        assertThat(output.getRaster().getSample(20, 25, 0)).isCloseTo(64, within(3));
+        assertThat(output.getRaster().getSample(80, 25, 0)).isCloseTo(192, within(3));
+    }
+    
+    @Test
+    void testResultAccountsCostPerPhase() throws IOException {
+        File inputFile = tempDir.resolve("gray.jpg").toFile();
+        ImageIO.write(new BufferedImage(200, 100, BufferedImage.TYPE_BYTE_GRAY), "JPEG", inputFile);
+        File outputFile = tempDir.resolve("gray-output.jpg").toFile();
+    
+        ScaleResult result = jpegScaler.scaleImage(inputFile, outputFile, 100, 50, 0.9f);
+    
+        // One byte per pixel for the decoded and the scaled grayscale image
+        assertThat(result.getPeakRasterBytes()).isEqualTo(200 * 100 + 100 * 50);
+        assertThat(result.getDecodeUsage().getAllocatedBytes()).isGreaterThanOrEqualTo(200 * 100);
+        assertThat(result.getScaleUsage().getAllocatedBytes()).isGreaterThanOrEqualTo(100 * 50);
+        assertThat(result.getEncodeUsage().getAllocatedBytes()).isGreaterThanOrEqualTo(result.getBytesOut());
+        assertThat(result.getTotalUsage().getCpuNanos()).isPositive();
+        assertThat(result.getTotalUsage().getAllocatedBytes()).isEqualTo(result.getDecodeUsage().getAllocatedBytes()
+                + result.getScaleUsage().getAllocatedBytes() + result.getEncodeUsage().getAllocatedBytes()
+                + result.getWriteUsage().getAllocatedBytes());
+    }
+    
+    @Test
+    void testCoalescedJobsEachWriteTheirOutput() throws Exception {
+        File inputFile = createTestImage(800, 600);
+        JpegScaler coalescing = jpegScaler.coalescing();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<CompletableFuture<ScaleResult>> results = new ArrayList<>();
+    
+        assertThat(coalescing.coalescing()).isSameAs(coalescing);
+        assertThat(ScaleOptions.ofQuality(0.8f)).isEqualTo(ScaleOptions.builder().quality(0.8f).build());
+        try {
+            for (int i = 0; i < 4; i++) {
+                File outputFile = tempDir.resolve("coalesced-" + i + ".jpg").toFile();
+                results.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return coalescing.scaleImage(inputFile, outputFile, 200, 150, ScaleOptions.ofQuality(0.8f));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }, executor));
+            }
+            int led = 0;
+            for (CompletableFuture<ScaleResult> future : results) {
+                ScaleResult result = future.get(30, TimeUnit.SECONDS);
+                assertThat(result.getWidth()).isEqualTo(200);
+                if (result.isCoalesced()) {
+                    assertThat(result.getTotalUsage().getAllocatedBytes())
+                            .isEqualTo(result.getWriteUsage().getAllocatedBytes());
+                } else {
+                    led++;
+                }
+            }
+            assertThat(led).isPositive();
+        } finally {
+            executor.shutdown();
+        }
+    
+        // Whether or not the jobs overlapped, every waiter gets the same output
+        byte[] first = Files.readAllBytes(tempDir.resolve("coalesced-0.jpg"));
+        for (int i = 1; i < 4; i++) {
+            assertThat(Files.readAllBytes(tempDir.resolve("coalesced-" + i + ".jpg"))).isEqualTo(first);
+        }
+        assertThatThrownBy(() -> coalescing.scaleImage(tempDir.resolve("missing.jpg").toFile(),
+                tempDir.resolve("missing-output.jpg").toFile(), 200, 150, 0.8f))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Input file does not exist");
+    }
+
+    @Test
+    void testCoalescedResultReportsOnlyItsOwnWrite() throws IOException {
+        File inputFile = createTestImage(200, 100);
+        ScaleOptions options = ScaleOptions.ofQuality(0.8f);
+        JpegScaler.Encoded encoded = jpegScaler.transcode(jpegScaler.read(inputFile, options),
+                TargetSize.exact(100, 50), options, CancellationToken.NONE);
+        
+        ScaleResult leader = encoded.toResult(0, ResourceUsage.ZERO);
+        ScaleResult waiter = encoded.coalesced().toResult(1000, new ResourceUsage(2000, 3000));
+        
+        assertThat(leader.isCoalesced()).isFalse();
+        assertThat(leader.getDecodeUsage().getAllocatedBytes()).isPositive();
+        assertThat(waiter.isCoalesced()).isTrue();
+        assertThat(waiter.getDecodeNanos()).isEqualTo(leader.getDecodeNanos());
+        assertThat(waiter.getBytesOut()).isEqualTo(leader.getBytesOut());
+        assertThat(waiter.getPeakRasterBytes()).isZero();
+        assertThat(waiter.getTotalUsage().getCpuNanos()).isEqualTo(2000);
+        assertThat(waiter.getTotalUsage().getAllocatedBytes()).isEqualTo(3000);
+    }
+    
+    @Test
+    void testExifThumbnailShortcutForSmallTargets() throws IOException {
+        // A red main image whose thumbnail is blue, so the output shows which was scaled
+        File inputFile = createImageWithThumbnail("thumb.jpg", 640, 480, 160, 120);
+        ScaleOptions options = ScaleOptions.builder().exifThumbnail(true).build();
+        File outputFile = tempDir.resolve("thumb-output.jpg").toFile();
+        
+        ScaleResult result = jpegScaler.scaleImage(inputFile, outputFile, 80, 60, options);
+        
+        assertThat(result.getSourceWidth()).isEqualTo(640);
+        assertThat(new Color(ImageIO.read(outputFile).getRGB(40, 30)).getBlue()).isGreaterThan(200);
+        
+        JpegScaler.Source source = jpegScaler.read(inputFile, options);
+        JpegScaler.Encoded encoded = jpegScaler.transcode(source, TargetSize.bounded(80, 80), options,
+                CancellationToken.NONE);
+        BufferedImage transcoded = ImageIO.read(new ByteArrayInputStream(encoded.jpeg));
+        assertThat(transcoded.getWidth()).isEqualTo(80);
+        assertThat(new Color(transcoded.getRGB(40, 30)).getBlue()).isGreaterThan(200);
+    }
+    
+    @Test
+    void testExifThumbnailShortcutFallsBackToMainImage() throws IOException {
+        ScaleOptions options = ScaleOptions.builder().exifThumbnail(true).build();
+        File outputFile = tempDir.resolve("main-output.jpg").toFile();
+        
+        // Target larger than the thumbnail
+        jpegScaler.scaleImage(createImageWithThumbnail("small.jpg", 640, 480, 160, 120), outputFile, 200, 150,
+                options);
+        assertThat(new Color(ImageIO.read(outputFile).getRGB(100, 75)).getRed()).isGreaterThan(200);
+        
+        // Thumbnail padded to 4:3 for a 3:2 image
+        jpegScaler.scaleImage(createImageWithThumbnail("padded.jpg", 600, 400, 160, 120), outputFile, 60, 40,
+                options);
+        assertThat(new Color(ImageIO.read(outputFile).getRGB(30, 20)).getRed()).isGreaterThan(200);
+        
+        // Shortcut not requested
+        jpegScaler.scaleImage(createImageWithThumbnail("off.jpg", 640, 480, 160, 120), outputFile, 80, 60,
+                ScaleOptions.builder().build());
+        assertThat(new Color(ImageIO.read(outputFile).getRGB(40, 30)).getRed()).isGreaterThan(200);
+    }
+    
+    @Test
+    void testOffHeapBuffersGiveSameOutput() throws IOException {
+        File inputFile = createTestImage(400, 300);
+        File grayFile = tempDir.resolve("gray.jpg").toFile();
+        BufferedImage gray = new BufferedImage(200, 100, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g2d = gray.createGraphics();
+        g2d.drawImage(ImageIO.read(inputFile), 0, 0, 200, 100, null);
+        g2d.dispose();
+        ImageIO.write(gray, "JPEG", grayFile);
+        ScaleOptions options = ScaleOptions.builder().build();
+        
+        JpegScaler offHeap;
+        System.setProperty(OffHeapImages.THRESHOLD_PROPERTY, "1");
+        try {
+            offHeap = new JpegScaler();
+        } finally {
+            System.clearProperty(OffHeapImages.THRESHOLD_PROPERTY);
+        }
+        for (File file : new File[] {inputFile, grayFile}) {
+            File expected = tempDir.resolve("heap-" + file.getName()).toFile();
+            File actual = tempDir.resolve("off-heap-" + file.getName()).toFile();
+            jpegScaler.scale(file, expected, TargetSize.bounded(150, 150), options);
+            offHeap.scale(file, actual, TargetSize.bounded(150, 150), options);
+            
+            BufferedImage expectedImage = ImageIO.read(expected);
+            BufferedImage actualImage = ImageIO.read(actual);
+            assertThat(actualImage.getType()).isEqualTo(expectedImage.getType());
+            for (int y = 0; y < expectedImage.getHeight(); y += 7) {
+                for (int x = 0; x < expectedImage.getWidth(); x += 7) {
+                    assertThat(actualImage.getRGB(x, y)).isEqualTo(expectedImage.getRGB(x, y));
+                }
+            }
+        }
+    }
+    
+    private File createImageWithThumbnail(String name, int width, int height, int thumbnailWidth,
+                                          int thumbnailHeight) throws IOException {
+        byte[] main = encodeSolid(width, height, Color.RED);
+        byte[] thumbnail = encodeSolid(thumbnailWidth, thumbnailHeight, Color.BLUE);
+        byte[] jpeg = JpegHeaderTest.insertAfterSoi(main,
+                JpegHeaderTest.segment(0xE1, JpegHeaderTest.exifPayloadWithThumbnail(1, thumbnail, 0)));
+        File file = tempDir.resolve(name).toFile();
+        Files.write(file.toPath(), jpeg);
+        return file;
+    }
+    
+    private static byte[] encodeSolid(int width, int height, Color color) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(color);
+        g2d.fillRect(0, 0, width, height);
+        g2d.dispose();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "JPEG", output);
+        return output.toByteArray();
+    }
+    
     private File createTestImage(int width, int height) throws IOException {
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         Graphics2D g2d = image.createGraphics();
@@ -264,4 +774,4 @@ class JpegScalerTest {
         
         return testFile;
     }
-}
\ No newline at end of file
+}
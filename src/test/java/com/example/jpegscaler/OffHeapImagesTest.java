@@ -0,0 +1,64 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+import static org.assertj.core.api.Assertions.*;
+
+class OffHeapImagesTest {
+    
+    @Test
+    void testImagesFromThresholdAreDecodedOffHeap() throws IOException {
+        byte[] jpeg = encode(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB));
+        ImageIOCodec onHeap = new ImageIOCodec(ImageIOCodec.NAME, false, Long.MAX_VALUE);
+        ImageIOCodec offHeap = new ImageIOCodec(ImageIOCodec.NAME, false, 64 * 48);
+        
+        BufferedImage expected = onHeap.decode(jpeg, SourceTraits.UNKNOWN, CancellationToken.NONE);
+        BufferedImage actual = offHeap.decode(jpeg, SourceTraits.UNKNOWN, CancellationToken.NONE);
+        
+        assertThat(OffHeapImages.isOffHeap(expected)).isFalse();
+        assertThat(OffHeapImages.isOffHeap(actual)).isTrue();
+        for (int y = 0; y < 48; y++) {
+            for (int x = 0; x < 64; x++) {
+                assertThat(actual.getRGB(x, y)).isEqualTo(expected.getRGB(x, y));
+            }
+        }
+        OffHeapImages.release(actual);
+    }
+    
+    @Test
+    void testReleasedImageIsNotReadAgain() {
+        BufferedImage image = OffHeapImages.create(10, 5, ColorSpace.getInstance(ColorSpace.CS_sRGB));
+        image.getRaster().setPixel(9, 4, new int[] {1, 2, 3});
+        
+        assertThat(image.getRaster().getPixel(9, 4, (int[]) null)).containsExactly(1, 2, 3);
+        assertThat(image.getRGB(9, 4) & 0xFFFFFF).isEqualTo(0x010203);
+        
+        OffHeapImages.release(image);
+        OffHeapImages.release(image);
+        assertThatThrownBy(() -> image.getRGB(0, 0)).isInstanceOf(NullPointerException.class);
+    }
+    
+    @Test
+    void testThresholdSkipsSmallAndOversizedImages() {
+        assertThat(OffHeapImages.applies(100, 100, 3, 10_000)).isTrue();
+        assertThat(OffHeapImages.applies(100, 99, 3, 10_000)).isFalse();
+        assertThat(OffHeapImages.applies(40_000, 30_000, 3, 10_000)).isFalse();
+    }
+    
+    private static byte[] encode(BufferedImage image) throws IOException {
+        Graphics2D g2d = image.createGraphics();
+        g2d.setPaint(new GradientPaint(0, 0, Color.RED, image.getWidth(), image.getHeight(), Color.BLUE));
+        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g2d.dispose();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "JPEG", output);
+        return output.toByteArray();
+    }
+}
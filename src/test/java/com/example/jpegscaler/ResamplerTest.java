@@ -0,0 +1,185 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ResamplerTest {
+
+    @Test
+    void testUniformImageStaysUniform() {
+        BufferedImage source = new BufferedImage(97, 61, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                source.setRGB(x, y, 0x336699);
+            }
+        }
+
+        BufferedImage scaled = resample(source, 20, 13, ScalarKernel.INSTANCE);
+
+        for (int y = 0; y < scaled.getHeight(); y++) {
+            for (int x = 0; x < scaled.getWidth(); x++) {
+                assertThat(scaled.getRGB(x, y) & 0xFFFFFF).isEqualTo(0x336699);
+            }
+        }
+    }
+
+    @Test
+    void testDownscaleAveragesSourcePixels() {
+        // Alternating black and white columns average to mid gray when halved
+        BufferedImage source = new BufferedImage(64, 8, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                source.setRGB(x, y, x % 2 == 0 ? 0x000000 : 0xFFFFFF);
+            }
+        }
+
+        BufferedImage scaled = resample(source, 8, 8, ScalarKernel.INSTANCE);
+
+        for (int x = 1; x < scaled.getWidth() - 1; x++) {
+            int red = (scaled.getRGB(x, 4) >> 16) & 0xFF;
+            assertThat(red).isBetween(120, 135);
+        }
+    }
+
+    @Test
+    void testGrayImageIsResampledAsOneChannel() {
+        BufferedImage source = new BufferedImage(64, 8, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                source.getRaster().setSample(x, y, 0, x % 2 == 0 ? 0 : 255);
+            }
+        }
+        BufferedImage scaled = new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY);
+
+        assertThat(Resampler.isDirectGray(source, true)).isTrue();
+        assertThat(Resampler.isDirectGray(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), true)).isFalse();
+        new Resampler(64, 8, 8, 8, 1, ScalarKernel.INSTANCE)
+                .resample(Resampler.sampleSource(source), Resampler.sampleSink(scaled));
+
+        // Stored samples are averaged as they are, without a detour through linear gray
+        for (int x = 1; x < scaled.getWidth() - 1; x++) {
+            assertThat(scaled.getRaster().getSample(x, 4, 0)).isBetween(120, 135);
+        }
+    }
+
+    @Test
+    void testContributionsStayInsideSource() {
+        int[][] sizes = {{100, 7}, {7, 100}, {1, 50}, {50, 1}, {3000, 1001}, {13, 13}};
+        for (int[] size : sizes) {
+            Resampler.Contributions contributions = Resampler.Contributions.compute(size[0], size[1]);
+            for (int i = 0; i < size[1]; i++) {
+                assertThat(contributions.start[i]).isGreaterThanOrEqualTo(0);
+                assertThat(contributions.start[i] + contributions.taps).isLessThanOrEqualTo(size[0]);
+
+                float sum = 0f;
+                for (int k = 0; k < contributions.taps; k++) {
+                    sum += contributions.weights[i * contributions.taps + k];
+                }
+                assertThat(sum).isCloseTo(1f, within(1e-4f));
+            }
+        }
+    }
+
+    @Test
+    void testCancelledResampleStopsBeforeFirstRow() {
+        Resampler resampler = new Resampler(40, 40, 10, 10, 3, ScalarKernel.INSTANCE);
+        CancellationToken cancellation = CancellationToken.create();
+        cancellation.cancel();
+        int[] rows = new int[1];
+
+        boolean completed = resampler.resample((y, row) -> { }, (y, row) -> rows[0]++, 0, 10, cancellation);
+
+        assertThat(completed).isFalse();
+        assertThat(rows[0]).isZero();
+        assertThat(resampler.resample((y, row) -> { }, (y, row) -> rows[0]++, 0, 10, CancellationToken.NONE)).isTrue();
+        assertThat(rows[0]).isEqualTo(10);
+    }
+
+    @Test
+    void testParallelStripsMatchSinglePass() {
+        BufferedImage source = createNoiseImage(301, 977);
+        BufferedImage sequential = resample(source, 97, 311, ScalarKernel.INSTANCE);
+        BufferedImage parallel = new BufferedImage(97, 311, BufferedImage.TYPE_INT_RGB);
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            boolean completed = new Resampler(301, 977, 97, 311, 3, ScalarKernel.INSTANCE)
+                    .resample(() -> Resampler.rgbSource(source), Resampler.rgbSink(parallel), pool, CancellationToken.NONE);
+            assertThat(completed).isTrue();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat(parallel.getRGB(0, 0, 97, 311, null, 0, 97))
+                .isEqualTo(sequential.getRGB(0, 0, 97, 311, null, 0, 97));
+    }
+
+    @Test
+    void testParallelStripsReportHelperUsage() {
+        BufferedImage source = createNoiseImage(301, 977);
+        BufferedImage parallel = new BufferedImage(97, 311, BufferedImage.TYPE_INT_RGB);
+        Resampler.RowSink sink = Resampler.rgbSink(parallel);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        ResourceUsage.Accumulator helpers = new ResourceUsage.Accumulator();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            new Resampler(301, 977, 97, 311, 3, ScalarKernel.INSTANCE).resample(() -> Resampler.rgbSource(source),
+                    (y, row) -> {
+                        threads.add(Thread.currentThread());
+                        sink.writeRow(y, row);
+                    }, pool, CancellationToken.NONE, helpers);
+        } finally {
+            pool.shutdown();
+        }
+
+        // Strips the calling thread ran itself are not the helpers'
+        threads.remove(Thread.currentThread());
+        if (threads.isEmpty()) {
+            assertThat(helpers.sum().getAllocatedBytes()).isZero();
+        } else {
+            assertThat(helpers.sum().getAllocatedBytes()).isPositive();
+        }
+    }
+
+    @Test
+    void testVectorKernelMatchesScalarKernel() {
+        ResampleKernel vector = ResampleKernels.vector();
+        if (vector == null) {
+            // Only available from the multi-release jar with jdk.incubator.vector resolved
+            return;
+        }
+        BufferedImage source = createNoiseImage(211, 157);
+
+        BufferedImage scalar = resample(source, 67, 45, ScalarKernel.INSTANCE);
+        BufferedImage simd = resample(source, 67, 45, vector);
+
+        assertThat(simd.getRGB(0, 0, 67, 45, null, 0, 67))
+                .isEqualTo(scalar.getRGB(0, 0, 67, 45, null, 0, 67));
+    }
+
+    private BufferedImage resample(BufferedImage source, int width, int height, ResampleKernel kernel) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        new Resampler(source.getWidth(), source.getHeight(), width, height, 3, kernel)
+                .resample(Resampler.rgbSource(source), Resampler.rgbSink(target));
+        return target;
+    }
+
+    private BufferedImage createNoiseImage(int width, int height) {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+}
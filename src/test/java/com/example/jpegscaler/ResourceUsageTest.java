@@ -0,0 +1,61 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ResourceUsageTest {
+
+    @Test
+    void testMeterCountsAllocationOfCurrentThread() {
+        ResourceUsage.Meter meter = ResourceUsage.meter();
+        byte[] block = new byte[4 << 20];
+        block[block.length - 1] = 1;
+
+        ResourceUsage usage = meter.stop();
+
+        assertThat(usage.getAllocatedBytes()).isGreaterThanOrEqualTo(block.length);
+        assertThat(usage.getCpuNanos()).isNotNegative();
+    }
+
+    @Test
+    void testAccumulatorSumsOtherThreads() throws Exception {
+        ResourceUsage.Accumulator helpers = new ResourceUsage.Accumulator();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ResourceUsage.Meter meter = ResourceUsage.meter();
+
+        try {
+            Future<?> first = executor.submit(() -> allocate(helpers, 1 << 20));
+            Future<?> second = executor.submit(() -> allocate(helpers, 1 << 20));
+            first.get();
+            second.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        // The blocks were allocated on the pool, not by the waiting thread
+        assertThat(helpers.sum().getAllocatedBytes()).isGreaterThanOrEqualTo(2 << 20);
+        assertThat(meter.stop().getAllocatedBytes()).isLessThan(1 << 20);
+    }
+
+    @Test
+    void testPlusAddsBothMeasures() {
+        ResourceUsage sum = new ResourceUsage(1_500_000, 100).plus(new ResourceUsage(500_000, 20));
+
+        assertThat(sum.getCpuNanos()).isEqualTo(2_000_000);
+        assertThat(sum.getAllocatedBytes()).isEqualTo(120);
+        assertThat(sum).hasToString("2.0 ms CPU, 120 bytes allocated");
+        assertThat(ResourceUsage.ZERO.plus(sum).getAllocatedBytes()).isEqualTo(120);
+    }
+
+    private static void allocate(ResourceUsage.Accumulator helpers, int bytes) {
+        ResourceUsage.Meter meter = ResourceUsage.meter();
+        byte[] block = new byte[bytes];
+        block[bytes - 1] = 1;
+        helpers.add(meter.stop());
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.imageio.ImageIO;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ScaleProcessorTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private final JpegScaler scaler = new JpegScaler();
+    
+    @Test
+    void testScalesPublishedRequestsInOrder() throws Exception {
+        ScaleProcessor processor = ScaleProcessor.builder(scaler).parallelism(3).build();
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        
+        try (SubmissionPublisher<ScaleRequest> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < 10; i++) {
+                publisher.submit(request(100 + i * 20, i));
+            }
+        }
+        
+        assertThat(collector.done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(collector.tags()).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        ScaleOutcome last = collector.outcomes.get(9);
+        assertThat(last.getResult().getSourceWidth()).isEqualTo(280);
+        assertThat(last.getResult().getWidth()).isEqualTo(50);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(toArray(last.getJpeg())));
+        assertThat(decoded.getWidth()).isEqualTo(50);
+    }
+    
+    @Test
+    void testFailedRequestDoesNotEndStream() throws Exception {
+        ScaleProcessor processor = ScaleProcessor.builder(scaler).parallelism(2).build();
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        File output = tempDir.resolve("out/written.jpg").toFile();
+        
+        try (SubmissionPublisher<ScaleRequest> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            publisher.submit(request(100, "first"));
+            publisher.submit(ScaleRequest.builder(ByteBuffer.wrap(new byte[] {1, 2, 3}), TargetSize.exact(10, 10))
+                    .tag("broken")
+                    .build());
+            publisher.submit(ScaleRequest.builder(tempDir.resolve("missing.jpg").toFile(), TargetSize.exact(10, 10))
+                    .tag("missing")
+                    .build());
+            publisher.submit(ScaleRequest.builder(ByteBuffer.wrap(jpeg(80, 40)), TargetSize.bounded(40, 40))
+                    .output(output)
+                    .tag("written")
+                    .build());
+        }
+        
+        assertThat(collector.done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(collector.error).isNull();
+        assertThat(collector.outcomes).extracting(ScaleOutcome::isSuccess).containsExactly(true, false, false, true);
+        assertThat(collector.outcomes.get(1).getError()).hasMessageContaining("Could not read image");
+        assertThat(collector.outcomes.get(2).getError()).hasMessageContaining("does not exist");
+        assertThat(collector.outcomes.get(3).getJpeg()).isNull();
+        assertThat(scaler.getImageDimensions(output).width).isEqualTo(40);
+    }
+    
+    @Test
+    void testAsCompletedDeliversInCompletionOrder() throws IOException {
+        List<Runnable> tasks = new ArrayList<>();
+        List<Integer> ordered = run(ScaleProcessor.builder(scaler).executor(tasks::add).parallelism(4).build(), tasks);
+        tasks.clear();
+        List<Integer> asCompleted = run(ScaleProcessor.builder(scaler).executor(tasks::add).parallelism(4)
+                .ordered(false).build(), tasks);
+        
+        assertThat(ordered).containsExactly(0, 1, 2, 3);
+        assertThat(asCompleted).containsExactly(3, 2, 1, 0);
+    }
+    
+    @Test
+    void testErrorInTaskFailsRequestAndStreamStillEnds() throws IOException {
+        JpegScaler failing = new JpegScaler() {
+            @Override
+            Encoded transcode(Source source, TargetSize target, ScaleOptions options, CancellationToken cancellation) {
+                throw new OutOfMemoryError("Java heap space");
+            }
+        };
+        List<Runnable> tasks = new ArrayList<>();
+        ScaleProcessor processor = ScaleProcessor.builder(failing).executor(tasks::add).build();
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        processor.onNext(request(60, "huge"));
+        processor.onComplete();
+        
+        assertThatThrownBy(() -> tasks.get(0).run()).isInstanceOf(OutOfMemoryError.class);
+        assertThat(collector.done.getCount()).isZero();
+        assertThat(collector.error).isNull();
+        assertThat(collector.outcomes).hasSize(1);
+        assertThat(collector.outcomes.get(0).getError()).isInstanceOf(OutOfMemoryError.class);
+    }
+    
+    @Test
+    void testUpstreamDemandIsBoundedByParallelismAndSubscriberDemand() throws IOException {
+        List<Runnable> tasks = new ArrayList<>();
+        ScaleProcessor processor = ScaleProcessor.builder(scaler).executor(tasks::add).parallelism(2).build();
+        AtomicLong requested = new AtomicLong();
+        Collector collector = new Collector(0);
+        processor.subscribe(collector);
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requested.addAndGet(n);
+            }
+            
+            @Override
+            public void cancel() {
+            }
+        });
+        assertThat(requested.get()).isEqualTo(2);
+        
+        processor.onNext(request(60, 0));
+        processor.onNext(request(60, 1));
+        tasks.forEach(Runnable::run);
+        // Both outcomes wait for the subscriber, so nothing more is requested
+        assertThat(requested.get()).isEqualTo(2);
+        assertThat(collector.outcomes).isEmpty();
+        
+        collector.subscription.request(1);
+        assertThat(collector.tags()).containsExactly(0);
+        assertThat(requested.get()).isEqualTo(3);
+        
+        processor.onComplete();
+        collector.subscription.request(5);
+        assertThat(collector.tags()).containsExactly(0, 1);
+        assertThat(collector.done.getCount()).isZero();
+    }
+    
+    @Test
+    void testSecondSubscriberAndInvalidDemandAreRejected() {
+        ScaleProcessor processor = ScaleProcessor.builder(scaler).build();
+        Collector first = new Collector(0);
+        Collector second = new Collector(0);
+        processor.subscribe(first);
+        processor.subscribe(second);
+        
+        assertThat(second.error).isInstanceOf(IllegalStateException.class);
+        first.subscription.request(0);
+        assertThat(first.error).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ScaleProcessor.builder(scaler).parallelism(0).build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    private List<Integer> run(ScaleProcessor processor, List<Runnable> tasks) throws IOException {
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        for (int i = 0; i < 4; i++) {
+            processor.onNext(request(60, i));
+        }
+        processor.onComplete();
+        List<Runnable> reversed = new ArrayList<>(tasks);
+        Collections.reverse(reversed);
+        reversed.forEach(Runnable::run);
+        assertThat(collector.done.getCount()).isZero();
+        return collector.tags();
+    }
+    
+    private static ScaleRequest request(int width, Object tag) throws IOException {
+        return ScaleRequest.builder(ByteBuffer.wrap(jpeg(width, width / 2)), TargetSize.exact(50, 25))
+                .tag(tag)
+                .build();
+    }
+    
+    private static byte[] jpeg(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "JPEG", out);
+        return out.toByteArray();
+    }
+    
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+    
+    private static final class Collector implements Flow.Subscriber<ScaleOutcome> {
+        final List<ScaleOutcome> outcomes = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long initialDemand;
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        
+        Collector(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialDemand > 0) {
+                subscription.request(initialDemand);
+            }
+        }
+        
+        @Override
+        public void onNext(ScaleOutcome item) {
+            outcomes.add(item);
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+        
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+        
+        @SuppressWarnings("unchecked")
+        <T> List<T> tags() {
+            return outcomes.stream().map(o -> (T) o.getRequest().getTag()).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ScaleReportTest {
+    
+    @Test
+    void testJsonRecordEscapesPaths() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScaleReport report = new ScaleReport(ScaleReport.Format.JSON, new PrintStream(out, true));
+        
+        report.record("dir/\"quoted\".jpg", "out\\a.jpg", result(2_000_000));
+        
+        assertThat(out.toString().trim()).isEqualTo("{\"input\":\"dir/\\\"quoted\\\".jpg\",\"output\":\"out\\\\a.jpg\","
+                + "\"sourceWidth\":400,\"sourceHeight\":300,\"width\":200,\"height\":150,\"bytesIn\":5000,"
+                + "\"bytesOut\":1000,\"decodeMs\":2.000,\"scaleMs\":1.000,\"encodeMs\":1.000,\"writeMs\":0.500,"
+                + "\"totalMs\":4.500,\"decodeCpuMs\":1.500,\"scaleCpuMs\":3.000,\"encodeCpuMs\":1.000,"
+                + "\"writeCpuMs\":0.100,\"cpuMs\":5.600,\"decodeAllocatedBytes\":600000,\"scaleAllocatedBytes\":300000,"
+                + "\"encodeAllocatedBytes\":50000,\"writeAllocatedBytes\":1000,\"allocatedBytes\":951000,"
+                + "\"peakRasterBytes\":480000}");
+    }
+    
+    @Test
+    void testCsvHasHeaderAndQuotesFields() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScaleReport report = new ScaleReport(ScaleReport.Format.CSV, new PrintStream(out, true));
+        
+        report.record("a,b.jpg", "out.jpg", result(2_000_000));
+        
+        String[] lines = out.toString().split("\\R");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).startsWith("input,output,source_width").endsWith(",allocated_bytes,peak_raster_bytes");
+        assertThat(lines[1]).isEqualTo("\"a,b.jpg\",out.jpg,400,300,200,150,5000,1000,2.000,1.000,1.000,0.500,4.500,"
+                + "1.500,3.000,1.000,0.100,5.600,600000,300000,50000,1000,951000,480000");
+    }
+    
+    @Test
+    void testSummaryReportsLatencyPercentiles() {
+        ScaleReport report = new ScaleReport(ScaleReport.Format.JSON, new PrintStream(new ByteArrayOutputStream()));
+        for (int i = 1; i <= 100; i++) {
+            report.record("in.jpg", "out.jpg", result(i * 1_000_000L));
+        }
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        
+        report.printSummary(new PrintStream(summary, true));
+        
+        assertThat(report.getCount()).isEqualTo(100);
+        assertThat(report.getLatencyPercentile(50)).isEqualTo(52_500_000L);
+        assertThat(report.getLatencyPercentile(99)).isEqualTo(101_500_000L);
+        assertThat(summary.toString())
+                .contains("Images: 100 in")
+                .contains("images/s")
+                .contains("MP/s")
+                .contains("p50 52.5 ms, p95 97.5 ms, p99 101.5 ms")
+                .contains("Cost: 0.56 s CPU, 95.1 MB allocated, most per source pixel 7.9 bytes (in.jpg)");
+    }
+    
+    @Test
+    void testParseFormat() {
+        assertThat(ScaleReport.Format.parse("Json")).isEqualTo(ScaleReport.Format.JSON);
+        assertThatThrownBy(() -> ScaleReport.Format.parse("xml"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("json or csv");
+    }
+    
+    private static ScaleResult result(long decodeNanos) {
+        return new ScaleResult(400, 300, 200, 150, 5000, 1000, decodeNanos, 1_000_000, 1_000_000, 500_000,
+                new ResourceUsage(1_500_000, 600_000), new ResourceUsage(3_000_000, 300_000),
+                new ResourceUsage(1_000_000, 50_000), new ResourceUsage(100_000, 1000),
+                400 * 300 * 3 + 200 * 150 * 4);
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.assertj.core.api.Assumptions.assumeThat;
+
+class ScalerDaemonTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private DaemonTransport transport;
+    private Path socket;
+    private ScalerDaemon daemon;
+    private CompletableFuture<Void> serving;
+    
+    @BeforeEach
+    void setUp() {
+        transport = ScalerDaemon.transport();
+        assumeThat(transport).as("Unix domain sockets need Java 16+").isNotNull();
+        socket = tempDir.resolve("daemon.sock");
+    }
+    
+    @AfterEach
+    void tearDown() throws Exception {
+        if (daemon != null) {
+            daemon.close();
+            serving.get(10, TimeUnit.SECONDS);
+        }
+    }
+    
+    @Test
+    void testDaemonRunsInvocationInClientWorkingDirectory() throws Exception {
+        startDaemon();
+        ImageIO.write(new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), "JPEG", tempDir.resolve("input.jpg").toFile());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        
+        Integer exitCode;
+        try (SocketChannel channel = transport.connect(socket)) {
+            exitCode = ScalerDaemon.call(channel, tempDir.toFile(), ScalerDaemon.scalingProperties(),
+                    new String[] {"-i", "input.jpg", "-o", "scaled/output.jpg", "-w", "40"},
+                    new PrintStream(out, true), new PrintStream(err, true), DaemonClient.REPLY_TIMEOUT_MILLIS);
+        }
+        
+        assertThat(exitCode).isZero();
+        assertThat(out.toString()).contains("Image scaling completed successfully!");
+        assertThat(err.toString()).isEmpty();
+        assertThat(new JpegScaler().getImageDimensions(tempDir.resolve("scaled/output.jpg").toFile()).width)
+                .isEqualTo(40);
+    }
+    
+    @Test
+    void testDaemonAppliesClientPropertiesPerInvocation() throws Exception {
+        startDaemon();
+        ImageIO.write(new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), "JPEG", tempDir.resolve("input.jpg").toFile());
+        Map<String, String> properties = new TreeMap<>(ScalerDaemon.scalingProperties());
+        properties.put(OffHeapImages.THRESHOLD_PROPERTY, "1");
+        properties.put(JpegScaler.PARALLEL_THRESHOLD_PROPERTY, "1");
+        String[] args = {"-i", "input.jpg", "-o", "output.jpg", "-w", "40", "--verbose"};
+        
+        String first = invoke(properties, args);
+        String second = invoke(properties, args);
+        
+        // Each invocation counts only its own decode
+        assertThat(first).contains("Codec imageio decode/baseline: 1 in").contains("Image scaling completed successfully!");
+        assertThat(second).contains("Codec imageio decode/baseline: 1 in").doesNotContain("decode/baseline: 2 in");
+        
+        properties.put(ResampleKernels.VECTOR_PROPERTY, "not-" + System.getProperty(ResampleKernels.VECTOR_PROPERTY));
+        try (SocketChannel channel = transport.connect(socket)) {
+            assertThat(ScalerDaemon.call(channel, tempDir.toFile(), properties, args,
+                    new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream()),
+                    DaemonClient.REPLY_TIMEOUT_MILLIS))
+                    .as("a JVM-wide property that differs from the daemon's")
+                    .isNull();
+        }
+    }
+    
+    @Test
+    void testClientReportsErrorsFromDaemon() throws Exception {
+        startDaemon();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        
+        Integer exitCode = DaemonClient.call(transport, socket,
+                new String[] {"-i", tempDir.resolve("missing.jpg").toString(), "-o", "out.jpg", "-w", "40", "-h", "40"},
+                new PrintStream(out, true), new PrintStream(err, true), false);
+        Integer nested = DaemonClient.call(transport, socket, new String[] {"--daemon"},
+                new PrintStream(out, true), new PrintStream(err, true), false);
+        
+        assertThat(exitCode).isEqualTo(1);
+        assertThat(nested).isEqualTo(1);
+        assertThat(err.toString())
+                .contains("Input file does not exist")
+                .contains("The daemon is already running");
+    }
+    
+    @Test
+    void testClientWithoutDaemonFallsBack() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        assertThat(DaemonClient.call(transport, socket, new String[] {"--version"},
+                new PrintStream(out, true), new PrintStream(out, true), false)).isNull();
+        assertThat(DaemonClient.call(null, socket, new String[] {"--version"},
+                new PrintStream(out, true), new PrintStream(out, true), false)).isNull();
+        assertThat(out.toString()).isEmpty();
+    }
+    
+    @Test
+    void testDaemonReplacesStaleSocketButNotLiveOne() throws Exception {
+        Files.createFile(socket);
+        startDaemon();
+        
+        ScalerDaemon second = new ScalerDaemon(transport, socket, new JpegScaler(), 60);
+        assertThatThrownBy(second::serve)
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("already listening");
+        
+        daemon.close();
+        serving.get(10, TimeUnit.SECONDS);
+        daemon = null;
+        assertThat(socket).doesNotExist();
+    }
+    
+    @Test
+    void testDaemonKeepsSocketOfItsReplacement() throws Exception {
+        startDaemon();
+        // A replacement daemon bound the path while this one was shutting down
+        Files.delete(socket);
+        Files.createFile(socket);
+        
+        daemon.close();
+        serving.get(10, TimeUnit.SECONDS);
+        daemon = null;
+        
+        assertThat(socket).exists();
+    }
+    
+    @Test
+    void testClientGivesUpOnSilentDaemon() throws Exception {
+        try (ServerSocketChannel hung = transport.bind(socket)) {
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return hung.accept();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            try (SocketChannel channel = transport.connect(socket)) {
+                assertThatThrownBy(() -> ScalerDaemon.call(channel, tempDir.toFile(), ScalerDaemon.scalingProperties(),
+                        new String[] {"--version"}, System.out, System.err, 200))
+                        .isInstanceOf(IOException.class);
+            } finally {
+                accepted.get(10, TimeUnit.SECONDS).close();
+            }
+        }
+    }
+    
+    @Test
+    void testSocketDirectoryMustBePrivate() throws Exception {
+        Path shared = Files.createDirectory(tempDir.resolve("shared"));
+        assumeThat(shared.getFileSystem().supportedFileAttributeViews()).contains("posix");
+        Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+        Path sharedSocket = shared.resolve("daemon.sock");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        assertThatThrownBy(() -> new ScalerDaemon(transport, sharedSocket, new JpegScaler(), 60).serve())
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("accessible to other users");
+        assertThat(DaemonClient.call(transport, sharedSocket, new String[] {"--version"},
+                new PrintStream(out, true), new PrintStream(out, true), false)).isNull();
+        assertThat(sharedSocket).doesNotExist();
+        
+        Path created = tempDir.resolve("runtime").resolve("jpeg-scaler").resolve("daemon.sock");
+        ScalerDaemon.checkSocketDirectory(created, true);
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(created.getParent())))
+                .isEqualTo("rwx------");
+    }
+    
+    private String invoke(Map<String, String> properties, String[] args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SocketChannel channel = transport.connect(socket)) {
+            assertThat(ScalerDaemon.call(channel, tempDir.toFile(), properties, args,
+                    new PrintStream(out, true), new PrintStream(out, true), DaemonClient.REPLY_TIMEOUT_MILLIS)).isZero();
+        }
+        return out.toString();
+    }
+    
+    private void startDaemon() throws InterruptedException {
+        daemon = new ScalerDaemon(transport, socket, new JpegScaler(), 60);
+        serving = CompletableFuture.runAsync(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        for (int i = 0; i < 200 && !isListening(); i++) {
+            Thread.sleep(10);
+        }
+    }
+    
+    private boolean isListening() {
+        try (SocketChannel channel = transport.connect(socket)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.jpegscaler;
+
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import jdk.jfr.SettingDescriptor;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ScalingEventsTest {
+
+    private static final String[] PHASES = {"Decode", "Resample", "Encode", "Write"};
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testJobEmitsOneEventPerPhase() throws IOException {
+        File input = tempDir.resolve("input.jpg").toFile();
+        ImageIO.write(new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB), "JPEG", input);
+        File output = tempDir.resolve("output.jpg").toFile();
+
+        List<RecordedEvent> events = record(() -> new JpegScaler().scaleImage(input, output, 160, 120, 0.7f));
+
+        Map<String, RecordedEvent> phases = events.stream()
+                .collect(Collectors.toMap(event -> event.getEventType().getLabel(), Function.identity()));
+        assertThat(phases).containsOnlyKeys(PHASES);
+        long jobId = phases.get("Decode").getLong("jobId");
+        for (RecordedEvent event : events) {
+            assertThat(event.getLong("jobId")).isEqualTo(jobId);
+            assertThat(event.getString("input")).isEqualTo(input.getPath());
+            assertThat(event.getInt("sourceWidth")).isEqualTo(320);
+            assertThat(event.getInt("sourceHeight")).isEqualTo(240);
+            assertThat(event.getInt("targetWidth")).isEqualTo(160);
+            assertThat(event.getInt("targetHeight")).isEqualTo(120);
+            assertThat(event.getFloat("quality")).isEqualTo(0.7f);
+        }
+        assertThat(phases.get("Decode").getLong("bytes")).isEqualTo(input.length());
+        assertThat(phases.get("Encode").getLong("bytes")).isEqualTo(output.length());
+        assertThat(phases.get("Write").getLong("bytes")).isEqualTo(output.length());
+    }
+
+    @Test
+    void testJobsHaveDistinctIds() throws IOException {
+        File input = tempDir.resolve("input.jpg").toFile();
+        ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "JPEG", input);
+        JpegScaler scaler = new JpegScaler();
+        ScaleOptions options = ScaleOptions.builder().build();
+
+        List<RecordedEvent> events = record(() -> {
+            for (int i = 0; i < 2; i++) {
+                JpegScaler.Source source = scaler.read(input, options);
+                JpegScaler.Encoded encoded = scaler.transcode(source, TargetSize.exact(32, 24), options,
+                        CancellationToken.NONE);
+                scaler.write(encoded, tempDir.resolve("output-" + i + ".jpg").toFile());
+            }
+        });
+
+        assertThat(events).hasSize(8);
+        assertThat(events.stream().map(event -> event.getLong("jobId")).distinct()).hasSize(2);
+    }
+
+    @Test
+    void testEventsHaveThresholdByDefault() {
+        for (Class<?> type : new Class<?>[] {ScalingEvents.Decode.class, ScalingEvents.Resample.class,
+                ScalingEvents.Encode.class, ScalingEvents.Write.class}) {
+            EventType eventType = EventType.getEventType(type.asSubclass(jdk.jfr.Event.class));
+            assertThat(eventType.getName()).startsWith("com.example.jpegscaler.");
+            assertThat(eventType.getSettingDescriptors()).filteredOn(setting -> setting.getName().equals("threshold"))
+                    .extracting(SettingDescriptor::getDefaultValue).containsExactly("20 ms");
+        }
+    }
+
+    private List<RecordedEvent> record(Job job) throws IOException {
+        Path file = tempDir.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            for (String phase : PHASES) {
+                recording.enable("com.example.jpegscaler." + phase).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            job.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().startsWith("com.example.jpegscaler."))
+                .collect(Collectors.toList());
+    }
+
+    private interface Job {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ShardCoordinatorTest {
+    
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testStalledWorkerDoesNotReleaseReclaimedLease() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        try (ShardCoordinator stalled = ShardCoordinator.open(tempDir, "stalled", HOUR, System.err);
+             ShardCoordinator rescuer = ShardCoordinator.open(tempDir, "rescuer", HOUR, new PrintStream(log, true))) {
+            assertThat(stalled.claim("a.jpg")).isTrue();
+            backdate(lease("a.jpg"));
+            assertThat(rescuer.claim("a.jpg")).isTrue();
+    
+            stalled.close();
+    
+            assertThat(lease("a.jpg")).exists();
+            assertThat(new String(Files.readAllBytes(lease("a.jpg")))).startsWith("rescuer\n");
+            assertThat(log.toString()).contains("Reclaimed a.jpg from worker stalled");
+            rescuer.finish("a.jpg", true);
+            assertThat(lease("a.jpg")).doesNotExist();
+        }
+        assertThat(tempDir.resolve("leases").toFile().list()).isEmpty();
+    }
+    
+    @Test
+    void testLiveLeaseIsNotReclaimed() throws IOException {
+        try (ShardCoordinator owner = ShardCoordinator.open(tempDir, "owner", HOUR, System.err);
+             ShardCoordinator other = ShardCoordinator.open(tempDir, "other", HOUR, System.err)) {
+            assertThat(owner.claim("a.jpg")).isTrue();
+    
+            assertThat(other.claim("a.jpg")).isFalse();
+    
+            assertThat(new String(Files.readAllBytes(lease("a.jpg")))).startsWith("owner\n");
+            assertThat(tempDir.resolve("leases").toFile().list()).hasSize(1);
+        }
+    }
+    
+    @Test
+    void testInputThatFailedBeforeWorkerJoinedIsRetried() throws Exception {
+        try (ShardCoordinator first = ShardCoordinator.open(tempDir, "first", HOUR, System.err)) {
+            assertThat(first.claim("a.jpg")).isTrue();
+            first.finish("a.jpg", false);
+            assertThat(first.claim("a.jpg")).isFalse();
+        }
+        Thread.sleep(20);
+        
+        try (ShardCoordinator retry = ShardCoordinator.open(tempDir, "retry", HOUR, System.err)) {
+            assertThat(retry.claim("a.jpg")).isTrue();
+            retry.finish("a.jpg", true);
+            assertThat(retry.claim("a.jpg")).isFalse();
+        }
+        
+        assertThat(tempDir.resolve("failed").toFile().list()).isEmpty();
+        assertThat(tempDir.resolve("done").toFile().list()).hasSize(1);
+    }
+    
+    @Test
+    void testMergedResultWaitsForRecentlyDeadWorker() throws IOException {
+        long lease = 500;
+        // Closing without publishing stops the heartbeat but leaves the worker file, as a crash would
+        ShardCoordinator.open(tempDir, "dead", lease, System.err).close();
+        try (ShardCoordinator finished = ShardCoordinator.open(tempDir, "finished", lease, System.err)) {
+            finished.publish(new BatchResult(3, 1, 0, TimeUnit.SECONDS.toNanos(2)));
+        }
+        
+        BatchResult merged = ShardCoordinator.mergedResult(tempDir, lease);
+        
+        assertThat(merged).isNotNull();
+        assertThat(merged.getProcessed()).isEqualTo(3);
+        try (ShardCoordinator running = ShardCoordinator.open(tempDir, "running", 150, System.err)) {
+            assertThat(ShardCoordinator.mergedResult(tempDir, lease)).isNull();
+        }
+    }
+    
+    @Test
+    void testMergedResultCountsOnlyCurrentRun() throws IOException {
+        try (ShardCoordinator first = ShardCoordinator.open(tempDir, "first", HOUR, System.err)) {
+            first.publish(new BatchResult(1, 0, 0, TimeUnit.SECONDS.toNanos(1)));
+        }
+        assertThat(ShardCoordinator.mergedResult(tempDir, HOUR).getProcessed()).isEqualTo(1);
+        assertThat(ShardCoordinator.mergedResult(tempDir, HOUR)).isNull();
+        
+        try (ShardCoordinator second = ShardCoordinator.open(tempDir, "second", HOUR, System.err)) {
+            second.publish(new BatchResult(2, 0, 0, TimeUnit.SECONDS.toNanos(1)));
+        }
+        BatchResult merged = ShardCoordinator.mergedResult(tempDir, HOUR);
+        
+        assertThat(merged).isNotNull();
+        assertThat(merged.getProcessed()).isEqualTo(2);
+        assertThat(ShardCoordinator.mergedResult(tempDir, HOUR)).isNull();
+    }
+    
+    private Path lease(String relative) {
+        return tempDir.resolve("leases").resolve(ShardCoordinator.key(relative));
+    }
+    
+    private static void backdate(Path file) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 2 * HOUR));
+    }
+}
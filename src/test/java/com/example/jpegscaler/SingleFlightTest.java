@@ -0,0 +1,183 @@
+package com.example.jpegscaler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Thread> waiters = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testConcurrentCallsRunOnce() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        SingleFlight.Call<String> call = () -> {
+            runs.incrementAndGet();
+            await(release);
+            return "scaled";
+        };
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(submit(() -> flight.execute("photo.jpg", call, CancellationToken.NONE)));
+        }
+        awaitWaiters(4);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo("scaled");
+        }
+        assertThat(runs).hasValue(1);
+        assertThat(flight.inFlight()).isZero();
+    }
+
+    @Test
+    void testCompletedCallsAreNotCached() throws IOException {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        AtomicInteger runs = new AtomicInteger();
+
+        flight.execute("photo.jpg", runs::incrementAndGet, CancellationToken.NONE);
+        int second = flight.execute("photo.jpg", runs::incrementAndGet, CancellationToken.NONE);
+
+        assertThat(second).isEqualTo(2);
+        assertThat(flight.inFlight()).isZero();
+    }
+
+    @Test
+    void testFailureReachesEveryWaiter() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        SingleFlight.Call<String> call = () -> {
+            await(release);
+            throw new IOException("Could not read image from file: photo.jpg");
+        };
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(submit(() -> flight.execute("photo.jpg", call, CancellationToken.NONE)));
+        }
+        awaitWaiters(2);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertThatThrownBy(() -> result.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .cause()
+                    .isInstanceOf(IOException.class)
+                    .hasMessage("Could not read image from file: photo.jpg");
+        }
+        assertThat(flight.inFlight()).isZero();
+    }
+
+    @Test
+    void testCancelledLeaderHandsOverToWaiter() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        SingleFlight.Call<String> call = () -> {
+            if (runs.incrementAndGet() == 1) {
+                await(release);
+                throw new InterruptedIOException("Scaling was cancelled");
+            }
+            return "scaled";
+        };
+
+        Future<String> leader = submit(() -> flight.execute("photo.jpg", call, CancellationToken.NONE));
+        awaitLeader(flight);
+        Future<String> waiter = submit(() -> flight.execute("photo.jpg", call, CancellationToken.NONE));
+        awaitWaiters(1);
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(InterruptedIOException.class);
+        assertThat(waiter.get(10, TimeUnit.SECONDS)).isEqualTo("scaled");
+        assertThat(runs).hasValue(2);
+    }
+
+    @Test
+    void testWaiterGivesUpOnItsOwnDeadline() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        SingleFlight.Call<String> call = () -> {
+            await(release);
+            return "scaled";
+        };
+
+        Future<String> leader = submit(() -> flight.execute("photo.jpg", call, CancellationToken.NONE));
+        awaitLeader(flight);
+
+        assertThatThrownBy(() -> flight.execute("photo.jpg", call,
+                CancellationToken.withTimeout(100, TimeUnit.MILLISECONDS)))
+                .isInstanceOf(InterruptedIOException.class);
+        assertThat(leader.isDone()).isFalse();
+
+        release.countDown();
+        assertThat(leader.get(10, TimeUnit.SECONDS)).isEqualTo("scaled");
+    }
+
+    private Future<String> submit(Callable<String> task) {
+        return executor.submit(() -> {
+            synchronized (waiters) {
+                waiters.add(Thread.currentThread());
+            }
+            return task.call();
+        });
+    }
+
+    private static void awaitLeader(SingleFlight<?, ?> flight) throws InterruptedException {
+        while (flight.inFlight() == 0) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Waits until the given number of callers poll for a leader's result.
+     */
+    private void awaitWaiters(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            int waiting = 0;
+            synchronized (waiters) {
+                for (Thread thread : waiters) {
+                    if (thread.getState() == Thread.State.TIMED_WAITING) {
+                        waiting++;
+                    }
+                }
+            }
+            if (waiting >= count) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+        fail("Callers did not wait for the leader");
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedIOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+}